@@ -0,0 +1,228 @@
+package org.spoofax.interpreter.library.index;
+
+import java.util.Collections;
+import java.util.Set;
+
+import org.spoofax.interpreter.terms.IStrategoTerm;
+import org.spoofax.interpreter.terms.IStrategoTuple;
+import org.spoofax.interpreter.terms.ITermFactory;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
+
+/**
+ * An index that can be used by multiple threads at the same time. Reads do not block, and additions and removals only
+ * block those of keys in the same lock stripe, or of entries with the same URI.
+ *
+ * Collection state is kept per thread, such that different threads can collect different sources at the same time. A
+ * source must be collected by one thread at a time, and {@link #recover()} and {@link #reset()} only reset the
+ * collection of the calling thread. Sources can also be collected in parallel using collection sessions. Committing a
+ * session replaces the entries of its source without ever removing all of them, but is not atomic: readers may see
+ * both old and new entries of the source while it is committed.
+ */
+public class ConcurrentIndex implements IIndex {
+    private final ConcurrentSetMultimap<IStrategoTerm, IndexEntry> entries =
+        new ConcurrentSetMultimap<IStrategoTerm, IndexEntry>();
+    private final ConcurrentSetMultimap<IStrategoTerm, IndexEntry> childs =
+        new ConcurrentSetMultimap<IStrategoTerm, IndexEntry>();
+    private final ConcurrentSetMultimap<IStrategoTerm, IndexEntry> entriesPerSource =
+        new ConcurrentSetMultimap<IStrategoTerm, IndexEntry>();
+    /**
+     * The entries by URI path, or null until descendants are first requested, since maintaining the trie doubles the
+     * cost of adding entries. Entries are added to the map of entries before they are added to the trie, and removed
+     * from it before they are removed from the trie, such that the trie can be built while the index is modified.
+     */
+    private volatile ConcurrentURITrie descendants;
+    private volatile boolean descendantsBuilt;
+    private final Object descendantsLock = new Object();
+
+    private final IndexEntryFactory entryFactory;
+    private final IndexParentKeyFactory parentKeyFactory;
+    private final ThreadLocal<IndexCollector> collector;
+
+
+    public ConcurrentIndex(final ITermFactory termFactory) {
+        this.entryFactory = new IndexEntryFactory(termFactory);
+        this.parentKeyFactory = new IndexParentKeyFactory(termFactory);
+        this.collector = new ThreadLocal<IndexCollector>() {
+            @Override protected IndexCollector initialValue() {
+                return new IndexCollector(termFactory, entryFactory);
+            }
+        };
+    }
+
+
+    @Override public IndexEntryFactory entryFactory() {
+        return entryFactory;
+    }
+
+    @Override public void startCollection(IStrategoTerm source) {
+        collector.get().start(source, getInSource(source));
+        clearSource(source);
+    }
+
+    @Override public IndexEntry collect(IStrategoTerm key, IStrategoTerm value) {
+        return collector.get().add(key, value);
+    }
+
+    @Override public IndexEntry collect(IStrategoTerm key) {
+        return collector.get().add(key);
+    }
+
+    @Override public IStrategoTuple stopCollection(IStrategoTerm source) {
+        final IndexCollector currentCollector = collector.get();
+        addAll(source, currentCollector.getAddedEntries());
+        return currentCollector.stop();
+    }
+
+    @Override public IndexCollectionSession startCollectionSession(IStrategoTerm source) {
+        return new IndexCollectionSession(this, source);
+    }
+
+    @Override public void add(IndexEntry entry) {
+        add(entry.source, entry);
+    }
+
+    @Override public void addAll(IStrategoTerm source, Iterable<IndexEntry> entriesToAdd) {
+        for(final IndexEntry entry : entriesToAdd) {
+            add(source, entry);
+        }
+    }
+
+    private void add(IStrategoTerm source, IndexEntry entry) {
+        entries.put(entry.key, entry);
+
+        final IStrategoTerm parentKey = parentKeyFactory.getParentKey(entry);
+        if(parentKey != null) {
+            childs.put(parentKey, entry);
+        }
+
+        final ConcurrentURITrie descendants = this.descendants;
+        if(descendants != null) {
+            final URIPath uriPath = parentKeyFactory.getURIPath(entry);
+            if(uriPath != null) {
+                descendants.add(uriPath, entry);
+            }
+        }
+
+        entriesPerSource.put(source, entry);
+    }
+
+    /**
+     * Replaces the entries of given source, adding the new entries before removing the stale ones, such that readers
+     * never see the source without entries while it is replaced. Readers may see both old and new entries until the
+     * replacement is done. Entries that are in both are not removed.
+     */
+    @Override public void replaceSource(IStrategoTerm source, Iterable<IndexEntry> entriesToAdd) {
+        final Set<IndexEntry> oldEntries = ImmutableSet.copyOf(entriesPerSource.get(source));
+        final Set<IndexEntry> newEntries = Sets.newHashSet();
+        for(final IndexEntry entry : entriesToAdd) {
+            add(source, entry);
+            newEntries.add(entry);
+        }
+        for(final IndexEntry entry : oldEntries) {
+            if(!newEntries.contains(entry) && entriesPerSource.remove(source, entry)) {
+                remove(entry);
+            }
+        }
+    }
+
+    @Override public Iterable<IndexEntry> get(IStrategoTerm key) {
+        return entries.get(key);
+    }
+
+    @Override public Iterable<IndexEntry> getChilds(IStrategoTerm key) {
+        return childs.get(key);
+    }
+
+    @Override public Iterable<IndexEntry> getDescendants(IStrategoTerm key) {
+        final URIPath uriPath = parentKeyFactory.getURIPath(key);
+        if(uriPath == null)
+            return Collections.emptyList();
+        return getDescendantsTrie().getDescendants(uriPath);
+    }
+
+    /**
+     * Gets the trie of entries by URI path, building it from the entries in the index the first time. Entries that are
+     * removed while the trie is built are removed from the trie again if they were added to it after their removal.
+     */
+    private ConcurrentURITrie getDescendantsTrie() {
+        if(descendantsBuilt)
+            return descendants;
+        synchronized(descendantsLock) {
+            if(!descendantsBuilt) {
+                final ConcurrentURITrie trie = new ConcurrentURITrie();
+                descendants = trie;
+                for(final IndexEntry entry : entries.values()) {
+                    final URIPath uriPath = parentKeyFactory.getURIPath(entry);
+                    if(uriPath != null) {
+                        trie.add(uriPath, entry);
+                        if(!entries.get(entry.key).contains(entry))
+                            trie.remove(uriPath, entry);
+                    }
+                }
+                descendantsBuilt = true;
+            }
+            return descendants;
+        }
+    }
+
+    @Override public Iterable<IndexEntry> getInSource(IStrategoTerm source) {
+        return entriesPerSource.get(source);
+    }
+
+    @Override public Set<IStrategoTerm> getSourcesOf(IStrategoTerm key) {
+        final Set<IStrategoTerm> sources = Sets.newHashSet();
+        for(final IndexEntry entry : get(key)) {
+            sources.add(entry.source);
+        }
+        return sources;
+    }
+
+    @Override public Iterable<IndexEntry> getAll() {
+        return entries.values();
+    }
+
+    @Override public void clearSource(IStrategoTerm source) {
+        for(final IndexEntry entry : entriesPerSource.removeAll(source)) {
+            remove(entry);
+        }
+    }
+
+    /**
+     * Removes an entry that has been removed from the entries of its source.
+     */
+    private void remove(IndexEntry entry) {
+        entries.remove(entry.key, entry);
+        final IStrategoTerm parentKey = parentKeyFactory.getParentKey(entry);
+        if(parentKey != null) {
+            childs.remove(parentKey, entry);
+        }
+        final ConcurrentURITrie descendants = this.descendants;
+        if(descendants != null) {
+            final URIPath uriPath = parentKeyFactory.getURIPath(entry);
+            if(uriPath != null) {
+                descendants.remove(uriPath, entry);
+            }
+        }
+    }
+
+    @Override public Iterable<IStrategoTerm> getAllSources() {
+        return entriesPerSource.keySet();
+    }
+
+    @Override public void recover() {
+        collector.get().recover();
+    }
+
+    @Override public void reset() {
+        entries.clear();
+        childs.clear();
+        entriesPerSource.clear();
+        final ConcurrentURITrie descendants = this.descendants;
+        if(descendants != null) {
+            descendants.clear();
+        }
+        collector.get().reset();
+    }
+}
@@ -0,0 +1,94 @@
+package org.spoofax.interpreter.library.index;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+
+/**
+ * A set multimap that can be read without locking while it is modified. Modifications lock a stripe of keys, so that
+ * modifications of different keys mostly proceed concurrently. Sets that become empty are removed.
+ */
+class ConcurrentSetMultimap<K, V> {
+    private static final int NUM_STRIPES = 64;
+
+    private final ConcurrentMap<K, Set<V>> map = new ConcurrentHashMap<K, Set<V>>();
+    private final Object[] stripes = new Object[NUM_STRIPES];
+
+
+    public ConcurrentSetMultimap() {
+        for(int i = 0; i < NUM_STRIPES; i++) {
+            stripes[i] = new Object();
+        }
+    }
+
+
+    public boolean put(K key, V value) {
+        synchronized(stripe(key)) {
+            Set<V> values = map.get(key);
+            if(values == null) {
+                values = Collections.newSetFromMap(new ConcurrentHashMap<V, Boolean>());
+                map.put(key, values);
+            }
+            return values.add(value);
+        }
+    }
+
+    public boolean remove(K key, V value) {
+        synchronized(stripe(key)) {
+            final Set<V> values = map.get(key);
+            if(values == null || !values.remove(value))
+                return false;
+            if(values.isEmpty())
+                map.remove(key);
+            return true;
+        }
+    }
+
+    /**
+     * Removes all values for given key, returning the removed values. Views of the values for given key become empty,
+     * like they do when removing the values one by one.
+     */
+    public Set<V> removeAll(K key) {
+        synchronized(stripe(key)) {
+            final Set<V> values = map.remove(key);
+            if(values == null)
+                return Collections.emptySet();
+            final Set<V> removed = ImmutableSet.copyOf(values);
+            values.clear();
+            return removed;
+        }
+    }
+
+    /**
+     * Gets a view of the values for given key. Iterating the view does not block, and reflects modifications made
+     * while iterating only partially.
+     */
+    public Set<V> get(K key) {
+        final Set<V> values = map.get(key);
+        if(values == null)
+            return Collections.emptySet();
+        return Collections.unmodifiableSet(values);
+    }
+
+    public Set<K> keySet() {
+        return Collections.unmodifiableSet(map.keySet());
+    }
+
+    public Iterable<V> values() {
+        return Iterables.unmodifiableIterable(Iterables.concat(map.values()));
+    }
+
+    public void clear() {
+        map.clear();
+    }
+
+
+    private Object stripe(K key) {
+        final int hash = key.hashCode();
+        return stripes[(hash ^ (hash >>> 16)) & (NUM_STRIPES - 1)];
+    }
+}
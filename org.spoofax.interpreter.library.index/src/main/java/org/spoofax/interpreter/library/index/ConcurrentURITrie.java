@@ -0,0 +1,211 @@
+package org.spoofax.interpreter.library.index;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.spoofax.interpreter.terms.IStrategoTerm;
+
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * A {@link URITrie} that can be read without locking while it is modified. Modifications lock only the nodes they
+ * change, so that modifications of entries with different URIs mostly proceed concurrently.
+ *
+ * A node that has no entries below it is marked as removed when it is removed from its parent, under the locks of
+ * both. Modifications lock a node before changing it, and start over from the root if it has been removed, such that
+ * nodes can be found without locking.
+ */
+final class ConcurrentURITrie {
+    private static final class Node {
+        private volatile ConcurrentMap<IStrategoTerm, Node> children;
+        /**
+         * Null if the node has no entries, the entry if it has one entry, or a concurrent set of entries.
+         */
+        private volatile Object entries;
+        /**
+         * If the node has been removed from its parent. Guarded by the lock of the node.
+         */
+        private boolean removed;
+
+
+        private Node child(IStrategoTerm element) {
+            final ConcurrentMap<IStrategoTerm, Node> children = this.children;
+            if(children == null)
+                return null;
+            return children.get(element);
+        }
+
+        /**
+         * Gets or adds the child for given element, or returns null if this node has been removed.
+         */
+        private Node getOrAddChild(IStrategoTerm element) {
+            final Node child = child(element);
+            if(child != null)
+                return child;
+            synchronized(this) {
+                if(removed)
+                    return null;
+                ConcurrentMap<IStrategoTerm, Node> children = this.children;
+                if(children == null) {
+                    children = new ConcurrentHashMap<IStrategoTerm, Node>(2);
+                    this.children = children;
+                }
+                Node newChild = children.get(element);
+                if(newChild == null) {
+                    newChild = new Node();
+                    children.put(element, newChild);
+                }
+                return newChild;
+            }
+        }
+
+        /**
+         * Adds given entry, returning false if this node has been removed.
+         */
+        private synchronized boolean addEntry(IndexEntry entry) {
+            if(removed)
+                return false;
+            final Object entries = this.entries;
+            if(entries == null) {
+                this.entries = entry;
+            } else if(entries instanceof IndexEntry) {
+                if(entries.equals(entry))
+                    return true;
+                final Set<IndexEntry> set = Collections.newSetFromMap(new ConcurrentHashMap<IndexEntry, Boolean>(4));
+                set.add((IndexEntry) entries);
+                set.add(entry);
+                this.entries = set;
+            } else {
+                getEntrySet(entries).add(entry);
+            }
+            return true;
+        }
+
+        private synchronized boolean removeEntry(IndexEntry entry) {
+            final Object entries = this.entries;
+            if(entries == null)
+                return false;
+            if(entries instanceof IndexEntry) {
+                if(!entries.equals(entry))
+                    return false;
+                this.entries = null;
+                return true;
+            }
+            final Set<IndexEntry> set = getEntrySet(entries);
+            if(!set.remove(entry))
+                return false;
+            if(set.isEmpty())
+                this.entries = null;
+            return true;
+        }
+
+        /**
+         * Removes the child for given element if it has no entries below it, returning false if it does.
+         */
+        private boolean removeChildIfEmpty(IStrategoTerm element, Node child) {
+            synchronized(this) {
+                synchronized(child) {
+                    if(child.removed)
+                        return true;
+                    if(!child.isEmpty() || children == null || children.get(element) != child)
+                        return false;
+                    child.removed = true;
+                    children.remove(element);
+                    return true;
+                }
+            }
+        }
+
+        @SuppressWarnings("unchecked") private static Set<IndexEntry> getEntrySet(Object entries) {
+            return (Set<IndexEntry>) entries;
+        }
+
+        private boolean isEmpty() {
+            final ConcurrentMap<IStrategoTerm, Node> children = this.children;
+            return (children == null || children.isEmpty()) && entries == null;
+        }
+
+        /**
+         * Adds the entries of this node and its descendants to given list. The entry sets are copied first, since
+         * iterating a concurrent set can return an entry twice if it is removed and added again while iterating.
+         */
+        private void collect(List<IndexEntry> result) {
+            final Object entries = this.entries;
+            if(entries instanceof IndexEntry)
+                result.add((IndexEntry) entries);
+            else if(entries != null)
+                result.addAll(ImmutableSet.copyOf(getEntrySet(entries)));
+            final ConcurrentMap<IStrategoTerm, Node> children = this.children;
+            if(children != null) {
+                for(final Node child : children.values()) {
+                    child.collect(result);
+                }
+            }
+        }
+    }
+
+
+    private volatile Node root = new Node();
+
+
+    public void add(URIPath path, IndexEntry entry) {
+        while(true) {
+            Node node = root.getOrAddChild(path.template);
+            for(int i = 0; node != null && i < path.segments.length; i++) {
+                node = node.getOrAddChild(path.segments[i]);
+            }
+            if(node != null && node.addEntry(entry))
+                return;
+            // A node on the path has been removed concurrently, start over.
+        }
+    }
+
+    public void remove(URIPath path, IndexEntry entry) {
+        final Node[] nodes = new Node[path.segments.length + 2];
+        nodes[0] = root;
+        Node node = nodes[0].child(path.template);
+        for(int i = 0; node != null && i < path.segments.length; i++) {
+            nodes[i + 1] = node;
+            node = node.child(path.segments[i]);
+        }
+        if(node == null || !node.removeEntry(entry))
+            return;
+
+        // Remove the nodes that became empty, bottom-up.
+        nodes[nodes.length - 1] = node;
+        for(int i = nodes.length - 1; i > 0; i--) {
+            final IStrategoTerm element = i == 1 ? path.template : path.segments[i - 2];
+            if(!nodes[i - 1].removeChildIfEmpty(element, nodes[i]))
+                break;
+        }
+    }
+
+    /**
+     * @see URITrie#getDescendants(URIPath)
+     */
+    public List<IndexEntry> getDescendants(URIPath path) {
+        Node node = root.child(path.template);
+        for(int i = 0; node != null && i < path.segments.length; i++) {
+            node = node.child(path.segments[i]);
+        }
+        if(node == null)
+            return Collections.emptyList();
+        final ConcurrentMap<IStrategoTerm, Node> children = node.children;
+        if(children == null)
+            return Collections.emptyList();
+
+        final List<IndexEntry> result = new ArrayList<IndexEntry>();
+        for(final Node child : children.values()) {
+            child.collect(result);
+        }
+        return result;
+    }
+
+    public void clear() {
+        root = new Node();
+    }
+}
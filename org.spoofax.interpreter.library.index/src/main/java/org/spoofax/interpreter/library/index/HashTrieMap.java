@@ -0,0 +1,334 @@
+package org.spoofax.interpreter.library.index;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * An immutable hash array mapped trie. Adding or removing a key copies only the nodes on the path to the key, sharing
+ * the rest of the trie with the original map.
+ *
+ * Nodes store their keys and values in a single array of pairs, where the key of a pair is null if its value is a
+ * child node. Keys with the same hash are stored in a collision node.
+ */
+final class HashTrieMap<K, V> {
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+
+    @SuppressWarnings("rawtypes") private static final HashTrieMap EMPTY = new HashTrieMap(null, 0);
+
+    private final Node root;
+    private final int size;
+
+
+    private HashTrieMap(Node root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    @SuppressWarnings("unchecked") public static <K, V> HashTrieMap<K, V> empty() {
+        return EMPTY;
+    }
+
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @SuppressWarnings("unchecked") public V get(Object key) {
+        if(root == null)
+            return null;
+        return (V) root.get(key, hash(key), 0);
+    }
+
+    /**
+     * Returns a map with given key mapped to given value.
+     */
+    public HashTrieMap<K, V> plus(K key, V value) {
+        final boolean[] added = new boolean[1];
+        final Node node = root == null ? BitmapNode.EMPTY : root;
+        final Node newRoot = node.put(key, value, hash(key), 0, added);
+        if(newRoot == root)
+            return this;
+        return new HashTrieMap<K, V>(newRoot, added[0] ? size + 1 : size);
+    }
+
+    /**
+     * Returns a map without given key.
+     */
+    public HashTrieMap<K, V> minus(Object key) {
+        if(root == null)
+            return this;
+        final Node newRoot = root.remove(key, hash(key), 0);
+        if(newRoot == root)
+            return this;
+        if(newRoot == null)
+            return empty();
+        return new HashTrieMap<K, V>(newRoot, size - 1);
+    }
+
+    public Iterable<K> keys() {
+        return new Iterable<K>() {
+            @Override public Iterator<K> iterator() {
+                return new PairIterator<K>(root, 0);
+            }
+        };
+    }
+
+    public Iterable<V> values() {
+        return new Iterable<V>() {
+            @Override public Iterator<V> iterator() {
+                return new PairIterator<V>(root, 1);
+            }
+        };
+    }
+
+
+    private static int hash(Object key) {
+        final int hash = key.hashCode();
+        return hash ^ (hash >>> 16);
+    }
+
+    private static Object[] insertPair(Object[] array, int index, Object key, Object value) {
+        final Object[] result = new Object[array.length + 2];
+        System.arraycopy(array, 0, result, 0, index);
+        result[index] = key;
+        result[index + 1] = value;
+        System.arraycopy(array, index, result, index + 2, array.length - index);
+        return result;
+    }
+
+    private static Object[] removePair(Object[] array, int index) {
+        final Object[] result = new Object[array.length - 2];
+        System.arraycopy(array, 0, result, 0, index);
+        System.arraycopy(array, index + 2, result, index, array.length - index - 2);
+        return result;
+    }
+
+    private static Object[] replace(Object[] array, int index, Object value) {
+        final Object[] result = array.clone();
+        result[index] = value;
+        return result;
+    }
+
+
+    private static abstract class Node {
+        final Object[] array;
+
+        Node(Object[] array) {
+            this.array = array;
+        }
+
+        abstract Object get(Object key, int hash, int shift);
+
+        /**
+         * Returns a node with given key mapped to given value, or this node if it already maps the key to the value.
+         */
+        abstract Node put(Object key, Object value, int hash, int shift, boolean[] added);
+
+        /**
+         * Returns a node without given key, this node if it does not contain the key, or null if it would be empty.
+         */
+        abstract Node remove(Object key, int hash, int shift);
+    }
+
+    private static final class BitmapNode extends Node {
+        static final BitmapNode EMPTY = new BitmapNode(0, new Object[0]);
+
+        final int bitmap;
+
+        BitmapNode(int bitmap, Object[] array) {
+            super(array);
+            this.bitmap = bitmap;
+        }
+
+        @Override Object get(Object key, int hash, int shift) {
+            final int bit = bit(hash, shift);
+            if((bitmap & bit) == 0)
+                return null;
+            final int index = index(bit);
+            final Object k = array[index];
+            final Object v = array[index + 1];
+            if(k == null)
+                return ((Node) v).get(key, hash, shift + BITS);
+            return key.equals(k) ? v : null;
+        }
+
+        @Override Node put(Object key, Object value, int hash, int shift, boolean[] added) {
+            final int bit = bit(hash, shift);
+            final int index = index(bit);
+            if((bitmap & bit) == 0) {
+                added[0] = true;
+                return new BitmapNode(bitmap | bit, insertPair(array, index, key, value));
+            }
+
+            final Object k = array[index];
+            final Object v = array[index + 1];
+            if(k == null) {
+                final Node node = ((Node) v).put(key, value, hash, shift + BITS, added);
+                return node == v ? this : new BitmapNode(bitmap, replace(array, index + 1, node));
+            }
+            if(key.equals(k))
+                return value == v ? this : new BitmapNode(bitmap, replace(array, index + 1, value));
+
+            added[0] = true;
+            final Node node = createNode(k, v, hash(k), key, value, hash, shift + BITS);
+            final Object[] newArray = replace(array, index, null);
+            newArray[index + 1] = node;
+            return new BitmapNode(bitmap, newArray);
+        }
+
+        @Override Node remove(Object key, int hash, int shift) {
+            final int bit = bit(hash, shift);
+            if((bitmap & bit) == 0)
+                return this;
+            final int index = index(bit);
+            final Object k = array[index];
+            final Object v = array[index + 1];
+            if(k == null) {
+                final Node node = ((Node) v).remove(key, hash, shift + BITS);
+                if(node == v)
+                    return this;
+                if(node != null)
+                    return new BitmapNode(bitmap, replace(array, index + 1, node));
+            } else if(!key.equals(k)) {
+                return this;
+            }
+
+            if(bitmap == bit)
+                return null;
+            return new BitmapNode(bitmap ^ bit, removePair(array, index));
+        }
+
+        private int index(int bit) {
+            return Integer.bitCount(bitmap & (bit - 1)) << 1;
+        }
+
+        private static int bit(int hash, int shift) {
+            return 1 << ((hash >>> shift) & MASK);
+        }
+
+        private static Node createNode(Object key1, Object value1, int hash1, Object key2, Object value2, int hash2,
+            int shift) {
+            if(hash1 == hash2)
+                return new CollisionNode(hash1, new Object[] { key1, value1, key2, value2 });
+            final boolean[] added = new boolean[1];
+            return EMPTY.put(key1, value1, hash1, shift, added).put(key2, value2, hash2, shift, added);
+        }
+    }
+
+    private static final class CollisionNode extends Node {
+        final int hash;
+
+        CollisionNode(int hash, Object[] array) {
+            super(array);
+            this.hash = hash;
+        }
+
+        @Override Object get(Object key, int hash, int shift) {
+            final int index = indexOf(key);
+            return index < 0 ? null : array[index + 1];
+        }
+
+        @Override Node put(Object key, Object value, int hash, int shift, boolean[] added) {
+            if(hash != this.hash) {
+                // Nest this node in a bitmap node, which separates it from the new key
+                final Node node = new BitmapNode(BitmapNode.bit(this.hash, shift), new Object[] { null, this });
+                return node.put(key, value, hash, shift, added);
+            }
+
+            final int index = indexOf(key);
+            if(index >= 0)
+                return array[index + 1] == value ? this : new CollisionNode(hash, replace(array, index + 1, value));
+            added[0] = true;
+            final Object[] newArray = Arrays.copyOf(array, array.length + 2);
+            newArray[array.length] = key;
+            newArray[array.length + 1] = value;
+            return new CollisionNode(hash, newArray);
+        }
+
+        @Override Node remove(Object key, int hash, int shift) {
+            final int index = indexOf(key);
+            if(index < 0)
+                return this;
+            if(array.length == 2)
+                return null;
+            return new CollisionNode(hash, removePair(array, index));
+        }
+
+        private int indexOf(Object key) {
+            for(int i = 0; i < array.length; i += 2) {
+                if(key.equals(array[i]))
+                    return i;
+            }
+            return -1;
+        }
+    }
+
+    /**
+     * Iterates over the keys or values of a trie, using an explicit stack of node arrays and positions.
+     */
+    private static final class PairIterator<T> implements Iterator<T> {
+        /**
+         * The maximal depth of a trie: one bitmap node per 5 bits of a hash, and a collision node.
+         */
+        private static final int MAX_DEPTH = (32 + BITS - 1) / BITS + 1;
+
+        private final int slot;
+        private final Object[][] arrays = new Object[MAX_DEPTH][];
+        private final int[] positions = new int[MAX_DEPTH];
+        private int depth = -1;
+        private Object next;
+        private boolean hasNext;
+
+        PairIterator(Node root, int slot) {
+            this.slot = slot;
+            if(root != null) {
+                arrays[++depth] = root.array;
+            }
+            advance();
+        }
+
+        @Override public boolean hasNext() {
+            return hasNext;
+        }
+
+        @SuppressWarnings("unchecked") @Override public T next() {
+            if(!hasNext)
+                throw new NoSuchElementException();
+            final T result = (T) next;
+            advance();
+            return result;
+        }
+
+        @Override public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        private void advance() {
+            while(depth >= 0) {
+                final Object[] array = arrays[depth];
+                final int position = positions[depth];
+                if(position == array.length) {
+                    arrays[depth--] = null;
+                    continue;
+                }
+                positions[depth] = position + 2;
+                if(array[position] == null) {
+                    arrays[++depth] = ((Node) array[position + 1]).array;
+                    positions[depth] = 0;
+                } else {
+                    next = array[position + slot];
+                    hasNext = true;
+                    return;
+                }
+            }
+            next = null;
+            hasNext = false;
+        }
+    }
+}
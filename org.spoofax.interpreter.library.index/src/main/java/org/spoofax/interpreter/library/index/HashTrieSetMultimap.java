@@ -0,0 +1,75 @@
+package org.spoofax.interpreter.library.index;
+
+import java.util.Collections;
+
+import com.google.common.base.Function;
+import com.google.common.collect.Iterables;
+
+/**
+ * An immutable set multimap, storing the values of each key in a {@link HashTrieMap} that maps values to themselves.
+ * Keys without values are removed.
+ */
+final class HashTrieSetMultimap<K, V> {
+    @SuppressWarnings("rawtypes") private static final HashTrieSetMultimap EMPTY =
+        new HashTrieSetMultimap(HashTrieMap.empty());
+
+    private final HashTrieMap<K, HashTrieMap<V, V>> map;
+
+
+    private HashTrieSetMultimap(HashTrieMap<K, HashTrieMap<V, V>> map) {
+        this.map = map;
+    }
+
+    @SuppressWarnings("unchecked") public static <K, V> HashTrieSetMultimap<K, V> empty() {
+        return EMPTY;
+    }
+
+
+    public Iterable<V> get(K key) {
+        final HashTrieMap<V, V> values = map.get(key);
+        if(values == null)
+            return Collections.emptySet();
+        return values.keys();
+    }
+
+    public Iterable<K> keys() {
+        return map.keys();
+    }
+
+    public Iterable<V> values() {
+        return Iterables.concat(Iterables.transform(map.values(), new Function<HashTrieMap<V, V>, Iterable<V>>() {
+            @Override public Iterable<V> apply(HashTrieMap<V, V> values) {
+                return values.keys();
+            }
+        }));
+    }
+
+    public HashTrieSetMultimap<K, V> put(K key, V value) {
+        HashTrieMap<V, V> values = map.get(key);
+        if(values == null)
+            values = HashTrieMap.empty();
+        final HashTrieMap<V, V> newValues = values.plus(value, value);
+        if(newValues == values)
+            return this;
+        return new HashTrieSetMultimap<K, V>(map.plus(key, newValues));
+    }
+
+    public HashTrieSetMultimap<K, V> remove(K key, V value) {
+        final HashTrieMap<V, V> values = map.get(key);
+        if(values == null)
+            return this;
+        final HashTrieMap<V, V> newValues = values.minus(value);
+        if(newValues == values)
+            return this;
+        if(newValues.isEmpty())
+            return new HashTrieSetMultimap<K, V>(map.minus(key));
+        return new HashTrieSetMultimap<K, V>(map.plus(key, newValues));
+    }
+
+    public HashTrieSetMultimap<K, V> removeAll(K key) {
+        final HashTrieMap<K, HashTrieMap<V, V>> newMap = map.minus(key);
+        if(newMap == map)
+            return this;
+        return new HashTrieSetMultimap<K, V>(newMap);
+    }
+}
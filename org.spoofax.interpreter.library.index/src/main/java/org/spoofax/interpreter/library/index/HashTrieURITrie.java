@@ -0,0 +1,126 @@
+package org.spoofax.interpreter.library.index;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.spoofax.interpreter.terms.IStrategoTerm;
+
+/**
+ * An immutable {@link URITrie}, storing the children and entries of each node in {@link HashTrieMap}s. Adding or
+ * removing an entry copies only the nodes on the path to the entry.
+ */
+final class HashTrieURITrie {
+    private static final class Node {
+        private static final Node EMPTY = new Node(HashTrieMap.<IStrategoTerm, Node>empty(),
+            HashTrieMap.<IndexEntry, IndexEntry>empty());
+
+        private final HashTrieMap<IStrategoTerm, Node> children;
+        private final HashTrieMap<IndexEntry, IndexEntry> entries;
+
+
+        private Node(HashTrieMap<IStrategoTerm, Node> children, HashTrieMap<IndexEntry, IndexEntry> entries) {
+            this.children = children;
+            this.entries = entries;
+        }
+
+
+        private Node child(IStrategoTerm element) {
+            return children.get(element);
+        }
+
+        private Node put(URIPath path, int depth, IndexEntry entry) {
+            if(depth > path.segments.length)
+                return new Node(children, entries.plus(entry, entry));
+
+            final IStrategoTerm element = depth == 0 ? path.template : path.segments[depth - 1];
+            final Node child = children.get(element);
+            final Node newChild = (child == null ? EMPTY : child).put(path, depth + 1, entry);
+            return new Node(children.plus(element, newChild), entries);
+        }
+
+        /**
+         * Returns the node without given entry, null if the node has no entries below it, or this node if it does
+         * not contain the entry.
+         */
+        private Node remove(URIPath path, int depth, IndexEntry entry) {
+            final HashTrieMap<IStrategoTerm, Node> newChildren;
+            final HashTrieMap<IndexEntry, IndexEntry> newEntries;
+            if(depth > path.segments.length) {
+                newChildren = children;
+                newEntries = entries.minus(entry);
+                if(newEntries == entries)
+                    return this;
+            } else {
+                final IStrategoTerm element = depth == 0 ? path.template : path.segments[depth - 1];
+                final Node child = children.get(element);
+                if(child == null)
+                    return this;
+                final Node newChild = child.remove(path, depth + 1, entry);
+                if(newChild == child)
+                    return this;
+                newChildren = newChild == null ? children.minus(element) : children.plus(element, newChild);
+                newEntries = entries;
+            }
+
+            if(newChildren.isEmpty() && newEntries.isEmpty())
+                return null;
+            return new Node(newChildren, newEntries);
+        }
+
+        private void collect(List<IndexEntry> result) {
+            for(final IndexEntry entry : entries.keys()) {
+                result.add(entry);
+            }
+            for(final Node child : children.values()) {
+                child.collect(result);
+            }
+        }
+    }
+
+
+    private static final HashTrieURITrie EMPTY = new HashTrieURITrie(Node.EMPTY);
+
+    private final Node root;
+
+
+    private HashTrieURITrie(Node root) {
+        this.root = root;
+    }
+
+    public static HashTrieURITrie empty() {
+        return EMPTY;
+    }
+
+
+    public HashTrieURITrie put(URIPath path, IndexEntry entry) {
+        return new HashTrieURITrie(root.put(path, 0, entry));
+    }
+
+    public HashTrieURITrie remove(URIPath path, IndexEntry entry) {
+        final Node newRoot = root.remove(path, 0, entry);
+        if(newRoot == root)
+            return this;
+        if(newRoot == null)
+            return EMPTY;
+        return new HashTrieURITrie(newRoot);
+    }
+
+    /**
+     * @see URITrie#getDescendants(URIPath)
+     */
+    public List<IndexEntry> getDescendants(URIPath path) {
+        Node node = root.child(path.template);
+        for(int i = 0; node != null && i < path.segments.length; i++) {
+            node = node.child(path.segments[i]);
+        }
+        if(node == null || node.children.isEmpty())
+            return Collections.emptyList();
+
+        final List<IndexEntry> result = new ArrayList<IndexEntry>();
+        for(final Node child : node.children.values()) {
+            child.collect(result);
+        }
+        return result;
+    }
+}
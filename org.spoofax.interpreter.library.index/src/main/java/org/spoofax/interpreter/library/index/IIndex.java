@@ -34,6 +34,13 @@ public interface IIndex {
      */
     public abstract IStrategoTuple stopCollection(IStrategoTerm source);
 
+    /**
+     * Starts a collection session for given source, which collects independently of other sessions and of
+     * {@link #startCollection(IStrategoTerm)}, such that multiple sources can be collected in parallel. Entries are
+     * added when the session is committed.
+     */
+    public abstract IndexCollectionSession startCollectionSession(IStrategoTerm source);
+
 
     /**
      * Adds a new entry to the index.
@@ -42,6 +49,13 @@ public interface IIndex {
 
     public abstract void addAll(IStrategoTerm source, Iterable<IndexEntry> entry);
 
+    /**
+     * Replaces all entries for given source by given entries. Whether readers can observe the replacement halfway
+     * depends on the implementation: {@link SnapshotIndex} publishes it at once, {@link ConcurrentIndex} adds the new
+     * entries before removing the stale ones, and {@link Index} does not support concurrent readers.
+     */
+    public abstract void replaceSource(IStrategoTerm source, Iterable<IndexEntry> entries);
+
 
     /**
      * Gets all entries that match given template.
@@ -53,6 +67,16 @@ public interface IIndex {
      */
     public abstract Iterable<IndexEntry> getChilds(IStrategoTerm key);
 
+    /**
+     * Gets all entries whose key equals given template, except that its URI extends the URI in the template with one
+     * or more segments. The template must be a URI, or have a URI as its only subterm that contains a URI; annotations
+     * of the URI are ignored.
+     *
+     * The first call takes time proportional to the number of entries in the index, after which the index maintains
+     * the descendants of its entries as they are added and removed.
+     */
+    public abstract Iterable<IndexEntry> getDescendants(IStrategoTerm key);
+
     /**
      * Gets all entries.
      */
@@ -1,6 +1,7 @@
 package org.spoofax.interpreter.library.index;
 
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Set;
 
 import org.spoofax.interpreter.terms.IStrategoTerm;
@@ -15,6 +16,11 @@ public class Index implements IIndex {
     private final Multimap<IStrategoTerm, IndexEntry> entries = HashMultimap.create();
     private final Multimap<IStrategoTerm, IndexEntry> childs = HashMultimap.create();
     private final Multimap<IStrategoTerm, IndexEntry> entriesPerSource = HashMultimap.create();
+    /**
+     * The entries by URI path, or null until descendants are first requested, since maintaining the trie doubles the
+     * cost of adding entries.
+     */
+    private URITrie descendants;
 
     private final IndexEntryFactory entryFactory;
     private final IndexParentKeyFactory parentKeyFactory;
@@ -50,14 +56,22 @@ public class Index implements IIndex {
         return collector.stop();
     }
 
+    @Override public IndexCollectionSession startCollectionSession(IStrategoTerm source) {
+        return new IndexCollectionSession(this, source);
+    }
+
     @Override public void add(IndexEntry entry) {
         entries.put(entry.key, entry);
 
-        final IStrategoTerm parentKey = parentKeyFactory.getParentKey(entry.key);
+        final IStrategoTerm parentKey = parentKeyFactory.getParentKey(entry);
         if(parentKey != null) {
             childs.put(parentKey, entry);
         }
 
+        if(descendants != null) {
+            addDescendant(entry);
+        }
+
         entriesPerSource.put(entry.source, entry);
     }
 
@@ -66,15 +80,24 @@ public class Index implements IIndex {
         for(final IndexEntry entry : entriesToAdd) {
             entries.put(entry.key, entry);
 
-            final IStrategoTerm parentKey = parentKeyFactory.getParentKey(entry.key);
+            final IStrategoTerm parentKey = parentKeyFactory.getParentKey(entry);
             if(parentKey != null) {
                 childs.put(parentKey, entry);
             }
 
+            if(descendants != null) {
+                addDescendant(entry);
+            }
+
             entriesInSource.add(entry);
         }
     }
 
+    @Override public void replaceSource(IStrategoTerm source, Iterable<IndexEntry> entriesToAdd) {
+        clearSource(source);
+        addAll(source, entriesToAdd);
+    }
+
     @Override public Iterable<IndexEntry> get(IStrategoTerm key) {
         return entries.get(key);
     }
@@ -83,6 +106,26 @@ public class Index implements IIndex {
         return childs.get(key);
     }
 
+    @Override public Iterable<IndexEntry> getDescendants(IStrategoTerm key) {
+        final URIPath uriPath = parentKeyFactory.getURIPath(key);
+        if(uriPath == null)
+            return Collections.emptyList();
+        if(descendants == null) {
+            descendants = new URITrie();
+            for(final IndexEntry entry : entries.values()) {
+                addDescendant(entry);
+            }
+        }
+        return descendants.getDescendants(uriPath);
+    }
+
+    private void addDescendant(IndexEntry entry) {
+        final URIPath uriPath = parentKeyFactory.getURIPath(entry);
+        if(uriPath != null) {
+            descendants.add(uriPath, entry);
+        }
+    }
+
     @Override public Iterable<IndexEntry> getInSource(IStrategoTerm source) {
         return entriesPerSource.get(source);
     }
@@ -102,10 +145,16 @@ public class Index implements IIndex {
     @Override public void clearSource(IStrategoTerm source) {
         for(final IndexEntry entry : getInSource(source)) {
             entries.remove(entry.key, entry);
-            final IStrategoTerm parentKey = parentKeyFactory.getParentKey(entry.key);
+            final IStrategoTerm parentKey = parentKeyFactory.getParentKey(entry);
             if(parentKey != null) {
                 childs.remove(parentKey, entry);
             }
+            if(descendants != null) {
+                final URIPath uriPath = parentKeyFactory.getURIPath(entry);
+                if(uriPath != null) {
+                    descendants.remove(uriPath, entry);
+                }
+            }
         }
         entriesPerSource.removeAll(source);
     }
@@ -122,6 +171,7 @@ public class Index implements IIndex {
         entries.clear();
         childs.clear();
         entriesPerSource.clear();
+        descendants = null;
         collector.reset();
     }
 }
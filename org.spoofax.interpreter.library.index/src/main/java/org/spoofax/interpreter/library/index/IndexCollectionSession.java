@@ -0,0 +1,84 @@
+package org.spoofax.interpreter.library.index;
+
+import org.spoofax.interpreter.terms.IStrategoTerm;
+import org.spoofax.interpreter.terms.IStrategoTuple;
+
+/**
+ * Collects the entries of a single source, independently of other sessions and of the collection of the index itself,
+ * such that multiple sources can be collected in parallel. The collected entries replace the entries of the source in
+ * the index when the session is committed.
+ *
+ * A session is used by one thread at a time, and a source must not have more than one session at a time. Sessions of
+ * different sources can be started and committed by different threads at the same time if the index supports
+ * concurrent modification, as {@link ConcurrentIndex} and {@link SnapshotIndex} do; sessions of an {@link Index} must
+ * be started and committed by one thread at a time. A commit is atomic for readers only on a {@link SnapshotIndex}; see
+ * {@link IIndex#replaceSource(IStrategoTerm, Iterable)}.
+ */
+public class IndexCollectionSession {
+    private final IIndex index;
+    private final IStrategoTerm source;
+    private final IndexCollector collector;
+
+    private boolean ended = false;
+
+
+    public IndexCollectionSession(IIndex index, IStrategoTerm source) {
+        this.index = index;
+        this.source = source;
+
+        final IndexEntryFactory entryFactory = index.entryFactory();
+        this.collector = new IndexCollector(entryFactory.getTermFactory(), entryFactory);
+        collector.start(source, index.getInSource(source));
+    }
+
+
+    /**
+     * Gets the source that is collected.
+     */
+    public IStrategoTerm source() {
+        return source;
+    }
+
+    /**
+     * Collects a new index entry, which will be added when the session is committed.
+     */
+    public IndexEntry collect(IStrategoTerm key, IStrategoTerm value) {
+        checkActive();
+        return collector.add(key, value);
+    }
+
+    /**
+     * Collects a new index entry, which will be added when the session is committed.
+     */
+    public IndexEntry collect(IStrategoTerm key) {
+        checkActive();
+        return collector.add(key);
+    }
+
+    /**
+     * Replaces the entries of the source in the index by the collected entries, and ends the session.
+     *
+     * @return The removed and added entries as a tuple, relative to the entries of the source when the session was
+     *         started.
+     */
+    public IStrategoTuple commit() {
+        checkActive();
+        ended = true;
+        index.replaceSource(source, collector.getAddedEntries());
+        return collector.stop();
+    }
+
+    /**
+     * Ends the session without changing the index.
+     */
+    public void abort() {
+        ended = true;
+        collector.reset();
+    }
+
+
+    private void checkActive() {
+        if(ended)
+            throw new IllegalStateException("Collection session of " + source + " has already ended");
+    }
+}
@@ -16,6 +16,19 @@ public class IndexEntry implements Serializable {
 	public final IStrategoTerm source;
 	public final ImploderAttachment origin;
 
+	/**
+	 * The parent key of this entry, cached by {@link IndexParentKeyFactory#getParentKey(IndexEntry)}, or null if it
+	 * has not been computed yet. Threads that race to compute it store equal values, so the race is harmless; the
+	 * field is volatile to safely publish the cached value.
+	 */
+	transient volatile Object parentKey;
+
+	/**
+	 * The URI path of the key of this entry, cached by {@link IndexParentKeyFactory#getURIPath(IndexEntry)}, or null if
+	 * it has not been computed yet. Racy like {@link #parentKey}.
+	 */
+	transient volatile Object uriPath;
+
 	public IndexEntry(IStrategoTerm key, IStrategoTerm value, IStrategoTerm source, ImploderAttachment origin) {
 		this.key = key;
 		this.value = value;
@@ -1,12 +1,17 @@
 package org.spoofax.interpreter.library.index;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
 
 import org.spoofax.interpreter.core.Tools;
 import org.spoofax.interpreter.terms.IStrategoList;
 import org.spoofax.interpreter.terms.IStrategoTerm;
 import org.spoofax.interpreter.terms.ITermFactory;
+import org.spoofax.terms.io.binary.SegmentedSAFWriter;
+import org.spoofax.terms.io.binary.StreamingSAFWriter;
 
 import com.google.common.collect.Lists;
 
@@ -41,6 +46,33 @@ public class IndexFactory {
         return sourcesTerm;
     }
 
+    /**
+     * Writes the term representation of given index, as created by {@link #indexToTerm(IIndex)}, in the segmented
+     * SAF format without constructing it first. Each source is written as a separate segment, so that it can be read
+     * independently of the other sources. The term representing each source is constructed and written on the calling
+     * thread, one source at a time, so only the term and the sharing table of a single source are held in memory.
+     *
+     * @param index
+     *            The index to write a term representation of.
+     * @param output
+     *            The stream to write the term representation to, which is not closed.
+     */
+    public void indexToStream(final IIndex index, OutputStream output) throws IOException {
+        final List<SegmentedSAFWriter.Segment> segments = Lists.newArrayList();
+        for(final IStrategoTerm source : index.getAllSources()) {
+            segments.add(new SegmentedSAFWriter.Segment() {
+                @Override public int size() {
+                    return 1;
+                }
+
+                @Override public void writeElements(StreamingSAFWriter writer) throws IOException {
+                    writer.write(sourceToTerm(index, source));
+                }
+            });
+        }
+        SegmentedSAFWriter.writeSegmentsToSAFStream(segments, output);
+    }
+
     private IStrategoTerm sourceToTerm(IIndex index, IStrategoTerm source) {
         IStrategoList entryList = termFactory.makeList();
         for(IndexEntry entry : index.getInSource(source)) {
@@ -64,8 +96,23 @@ public class IndexFactory {
             throw new IOException("Cannot read index; root term is not a list");
         }
 
-        for(IStrategoTerm sourceTerm : term) {
-            sourceFromTerm(index, sourceTerm);
+        return indexFromTerms(index, term.iterator());
+    }
+
+    /**
+     * Populates an index from the elements of a term representation of an index created with
+     * {@link #indexToTerm(IIndex)}, such as those read by a
+     * {@link org.spoofax.terms.io.binary.SAFElementReader}. Each element is added to the index as soon as it is
+     * read, and is not retained afterwards.
+     *
+     * @param index
+     *            The index to populate.
+     * @param sourceTerms
+     *            The elements of a term representation of an index.
+     */
+    public IIndex indexFromTerms(IIndex index, Iterator<IStrategoTerm> sourceTerms) throws IOException {
+        while(sourceTerms.hasNext()) {
+            sourceFromTerm(index, sourceTerms.next());
         }
 
         return index;
@@ -1,13 +1,15 @@
 package org.spoofax.interpreter.library.index;
 
+import java.io.BufferedInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 
 import org.apache.commons.vfs2.FileObject;
 import org.spoofax.interpreter.terms.IStrategoTerm;
 import org.spoofax.interpreter.terms.ITermFactory;
 import org.spoofax.terms.ParseError;
-import org.spoofax.terms.io.binary.SAFWriter;
+import org.spoofax.terms.io.binary.SAFElementReader;
 import org.spoofax.terms.io.binary.TermReader;
 
 public class IndexManager {
@@ -15,18 +17,49 @@ public class IndexManager {
         return new Index(termFactory);
     }
 
+    /**
+     * Creates an index that can be collected and queried by multiple threads at the same time.
+     */
+    public static IIndex createConcurrent(ITermFactory termFactory) {
+        return new ConcurrentIndex(termFactory);
+    }
+
+    /**
+     * Creates an index that publishes an immutable snapshot on every modification, such that it can be read by
+     * multiple threads while it is being modified.
+     */
+    public static IIndex createCopyOnWrite(ITermFactory termFactory) {
+        return new SnapshotIndex(termFactory);
+    }
+
     public static IIndex read(FileObject indexFile, ITermFactory termFactory) throws ParseError, IOException, Exception {
-        final IStrategoTerm term = readTerm(indexFile, termFactory);
         final IndexFactory factory = factory(termFactory);
         final IIndex index = create(termFactory);
-        return factory.indexFromTerm(index, term);
+        final BufferedInputStream input = new BufferedInputStream(indexFile.getContent().getInputStream());
+        try {
+            if(SAFElementReader.isSupported(input)) {
+                // Add sources to the index as they are read, rather than reading the entire term first
+                return factory.indexFromTerms(index, new SAFElementReader(termFactory, input));
+            }
+            final IStrategoTerm term = readTerm(input, termFactory);
+            return factory.indexFromTerm(index, term);
+        } finally {
+            input.close();
+        }
     }
 
     public static void write(IIndex index, FileObject indexFile, ITermFactory termFactory) throws IOException {
         indexFile.createFile();
         final IndexFactory factory = factory(termFactory);
-        final IStrategoTerm term = factory.indexToTerm(index);
-        writeTerm(indexFile, term);
+        final OutputStream output = indexFile.getContent().getOutputStream();
+        try {
+            // Write the term representation of each source as a separate segment as it is created, rather than
+            // creating the entire term, such that sources can be read one segment at a time
+            factory.indexToStream(index, output);
+            output.flush();
+        } finally {
+            output.close();
+        }
     }
 
 
@@ -35,19 +68,8 @@ public class IndexManager {
     }
 
 
-    private static IStrategoTerm readTerm(FileObject file, ITermFactory termFactory) throws ParseError, IOException {
+    private static IStrategoTerm readTerm(InputStream input, ITermFactory termFactory) throws ParseError, IOException {
         final TermReader termReader = new TermReader(termFactory);
-        return termReader.parseFromStream(file.getContent().getInputStream());
-    }
-
-    private static void writeTerm(FileObject file, IStrategoTerm term) throws IOException {
-        file.createFile();
-        final OutputStream output = file.getContent().getOutputStream();
-        try {
-            SAFWriter.writeTermToSAFStream(term, output);
-            output.flush();
-        } finally {
-            output.close();
-        }
+        return termReader.parseFromStream(input);
     }
 }
@@ -1,6 +1,5 @@
 package org.spoofax.interpreter.library.index;
 
-import org.spoofax.interpreter.core.Tools;
 import org.spoofax.interpreter.terms.IStrategoAppl;
 import org.spoofax.interpreter.terms.IStrategoConstructor;
 import org.spoofax.interpreter.terms.IStrategoList;
@@ -10,60 +9,220 @@ import org.spoofax.terms.TermTransformer;
 
 public class IndexParentKeyFactory {
 	private class ParentURITransformer extends TermTransformer {
-		private final ITermFactory factory;
-		private final IStrategoConstructor uriConstructor;
-		public boolean transformed = false;
-
 		public ParentURITransformer(ITermFactory factory, boolean keepAttachments) {
 			super(factory, keepAttachments);
-			this.factory = factory;
-			this.uriConstructor = factory.makeConstructor("URI", 2);
 		}
 
 		@Override
 		public IStrategoTerm preTransform(IStrategoTerm term) {
 			if(isURI(term)) {
 				final IStrategoTerm parentURI = getParentURI(term);
-				if(parentURI != null) {
-					transformed = true;
+				if(parentURI != null)
 					return parentURI;
-				}
 			}
 
 			return term;
 		}
+	}
 
-		private IStrategoTerm getParentURI(IStrategoTerm uri) {
-			final IStrategoTerm language = uri.getSubterm(0);
-			final IStrategoList segments = (IStrategoList) uri.getSubterm(1);
-			if(segments.getSubtermCount() == 0)
-				return null;
-			return makeURI(language, segments.tail());
+	/**
+	 * Marks an entry that has no parent key.
+	 */
+	private static final Object NO_PARENT_KEY = new Object();
+
+	/**
+	 * Marks an entry whose key has no URI path.
+	 */
+	private static final Object NO_URI_PATH = new Object();
+
+	private final ITermFactory factory;
+	private final IStrategoConstructor uriConstructor;
+	private final ParentURITransformer transformer;
+
+	public IndexParentKeyFactory(ITermFactory termFactory) {
+		this.factory = termFactory;
+		this.uriConstructor = termFactory.makeConstructor("URI", 2);
+		this.transformer = new ParentURITransformer(termFactory, false);
+	}
+
+	/**
+	 * Gets the parent key of given entry, computing it only the first time it is requested for the entry. Safe for use
+	 * by multiple threads.
+	 *
+	 * @see #getParentKey(IStrategoTerm)
+	 */
+	public IStrategoTerm getParentKey(IndexEntry entry) {
+		Object parentKey = entry.parentKey;
+		if(parentKey == null) {
+			parentKey = getParentKey(entry.key);
+			if(parentKey == null)
+				parentKey = NO_PARENT_KEY;
+			entry.parentKey = parentKey;
+		}
+		return parentKey == NO_PARENT_KEY ? null : (IStrategoTerm) parentKey;
+	}
+
+	/**
+	 * Gets the key with the URIs in given key replaced by their parent URIs, or null if the key does not contain a
+	 * URI with a parent. Safe for use by multiple threads.
+	 */
+	public IStrategoTerm getParentKey(IStrategoTerm key) {
+		if(isURI(key)) {
+			if(!isSimpleURI(key))
+				return transform(key);
+			return getParentURI(key);
 		}
 
-		private boolean isURI(IStrategoTerm term) {
-			if(!Tools.isTermAppl(term))
-				return false;
-			final IStrategoAppl appl = (IStrategoAppl) term;
-			return appl.getConstructor().equals(uriConstructor);
+		// Replace the URIs in the subterms of applications and tuples, such as Def(URI(...)), without transforming
+		final int termType = key.getTermType();
+		if(termType != IStrategoTerm.APPL && termType != IStrategoTerm.TUPLE)
+			return transform(key);
+
+		final int count = key.getSubtermCount();
+		IStrategoTerm[] subterms = null;
+		for(int i = 0; i < count; i++) {
+			final IStrategoTerm subterm = key.getSubterm(i);
+			if(isURI(subterm)) {
+				if(!isSimpleURI(subterm))
+					return transform(key);
+				if(subterms == null) {
+					subterms = new IStrategoTerm[count];
+					for(int j = 0; j < count; j++) {
+						subterms[j] = key.getSubterm(j);
+					}
+				}
+				subterms[i] = getParentURI(subterm);
+			} else if(containsURI(subterm)) {
+				return transform(key);
+			}
 		}
 
-		private IStrategoTerm makeURI(IStrategoTerm language, IStrategoList segments) {
-			return factory.makeAppl(uriConstructor, language, segments);
+		if(subterms == null)
+			return null;
+		if(termType == IStrategoTerm.APPL)
+			return factory.makeAppl(((IStrategoAppl) key).getConstructor(), subterms, key.getAnnotations());
+		return factory.makeTuple(subterms, key.getAnnotations());
+	}
+
+	/**
+	 * Gets the URI path of given entry, computing it only the first time it is requested for the entry. Safe for use
+	 * by multiple threads.
+	 *
+	 * @see #getURIPath(IStrategoTerm)
+	 */
+	URIPath getURIPath(IndexEntry entry) {
+		Object uriPath = entry.uriPath;
+		if(uriPath == null) {
+			uriPath = getURIPath(entry.key);
+			if(uriPath == null)
+				uriPath = NO_URI_PATH;
+			entry.uriPath = uriPath;
 		}
+		return uriPath == NO_URI_PATH ? null : (URIPath) uriPath;
 	}
 
-	private final ParentURITransformer transformer;
+	/**
+	 * Gets the URI path of given key, or null if the key is not a URI and does not have a URI as its only subterm that
+	 * contains a URI. Annotations of the URI are not part of the path. Safe for use by multiple threads.
+	 */
+	URIPath getURIPath(IStrategoTerm key) {
+		if(isURI(key))
+			return new URIPath(getEmptyURI(key), getSegments(key));
 
-	public IndexParentKeyFactory(ITermFactory termFactory) {
-		this.transformer = new ParentURITransformer(termFactory, false);
+		final int termType = key.getTermType();
+		if(termType != IStrategoTerm.APPL && termType != IStrategoTerm.TUPLE)
+			return null;
+
+		final int count = key.getSubtermCount();
+		int uriIndex = -1;
+		for(int i = 0; i < count; i++) {
+			final IStrategoTerm subterm = key.getSubterm(i);
+			if(isURI(subterm)) {
+				if(uriIndex != -1)
+					return null;
+				uriIndex = i;
+			} else if(containsURI(subterm)) {
+				return null;
+			}
+		}
+		if(uriIndex == -1)
+			return null;
+
+		final IStrategoTerm uri = key.getSubterm(uriIndex);
+		final IStrategoTerm[] subterms = new IStrategoTerm[count];
+		for(int i = 0; i < count; i++) {
+			subterms[i] = key.getSubterm(i);
+		}
+		subterms[uriIndex] = getEmptyURI(uri);
+		final IStrategoTerm template;
+		if(termType == IStrategoTerm.APPL)
+			template = factory.makeAppl(((IStrategoAppl) key).getConstructor(), subterms, key.getAnnotations());
+		else
+			template = factory.makeTuple(subterms, key.getAnnotations());
+		return new URIPath(template, getSegments(uri));
 	}
 
-	public IStrategoTerm getParentKey(IStrategoTerm key) {
-		// TODO: transformer is not thread-safe because of transformed field.
+	private IStrategoTerm transform(IStrategoTerm key) {
+		// The transformer returns the same instance if no URI was transformed.
 		final IStrategoTerm parentKey = transformer.transform(key);
-		if(!transformer.transformed)
+		if(parentKey == key)
 			return null;
 		return parentKey;
 	}
+
+	private IStrategoTerm getParentURI(IStrategoTerm uri) {
+		final IStrategoTerm language = uri.getSubterm(0);
+		final IStrategoList segments = (IStrategoList) uri.getSubterm(1);
+		if(segments.getSubtermCount() == 0)
+			return null;
+		return factory.makeAppl(uriConstructor, language, segments.tail());
+	}
+
+	private IStrategoTerm getEmptyURI(IStrategoTerm uri) {
+		return factory.makeAppl(uriConstructor, uri.getSubterm(0), factory.makeList());
+	}
+
+	private IStrategoTerm[] getSegments(IStrategoTerm uri) {
+		final IStrategoList segments = (IStrategoList) uri.getSubterm(1);
+		final IStrategoTerm[] path = new IStrategoTerm[segments.getSubtermCount()];
+		int i = path.length;
+		for(IStrategoList list = segments; !list.isEmpty(); list = list.tail()) {
+			path[--i] = list.head();
+		}
+		return path;
+	}
+
+	/**
+	 * Checks if the parent of given URI is the same as that computed by the transformer, which also transforms the
+	 * URIs nested in the parent URI.
+	 */
+	private boolean isSimpleURI(IStrategoTerm uri) {
+		final IStrategoList segments = (IStrategoList) uri.getSubterm(1);
+		return !segments.isEmpty() && !containsURI(uri.getSubterm(0)) && !containsURI(segments.tail());
+	}
+
+	/**
+	 * Checks if given term is or contains a URI.
+	 */
+	private boolean containsURI(IStrategoTerm term) {
+		if(term.getTermType() == IStrategoTerm.LIST) {
+			for(IStrategoList list = (IStrategoList) term; !list.isEmpty(); list = list.tail()) {
+				if(containsURI(list.head()))
+					return true;
+			}
+			return false;
+		}
+		if(isURI(term))
+			return true;
+		for(int i = 0; i < term.getSubtermCount(); i++) {
+			if(containsURI(term.getSubterm(i)))
+				return true;
+		}
+		return false;
+	}
+
+	private boolean isURI(IStrategoTerm term) {
+		return term.getTermType() == IStrategoTerm.APPL
+			&& ((IStrategoAppl) term).getConstructor().equals(uriConstructor);
+	}
 }
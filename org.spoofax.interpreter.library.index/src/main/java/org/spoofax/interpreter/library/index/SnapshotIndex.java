@@ -0,0 +1,250 @@
+package org.spoofax.interpreter.library.index;
+
+import java.util.Collections;
+import java.util.Set;
+
+import org.spoofax.interpreter.terms.IStrategoTerm;
+import org.spoofax.interpreter.terms.IStrategoTuple;
+import org.spoofax.interpreter.terms.ITermFactory;
+
+import com.google.common.collect.Sets;
+
+/**
+ * An index that stores its entries in immutable snapshots, such that it can be read by multiple threads while it is
+ * being modified. Every modification creates a new snapshot that shares most of its structure with the previous one,
+ * and publishes it at once. Readers never block, and see either all or none of the changes of a modification; a
+ * reader that needs several queries to be consistent with each other uses a single {@link #snapshot()}.
+ *
+ * Modifications are synchronized on the index. Unlike {@link Index}, the entries of a source remain visible while it
+ * is being collected, and are replaced by the collected entries when collection is stopped.
+ */
+public class SnapshotIndex implements IIndex {
+    /**
+     * An immutable state of a {@link SnapshotIndex}.
+     */
+    public static final class Snapshot {
+        private final HashTrieSetMultimap<IStrategoTerm, IndexEntry> entries;
+        private final HashTrieSetMultimap<IStrategoTerm, IndexEntry> childs;
+        private final HashTrieSetMultimap<IStrategoTerm, IndexEntry> entriesPerSource;
+        private final IndexParentKeyFactory parentKeyFactory;
+        /**
+         * The entries by URI path, or null until descendants are first requested from this snapshot or the snapshot it
+         * was derived from, since maintaining the trie doubles the cost of adding entries. Threads that race to build
+         * the trie build equal tries.
+         */
+        private volatile HashTrieURITrie descendants;
+
+
+        private Snapshot(IndexParentKeyFactory parentKeyFactory) {
+            this(HashTrieSetMultimap.<IStrategoTerm, IndexEntry>empty(),
+                HashTrieSetMultimap.<IStrategoTerm, IndexEntry>empty(),
+                HashTrieSetMultimap.<IStrategoTerm, IndexEntry>empty(), null, parentKeyFactory);
+        }
+
+        private Snapshot(HashTrieSetMultimap<IStrategoTerm, IndexEntry> entries,
+            HashTrieSetMultimap<IStrategoTerm, IndexEntry> childs,
+            HashTrieSetMultimap<IStrategoTerm, IndexEntry> entriesPerSource, HashTrieURITrie descendants,
+            IndexParentKeyFactory parentKeyFactory) {
+            this.entries = entries;
+            this.childs = childs;
+            this.entriesPerSource = entriesPerSource;
+            this.descendants = descendants;
+            this.parentKeyFactory = parentKeyFactory;
+        }
+
+
+        public Iterable<IndexEntry> get(IStrategoTerm key) {
+            return entries.get(key);
+        }
+
+        public Iterable<IndexEntry> getChilds(IStrategoTerm key) {
+            return childs.get(key);
+        }
+
+        public Iterable<IndexEntry> getDescendants(IStrategoTerm key) {
+            final URIPath uriPath = parentKeyFactory.getURIPath(key);
+            if(uriPath == null)
+                return Collections.emptyList();
+            HashTrieURITrie descendants = this.descendants;
+            if(descendants == null) {
+                descendants = HashTrieURITrie.empty();
+                for(final IndexEntry entry : entries.values()) {
+                    final URIPath entryURIPath = parentKeyFactory.getURIPath(entry);
+                    if(entryURIPath != null) {
+                        descendants = descendants.put(entryURIPath, entry);
+                    }
+                }
+                this.descendants = descendants;
+            }
+            return descendants.getDescendants(uriPath);
+        }
+
+        public Iterable<IndexEntry> getAll() {
+            return entries.values();
+        }
+
+        public Iterable<IndexEntry> getInSource(IStrategoTerm source) {
+            return entriesPerSource.get(source);
+        }
+
+        public Set<IStrategoTerm> getSourcesOf(IStrategoTerm key) {
+            final Set<IStrategoTerm> sources = Sets.newHashSet();
+            for(final IndexEntry entry : get(key)) {
+                sources.add(entry.source);
+            }
+            return sources;
+        }
+
+        public Iterable<IStrategoTerm> getAllSources() {
+            return entriesPerSource.keys();
+        }
+
+
+        private Snapshot add(IStrategoTerm source, Iterable<IndexEntry> entriesToAdd) {
+            HashTrieSetMultimap<IStrategoTerm, IndexEntry> newEntries = entries;
+            HashTrieSetMultimap<IStrategoTerm, IndexEntry> newChilds = childs;
+            HashTrieSetMultimap<IStrategoTerm, IndexEntry> newEntriesPerSource = entriesPerSource;
+            HashTrieURITrie newDescendants = descendants;
+            for(final IndexEntry entry : entriesToAdd) {
+                newEntries = newEntries.put(entry.key, entry);
+                final IStrategoTerm parentKey = parentKeyFactory.getParentKey(entry);
+                if(parentKey != null) {
+                    newChilds = newChilds.put(parentKey, entry);
+                }
+                if(newDescendants != null) {
+                    final URIPath uriPath = parentKeyFactory.getURIPath(entry);
+                    if(uriPath != null) {
+                        newDescendants = newDescendants.put(uriPath, entry);
+                    }
+                }
+                newEntriesPerSource = newEntriesPerSource.put(source, entry);
+            }
+            return new Snapshot(newEntries, newChilds, newEntriesPerSource, newDescendants, parentKeyFactory);
+        }
+
+        private Snapshot clearSource(IStrategoTerm source) {
+            HashTrieSetMultimap<IStrategoTerm, IndexEntry> newEntries = entries;
+            HashTrieSetMultimap<IStrategoTerm, IndexEntry> newChilds = childs;
+            HashTrieURITrie newDescendants = descendants;
+            for(final IndexEntry entry : getInSource(source)) {
+                newEntries = newEntries.remove(entry.key, entry);
+                final IStrategoTerm parentKey = parentKeyFactory.getParentKey(entry);
+                if(parentKey != null) {
+                    newChilds = newChilds.remove(parentKey, entry);
+                }
+                if(newDescendants != null) {
+                    final URIPath uriPath = parentKeyFactory.getURIPath(entry);
+                    if(uriPath != null) {
+                        newDescendants = newDescendants.remove(uriPath, entry);
+                    }
+                }
+            }
+            return new Snapshot(newEntries, newChilds, entriesPerSource.removeAll(source), newDescendants,
+                parentKeyFactory);
+        }
+    }
+
+
+    private final IndexEntryFactory entryFactory;
+    private final IndexParentKeyFactory parentKeyFactory;
+    private final IndexCollector collector;
+
+    private final Snapshot emptySnapshot;
+
+    private volatile Snapshot snapshot;
+
+
+    public SnapshotIndex(ITermFactory termFactory) {
+        this.entryFactory = new IndexEntryFactory(termFactory);
+        this.parentKeyFactory = new IndexParentKeyFactory(termFactory);
+        this.collector = new IndexCollector(termFactory, entryFactory);
+        this.emptySnapshot = new Snapshot(parentKeyFactory);
+        this.snapshot = emptySnapshot;
+    }
+
+
+    /**
+     * Gets the current state of the index, which is not affected by later modifications.
+     */
+    public Snapshot snapshot() {
+        return snapshot;
+    }
+
+    @Override public IndexEntryFactory entryFactory() {
+        return entryFactory;
+    }
+
+    @Override public synchronized void startCollection(IStrategoTerm source) {
+        collector.start(source, getInSource(source));
+    }
+
+    @Override public synchronized IndexEntry collect(IStrategoTerm key, IStrategoTerm value) {
+        return collector.add(key, value);
+    }
+
+    @Override public synchronized IndexEntry collect(IStrategoTerm key) {
+        return collector.add(key);
+    }
+
+    @Override public synchronized IStrategoTuple stopCollection(IStrategoTerm source) {
+        replaceSource(source, collector.getAddedEntries());
+        return collector.stop();
+    }
+
+    @Override public IndexCollectionSession startCollectionSession(IStrategoTerm source) {
+        return new IndexCollectionSession(this, source);
+    }
+
+    @Override public synchronized void add(IndexEntry entry) {
+        snapshot = snapshot.add(entry.source, Collections.singleton(entry));
+    }
+
+    @Override public synchronized void addAll(IStrategoTerm source, Iterable<IndexEntry> entriesToAdd) {
+        snapshot = snapshot.add(source, entriesToAdd);
+    }
+
+    @Override public synchronized void replaceSource(IStrategoTerm source, Iterable<IndexEntry> entriesToAdd) {
+        snapshot = snapshot.clearSource(source).add(source, entriesToAdd);
+    }
+
+    @Override public Iterable<IndexEntry> get(IStrategoTerm key) {
+        return snapshot.get(key);
+    }
+
+    @Override public Iterable<IndexEntry> getChilds(IStrategoTerm key) {
+        return snapshot.getChilds(key);
+    }
+
+    @Override public Iterable<IndexEntry> getDescendants(IStrategoTerm key) {
+        return snapshot.getDescendants(key);
+    }
+
+    @Override public Iterable<IndexEntry> getInSource(IStrategoTerm source) {
+        return snapshot.getInSource(source);
+    }
+
+    @Override public Set<IStrategoTerm> getSourcesOf(IStrategoTerm key) {
+        return snapshot.getSourcesOf(key);
+    }
+
+    @Override public Iterable<IndexEntry> getAll() {
+        return snapshot.getAll();
+    }
+
+    @Override public synchronized void clearSource(IStrategoTerm source) {
+        snapshot = snapshot.clearSource(source);
+    }
+
+    @Override public Iterable<IStrategoTerm> getAllSources() {
+        return snapshot.getAllSources();
+    }
+
+    @Override public synchronized void recover() {
+        collector.recover();
+    }
+
+    @Override public synchronized void reset() {
+        snapshot = emptySnapshot;
+        collector.reset();
+    }
+}
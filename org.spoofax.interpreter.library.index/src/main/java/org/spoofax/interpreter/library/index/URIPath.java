@@ -0,0 +1,27 @@
+package org.spoofax.interpreter.library.index;
+
+import org.spoofax.interpreter.terms.IStrategoTerm;
+
+/**
+ * The location of a key in a {@link URITrie}: the key with the segments of its URI removed, and the segments of the
+ * URI from the outermost to the innermost. Keys that are equal except for their URI have the same template.
+ *
+ * @see IndexParentKeyFactory#getURIPath(IStrategoTerm)
+ */
+final class URIPath {
+    /**
+     * The key with its URI replaced by a URI without segments and annotations.
+     */
+    final IStrategoTerm template;
+
+    /**
+     * The segments of the URI, starting with the outermost segment, which is the last element of the segment list.
+     */
+    final IStrategoTerm[] segments;
+
+
+    URIPath(IStrategoTerm template, IStrategoTerm[] segments) {
+        this.template = template;
+        this.segments = segments;
+    }
+}
@@ -0,0 +1,151 @@
+package org.spoofax.interpreter.library.index;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.spoofax.interpreter.terms.IStrategoTerm;
+
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+/**
+ * A trie of index entries over the {@link URIPath} of their key, where the children of the root are the templates
+ * and the children of those are the URI segments, outermost first. The entries of all keys that extend the URI of a
+ * key are stored below the node of that key, such that they can be found in time proportional to their number.
+ *
+ * Nodes without entries below them are removed. Not thread-safe.
+ *
+ * @see ConcurrentURITrie
+ */
+final class URITrie {
+    private static final class Node {
+        private Map<IStrategoTerm, Node> children;
+        /**
+         * Null if the node has no entries, the entry if it has one entry, or a set of entries.
+         */
+        private Object entries;
+
+
+        private Node child(IStrategoTerm element) {
+            if(children == null)
+                return null;
+            return children.get(element);
+        }
+
+        private Node getOrAddChild(IStrategoTerm element) {
+            if(children == null)
+                children = Maps.newHashMapWithExpectedSize(2);
+            Node child = children.get(element);
+            if(child == null) {
+                child = new Node();
+                children.put(element, child);
+            }
+            return child;
+        }
+
+        private void addEntry(IndexEntry entry) {
+            if(entries == null) {
+                entries = entry;
+            } else if(entries instanceof IndexEntry) {
+                if(entries.equals(entry))
+                    return;
+                final Set<IndexEntry> set = Sets.newHashSet();
+                set.add((IndexEntry) entries);
+                set.add(entry);
+                entries = set;
+            } else {
+                getEntrySet().add(entry);
+            }
+        }
+
+        private boolean removeEntry(IndexEntry entry) {
+            if(entries == null)
+                return false;
+            if(entries instanceof IndexEntry) {
+                if(!entries.equals(entry))
+                    return false;
+                entries = null;
+                return true;
+            }
+            final Set<IndexEntry> set = getEntrySet();
+            if(!set.remove(entry))
+                return false;
+            if(set.isEmpty())
+                entries = null;
+            return true;
+        }
+
+        @SuppressWarnings("unchecked") private Set<IndexEntry> getEntrySet() {
+            return (Set<IndexEntry>) entries;
+        }
+
+        private boolean isEmpty() {
+            return (children == null || children.isEmpty()) && entries == null;
+        }
+
+        private void collect(List<IndexEntry> result) {
+            if(entries instanceof IndexEntry)
+                result.add((IndexEntry) entries);
+            else if(entries != null)
+                result.addAll(getEntrySet());
+            if(children != null) {
+                for(final Node child : children.values()) {
+                    child.collect(result);
+                }
+            }
+        }
+    }
+
+
+    private final Node root = new Node();
+
+
+    public void add(URIPath path, IndexEntry entry) {
+        Node node = root.getOrAddChild(path.template);
+        for(final IStrategoTerm segment : path.segments) {
+            node = node.getOrAddChild(segment);
+        }
+        node.addEntry(entry);
+    }
+
+    public void remove(URIPath path, IndexEntry entry) {
+        final Node[] nodes = new Node[path.segments.length + 2];
+        nodes[0] = root;
+        Node node = root.child(path.template);
+        for(int i = 0; node != null && i < path.segments.length; i++) {
+            nodes[i + 1] = node;
+            node = node.child(path.segments[i]);
+        }
+        if(node == null || !node.removeEntry(entry))
+            return;
+
+        // Remove the nodes that became empty, bottom-up.
+        nodes[nodes.length - 1] = node;
+        for(int i = nodes.length - 1; i > 0 && nodes[i].isEmpty(); i--) {
+            final IStrategoTerm element = i == 1 ? path.template : path.segments[i - 2];
+            nodes[i - 1].children.remove(element);
+        }
+    }
+
+    /**
+     * Gets the entries whose keys have the template of given path and a URI that extends the URI of given path with
+     * one or more segments.
+     */
+    public List<IndexEntry> getDescendants(URIPath path) {
+        Node node = root.child(path.template);
+        for(int i = 0; node != null && i < path.segments.length; i++) {
+            node = node.child(path.segments[i]);
+        }
+        if(node == null || node.children == null)
+            return Collections.emptyList();
+
+        final List<IndexEntry> result = new ArrayList<IndexEntry>();
+        for(final Node child : node.children.values()) {
+            child.collect(result);
+        }
+        return result;
+    }
+}
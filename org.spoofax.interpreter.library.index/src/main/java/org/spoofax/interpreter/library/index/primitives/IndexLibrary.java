@@ -12,6 +12,7 @@ public class IndexLibrary extends AbstractStrategoOperatorRegistry {
         add(new LANG_index_collect());
         add(new LANG_index_collect_boolean());
         add(new LANG_index_get_all_childs());
+        add(new LANG_index_get_all_descendants());
         add(new LANG_index_get_all_pairs());
         add(new LANG_index_get_all_pairs_in_source());
         add(new LANG_index_get_all_sources());
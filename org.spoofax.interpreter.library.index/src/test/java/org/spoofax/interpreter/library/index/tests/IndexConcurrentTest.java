@@ -0,0 +1,302 @@
+package org.spoofax.interpreter.library.index.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.spoofax.interpreter.library.index.IIndex;
+import org.spoofax.interpreter.library.index.IndexCollectionSession;
+import org.spoofax.interpreter.library.index.IndexEntry;
+import org.spoofax.interpreter.library.index.IndexManager;
+import org.spoofax.interpreter.terms.IStrategoAppl;
+import org.spoofax.interpreter.terms.IStrategoTerm;
+
+import com.google.common.collect.Iterables;
+
+public class IndexConcurrentTest extends IndexTest {
+    private static final int NUM_THREADS = 4;
+    private static final int NUM_FILES = 40;
+    private static final int NUM_ITEMS = 50;
+    private static final int NUM_GET = 2000;
+    private static final int NUM_ROUNDS = 10;
+
+    private IIndex concurrentIndex;
+    private IStrategoTerm[] files;
+    private IStrategoAppl def;
+    private IStrategoAppl defParent;
+    private IStrategoAppl methodParent;
+    private IStrategoAppl use;
+
+    @Before public void setUp() {
+        concurrentIndex = IndexManager.createConcurrent(factory);
+        files = new IStrategoTerm[NUM_FILES];
+        for(int i = 0; i < NUM_FILES; ++i) {
+            files[i] = source("Source" + i);
+        }
+        def = def("Class", "java", "lang", "String");
+        defParent = def("Class", "java", "lang");
+        methodParent = def("Method", "java", "lang", "String");
+        use = use("Class", "java", "lang", "System");
+    }
+
+    @Test public void collect() throws Throwable {
+        final Runnable[] workers = new Runnable[NUM_THREADS];
+        for(int i = 0; i < NUM_THREADS; ++i) {
+            workers[i] = collector(i, NUM_THREADS);
+        }
+        run(workers);
+        assertCollected();
+    }
+
+    @Test public void collectAndGet() throws Throwable {
+        final Runnable[] workers = new Runnable[NUM_THREADS];
+        final int numCollectors = NUM_THREADS / 2;
+        for(int i = 0; i < numCollectors; ++i) {
+            workers[i] = collector(i, numCollectors);
+        }
+        for(int i = numCollectors; i < NUM_THREADS; ++i) {
+            workers[i] = getter();
+        }
+        run(workers);
+        assertCollected();
+    }
+
+    @Test public void collectAndGetDescendants() throws Throwable {
+        final Runnable[] workers = new Runnable[NUM_THREADS];
+        for(int i = 0; i < NUM_THREADS; ++i) {
+            workers[i] = collector(i, NUM_THREADS);
+        }
+        run(workers);
+        // Recollect every file while descendants are requested for the first time, which builds the trie of
+        // descendants while entries are removed and added.
+        final int numCollectors = NUM_THREADS / 2;
+        for(int i = 0; i < numCollectors; ++i) {
+            workers[i] = collector(i, numCollectors);
+        }
+        for(int i = numCollectors; i < NUM_THREADS; ++i) {
+            workers[i] = descendantsGetter();
+        }
+        run(workers);
+        assertCollected();
+    }
+
+    @Test public void collectSessions() throws Throwable {
+        final Runnable[] workers = new Runnable[NUM_THREADS];
+        for(int i = 0; i < NUM_THREADS; ++i) {
+            workers[i] = sessionCollector(i, NUM_THREADS, false);
+        }
+        run(workers);
+        assertCollected();
+    }
+
+    @Test public void abortSessions() throws Throwable {
+        final Runnable[] workers = new Runnable[NUM_THREADS];
+        for(int i = 0; i < NUM_THREADS; ++i) {
+            workers[i] = sessionCollector(i, NUM_THREADS, false);
+        }
+        run(workers);
+        // Sessions that are aborted while other sessions commit do not change the index.
+        for(int i = 0; i < NUM_THREADS; ++i) {
+            workers[i] = sessionCollector(i, NUM_THREADS, i % 2 == 0);
+        }
+        run(workers);
+        assertCollected();
+    }
+
+    @Test public void commitSessionsAndGetSources() throws Throwable {
+        final Runnable[] workers = new Runnable[NUM_THREADS];
+        for(int i = 0; i < NUM_THREADS; ++i) {
+            workers[i] = sessionCollector(i, NUM_THREADS, false);
+        }
+        run(workers);
+        // Sessions that replace the entries of a file by different entries never leave the file without entries.
+        final int numCollectors = NUM_THREADS / 2;
+        for(int i = 0; i < numCollectors; ++i) {
+            workers[i] = sessionRecollector(i, numCollectors);
+        }
+        for(int i = numCollectors; i < NUM_THREADS; ++i) {
+            workers[i] = sourceGetter();
+        }
+        run(workers);
+        for(int file = 0; file < NUM_FILES; ++file) {
+            final Iterable<IndexEntry> entries = concurrentIndex.getInSource(files[file]);
+            assertEquals(1, size(entries));
+            assertTrue(containsEntry(entries, str("Value" + (NUM_ROUNDS - 1))));
+        }
+    }
+
+    @Test public void recollect() throws Throwable {
+        final Runnable[] workers = new Runnable[NUM_THREADS];
+        for(int i = 0; i < NUM_THREADS; ++i) {
+            workers[i] = collector(i, NUM_THREADS);
+        }
+        run(workers);
+        // Collect every file again from a different thread, which replaces its entries.
+        for(int i = 0; i < NUM_THREADS; ++i) {
+            workers[i] = collector((i + 1) % NUM_THREADS, NUM_THREADS);
+        }
+        run(workers);
+        assertCollected();
+    }
+
+
+    /**
+     * Collects every file whose number modulo the number of collectors equals given collector number, such that all
+     * collectors together collect every file once. Every file has one entry of its own, and shares its other entries
+     * with the other files.
+     */
+    private Runnable collector(final int collector, final int numCollectors) {
+        return new Runnable() {
+            @Override public void run() {
+                for(int file = collector; file < NUM_FILES; file += numCollectors) {
+                    final IStrategoTerm source = files[file];
+                    concurrentIndex.startCollection(source);
+                    concurrentIndex.collect(def("Method", "java", "lang", "String", "m" + file));
+                    for(int i = 0; i < NUM_ITEMS; ++i) {
+                        concurrentIndex.collect(def);
+                        concurrentIndex.collect(use);
+                    }
+                    concurrentIndex.stopCollection(source);
+                }
+            }
+        };
+    }
+
+    /**
+     * Collects the same files as {@link #collector(int, int)}, using a collection session per file, which is aborted
+     * if requested.
+     */
+    private Runnable sessionCollector(final int collector, final int numCollectors, final boolean abort) {
+        return new Runnable() {
+            @Override public void run() {
+                for(int file = collector; file < NUM_FILES; file += numCollectors) {
+                    final IndexCollectionSession session = concurrentIndex.startCollectionSession(files[file]);
+                    session.collect(def("Method", "java", "lang", "String", "m" + file));
+                    for(int i = 0; i < NUM_ITEMS; ++i) {
+                        session.collect(def);
+                        session.collect(use);
+                    }
+                    if(abort) {
+                        session.collect(use("Class", "java", "lang", "Aborted"));
+                        session.abort();
+                    } else {
+                        session.commit();
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * Collects the same files as {@link #collector(int, int)} several times, using a collection session per file, with
+     * a single entry whose value differs in every round.
+     */
+    private Runnable sessionRecollector(final int collector, final int numCollectors) {
+        return new Runnable() {
+            @Override public void run() {
+                for(int round = 0; round < NUM_ROUNDS; ++round) {
+                    for(int file = collector; file < NUM_FILES; file += numCollectors) {
+                        final IndexCollectionSession session = concurrentIndex.startCollectionSession(files[file]);
+                        session.collect(def("Method", "java", "lang", "String", "m" + file), str("Value" + round));
+                        session.commit();
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * Queries the entries of every file while they are being replaced, checking that they are never empty.
+     */
+    private Runnable sourceGetter() {
+        return new Runnable() {
+            @Override public void run() {
+                for(int i = 0; i < NUM_GET; ++i) {
+                    final int file = i % NUM_FILES;
+                    assertTrue(size(concurrentIndex.getInSource(files[file])) > 0);
+                    assertTrue(size(concurrentIndex.get(def("Method", "java", "lang", "String", "m" + file))) > 0);
+                }
+            }
+        };
+    }
+
+    /**
+     * Queries the index while it is being collected, checking that the results are never larger than they are once
+     * every file has been collected.
+     */
+    private Runnable getter() {
+        return new Runnable() {
+            @Override public void run() {
+                for(int i = 0; i < NUM_GET; ++i) {
+                    assertTrue(size(concurrentIndex.get(def)) <= NUM_FILES);
+                    assertTrue(size(concurrentIndex.getChilds(methodParent)) <= NUM_FILES);
+                    assertTrue(size(concurrentIndex.getChilds(defParent)) <= NUM_FILES);
+                }
+            }
+        };
+    }
+
+    private Runnable descendantsGetter() {
+        return new Runnable() {
+            @Override public void run() {
+                for(int i = 0; i < NUM_GET; ++i) {
+                    assertTrue(size(concurrentIndex.getDescendants(methodParent)) <= NUM_FILES);
+                    assertTrue(size(concurrentIndex.getDescendants(defParent)) <= NUM_FILES);
+                }
+            }
+        };
+    }
+
+    /**
+     * Runs given workers in separate threads, rethrowing the first failure of a worker.
+     */
+    private static void run(Runnable[] workers) throws Throwable {
+        final CountDownLatch start = new CountDownLatch(1);
+        final Queue<Throwable> failures = new ConcurrentLinkedQueue<Throwable>();
+        final Thread[] threads = new Thread[workers.length];
+        for(int i = 0; i < workers.length; ++i) {
+            final Runnable worker = workers[i];
+            threads[i] = new Thread() {
+                @Override public void run() {
+                    try {
+                        start.await();
+                        worker.run();
+                    } catch(Throwable e) {
+                        failures.add(e);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+
+        start.countDown();
+        for(Thread thread : threads) {
+            thread.join();
+        }
+
+        if(!failures.isEmpty())
+            throw failures.peek();
+    }
+
+    private void assertCollected() {
+        assertEquals(NUM_FILES, size(concurrentIndex.get(def)));
+        assertEquals(NUM_FILES, size(concurrentIndex.get(use)));
+        assertEquals(NUM_FILES, size(concurrentIndex.getChilds(methodParent)));
+        assertEquals(NUM_FILES, size(concurrentIndex.getChilds(defParent)));
+        assertEquals(NUM_FILES, size(concurrentIndex.getDescendants(methodParent)));
+        assertEquals(NUM_FILES, size(concurrentIndex.getDescendants(defParent)));
+        assertEquals(NUM_FILES * 2, size(concurrentIndex.getDescendants(def("Method"))));
+        assertEquals(NUM_FILES * 3, size(concurrentIndex.getAll()));
+        assertEquals(NUM_FILES, Iterables.size(concurrentIndex.getAllSources()));
+        assertEquals(0, size(concurrentIndex.get(use("Class", "java", "lang", "Aborted"))));
+        for(int file = 0; file < NUM_FILES; ++file) {
+            final Iterable<IndexEntry> entries = concurrentIndex.getInSource(files[file]);
+            assertEquals(3, size(entries));
+            assertTrue(containsEntry(entries, def("Method", "java", "lang", "String", "m" + file)));
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package org.spoofax.interpreter.library.index.tests;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.VFS;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.spoofax.interpreter.library.index.IIndex;
+import org.spoofax.interpreter.library.index.IndexEntry;
+import org.spoofax.interpreter.library.index.IndexManager;
+import org.spoofax.interpreter.terms.IStrategoTerm;
+import org.spoofax.terms.io.binary.SAFElementReader;
+import org.spoofax.terms.io.binary.SegmentedSAFWriter;
+
+import com.google.common.collect.Iterables;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingInputStream;
+
+public class IndexPersistTest extends IndexTest {
+    private static final int NUM_FILES = 20;
+    private static final int NUM_ITEMS = 50;
+
+    private IIndex persistIndex;
+    private IStrategoTerm[] files;
+    private FileObject indexFile;
+
+    @Before public void setUp() throws IOException {
+        persistIndex = IndexManager.create(factory);
+        files = new IStrategoTerm[NUM_FILES];
+        for(int file = 0; file < NUM_FILES; ++file) {
+            files[file] = source("Source" + file);
+            startCollection(persistIndex, files[file]);
+            for(int i = 0; i < NUM_ITEMS; ++i) {
+                collect(persistIndex, def("Class", "java", "lang", "C" + i), str("Value" + file));
+                collect(persistIndex, use("Class", "java", "lang", "C" + i, "m" + file));
+            }
+            stopCollection(persistIndex, files[file]);
+        }
+        indexFile = VFS.getManager().resolveFile("ram:///IndexPersistTest/index.idx");
+    }
+
+    @After public void tearDown() throws IOException {
+        indexFile.delete();
+    }
+
+    @Test public void roundTrip() throws Exception {
+        IndexManager.write(persistIndex, indexFile, factory);
+        final IIndex readIndex = IndexManager.read(indexFile, factory);
+
+        assertEquals(NUM_FILES, Iterables.size(readIndex.getAllSources()));
+        assertEquals(NUM_FILES * NUM_ITEMS * 2, size(readIndex.getAll()));
+        for(int file = 0; file < NUM_FILES; ++file) {
+            final Iterable<IndexEntry> entries = readIndex.getInSource(files[file]);
+            assertEquals(NUM_ITEMS * 2, size(entries));
+            for(IndexEntry entry : persistIndex.getInSource(files[file])) {
+                assertTrue(Iterables.contains(entries, entry));
+            }
+        }
+        for(int i = 0; i < NUM_ITEMS; ++i) {
+            assertEquals(NUM_FILES, size(readIndex.get(def("Class", "java", "lang", "C" + i))));
+            assertEquals(NUM_FILES, size(readIndex.getChilds(use("Class", "java", "lang", "C" + i))));
+        }
+    }
+
+    @Test public void roundTripEmpty() throws Exception {
+        IndexManager.write(IndexManager.create(factory), indexFile, factory);
+        final IIndex readIndex = IndexManager.read(indexFile, factory);
+
+        assertEquals(0, Iterables.size(readIndex.getAllSources()));
+        assertEquals(0, size(readIndex.getAll()));
+    }
+
+    /**
+     * Checks that every source is written as a separate segment, and that reading a source only reads its own
+     * segment, such that the sharing tables of the sources read before it can be discarded.
+     */
+    @Test public void readOneSourceAtATime() throws Exception {
+        IndexManager.write(persistIndex, indexFile, factory);
+
+        final InputStream file = indexFile.getContent().getInputStream();
+        final ByteBuffer data;
+        try {
+            data = ByteBuffer.wrap(ByteStreams.toByteArray(file));
+        } finally {
+            file.close();
+        }
+        assertEquals(SegmentedSAFWriter.TOKEN, data.get(0));
+        final int directoryStart = data.limit() - 4 - NUM_FILES * 8;
+        assertEquals(NUM_FILES, data.getInt(data.limit() - 4));
+        assertEquals(-1, data.getInt(directoryStart - 4));
+        final int[] segmentSizes = new int[NUM_FILES];
+        for(int i = 0; i < NUM_FILES; ++i) {
+            assertEquals(1, data.getInt(directoryStart + i * 8));
+            segmentSizes[i] = data.getInt(directoryStart + i * 8 + 4);
+        }
+
+        final InputStream input = indexFile.getContent().getInputStream();
+        final CountingInputStream counter = new CountingInputStream(input);
+        final SAFElementReader reader = new SAFElementReader(factory, counter);
+        try {
+            long expectedCount = 1;
+            for(int i = 0; i < NUM_FILES; ++i) {
+                assertTrue(reader.hasNext());
+                final IStrategoTerm sourceTerm = reader.next();
+                expectedCount += 4 + segmentSizes[i];
+                assertEquals(expectedCount, counter.getCount());
+                assertEquals(NUM_ITEMS * 2, sourceTerm.getSubterm(1).getSubtermCount());
+            }
+            assertFalse(reader.hasNext());
+            assertEquals(directoryStart, counter.getCount());
+        } finally {
+            reader.close();
+        }
+    }
+}
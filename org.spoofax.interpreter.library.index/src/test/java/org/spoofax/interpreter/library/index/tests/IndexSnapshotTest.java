@@ -0,0 +1,108 @@
+package org.spoofax.interpreter.library.index.tests;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.spoofax.interpreter.library.index.SnapshotIndex;
+import org.spoofax.interpreter.terms.IStrategoAppl;
+import org.spoofax.interpreter.terms.IStrategoTerm;
+
+public class IndexSnapshotTest extends IndexTest {
+    private SnapshotIndex snapshotIndex;
+
+    @Before public void setUp() {
+        snapshotIndex = new SnapshotIndex(factory);
+    }
+
+    @Test public void snapshotsAreNotModified() {
+        IStrategoTerm source1 = source("TestSource", "Source", "1");
+        IStrategoAppl def1 = def("Entity", "CRM", "Person");
+        IStrategoAppl def2 = def("Class", "java", "lang", "String");
+
+        startCollection(snapshotIndex, source1);
+        collect(snapshotIndex, def1);
+        stopCollection(snapshotIndex, source1);
+        SnapshotIndex.Snapshot snapshot = snapshotIndex.snapshot();
+
+        startCollection(snapshotIndex, source1);
+        collect(snapshotIndex, def2);
+        stopCollection(snapshotIndex, source1);
+
+        assertEquals(1, size(snapshot.get(def1)));
+        assertEquals(0, size(snapshot.get(def2)));
+        assertTrue(containsEntry(snapshot.getInSource(source1), def1));
+
+        assertEquals(0, size(snapshotIndex.get(def1)));
+        assertEquals(1, size(snapshotIndex.get(def2)));
+        assertTrue(containsEntry(snapshotIndex.getInSource(source1), def2));
+    }
+
+    @Test public void entriesRemainVisibleDuringCollection() {
+        IStrategoTerm source1 = source("TestSource", "Source", "1");
+        IStrategoAppl def1 = def("Entity", "CRM", "Person");
+        IStrategoAppl def2 = def("Class", "java", "lang", "String");
+
+        add(snapshotIndex, def1, source1);
+
+        startCollection(snapshotIndex, source1);
+        collect(snapshotIndex, def2);
+        assertEquals(1, size(snapshotIndex.get(def1)));
+        assertEquals(0, size(snapshotIndex.get(def2)));
+        stopCollection(snapshotIndex, source1);
+
+        assertEquals(0, size(snapshotIndex.get(def1)));
+        assertEquals(1, size(snapshotIndex.get(def2)));
+    }
+
+    @Test public void childsAndSources() {
+        IStrategoTerm source1 = source("TestSource", "Source", "1");
+        IStrategoTerm source2 = source("TestSource", "Source", "2");
+        IStrategoAppl methodDef1 = def("Method", "java", "lang", "String", "indexOf");
+        IStrategoAppl methodDef2 = def("Method", "java", "lang", "String", "substring");
+        IStrategoAppl methodsTemplate = def("Method", "java", "lang", "String");
+
+        add(snapshotIndex, methodDef1, source1);
+        add(snapshotIndex, methodDef2, source2);
+
+        assertEquals(2, size(snapshotIndex.getChilds(methodsTemplate)));
+        assertTrue(containsSource(snapshotIndex.getAllSources(), source1));
+        assertTrue(containsSource(snapshotIndex.getAllSources(), source2));
+
+        snapshotIndex.clearSource(source1);
+
+        assertEquals(1, size(snapshotIndex.getChilds(methodsTemplate)));
+        assertFalse(containsSource(snapshotIndex.getAllSources(), source1));
+        assertEquals(1, size(snapshotIndex.getAll()));
+
+        snapshotIndex.reset();
+
+        assertEquals(0, size(snapshotIndex.getAll()));
+    }
+
+    @Test public void descendantsOfSnapshots() {
+        IStrategoTerm source1 = source("TestSource", "Source", "1");
+        IStrategoAppl methodDef1 = def("Method", "java", "lang", "String", "indexOf");
+        IStrategoAppl methodDef2 = def("Method", "java", "lang", "String", "substring");
+        IStrategoAppl stringTemplate = def("Method", "java", "lang", "String");
+
+        add(snapshotIndex, methodDef1, source1);
+        SnapshotIndex.Snapshot snapshot1 = snapshotIndex.snapshot();
+        add(snapshotIndex, methodDef2, source1);
+        SnapshotIndex.Snapshot snapshot2 = snapshotIndex.snapshot();
+
+        // Snapshots taken before descendants are first requested find their own entries.
+        assertEquals(2, size(snapshotIndex.getDescendants(stringTemplate)));
+        assertEquals(1, size(snapshot1.getDescendants(stringTemplate)));
+        assertTrue(containsEntry(snapshot1.getDescendants(stringTemplate), methodDef1));
+        assertEquals(2, size(snapshot2.getDescendants(stringTemplate)));
+
+        snapshotIndex.clearSource(source1);
+        SnapshotIndex.Snapshot snapshot3 = snapshotIndex.snapshot();
+        add(snapshotIndex, methodDef1, source1);
+
+        assertEquals(0, size(snapshot3.getDescendants(stringTemplate)));
+        assertEquals(1, size(snapshotIndex.getDescendants(stringTemplate)));
+        assertEquals(2, size(snapshot2.getDescendants(stringTemplate)));
+    }
+}
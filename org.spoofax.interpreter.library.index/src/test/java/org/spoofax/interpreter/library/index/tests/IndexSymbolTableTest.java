@@ -4,9 +4,13 @@ import static org.junit.Assert.*;
 
 import org.junit.Before;
 import org.junit.Test;
+import org.spoofax.interpreter.library.index.IIndex;
+import org.spoofax.interpreter.library.index.IndexCollectionSession;
 import org.spoofax.interpreter.library.index.IndexEntry;
+import org.spoofax.interpreter.library.index.IndexManager;
 import org.spoofax.interpreter.terms.IStrategoAppl;
 import org.spoofax.interpreter.terms.IStrategoTerm;
+import org.spoofax.interpreter.terms.IStrategoTuple;
 
 import com.google.common.collect.Iterables;
 
@@ -158,6 +162,70 @@ public class IndexSymbolTableTest extends IndexTest {
         assertFalse(containsEntry(ret2, classDef));
     }
 
+    @Test public void getDescendantEntries() {
+        assertDescendantEntries(index);
+    }
+
+    @Test public void getDescendantEntriesConcurrent() {
+        assertDescendantEntries(IndexManager.createConcurrent(factory));
+    }
+
+    @Test public void getDescendantEntriesCopyOnWrite() {
+        assertDescendantEntries(IndexManager.createCopyOnWrite(factory));
+    }
+
+    private static void assertDescendantEntries(IIndex index) {
+        IStrategoTerm source1 = source("TestSource", "Source", "1");
+        IStrategoAppl methodDef1 = def("Method", "java", "lang", "String", "charAt");
+        IStrategoAppl methodDef2 = def("Method", "java", "util", "List", "get");
+        IStrategoAppl methodDef3 = def("Method", "javax", "swing", "JFrame", "pack");
+        IStrategoAppl methodDef4 = def("Method", "java", "lang", "String", "length");
+        IStrategoAppl methodUse = use("Method", "java", "lang", "String", "charAt");
+        IStrategoAppl fieldDef = def("Field", "java", "lang", "String", "length");
+
+        IStrategoAppl javaTemplate = def("Method", "java");
+        IStrategoAppl stringTemplate = def("Method", "java", "lang", "String");
+
+        // Entries added before descendants are first requested are found.
+        add(index, methodDef1, source1);
+        add(index, methodDef2, source1);
+        add(index, methodDef3, source);
+        add(index, methodUse, source);
+        add(index, fieldDef, source);
+
+        Iterable<IndexEntry> ret1 = index.getDescendants(javaTemplate);
+        Iterable<IndexEntry> ret2 = index.getDescendants(stringTemplate);
+        Iterable<IndexEntry> ret3 = index.getDescendants(methodDef1);
+
+        assertEquals(2, size(ret1));
+        assertTrue(containsEntry(ret1, methodDef1));
+        assertTrue(containsEntry(ret1, methodDef2));
+        assertFalse(containsEntry(ret1, methodDef3));
+        assertFalse(containsEntry(ret1, methodUse));
+        assertFalse(containsEntry(ret1, fieldDef));
+
+        assertEquals(1, size(ret2));
+        assertTrue(containsEntry(ret2, methodDef1));
+
+        assertEquals(0, size(ret3));
+
+        // Entries added and removed after descendants were requested are found and no longer found.
+        add(index, methodDef4, source1);
+        assertEquals(2, size(index.getDescendants(stringTemplate)));
+
+        index.clearSource(source1);
+
+        assertEquals(0, size(index.getDescendants(javaTemplate)));
+        // A URI without segments is the ancestor of all definitions.
+        assertEquals(2, size(index.getDescendants(def("Method"))));
+
+        index.reset();
+
+        assertEquals(0, size(index.getDescendants(def("Method"))));
+        add(index, methodDef1, source1);
+        assertEquals(1, size(index.getDescendants(javaTemplate)));
+    }
+
     @Test public void getEntriesInSourceAndRemoveSource() {
         IStrategoTerm source1 = source("TestSource", "Source", "1");
         IStrategoTerm source2 = source("TestSource", "Source", "2");
@@ -260,6 +328,56 @@ public class IndexSymbolTableTest extends IndexTest {
         assertFalse(containsSource(ret4, source2));
     }
 
+    @Test public void collectionSessions() {
+        IStrategoTerm source1 = source("TestSource", "Source", "1");
+        IStrategoTerm source2 = source("TestSource", "Source", "2");
+
+        IStrategoAppl def1 = def("Entity", "CRM", "Person");
+        IStrategoAppl read = read("Function", "CRM", "Person", "GetName");
+        IStrategoAppl def2 = def("Class", "java", "lang", "String");
+
+        IndexCollectionSession session1 = index.startCollectionSession(source1);
+        IndexCollectionSession session2 = index.startCollectionSession(source2);
+        session1.collect(def1);
+        session2.collect(def2);
+        session1.collect(read);
+
+        // Entries have not been committed yet.
+        assertEquals(0, size(index.getAll()));
+
+        IStrategoTuple diff1 = session1.commit();
+        assertEquals(2, size(index.getInSource(source1)));
+        assertEquals(0, size(index.getInSource(source2)));
+        assertEquals(0, diff1.getSubterm(0).getSubtermCount());
+        assertEquals(2, diff1.getSubterm(1).getSubtermCount());
+
+        session2.commit();
+        assertEquals(1, size(index.getInSource(source2)));
+        assertTrue(containsEntry(index.get(def2), source2, def2));
+
+        // Recollecting a source replaces its entries.
+        IndexCollectionSession session3 = index.startCollectionSession(source1);
+        session3.collect(def1);
+        IStrategoTuple diff3 = session3.commit();
+        assertEquals(1, size(index.getInSource(source1)));
+        assertEquals(0, size(index.get(read)));
+        assertEquals(1, diff3.getSubterm(0).getSubtermCount());
+        assertEquals(0, diff3.getSubterm(1).getSubtermCount());
+
+        // Aborted sessions do not change the index.
+        IndexCollectionSession session4 = index.startCollectionSession(source2);
+        session4.collect(read);
+        session4.abort();
+        assertEquals(1, size(index.getInSource(source2)));
+        assertEquals(0, size(index.get(read)));
+    }
+
+    @Test(expected = IllegalStateException.class) public void collectAfterCommit() {
+        IndexCollectionSession session = index.startCollectionSession(source);
+        session.commit();
+        session.collect(def("Class", "java", "lang", "String"));
+    }
+
     @Test public void clear() {
         IStrategoTerm source1 = source("TestSource", "Source", "1");
         IStrategoTerm source2 = source("TestSource", "Source", "2");
@@ -0,0 +1,41 @@
+package org.spoofax.interpreter.library.index.tests.performance;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+
+/**
+ * Counts the bytes allocated by the current thread, using the HotSpot extension of the thread management bean.
+ */
+public class AllocationCounter {
+	private static final com.sun.management.ThreadMXBean threads =
+		(com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+	private final long start = allocatedBytes();
+
+	public long getAllocatedBytes() {
+		return allocatedBytes() - start;
+	}
+
+	/**
+	 * Appends the bytes allocated since this counter was created, in total and per operation, to a CSV file.
+	 */
+	public void write(String prefixCSV, long numOperations, String fileName) throws IOException {
+		final long bytes = getAllocatedBytes();
+		final String line =
+			String.format(Locale.ROOT, "%s,%d,%d,%f%n", prefixCSV, numOperations, bytes, (double) bytes / numOperations);
+		System.out.print(line);
+		final Writer writer = new FileWriter(fileName, true);
+		try {
+			writer.write(line);
+		} finally {
+			writer.close();
+		}
+	}
+
+	private static long allocatedBytes() {
+		return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+}
@@ -0,0 +1,151 @@
+package org.spoofax.interpreter.library.index.tests.performance;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.util.Locale;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.spoofax.interpreter.terms.IStrategoConstructor;
+import org.spoofax.interpreter.terms.IStrategoList;
+import org.spoofax.interpreter.terms.IStrategoTerm;
+import org.spoofax.interpreter.terms.ITermFactory;
+import org.spoofax.terms.TermFactory;
+import org.spoofax.terms.io.columnar.ColumnarTermStore;
+import org.spoofax.terms.io.columnar.ColumnarTermWriter;
+
+import com.carrotsearch.junitbenchmarks.BenchmarkOptions;
+import com.carrotsearch.junitbenchmarks.BenchmarkRule;
+import com.carrotsearch.junitbenchmarks.Clock;
+
+/**
+ * Measures the latency and heap usage of columnar term stores, compared to the terms they store. The traversal
+ * benchmarks visit and hash every subterm; their allocations are appended to columnar_alloc.csv. The retained heap
+ * benchmarks append the bytes that stay reachable after building a store or a term to columnar_heap.csv.
+ */
+@BenchmarkOptions(benchmarkRounds = 5, warmupRounds = 3, callgc = true, clock = Clock.CPU_TIME)
+public class ColumnarPerformanceTest {
+	@Rule
+	public BenchmarkRule benchmarkRun;
+
+	private static int NUM_ENTRIES = 100000;
+
+	private final ITermFactory factory = new TermFactory();
+	private final IStrategoTerm term;
+	private final ByteBuffer buffer;
+
+	/**
+	 * Keeps the last computed hash, so that computing it cannot be optimized away.
+	 */
+	private int hash;
+
+	/**
+	 * Keeps the last built store or term reachable while measuring the retained heap.
+	 */
+	private Object retained;
+
+	public ColumnarPerformanceTest() {
+		try {
+			benchmarkRun =
+				new BenchmarkRule(new CSVResultsConsumer(String.valueOf(NUM_ENTRIES), new FileWriter("columnar.csv",
+					true)));
+		} catch(IOException e) {
+			e.printStackTrace();
+		}
+
+		term = makeTerm();
+		buffer = ColumnarTermWriter.encode(term);
+	}
+
+	@Test
+	public void encode() {
+		hash = ColumnarTermWriter.encode(term).capacity();
+	}
+
+	@Test
+	public void openAndGetRoot() {
+		hash = new ColumnarTermStore(buffer.duplicate()).getRoot().hashCode();
+	}
+
+	@Test
+	public void traverseColumnar() throws IOException {
+		final IStrategoTerm root = new ColumnarTermStore(buffer.duplicate()).getRoot();
+		final AllocationCounter counter = new AllocationCounter();
+		hash = traverse(root);
+		counter.write("traverseColumnar", NUM_ENTRIES, "columnar_alloc.csv");
+	}
+
+	@Test
+	public void traverseObjects() throws IOException {
+		final AllocationCounter counter = new AllocationCounter();
+		hash = traverse(term);
+		counter.write("traverseObjects", NUM_ENTRIES, "columnar_alloc.csv");
+	}
+
+	@Test
+	public void retainColumnar() throws IOException {
+		final long before = usedHeap();
+		final ByteBuffer copy = ByteBuffer.allocate(buffer.capacity());
+		copy.put(buffer.duplicate()).flip();
+		retained = new ColumnarTermStore(copy);
+		writeRetained("retainColumnar", usedHeap() - before);
+		retained = null;
+	}
+
+	@Test
+	public void retainObjects() throws IOException {
+		final long before = usedHeap();
+		retained = makeTerm();
+		writeRetained("retainObjects", usedHeap() - before);
+		retained = null;
+	}
+
+	/**
+	 * Makes a list of entries that resemble index entries, some of which are annotated.
+	 */
+	private IStrategoTerm makeTerm() {
+		final IStrategoConstructor def = factory.makeConstructor("Def", 2);
+		final IStrategoConstructor use = factory.makeConstructor("Use", 1);
+		final IStrategoList annos = factory.makeList(factory.makeString("Annotation"));
+		final IStrategoTerm[] entries = new IStrategoTerm[NUM_ENTRIES];
+		for(int i = 0; i < NUM_ENTRIES; ++i) {
+			final IStrategoTerm uri =
+				factory.makeList(factory.makeString("Namespace"), factory.makeString("name" + i), factory.makeInt(i));
+			final IStrategoTerm entry =
+				i % 2 == 0 ? factory.makeAppl(def, uri, factory.makeTuple(factory.makeString("file" + i % 100),
+					factory.makeReal(i))) : factory.makeAppl(use, uri);
+			entries[i] = i % 4 == 1 ? factory.annotateTerm(entry, annos) : entry;
+		}
+		return factory.makeList(entries);
+	}
+
+	private static int traverse(IStrategoTerm term) {
+		int result = term.hashCode();
+		for(int i = 0, count = term.getSubtermCount(); i < count; ++i) {
+			result += traverse(term.getSubterm(i));
+		}
+		return result;
+	}
+
+	private static long usedHeap() {
+		final Runtime runtime = Runtime.getRuntime();
+		for(int i = 0; i < 3; ++i) {
+			System.gc();
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	private static void writeRetained(String name, long bytes) throws IOException {
+		final String line = String.format(Locale.ROOT, "%s,%d,%d,%f%n", name, NUM_ENTRIES, bytes, (double) bytes
+			/ NUM_ENTRIES);
+		System.out.print(line);
+		final Writer writer = new FileWriter("columnar_heap.csv", true);
+		try {
+			writer.write(line);
+		} finally {
+			writer.close();
+		}
+	}
+}
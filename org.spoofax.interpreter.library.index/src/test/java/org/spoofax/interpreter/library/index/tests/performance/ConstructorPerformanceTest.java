@@ -0,0 +1,152 @@
+package org.spoofax.interpreter.library.index.tests.performance;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+import org.spoofax.interpreter.terms.IStrategoConstructor;
+import org.spoofax.interpreter.terms.ITermFactory;
+import org.spoofax.terms.TermFactory;
+
+import com.carrotsearch.junitbenchmarks.BenchmarkOptions;
+import com.carrotsearch.junitbenchmarks.BenchmarkRule;
+import com.carrotsearch.junitbenchmarks.Clock;
+
+/**
+ * Measures how creating constructors scales with the number of threads. The total number of constructors created is
+ * the same for every number of threads. Uses wall-clock time, since the CPU time of the benchmarking thread does not
+ * include the worker threads.
+ */
+@BenchmarkOptions(benchmarkRounds = 5, warmupRounds = 3, callgc = true, clock = Clock.REAL_TIME)
+@RunWith(value = Parameterized.class)
+public class ConstructorPerformanceTest {
+	@Rule
+	public BenchmarkRule benchmarkRun;
+
+	private static int NUM_CONSTRUCTORS = 4000000;
+	private static int NUM_ARITIES = 4;
+	/**
+	 * The number of names used by {@link #makeConstructorsMissingTheCache()}, such that the constructors do not fit in
+	 * the cache of a factory.
+	 */
+	private static int NUM_NAMES = 10000;
+
+	private final int numThreads;
+	private final String[] names = new String[NUM_NAMES];
+
+	// @formatter:off
+    @Parameters
+    public static List<Object[]> data() {
+        Object[][] data = new Object[][] {
+            { 1  }
+          , { 2  }
+          , { 4  }
+          , { 8  }
+          , { 16 }
+          , { 32 }
+        };
+        return Arrays.asList(data);
+    }
+    // @formatter:on
+
+	public ConstructorPerformanceTest(int numThreads) {
+		this.numThreads = numThreads;
+
+		try {
+			benchmarkRun =
+				new BenchmarkRule(new CSVResultsConsumer(NUM_CONSTRUCTORS + "," + numThreads, new FileWriter(
+					"constructor.csv", true)));
+		} catch(IOException e) {
+			e.printStackTrace();
+		}
+
+		for(int i = 0; i < NUM_NAMES; ++i) {
+			names[i] = "Constructor" + i;
+		}
+	}
+
+	/**
+	 * Creates the same few constructors from every thread, using a factory shared by all threads, such that they are
+	 * taken from the cache of the factory.
+	 */
+	@Test
+	public void makeConstructorsSharedFactory() throws Throwable {
+		final ITermFactory factory = new TermFactory();
+		final Runnable[] workers = new Runnable[numThreads];
+		for(int i = 0; i < numThreads; ++i) {
+			workers[i] = creator(factory, 4);
+		}
+		run(workers);
+	}
+
+	/**
+	 * Creates more constructors than fit in the cache of a factory from every thread, using a factory per thread, such
+	 * that most constructors are looked up in the global table.
+	 */
+	@Test
+	public void makeConstructorsMissingTheCache() throws Throwable {
+		final Runnable[] workers = new Runnable[numThreads];
+		for(int i = 0; i < numThreads; ++i) {
+			workers[i] = creator(new TermFactory(), NUM_NAMES);
+		}
+		run(workers);
+	}
+
+	/**
+	 * Creates this thread's share of the constructors, cycling through given number of names.
+	 */
+	private Runnable creator(final ITermFactory factory, final int numNames) {
+		return new Runnable() {
+			@Override
+			public void run() {
+				IStrategoConstructor last = null;
+				for(int i = 0, count = NUM_CONSTRUCTORS / numThreads; i < count; ++i) {
+					last = factory.makeConstructor(names[(i / NUM_ARITIES) % numNames], i % NUM_ARITIES);
+				}
+				if(last == null)
+					throw new IllegalStateException();
+			}
+		};
+	}
+
+	/**
+	 * Runs given workers in separate threads, rethrowing the first failure of a worker.
+	 */
+	private static void run(Runnable[] workers) throws Throwable {
+		final CountDownLatch start = new CountDownLatch(1);
+		final Queue<Throwable> failures = new ConcurrentLinkedQueue<Throwable>();
+		final Thread[] threads = new Thread[workers.length];
+		for(int i = 0; i < workers.length; ++i) {
+			final Runnable worker = workers[i];
+			threads[i] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+						worker.run();
+					} catch(Throwable e) {
+						failures.add(e);
+					}
+				}
+			};
+			threads[i].start();
+		}
+
+		start.countDown();
+		for(Thread thread : threads) {
+			thread.join();
+		}
+
+		if(!failures.isEmpty())
+			throw failures.peek();
+	}
+}
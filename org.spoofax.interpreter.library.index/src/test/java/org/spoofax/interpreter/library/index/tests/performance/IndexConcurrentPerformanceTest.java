@@ -0,0 +1,176 @@
+package org.spoofax.interpreter.library.index.tests.performance;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.spoofax.interpreter.library.index.IIndex;
+import org.spoofax.interpreter.library.index.IndexCollectionSession;
+import org.spoofax.interpreter.library.index.IndexManager;
+import org.spoofax.interpreter.terms.IStrategoTerm;
+
+import com.carrotsearch.junitbenchmarks.BenchmarkOptions;
+import com.carrotsearch.junitbenchmarks.BenchmarkRule;
+import com.carrotsearch.junitbenchmarks.Clock;
+
+/**
+ * Measures collecting and querying a concurrent index from multiple threads. Uses wall-clock time, since the CPU time
+ * of the benchmarking thread does not include the worker threads.
+ *
+ * @see org.spoofax.interpreter.library.index.tests.IndexConcurrentTest
+ */
+@BenchmarkOptions(benchmarkRounds = 5, warmupRounds = 3, callgc = true, clock = Clock.REAL_TIME)
+@RunWith(value = Parameterized.class)
+public class IndexConcurrentPerformanceTest extends IndexPerformanceTest {
+	@Rule
+	public BenchmarkRule benchmarkRun;
+
+	private static int NUM_THREADS = 4;
+	private static int NUM_GET = 50000;
+
+	private final IIndex concurrentIndex;
+
+	public IndexConcurrentPerformanceTest(int numItems, int numFiles) {
+		super(numItems, numFiles);
+
+		try {
+			benchmarkRun =
+				new BenchmarkRule(new CSVResultsConsumer((this.numItems * 5) + "," + this.numFiles, new FileWriter(
+					"concurrent_" + this.numFiles + ".csv", true)));
+		} catch(IOException e) {
+			e.printStackTrace();
+		}
+
+		concurrentIndex = IndexManager.createConcurrent(factory);
+	}
+
+	@Test
+	public void collect() throws Throwable {
+		final Runnable[] workers = new Runnable[NUM_THREADS];
+		for(int i = 0; i < NUM_THREADS; ++i) {
+			workers[i] = collector(i, NUM_THREADS);
+		}
+		run(workers);
+	}
+
+	@Test
+	public void collectSessions() throws Throwable {
+		final Runnable[] workers = new Runnable[NUM_THREADS];
+		for(int i = 0; i < NUM_THREADS; ++i) {
+			workers[i] = sessionCollector(i, NUM_THREADS);
+		}
+		run(workers);
+	}
+
+	@Test
+	public void collectAndGet() throws Throwable {
+		final Runnable[] workers = new Runnable[NUM_THREADS];
+		final int numCollectors = NUM_THREADS / 2;
+		for(int i = 0; i < numCollectors; ++i) {
+			workers[i] = collector(i, numCollectors);
+		}
+		for(int i = numCollectors; i < NUM_THREADS; ++i) {
+			workers[i] = getter();
+		}
+		run(workers);
+	}
+
+	/**
+	 * Collects every file whose number modulo the number of collectors equals given collector number, such that all
+	 * collectors together collect every file once.
+	 */
+	private Runnable collector(final int collector, final int numCollectors) {
+		return new Runnable() {
+			@Override
+			public void run() {
+				for(int file = collector; file < numFiles; file += numCollectors) {
+					final IStrategoTerm source = files[file];
+					concurrentIndex.startCollection(source);
+					for(int i = 0; i < numItems; ++i) {
+						concurrentIndex.collect(def1);
+						concurrentIndex.collect(def2);
+						concurrentIndex.collect(def3);
+						concurrentIndex.collect(use1);
+						concurrentIndex.collect(type1);
+					}
+					concurrentIndex.stopCollection(source);
+				}
+			}
+		};
+	}
+
+	/**
+	 * Collects the same files as {@link #collector(int, int)}, using a collection session per file.
+	 */
+	private Runnable sessionCollector(final int collector, final int numCollectors) {
+		return new Runnable() {
+			@Override
+			public void run() {
+				for(int file = collector; file < numFiles; file += numCollectors) {
+					final IndexCollectionSession session = concurrentIndex.startCollectionSession(files[file]);
+					for(int i = 0; i < numItems; ++i) {
+						session.collect(def1);
+						session.collect(def2);
+						session.collect(def3);
+						session.collect(use1);
+						session.collect(type1);
+					}
+					session.commit();
+				}
+			}
+		};
+	}
+
+	private Runnable getter() {
+		return new Runnable() {
+			@Override
+			public void run() {
+				for(int i = 0; i < NUM_GET; ++i) {
+					size(concurrentIndex.get(def1));
+					size(concurrentIndex.getChilds(def2Parent));
+					size(concurrentIndex.get(typeTemplate1));
+				}
+			}
+		};
+	}
+
+	/**
+	 * Runs given workers in separate threads on an empty index, rethrowing the first failure of a worker.
+	 */
+	private void run(Runnable[] workers) throws Throwable {
+		concurrentIndex.reset();
+
+		final CountDownLatch start = new CountDownLatch(1);
+		final Queue<Throwable> failures = new ConcurrentLinkedQueue<Throwable>();
+		final Thread[] threads = new Thread[workers.length];
+		for(int i = 0; i < workers.length; ++i) {
+			final Runnable worker = workers[i];
+			threads[i] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+						worker.run();
+					} catch(Throwable e) {
+						failures.add(e);
+					}
+				}
+			};
+			threads[i].start();
+		}
+
+		start.countDown();
+		for(Thread thread : threads) {
+			thread.join();
+		}
+
+		if(!failures.isEmpty())
+			throw failures.peek();
+	}
+}
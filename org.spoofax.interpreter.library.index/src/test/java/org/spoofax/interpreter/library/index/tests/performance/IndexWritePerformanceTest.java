@@ -0,0 +1,139 @@
+package org.spoofax.interpreter.library.index.tests.performance;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.spoofax.interpreter.library.index.IndexEntryFactory;
+import org.spoofax.interpreter.library.index.IndexFactory;
+import org.spoofax.interpreter.terms.IStrategoTerm;
+import org.spoofax.terms.io.binary.BAFWriter;
+import org.spoofax.terms.io.binary.SAFWriter;
+import org.spoofax.terms.io.binary.TermReader;
+
+import com.carrotsearch.junitbenchmarks.BenchmarkOptions;
+import com.carrotsearch.junitbenchmarks.BenchmarkRule;
+import com.carrotsearch.junitbenchmarks.Clock;
+
+/**
+ * Measures writing an index term, and reading it back from a SAF or BAF file. The sizes of the files are appended to size.csv,
+ * once for each number of entries and files, so that the read benchmarks can be related to the amount of data.
+ */
+@BenchmarkOptions(benchmarkRounds = 5, warmupRounds = 3, callgc = true, clock = Clock.CPU_TIME)
+@RunWith(value = Parameterized.class)
+public class IndexWritePerformanceTest extends IndexPerformanceTest {
+	@Rule
+	public BenchmarkRule benchmarkRun;
+
+	/**
+	 * The formats whose sizes have been appended to size.csv, for each number of entries and files.
+	 */
+	private static final Set<String> writtenSizes = new HashSet<String>();
+
+	private final IStrategoTerm indexTerm;
+	private final File safFile;
+	private final File bafFile;
+
+	public IndexWritePerformanceTest(int numItems, int numFiles) throws IOException {
+		super(numItems, numFiles);
+
+		try {
+			benchmarkRun =
+				new BenchmarkRule(new CSVResultsConsumer((this.numItems * 5) + "," + this.numFiles, new FileWriter(
+					"write_" + this.numFiles + ".csv", true)));
+		} catch(IOException e) {
+			e.printStackTrace();
+		}
+
+		index.reset();
+
+		for(int i = 0; i < this.numItems; ++i) {
+			add(def1, getNextFile());
+			add(def2, getNextFile());
+			add(def3, getNextFile());
+			add(use1, getNextFile());
+			add(type1, getNextFile());
+		}
+
+		indexTerm = new IndexFactory(factory, new IndexEntryFactory(factory)).indexToTerm(index);
+
+		safFile = new File("write_" + this.numFiles + ".saf");
+		SAFWriter.writeTermToSAFFile(indexTerm, safFile);
+		writeSize("SAF", safFile.length());
+
+		bafFile = new File("write_" + this.numFiles + ".baf");
+		BAFWriter.writeTermToBAFFile(indexTerm, bafFile);
+		writeSize("BAF", bafFile.length());
+	}
+
+	@Test
+	public void writeStructuralSharing() throws IOException {
+		SAFWriter.writeTermToSAFStream(indexTerm, new ByteArrayOutputStream(), false);
+	}
+
+	@Test
+	public void writeIdentitySharing() throws IOException {
+		SAFWriter.writeTermToSAFStream(indexTerm, new ByteArrayOutputStream(), true);
+	}
+
+	/**
+	 * Reads the SAF file by mapping it into memory, which the term reader does for file streams.
+	 */
+	@Test
+	public void readSAFMapped() throws IOException {
+		new TermReader(factory).parseFromStream(new FileInputStream(safFile));
+	}
+
+	/**
+	 * Reads the SAF file through a buffered stream, copying it through intermediate buffers.
+	 */
+	@Test
+	public void readSAFStream() throws IOException {
+		new TermReader(factory).parseFromStream(new BufferedInputStream(new FileInputStream(safFile)));
+	}
+
+	@Test
+	public void writeBAF() throws IOException {
+		BAFWriter.writeTermToBAFStream(indexTerm, new ByteArrayOutputStream());
+	}
+
+	/**
+	 * Reads the BAF file by mapping it into memory and decoding it a word at a time, which the term reader does for
+	 * file streams.
+	 */
+	@Test
+	public void readBAFMapped() throws IOException {
+		new TermReader(factory).parseFromStream(new FileInputStream(bafFile));
+	}
+
+	/**
+	 * Reads the BAF file through a buffered stream, reading it into memory before decoding it a word at a time.
+	 */
+	@Test
+	public void readBAFStream() throws IOException {
+		new TermReader(factory).parseFromStream(new BufferedInputStream(new FileInputStream(bafFile)));
+	}
+
+	private void writeSize(String format, long bytes) throws IOException {
+		final String prefixCSV = (this.numItems * 5) + "," + this.numFiles + "," + format;
+		if(!writtenSizes.add(prefixCSV))
+			return;
+
+		final Writer writer = new FileWriter("size.csv", true);
+		try {
+			writer.write(prefixCSV + "," + bytes + "\n");
+		} finally {
+			writer.close();
+		}
+	}
+}
@@ -0,0 +1,101 @@
+package org.spoofax.interpreter.library.index.tests.performance;
+
+import java.io.FileWriter;
+import java.io.IOException;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.spoofax.interpreter.terms.IStrategoList;
+import org.spoofax.interpreter.terms.IStrategoTerm;
+import org.spoofax.interpreter.terms.ITermFactory;
+import org.spoofax.terms.TermFactory;
+
+import com.carrotsearch.junitbenchmarks.BenchmarkOptions;
+import com.carrotsearch.junitbenchmarks.BenchmarkRule;
+import com.carrotsearch.junitbenchmarks.Clock;
+
+/**
+ * Measures creating, hashing, and matching lists of a million elements. Immutable lists compute their hash as they are
+ * constructed, so the hashing benchmarks include construction; mutable lists are hashed on demand. Each benchmark
+ * creates its own lists, since matching sharable lists shares their subterms.
+ */
+@BenchmarkOptions(benchmarkRounds = 5, warmupRounds = 3, callgc = true, clock = Clock.CPU_TIME)
+public class ListPerformanceTest {
+	@Rule
+	public BenchmarkRule benchmarkRun;
+
+	private static int NUM_ELEMENTS = 1000000;
+
+	private final ITermFactory factory = new TermFactory();
+	private final ITermFactory mutableFactory = factory.getFactoryWithStorageType(IStrategoTerm.MUTABLE);
+	private final IStrategoTerm[] elements1 = new IStrategoTerm[NUM_ELEMENTS];
+	private final IStrategoTerm[] elements2 = new IStrategoTerm[NUM_ELEMENTS];
+
+	/**
+	 * Keeps the last computed hash, so that computing it cannot be optimized away.
+	 */
+	private int hash;
+
+	public ListPerformanceTest() {
+		try {
+			benchmarkRun =
+				new BenchmarkRule(new CSVResultsConsumer(String.valueOf(NUM_ELEMENTS), new FileWriter("list.csv",
+					true)));
+		} catch(IOException e) {
+			e.printStackTrace();
+		}
+
+		for(int i = 0; i < NUM_ELEMENTS; ++i) {
+			elements1[i] = factory.makeInt(i);
+			elements2[i] = factory.makeInt(i);
+		}
+	}
+
+	@Test
+	public void hashConsList() {
+		hash = consList(factory, elements1).hashCode();
+	}
+
+	@Test
+	public void hashArrayList() {
+		hash = factory.makeList(elements1).hashCode();
+	}
+
+	@Test
+	public void hashMutableConsList() {
+		hash = consList(mutableFactory, elements1).hashCode();
+	}
+
+	@Test
+	public void matchConsLists() {
+		check(consList(factory, elements1).match(consList(factory, elements2)));
+	}
+
+	@Test
+	public void matchArrayLists() {
+		check(factory.makeList(elements1).match(factory.makeList(elements2)));
+	}
+
+	@Test
+	public void matchConsAndArrayLists() {
+		check(consList(factory, elements1).match(factory.makeList(elements2)));
+	}
+
+	@Test
+	public void matchMutableConsLists() {
+		check(consList(mutableFactory, elements1).match(consList(mutableFactory, elements2)));
+	}
+
+	private static IStrategoList consList(ITermFactory factory, IStrategoTerm[] elements) {
+		IStrategoList result = factory.makeList();
+		for(int i = elements.length - 1; i >= 0; --i) {
+			result = factory.makeListCons(elements[i], result);
+		}
+		return result;
+	}
+
+	private static void check(boolean result) {
+		if(!result)
+			throw new IllegalStateException();
+	}
+}
@@ -0,0 +1,69 @@
+package org.spoofax.interpreter.library.index.tests.performance;
+
+import java.io.FileWriter;
+import java.io.IOException;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.spoofax.interpreter.terms.IStrategoTerm;
+import org.spoofax.interpreter.terms.ITermFactory;
+import org.spoofax.terms.TermFactory;
+
+import com.carrotsearch.junitbenchmarks.BenchmarkOptions;
+import com.carrotsearch.junitbenchmarks.BenchmarkRule;
+import com.carrotsearch.junitbenchmarks.Clock;
+
+/**
+ * Measures the time and allocations of creating integer terms. Hash-consing factories take small integers from a
+ * cache and look up others in their table; sharable factories allocate a new term for each integer.
+ */
+@BenchmarkOptions(benchmarkRounds = 5, warmupRounds = 3, callgc = true, clock = Clock.CPU_TIME)
+public class TermFactoryPerformanceTest {
+	@Rule
+	public BenchmarkRule benchmarkRun;
+
+	private static int NUM_TERMS = 1000000;
+	private static int NUM_VALUES = 1000;
+	private static int LARGE_INT = 1 << 24;
+
+	private final ITermFactory factory = new TermFactory();
+	private final ITermFactory hashConsingFactory = factory.getFactoryWithStorageType(IStrategoTerm.MAXIMALLY_SHARED);
+
+	/**
+	 * Keeps the last created terms reachable, so that their allocation cannot be optimized away.
+	 */
+	private final IStrategoTerm[] terms = new IStrategoTerm[NUM_VALUES];
+
+	public TermFactoryPerformanceTest() {
+		try {
+			benchmarkRun =
+				new BenchmarkRule(new CSVResultsConsumer(String.valueOf(NUM_TERMS), new FileWriter("termfactory.csv",
+					true)));
+		} catch(IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	@Test
+	public void makeSmallInts() throws IOException {
+		makeInts(factory, 0, "makeSmallInts");
+	}
+
+	@Test
+	public void makeSmallIntsHashConsed() throws IOException {
+		makeInts(hashConsingFactory, 0, "makeSmallIntsHashConsed");
+	}
+
+	@Test
+	public void makeLargeIntsHashConsed() throws IOException {
+		makeInts(hashConsingFactory, LARGE_INT, "makeLargeIntsHashConsed");
+	}
+
+	private void makeInts(ITermFactory factory, int offset, String name) throws IOException {
+		final AllocationCounter counter = new AllocationCounter();
+		for(int i = 0; i < NUM_TERMS; ++i) {
+			terms[i % NUM_VALUES] = factory.makeInt(offset + i % NUM_VALUES);
+		}
+		counter.write(name, NUM_TERMS, "termfactory_alloc.csv");
+	}
+}
@@ -4,8 +4,10 @@ import static java.lang.Math.min;
 import static org.spoofax.interpreter.terms.IStrategoTerm.MAXIMALLY_SHARED;
 import static org.spoofax.interpreter.terms.IStrategoTerm.MUTABLE;
 
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import org.spoofax.interpreter.terms.IStrategoAppl;
 import org.spoofax.interpreter.terms.IStrategoConstructor;
@@ -24,8 +26,35 @@ public abstract class AbstractTermFactory implements ITermFactory {
     
     private final StringTermReader reader = new StringTermReader(this);
 
-    private static final HashMap<StrategoConstructor, StrategoConstructor> asyncCtorCache =
-        new HashMap<StrategoConstructor, StrategoConstructor>();
+    /**
+     * Global constructor table, mapping names to constructors indexed by arity.
+     * The arrays are copy-on-write: once published, they are never modified.
+     */
+    private static final ConcurrentHashMap<String, StrategoConstructor[]> ctorTable =
+        new ConcurrentHashMap<String, StrategoConstructor[]>();
+
+    /**
+     * The largest arity of the constructors in {@link #ctorTable}. Constructors
+     * of larger arities are kept in {@link #largeCtorTable}, such that using a
+     * name with a huge arity does not allocate a huge array for it.
+     */
+    private static final int MAX_TABLE_ARITY = 64;
+
+    /**
+     * Global table of the constructors with an arity above {@link #MAX_TABLE_ARITY}.
+     */
+    private static final ConcurrentHashMap<StrategoConstructor, StrategoConstructor> largeCtorTable =
+        new ConcurrentHashMap<StrategoConstructor, StrategoConstructor>();
+
+    private static final int CTOR_CACHE_SIZE = 256;
+
+    /**
+     * Per-factory, direct-mapped cache in front of the global constructor table.
+     * Races between threads only cause a slot to be overwritten; the atomic
+     * slots publish the constructors safely to threads that read them.
+     */
+    private final AtomicReferenceArray<StrategoConstructor> ctorCache =
+        new AtomicReferenceArray<StrategoConstructor>(CTOR_CACHE_SIZE);
     
     protected int defaultStorageType;
     
@@ -42,20 +71,52 @@ public abstract class AbstractTermFactory implements ITermFactory {
     }
     
     static StrategoConstructor createCachedConstructor(String name, int arity) {
+        if (arity < 0)
+            throw new IllegalArgumentException("arity cannot be negative: " + name + "/" + arity);
+        if (arity > MAX_TABLE_ARITY) {
+            StrategoConstructor result = new StrategoConstructor(name, arity);
+            StrategoConstructor cached = largeCtorTable.putIfAbsent(result, result);
+            return cached == null ? result : cached;
+        }
+        StrategoConstructor[] byArity = ctorTable.get(name);
+        if (byArity != null && arity < byArity.length) {
+            StrategoConstructor cached = byArity[arity];
+            if (cached != null) return cached;
+        }
+        return insertCachedConstructor(name, arity);
+    }
+
+    private static StrategoConstructor insertCachedConstructor(String name, int arity) {
         StrategoConstructor result = new StrategoConstructor(name, arity);
-        synchronized (TermFactory.class) {
-	        StrategoConstructor cached = asyncCtorCache.get(result);
-	        if (cached == null) {
-	            asyncCtorCache.put(result, result);
-	        } else {
-	            result = cached;
-	        }
+        while (true) {
+            StrategoConstructor[] current = ctorTable.get(name);
+            StrategoConstructor[] updated;
+            if (current == null) {
+                updated = new StrategoConstructor[arity + 1];
+            } else if (arity < current.length && current[arity] != null) {
+                return current[arity];
+            } else {
+                updated = Arrays.copyOf(current, Math.max(current.length, arity + 1));
+            }
+            updated[arity] = result;
+            if (current == null
+                    ? ctorTable.putIfAbsent(name, updated) == null
+                    : ctorTable.replace(name, current, updated))
+                return result;
         }
-        return result;
     }
 
     public StrategoConstructor makeConstructor(String name, int arity) {
-        return createCachedConstructor(name, arity);
+        int index = (name.hashCode() * 31 + arity) & (CTOR_CACHE_SIZE - 1);
+        StrategoConstructor cached = ctorCache.get(index);
+        if (cached != null && cached.getArity() == arity) {
+            String cachedName = cached.getName();
+            if (cachedName == name || cachedName.equals(name))
+                return cached;
+        }
+        StrategoConstructor result = createCachedConstructor(name, arity);
+        ctorCache.set(index, result);
+        return result;
     }
 
     public abstract IStrategoAppl makeAppl(IStrategoConstructor constructor,
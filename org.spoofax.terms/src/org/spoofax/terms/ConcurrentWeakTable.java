@@ -0,0 +1,149 @@
+package org.spoofax.terms;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A concurrent hash table of weakly referenced values, used to intern
+ * values by {@link HashConsTable} and {@link StringPool}.
+ * Values disappear from the table once they are no longer used.
+ *
+ * The table does not know how values are compared: users spread the hash
+ * of a value with {@link #spread(int)}, look for an equal value by
+ * traversing the entries from {@link #first(int)} without locking, and
+ * if none is found, look again and {@link #insert(int, Object)} the value
+ * while holding the monitor of {@link #lock(int)}, which guards a single
+ * segment of the table.
+ *
+ * @param <T>  the type of values
+ */
+class ConcurrentWeakTable<T> {
+
+    private static final int SEGMENT_SHIFT = 27;
+
+    private static final int SEGMENT_COUNT = 1 << (32 - SEGMENT_SHIFT);
+
+    private static final int INITIAL_SEGMENT_CAPACITY = 256;
+
+    private final Segment<T>[] segments;
+
+    @SuppressWarnings("unchecked")
+    ConcurrentWeakTable() {
+        segments = (Segment<T>[]) new Segment<?>[SEGMENT_COUNT];
+        for (int i = 0; i < SEGMENT_COUNT; i++)
+            segments[i] = new Segment<T>();
+    }
+
+    /**
+     * Improves the distribution of a hash code over the segments and
+     * buckets of the table.
+     */
+    static int spread(int hash) {
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        return hash;
+    }
+
+    /**
+     * Gets the first entry of the chain that holds the values with the
+     * given spread hash, or <code>null</code>. The chain may also hold
+     * values with other hashes, and entries whose value has been cleared.
+     */
+    final Entry<T> first(int hash) {
+        AtomicReferenceArray<Entry<T>> table = segments[hash >>> SEGMENT_SHIFT].table;
+        return table.get(hash & (table.length() - 1));
+    }
+
+    /**
+     * Gets the monitor that must be held to insert a value with the given
+     * spread hash.
+     */
+    final Object lock(int hash) {
+        return segments[hash >>> SEGMENT_SHIFT];
+    }
+
+    /**
+     * Inserts a new value. Must be called while holding the monitor of
+     * {@link #lock(int)}.
+     */
+    final void insert(int hash, T value) {
+        Segment<T> segment = segments[hash >>> SEGMENT_SHIFT];
+        segment.expungeStaleEntries();
+        if (segment.count >= segment.table.length() - (segment.table.length() >>> 2))
+            segment.resize();
+        AtomicReferenceArray<Entry<T>> table = segment.table;
+        int index = hash & (table.length() - 1);
+        table.set(index, new Entry<T>(value, hash, table.get(index), segment.queue));
+        segment.count++;
+    }
+
+    static final class Entry<T> extends WeakReference<T> {
+        final int hash;
+
+        volatile Entry<T> next;
+
+        Entry(T value, int hash, Entry<T> next, ReferenceQueue<T> queue) {
+            super(value, queue);
+            this.hash = hash;
+            this.next = next;
+        }
+    }
+
+    /**
+     * A hash table segment. Readers traverse the table without locking and
+     * fall back to a locked lookup when they do not find a value; all
+     * modifications are made while holding the segment's monitor.
+     */
+    private static final class Segment<T> {
+
+        private final ReferenceQueue<T> queue = new ReferenceQueue<T>();
+
+        private volatile AtomicReferenceArray<Entry<T>> table =
+            new AtomicReferenceArray<Entry<T>>(INITIAL_SEGMENT_CAPACITY);
+
+        private int count;
+
+        private void expungeStaleEntries() {
+            for (Object stale; (stale = queue.poll()) != null;) {
+                @SuppressWarnings("unchecked")
+                Entry<T> entry = (Entry<T>) stale;
+                AtomicReferenceArray<Entry<T>> table = this.table;
+                int index = entry.hash & (table.length() - 1);
+                Entry<T> previous = null;
+                for (Entry<T> e = table.get(index); e != null; previous = e, e = e.next) {
+                    if (e == entry) {
+                        if (previous == null)
+                            table.set(index, e.next);
+                        else
+                            previous.next = e.next;
+                        count--;
+                        break;
+                    }
+                }
+            }
+        }
+
+        private void resize() {
+            AtomicReferenceArray<Entry<T>> oldTable = this.table;
+            AtomicReferenceArray<Entry<T>> newTable = new AtomicReferenceArray<Entry<T>>(oldTable.length() << 1);
+            int mask = newTable.length() - 1;
+            for (int i = 0; i < oldTable.length(); i++) {
+                Entry<T> e = oldTable.get(i);
+                while (e != null) {
+                    Entry<T> next = e.next;
+                    if (e.get() == null) {
+                        count--; // (already cleared; its queued reference will not be found anymore)
+                    } else {
+                        int index = e.hash & mask;
+                        e.next = newTable.get(index);
+                        newTable.set(index, e);
+                    }
+                    e = next;
+                }
+            }
+            this.table = newTable;
+        }
+    }
+}
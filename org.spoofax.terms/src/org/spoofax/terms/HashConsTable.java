@@ -0,0 +1,299 @@
+package org.spoofax.terms;
+
+import static org.spoofax.interpreter.terms.IStrategoTerm.MAXIMALLY_SHARED;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.spoofax.interpreter.terms.IStrategoAppl;
+import org.spoofax.interpreter.terms.IStrategoConstructor;
+import org.spoofax.interpreter.terms.IStrategoInt;
+import org.spoofax.interpreter.terms.IStrategoList;
+import org.spoofax.interpreter.terms.IStrategoReal;
+import org.spoofax.interpreter.terms.IStrategoString;
+import org.spoofax.interpreter.terms.IStrategoTerm;
+import org.spoofax.interpreter.terms.IStrategoTuple;
+
+/**
+ * A concurrent intern table for {@link IStrategoTerm#MAXIMALLY_SHARED} terms.
+ *
+ * Terms are looked up by their constructor or value and the identity of their
+ * subterms and annotations, which are required to be maximally shared themselves.
+ * Structurally equal terms obtained from this table are therefore always the
+ * same object. Terms are only weakly referenced and disappear from the table
+ * once they are no longer used.
+ *
+ * Lookups do not lock; insertions lock a single segment of the table.
+ * Unannotated small integers and integral reals are not stored in the
+ * table but in caches, and unannotated nullary applications are kept
+ * by their constructor.
+ *
+ * @see TermFactory#getFactoryWithStorageType(int)
+ */
+final class HashConsTable {
+
+    /**
+     * The maximal number of cached integers.
+     */
+    private static final int MAX_INT_CACHE_SIZE = 1 << 20;
+
+    /**
+     * The range of integers for which unannotated terms are cached,
+     * configurable using the <code>org.spoofax.terms.intCache.low</code>
+     * and <code>org.spoofax.terms.intCache.high</code> system properties.
+     */
+    private static final int MIN_CACHED_INT = Integer.getInteger("org.spoofax.terms.intCache.low", -128);
+    private static final int MAX_CACHED_INT = (int) Math.min(
+        Integer.getInteger("org.spoofax.terms.intCache.high", 65535), (long) MIN_CACHED_INT + MAX_INT_CACHE_SIZE - 1);
+
+    /**
+     * The range of integral reals for which unannotated terms are cached.
+     */
+    private static final int MIN_CACHED_REAL = -128;
+    private static final int MAX_CACHED_REAL = 1023;
+
+    private final ConcurrentWeakTable<IStrategoTerm> table = new ConcurrentWeakTable<IStrategoTerm>();
+
+    /**
+     * Caches of unannotated terms, filled on first use. Slots are only set once,
+     * so that each value has a single canonical term.
+     */
+    private final AtomicReferenceArray<StrategoInt> intCache =
+        new AtomicReferenceArray<StrategoInt>((int) Math.max(0, (long) MAX_CACHED_INT - MIN_CACHED_INT + 1));
+
+    private final AtomicReferenceArray<StrategoReal> realCache =
+        new AtomicReferenceArray<StrategoReal>(MAX_CACHED_REAL - MIN_CACHED_REAL + 1);
+
+    public IStrategoAppl makeAppl(IStrategoConstructor ctor, IStrategoTerm[] kids, IStrategoList annos) {
+        annos = normalize(annos);
+        if (kids.length == 0 && annos == null && ctor instanceof StrategoConstructor)
+            return ((StrategoConstructor) ctor).getNullaryInstance();
+        int hash = ctor.hashCode();
+        for (int i = 0; i < kids.length; i++)
+            hash = hash * 31 + System.identityHashCode(kids[i]);
+        hash = hash * 31 + System.identityHashCode(annos);
+
+        hash = ConcurrentWeakTable.spread(hash);
+        IStrategoTerm result = find(hash, IStrategoTerm.APPL, ctor, kids, annos);
+        if (result != null)
+            return (IStrategoAppl) result;
+        synchronized (table.lock(hash)) {
+            result = find(hash, IStrategoTerm.APPL, ctor, kids, annos);
+            if (result == null) {
+                result = TermFactory.newAppl(ctor, kids, annos, MAXIMALLY_SHARED);
+                table.insert(hash, result);
+            }
+        }
+        return (IStrategoAppl) result;
+    }
+
+    public IStrategoTuple makeTuple(IStrategoTerm[] kids, IStrategoList annos) {
+        annos = normalize(annos);
+        int hash = 4831;
+        for (int i = 0; i < kids.length; i++)
+            hash = hash * 31 + System.identityHashCode(kids[i]);
+        hash = hash * 31 + System.identityHashCode(annos);
+
+        hash = ConcurrentWeakTable.spread(hash);
+        IStrategoTerm result = find(hash, IStrategoTerm.TUPLE, null, kids, annos);
+        if (result != null)
+            return (IStrategoTuple) result;
+        synchronized (table.lock(hash)) {
+            result = find(hash, IStrategoTerm.TUPLE, null, kids, annos);
+            if (result == null) {
+                result = new StrategoTuple(kids, annos, MAXIMALLY_SHARED);
+                table.insert(hash, result);
+            }
+        }
+        return (IStrategoTuple) result;
+    }
+
+    /**
+     * Returns the list with the given head and tail, or an annotated empty list
+     * if the head and tail are <code>null</code>.
+     */
+    public IStrategoList makeListCons(IStrategoTerm head, IStrategoList tail, IStrategoList annos) {
+        annos = normalize(annos);
+        int hash = (System.identityHashCode(head) * 31 + System.identityHashCode(tail)) * 31
+            + System.identityHashCode(annos);
+
+        hash = ConcurrentWeakTable.spread(hash);
+        IStrategoTerm result = findCons(hash, head, tail, annos);
+        if (result != null)
+            return (IStrategoList) result;
+        synchronized (table.lock(hash)) {
+            result = findCons(hash, head, tail, annos);
+            if (result == null) {
+                result = new StrategoList(head, tail, annos, MAXIMALLY_SHARED);
+                table.insert(hash, result);
+            }
+        }
+        return (IStrategoList) result;
+    }
+
+    public IStrategoInt makeInt(int value, IStrategoList annos) {
+        annos = normalize(annos);
+        if (annos == null && value >= MIN_CACHED_INT && value <= MAX_CACHED_INT) {
+            int index = value - MIN_CACHED_INT;
+            StrategoInt cached = intCache.get(index);
+            if (cached == null) {
+                intCache.compareAndSet(index, null, new StrategoInt(value, null, MAXIMALLY_SHARED));
+                cached = intCache.get(index);
+            }
+            return cached;
+        }
+        int hash = value * 31 + System.identityHashCode(annos);
+
+        hash = ConcurrentWeakTable.spread(hash);
+        IStrategoTerm result = findInt(hash, value, annos);
+        if (result != null)
+            return (IStrategoInt) result;
+        synchronized (table.lock(hash)) {
+            result = findInt(hash, value, annos);
+            if (result == null) {
+                result = new StrategoInt(value, annos, MAXIMALLY_SHARED);
+                table.insert(hash, result);
+            }
+        }
+        return (IStrategoInt) result;
+    }
+
+    public IStrategoReal makeReal(double value, IStrategoList annos) {
+        annos = normalize(annos);
+        int intValue = (int) value;
+        if (annos == null && intValue == value && intValue >= MIN_CACHED_REAL && intValue <= MAX_CACHED_REAL
+                && (intValue != 0 || Double.doubleToRawLongBits(value) == 0L)) { // (not -0.0)
+            int index = intValue - MIN_CACHED_REAL;
+            StrategoReal cached = realCache.get(index);
+            if (cached == null) {
+                realCache.compareAndSet(index, null, new StrategoReal(value, null, MAXIMALLY_SHARED));
+                cached = realCache.get(index);
+            }
+            return cached;
+        }
+        long bits = Double.doubleToLongBits(value);
+        int hash = (int) (bits ^ (bits >>> 32)) * 31 + System.identityHashCode(annos);
+
+        hash = ConcurrentWeakTable.spread(hash);
+        IStrategoTerm result = findReal(hash, value, annos);
+        if (result != null)
+            return (IStrategoReal) result;
+        synchronized (table.lock(hash)) {
+            result = findReal(hash, value, annos);
+            if (result == null) {
+                result = new StrategoReal(value, annos, MAXIMALLY_SHARED);
+                table.insert(hash, result);
+            }
+        }
+        return (IStrategoReal) result;
+    }
+
+    /**
+     * Returns the unannotated string term for the given value.
+     * (Annotated strings cannot be maximally shared.)
+     */
+    public IStrategoString makeString(String value) {
+        int hash = value.hashCode();
+
+        hash = ConcurrentWeakTable.spread(hash);
+        IStrategoTerm result = findString(hash, value);
+        if (result != null)
+            return (IStrategoString) result;
+        synchronized (table.lock(hash)) {
+            result = findString(hash, value);
+            if (result == null) {
+                result = new StrategoString(value, null, MAXIMALLY_SHARED);
+                table.insert(hash, result);
+            }
+        }
+        return (IStrategoString) result;
+    }
+
+    private static IStrategoList normalize(IStrategoList annos) {
+        return annos == null || annos.isEmpty() ? null : annos;
+    }
+
+    private static boolean hasAnnotations(IStrategoTerm term, IStrategoList annos) {
+        IStrategoList actual = term.getAnnotations();
+        return annos == null ? actual.isEmpty() : actual == annos;
+    }
+
+    private IStrategoTerm find(int hash, int termType, IStrategoConstructor ctor, IStrategoTerm[] kids,
+            IStrategoList annos) {
+        for (ConcurrentWeakTable.Entry<IStrategoTerm> e = table.first(hash); e != null; e = e.next) {
+            if (e.hash != hash)
+                continue;
+            IStrategoTerm term = e.get();
+            if (term == null || term.getTermType() != termType || term.getSubtermCount() != kids.length)
+                continue;
+            if (ctor != null) {
+                IStrategoConstructor ctor2 = ((IStrategoAppl) term).getConstructor();
+                if (ctor2 != ctor && !ctor2.equals(ctor))
+                    continue;
+            }
+            if (!hasAnnotations(term, annos) || !hasSubterms(term, kids))
+                continue;
+            return term;
+        }
+        return null;
+    }
+
+    private static boolean hasSubterms(IStrategoTerm term, IStrategoTerm[] kids) {
+        for (int i = 0; i < kids.length; i++) {
+            if (term.getSubterm(i) != kids[i])
+                return false;
+        }
+        return true;
+    }
+
+    private IStrategoTerm findCons(int hash, IStrategoTerm head, IStrategoList tail, IStrategoList annos) {
+        for (ConcurrentWeakTable.Entry<IStrategoTerm> e = table.first(hash); e != null; e = e.next) {
+            if (e.hash != hash)
+                continue;
+            IStrategoTerm term = e.get();
+            if (term == null || term.getTermType() != IStrategoTerm.LIST || !hasAnnotations(term, annos))
+                continue;
+            IStrategoList list = (IStrategoList) term;
+            if (head == null ? list.isEmpty() : !list.isEmpty() && list.head() == head && list.tail() == tail)
+                return term;
+        }
+        return null;
+    }
+
+    private IStrategoTerm findInt(int hash, int value, IStrategoList annos) {
+        for (ConcurrentWeakTable.Entry<IStrategoTerm> e = table.first(hash); e != null; e = e.next) {
+            if (e.hash != hash)
+                continue;
+            IStrategoTerm term = e.get();
+            if (term != null && term.getTermType() == IStrategoTerm.INT
+                    && ((IStrategoInt) term).intValue() == value && hasAnnotations(term, annos))
+                return term;
+        }
+        return null;
+    }
+
+    private IStrategoTerm findReal(int hash, double value, IStrategoList annos) {
+        long bits = Double.doubleToLongBits(value);
+        for (ConcurrentWeakTable.Entry<IStrategoTerm> e = table.first(hash); e != null; e = e.next) {
+            if (e.hash != hash)
+                continue;
+            IStrategoTerm term = e.get();
+            if (term != null && term.getTermType() == IStrategoTerm.REAL
+                    && Double.doubleToLongBits(((IStrategoReal) term).realValue()) == bits
+                    && hasAnnotations(term, annos))
+                return term;
+        }
+        return null;
+    }
+
+    private IStrategoTerm findString(int hash, String value) {
+        for (ConcurrentWeakTable.Entry<IStrategoTerm> e = table.first(hash); e != null; e = e.next) {
+            if (e.hash != hash)
+                continue;
+            IStrategoTerm term = e.get();
+            if (term != null && term.getTermType() == IStrategoTerm.STRING
+                    && ((IStrategoString) term).stringValue().equals(value) && term.getAnnotations().isEmpty())
+                return term;
+        }
+        return null;
+    }
+}
@@ -23,7 +23,12 @@ public class StrategoAppl extends StrategoTerm implements IStrategoAppl {
 
 	private final IStrategoConstructor ctor;
 
-    private IStrategoTerm[] kids;
+    /**
+     * The kids of this term, or, for subclasses that store their kids in
+     * fields, a copy of them that is created when it is first requested.
+     * Volatile, such that the copy is safely published to other threads.
+     */
+    private volatile IStrategoTerm[] kids;
 
     public StrategoAppl(IStrategoConstructor ctor, IStrategoTerm[] kids, IStrategoList annotations, int storageType) {
         super(annotations, storageType);
@@ -33,9 +38,23 @@ public class StrategoAppl extends StrategoTerm implements IStrategoAppl {
         if (storageType != MUTABLE) initImmutableHashCode();
     }
     
+    /**
+     * Creates a new application term for a subclass that stores its kids
+     * in fields, rather than an array.
+     * The subclass is responsible for initializing the hash code, and
+     * must override {@link #materializeKids()}, {@link #getSubterm(int)},
+     * {@link #getSubtermCount()}, and {@link #internalShareKids}.
+     * 
+     * @see #getAllSubterms()
+     */
+    StrategoAppl(IStrategoConstructor ctor, IStrategoList annotations, int storageType) {
+        super(annotations, storageType);
+        this.ctor = ctor;
+    }
+    
     @Deprecated
     public IStrategoTerm[] getArguments() {
-        return kids;
+        return getAllSubterms();
     }
 
     public IStrategoConstructor getConstructor() {
@@ -46,11 +65,38 @@ public class StrategoAppl extends StrategoTerm implements IStrategoAppl {
     	return ctor.getName();
     }
 
+    /**
+     * Gets the kids of this term. For subclasses that store their kids in
+     * fields, the array is created the first time, and reused until the
+     * kids are shared with another term.
+     */
     public IStrategoTerm[] getAllSubterms() {
-        return kids;
+        IStrategoTerm[] result = kids;
+        if (result == null) {
+            result = materializeKids();
+            kids = result;
+        }
+        return result;
+    }
+
+    /**
+     * Creates an array of the kids of this term, for subclasses that
+     * store their kids in fields.
+     */
+    IStrategoTerm[] materializeKids() {
+        throw new IllegalStateException("Kids not initialized");
+    }
+
+    /**
+     * Discards the array of kids created by {@link #getAllSubterms()},
+     * for subclasses that store their kids in fields.
+     */
+    final void clearMaterializedKids() {
+        kids = null;
     }
 
     public IStrategoTerm getSubterm(int index) {
+        IStrategoTerm[] kids = this.kids;
         if (index < 0 || index >= kids.length)
             throw new IndexOutOfBoundsException("Index out of bounds: " + index);
         return kids[index];
@@ -66,52 +112,35 @@ public class StrategoAppl extends StrategoTerm implements IStrategoAppl {
 
     @Override
     protected boolean doSlowMatch(IStrategoTerm second, int commonStorageType) {
-        if (second.getTermType() != IStrategoTerm.APPL)
-            return false;
-        IStrategoAppl o = (IStrategoAppl)second;
-        if (!ctor.equals(o.getConstructor()))
-            return false;
-        
-        IStrategoTerm[] kids = getAllSubterms();
-        IStrategoTerm[] secondKids = o.getAllSubterms();
-        if (kids != secondKids) {
-            for (int i = 0, sz = kids.length; i < sz; i++) {
-                IStrategoTerm kid = kids[i];
-                IStrategoTerm secondKid = secondKids[i];
-                if (kid != secondKid && !kid.match(secondKid)) {
-                    if (commonStorageType == SHARABLE && i != 0)
-                        System.arraycopy(secondKids, 0, kids, 0, i);
-                    return false;
-                }
-            }
-            
-            if (commonStorageType == SHARABLE)
-                this.kids = secondKids;
-        }
-        
-        IStrategoList annotations = getAnnotations();
-        IStrategoList secondAnnotations = second.getAnnotations();
-        if (annotations == secondAnnotations) {
-            return true;
-        } else if (annotations.match(secondAnnotations)) {
-            if (commonStorageType == SHARABLE) internalSetAnnotations(secondAnnotations);
-            return true;
-        } else {
-            return false;
-        }
+        return TermEquality.match(this, second, commonStorageType);
+    }
+
+    /**
+     * Replaces the first kids of this term with the equal kids of another term,
+     * as part of {@link #match(IStrategoTerm)}.
+     */
+    void internalShareKids(IStrategoAppl second, int count) {
+        IStrategoTerm[] kids = this.kids;
+        IStrategoTerm[] secondKids = second.getAllSubterms();
+        if (kids == secondKids)
+            return;
+        if (count == kids.length)
+            this.kids = secondKids;
+        else
+            System.arraycopy(secondKids, 0, kids, 0, count);
     }
 
     @Deprecated
     public void prettyPrint(ITermPrinter pp) {
         pp.print(ctor.getName());
-        IStrategoTerm[] kids = getAllSubterms();
-        if(kids.length > 0) {
+        int count = getSubtermCount();
+        if(count > 0) {
             pp.println("(");
             pp.indent(ctor.getName().length());
-            kids[0].prettyPrint(pp);
-            for(int i = 1; i < kids.length; i++) {
+            getSubterm(0).prettyPrint(pp);
+            for(int i = 1; i < count; i++) {
                 pp.print(",");
-                kids[i].prettyPrint(pp);
+                getSubterm(i).prettyPrint(pp);
             }
             pp.println(")");
             pp.outdent(ctor.getName().length());
@@ -121,16 +150,16 @@ public class StrategoAppl extends StrategoTerm implements IStrategoAppl {
 
     public void writeAsString(Appendable output, int maxDepth) throws IOException {
         output.append(ctor.getName());
-        IStrategoTerm[] kids = getAllSubterms();
-        if(kids.length > 0) {
+        int count = getSubtermCount();
+        if(count > 0) {
             output.append('(');
             if (maxDepth == 0) {
             	output.append("...");
             } else {
-	            kids[0].writeAsString(output, maxDepth - 1);
-	            for(int i = 1; i < kids.length; i++) {
+	            getSubterm(0).writeAsString(output, maxDepth - 1);
+	            for(int i = 1; i < count; i++) {
 	                output.append(',');
-	                kids[i].writeAsString(output, maxDepth - 1);
+	                getSubterm(i).writeAsString(output, maxDepth - 1);
 	            }
             }
             output.append(')');
@@ -142,15 +171,14 @@ public class StrategoAppl extends StrategoTerm implements IStrategoAppl {
     public int hashFunction() {
         long r = ctor.hashCode();
         int accum = 6673;
-        IStrategoTerm[] kids = getAllSubterms();
-        for(int i = 0; i < kids.length; i++) {
-            r += kids[i].hashCode() * accum;
+        for(int i = 0, count = getSubtermCount(); i < count; i++) {
+            r += getSubterm(i).hashCode() * accum;
             accum *= 7703;
         }
         return (int)(r >> 12);
     }
 
 	public Iterator<IStrategoTerm> iterator() {
-		return new ArrayIterator<IStrategoTerm>(kids);
+		return new ArrayIterator<IStrategoTerm>(getAllSubterms());
 	}
 }
@@ -0,0 +1,53 @@
+package org.spoofax.terms;
+
+import org.spoofax.interpreter.terms.IStrategoAppl;
+import org.spoofax.interpreter.terms.IStrategoConstructor;
+import org.spoofax.interpreter.terms.IStrategoList;
+import org.spoofax.interpreter.terms.IStrategoTerm;
+
+/**
+ * An application term with one subterm, stored in fields rather than an array.
+ * 
+ * @see TermFactory#makeAppl(IStrategoConstructor, IStrategoTerm[], IStrategoList)
+ */
+final class StrategoAppl1 extends StrategoAppl {
+
+    private static final long serialVersionUID = -3349106815471282113L;
+
+    private IStrategoTerm kid0;
+
+    StrategoAppl1(IStrategoConstructor ctor, IStrategoTerm kid0, IStrategoList annotations,
+            int storageType) {
+        super(ctor, annotations, storageType);
+        this.kid0 = kid0;
+        
+        if (storageType != MUTABLE) initImmutableHashCode();
+    }
+
+    @Override
+    public IStrategoTerm getSubterm(int index) {
+        switch (index) {
+            case 0:
+                return kid0;
+            default:
+                throw new IndexOutOfBoundsException("Index out of bounds: " + index);
+        }
+    }
+
+    @Override
+    public int getSubtermCount() {
+        return 1;
+    }
+
+    @Override
+    IStrategoTerm[] materializeKids() {
+        return new IStrategoTerm[] { kid0 };
+    }
+
+    @Override
+    void internalShareKids(IStrategoAppl second, int count) {
+        if (count > 0)
+            kid0 = second.getSubterm(0);
+        clearMaterializedKids();
+    }
+}
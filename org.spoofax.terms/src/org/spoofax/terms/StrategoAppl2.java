@@ -0,0 +1,60 @@
+package org.spoofax.terms;
+
+import org.spoofax.interpreter.terms.IStrategoAppl;
+import org.spoofax.interpreter.terms.IStrategoConstructor;
+import org.spoofax.interpreter.terms.IStrategoList;
+import org.spoofax.interpreter.terms.IStrategoTerm;
+
+/**
+ * An application term with two subterms, stored in fields rather than an array.
+ * 
+ * @see TermFactory#makeAppl(IStrategoConstructor, IStrategoTerm[], IStrategoList)
+ */
+final class StrategoAppl2 extends StrategoAppl {
+
+    private static final long serialVersionUID = 5584725081960394437L;
+
+    private IStrategoTerm kid0;
+
+    private IStrategoTerm kid1;
+
+    StrategoAppl2(IStrategoConstructor ctor, IStrategoTerm kid0, IStrategoTerm kid1, IStrategoList annotations,
+            int storageType) {
+        super(ctor, annotations, storageType);
+        this.kid0 = kid0;
+        this.kid1 = kid1;
+        
+        if (storageType != MUTABLE) initImmutableHashCode();
+    }
+
+    @Override
+    public IStrategoTerm getSubterm(int index) {
+        switch (index) {
+            case 0:
+                return kid0;
+            case 1:
+                return kid1;
+            default:
+                throw new IndexOutOfBoundsException("Index out of bounds: " + index);
+        }
+    }
+
+    @Override
+    public int getSubtermCount() {
+        return 2;
+    }
+
+    @Override
+    IStrategoTerm[] materializeKids() {
+        return new IStrategoTerm[] { kid0, kid1 };
+    }
+
+    @Override
+    void internalShareKids(IStrategoAppl second, int count) {
+        if (count > 0)
+            kid0 = second.getSubterm(0);
+        if (count > 1)
+            kid1 = second.getSubterm(1);
+        clearMaterializedKids();
+    }
+}
@@ -0,0 +1,67 @@
+package org.spoofax.terms;
+
+import org.spoofax.interpreter.terms.IStrategoAppl;
+import org.spoofax.interpreter.terms.IStrategoConstructor;
+import org.spoofax.interpreter.terms.IStrategoList;
+import org.spoofax.interpreter.terms.IStrategoTerm;
+
+/**
+ * An application term with three subterms, stored in fields rather than an array.
+ * 
+ * @see TermFactory#makeAppl(IStrategoConstructor, IStrategoTerm[], IStrategoList)
+ */
+final class StrategoAppl3 extends StrategoAppl {
+
+    private static final long serialVersionUID = -1742317465389128660L;
+
+    private IStrategoTerm kid0;
+
+    private IStrategoTerm kid1;
+
+    private IStrategoTerm kid2;
+
+    StrategoAppl3(IStrategoConstructor ctor, IStrategoTerm kid0, IStrategoTerm kid1, IStrategoTerm kid2, IStrategoList annotations,
+            int storageType) {
+        super(ctor, annotations, storageType);
+        this.kid0 = kid0;
+        this.kid1 = kid1;
+        this.kid2 = kid2;
+        
+        if (storageType != MUTABLE) initImmutableHashCode();
+    }
+
+    @Override
+    public IStrategoTerm getSubterm(int index) {
+        switch (index) {
+            case 0:
+                return kid0;
+            case 1:
+                return kid1;
+            case 2:
+                return kid2;
+            default:
+                throw new IndexOutOfBoundsException("Index out of bounds: " + index);
+        }
+    }
+
+    @Override
+    public int getSubtermCount() {
+        return 3;
+    }
+
+    @Override
+    IStrategoTerm[] materializeKids() {
+        return new IStrategoTerm[] { kid0, kid1, kid2 };
+    }
+
+    @Override
+    void internalShareKids(IStrategoAppl second, int count) {
+        if (count > 0)
+            kid0 = second.getSubterm(0);
+        if (count > 1)
+            kid1 = second.getSubterm(1);
+        if (count > 2)
+            kid2 = second.getSubterm(2);
+        clearMaterializedKids();
+    }
+}
@@ -0,0 +1,217 @@
+package org.spoofax.terms;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.spoofax.interpreter.terms.IStrategoList;
+import org.spoofax.interpreter.terms.IStrategoTerm;
+import org.spoofax.interpreter.terms.ITermPrinter;
+import org.spoofax.terms.util.ArrayIterator;
+
+/**
+ * A stratego list implementation backed by a slice of an array.
+ * 
+ * The list and all its tails share the same backing array, providing
+ * constant-time indexed access, {@link #size()}, and {@link #tail()}.
+ * Tails are created on demand and cached, so that repeatedly taking the
+ * tail of a list returns the same term.
+ * 
+ * The backing array is a private copy that is never modified or exposed,
+ * and its fields are final, such that a list can be read by multiple
+ * threads. Unlike {@link StrategoList}, equal lists do not share their
+ * backing arrays after they are matched.
+ * 
+ * @see TermFactory#makeList(IStrategoTerm[], IStrategoList)
+ */
+public class StrategoArrayList extends StrategoTerm implements IStrategoList {
+
+	private static final long serialVersionUID = 2093517497296781153L;
+
+	private final IStrategoTerm[] elements;
+	
+	private final int offset;
+	
+	private IStrategoList tail;
+	
+	/**
+	 * The hashes of all suffixes of the backing array, shared between a list
+	 * and its tails, or <code>null</code> for mutable lists.
+	 * 
+	 * @see StrategoList#hashFunction()
+	 */
+	private final int[] hashes;
+
+	/**
+	 * Creates a new list of all elements in an array, which is copied.
+	 */
+	public StrategoArrayList(IStrategoTerm[] elements, IStrategoList annotations, int storageType) {
+		this(elements, 0, annotations, storageType);
+	}
+
+	/**
+	 * Creates a new list of the elements in an array, starting at the given offset,
+	 * which are copied.
+	 */
+	public StrategoArrayList(IStrategoTerm[] elements, int offset, IStrategoList annotations, int storageType) {
+		super(annotations, storageType);
+		if (offset < 0 || offset > elements.length)
+			throw new IndexOutOfBoundsException("Offset out of bounds: " + offset);
+		this.elements = Arrays.copyOfRange(elements, offset, elements.length);
+		this.offset = 0;
+		
+		if (storageType != MUTABLE) {
+			IStrategoTerm[] kids = this.elements;
+			int[] hashes = new int[kids.length + 1];
+			int hash = 1;
+			hashes[kids.length] = hash;
+			for (int i = kids.length - 1; i >= 0; i--) {
+				hash = 31 * hash + kids[i].hashCode();
+				hashes[i] = hash;
+			}
+			this.hashes = hashes;
+			initImmutableHashCode();
+		} else {
+			this.hashes = null;
+		}
+	}
+	
+	private StrategoArrayList(IStrategoTerm[] elements, int offset, int[] hashes, int storageType) {
+		super(null, storageType);
+		this.elements = elements;
+		this.offset = offset;
+		this.hashes = hashes;
+		
+		if (storageType != MUTABLE) initImmutableHashCode();
+	}
+	
+	public IStrategoTerm head() {
+		if (offset == elements.length)
+			throw new NoSuchElementException();
+		return elements[offset];
+	}
+	
+	public boolean isEmpty() {
+		return offset == elements.length;
+	}
+	
+	/**
+	 * Gets the tail of this list. The empty tail of a list that is not mutable
+	 * is {@link TermFactory#EMPTY_LIST}, which (unlike other empty lists)
+	 * may be used as the annotations of a term.
+	 */
+	public IStrategoList tail() {
+		IStrategoList result = tail;
+		if (result == null) {
+			if (offset == elements.length)
+				throw new IllegalStateException();
+			if (offset + 1 == elements.length && getStorageType() != MUTABLE)
+				result = TermFactory.EMPTY_LIST;
+			else
+				result = new StrategoArrayList(elements, offset + 1, hashes, getStorageType());
+			tail = result;
+		}
+		return result;
+	}
+	
+	@Deprecated
+	public IStrategoList prepend(IStrategoTerm prefix) {
+		return new StrategoList(prefix, this, null, TermFactory.getStorageType(prefix, this));
+	}
+
+	@Deprecated
+	public final IStrategoTerm get(int index) {
+		return getSubterm(index);
+	}
+	
+	public IStrategoTerm[] getAllSubterms() {
+		return Arrays.copyOfRange(elements, offset, elements.length);
+	}
+	
+	public final int size() {
+		return elements.length - offset;
+	}
+
+	public IStrategoTerm getSubterm(int index) {
+		if (index < 0 || index >= elements.length - offset)
+			throw new IndexOutOfBoundsException("Index out of bounds: " + index);
+		return elements[offset + index];
+	}
+
+	public int getSubtermCount() {
+		return elements.length - offset;
+	}
+
+	public int getTermType() {
+		return IStrategoTerm.LIST;
+	}
+
+	@Override
+	protected boolean doSlowMatch(IStrategoTerm second, int commonStorageType) {
+		return TermEquality.match(this, second, commonStorageType);
+	}
+
+	/**
+	 * Gets the backing array, which must not be modified.
+	 */
+	IStrategoTerm[] internalGetElements() {
+		return elements;
+	}
+
+	int internalGetOffset() {
+		return offset;
+	}
+
+	@Deprecated
+	public void prettyPrint(ITermPrinter pp) {
+		if (!isEmpty()) {
+			pp.println("[");
+			pp.indent(2);
+			elements[offset].prettyPrint(pp);
+			for (int i = offset + 1; i < elements.length; i++) {
+				pp.print(",");
+				pp.nextIndentOff();
+				elements[i].prettyPrint(pp);
+				pp.println("");
+			}
+			pp.println("");
+			pp.print("]");
+			pp.outdent(2);
+		} else {
+			pp.print("[]");
+		}
+		printAnnotations(pp);
+	}
+	
+	public void writeAsString(Appendable output, int maxDepth) throws IOException {
+		output.append('[');
+		if (!isEmpty()) {
+			if (maxDepth == 0) {
+				output.append("...");
+			} else {
+				elements[offset].writeAsString(output, maxDepth - 1);
+				for (int i = offset + 1; i < elements.length; i++) {
+					output.append(',');
+					elements[i].writeAsString(output, maxDepth - 1);
+				}
+			}
+		}
+		output.append(']');
+		appendAnnotations(output, maxDepth);
+	}
+
+	/**
+	 * Computes the same hash as {@link StrategoList#hashFunction()}.
+	 */
+	@Override
+	public int hashFunction() {
+		if (hashes != null)
+			return hashes[offset];
+		return StrategoList.hashFunction(elements, offset);
+	}
+
+	public Iterator<IStrategoTerm> iterator() {
+		return new ArrayIterator<IStrategoTerm>(elements, offset);
+	}
+}
@@ -25,6 +25,11 @@ public final class StrategoConstructor extends StrategoTerm implements IStratego
 	private final String name;
     
     private final int arity;
+    
+    /**
+     * The canonical maximally shared, unannotated application of this (nullary) constructor.
+     */
+    private transient volatile StrategoAppl nullaryInstance;
 
     public StrategoConstructor(String name, int arity) {
         super(null, SHARABLE); // MAXIMALLY_SHARED causes problems before sharing with regular hash maps
@@ -40,6 +45,26 @@ public final class StrategoConstructor extends StrategoTerm implements IStratego
     public String getName() {
         return name;
     }
+    
+    /**
+     * Gets the canonical maximally shared, unannotated application of this
+     * nullary constructor, as used by {@link HashConsTable}.
+     * (Only hash-consed terms share it, since other terms may get attachments.)
+     */
+    StrategoAppl getNullaryInstance() {
+        assert arity == 0;
+        StrategoAppl result = nullaryInstance;
+        if (result == null) {
+            synchronized (this) {
+                result = nullaryInstance;
+                if (result == null) {
+                    result = new StrategoAppl(this, TermFactory.EMPTY, null, MAXIMALLY_SHARED);
+                    nullaryInstance = result;
+                }
+            }
+        }
+        return result;
+    }
 
     public IStrategoTerm[] getAllSubterms() {
         return TermFactory.EMPTY;
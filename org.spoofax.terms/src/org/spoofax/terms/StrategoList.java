@@ -44,10 +44,9 @@ public class StrategoList extends StrategoTerm implements IStrategoList {
         super(annotations, storageType);
         this.head = head;
         this.tail = tail;
-        
-        //if (storageType != MUTABLE) initImmutableHashCode();
-        
         this.size = (head == null ? 0 : 1) + (tail == null ? 0 : tail.size());
+        
+        if (storageType != MUTABLE) initImmutableHashCode();
     }
     
     public IStrategoTerm head() {
@@ -111,46 +110,17 @@ public class StrategoList extends StrategoTerm implements IStrategoList {
 
     @Override
     protected boolean doSlowMatch(IStrategoTerm second, int commonStorageType) {
-        if (second.getTermType() != IStrategoTerm.LIST)
-            return false;
-        
-        final IStrategoList snd = (IStrategoList) second;
-        if (size() != snd.size())
-            return false;
-        
-        if (!isEmpty()) {
-        	IStrategoTerm head = head();
-        	IStrategoTerm head2 = snd.head();
-        	if (head != head2 && !head.match(head2))
-        		return false;
-        	
-        	IStrategoList tail = tail();
-        	IStrategoList tail2 = snd.tail();
-        
-        	// TODO: test equality of annos on cons nodes (see BasicStrategoList)
-	        for (IStrategoList cons = tail, cons2 = tail2; !cons.isEmpty(); cons = cons.tail(), cons2 = cons2.tail()) {
-	            IStrategoTerm consHead = cons.head();
-				IStrategoTerm cons2Head = cons2.head();
-				if (consHead != cons2Head && !consHead.match(cons2Head))
-	                return false;
-	        }
-	        
-	        if (commonStorageType == SHARABLE) {
-	        	this.head = head2;
-	        	this.tail = tail2;
-	        }
-        }
-        
-        IStrategoList annotations = getAnnotations();
-        IStrategoList secondAnnotations = second.getAnnotations();
-        if (annotations == secondAnnotations) {
-        	return true;
-        } else if (annotations.match(secondAnnotations)) {
-        	if (commonStorageType == SHARABLE) internalSetAnnotations(secondAnnotations);
-        	return true;
-        } else {
-        	return false;
-        }
+        // TODO: test equality of annos on cons nodes (see BasicStrategoList)
+        return TermEquality.match(this, second, commonStorageType);
+    }
+
+    /**
+     * Replaces the head and tail of this list with equal terms,
+     * as part of {@link #match(IStrategoTerm)}.
+     */
+    void internalSetHeadTail(IStrategoTerm head, IStrategoList tail) {
+        this.head = head;
+        this.tail = tail;
     }
 
     @Deprecated
@@ -192,23 +162,45 @@ public class StrategoList extends StrategoTerm implements IStrategoList {
         appendAnnotations(output, maxDepth);
     }
 
+    /**
+     * Computes the hash of this list, ignoring its annotations and the
+     * annotations of its tails. The hash is computed incrementally from
+     * the hash of the head and the (cached) hash of the tail:
+     * the empty list has hash <code>1</code>, and a cons has hash
+     * <code>31 * hash(tail) + head.hashCode()</code>.
+     */
     @Override
     public int hashFunction() {
     	if(head == null)
     		return 1;
     	
-    	final int prime = 31;
-    	int result = prime * head.hashCode();
-    	
-    	if(tail == null)
-    		return result;
+    	if(getStorageType() == MUTABLE)
+    		return hashFunction(getAllSubterms(), 0);
     	
-    	IStrategoList tail = this.tail;
-    	while(!tail.isEmpty()) {
-    		result = prime * result + tail.head().hashCode();
-    		tail = tail.tail();
+    	return 31 * hashFunction(tail) + head.hashCode();
+    }
+    
+    /**
+     * Computes the hash of a list as defined by {@link #hashFunction()}.
+     */
+    static int hashFunction(IStrategoList list) {
+    	if(list instanceof StrategoList || list instanceof StrategoArrayList) {
+    		StrategoTerm term = (StrategoTerm) list;
+    		if(term.getStorageType() != MUTABLE)
+    			return term.getAnnotations().isEmpty() ? term.hashCode() : term.hashFunction();
+    	}
+    	return hashFunction(list.getAllSubterms(), 0);
+    }
+    
+    /**
+     * Computes the hash of a list of the given elements, starting at an offset,
+     * as defined by {@link #hashFunction()}.
+     */
+    static int hashFunction(IStrategoTerm[] elements, int offset) {
+    	int result = 1;
+    	for(int i = elements.length - 1; i >= offset; i--) {
+    		result = 31 * result + elements[i].hashCode();
     	}
-    	
     	return result;
     }
 
@@ -101,11 +101,32 @@ public class StrategoString extends StrategoTerm implements IStrategoString {
  
     public void writeAsString(Appendable output, int maxDepth) throws IOException {
     	output.append("\"");
-    	output.append(stringValue().replace("\\", "\\\\").replace("\"", "\\\"")
-        		.replace("\n", "\\n").replace("\r", "\\r"));
+    	appendEscaped(output, stringValue());
     	output.append("\"");
         appendAnnotations(output, maxDepth);
     }
+
+    /**
+     * Appends a string escaping backslashes, quotes and newlines,
+     * copying the unescaped runs in between as they are.
+     */
+    private static void appendEscaped(Appendable output, String value) throws IOException {
+        int start = 0;
+        for (int i = 0, length = value.length(); i < length; i++) {
+            String escape;
+            switch (value.charAt(i)) {
+                case '\\': escape = "\\\\"; break;
+                case '"': escape = "\\\""; break;
+                case '\n': escape = "\\n"; break;
+                case '\r': escape = "\\r"; break;
+                default: continue;
+            }
+            output.append(value, start, i);
+            output.append(escape);
+            start = i + 1;
+        }
+        output.append(value, start, value.length());
+    }
     
     @Override
     public int hashFunction() {
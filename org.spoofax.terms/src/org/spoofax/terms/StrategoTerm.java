@@ -56,36 +56,9 @@ public abstract class StrategoTerm extends AbstractSimpleTerm implements IStrate
     	if (this == second) return true;
     	if (second == null) return false;
         
-    	int storageType = getStorageType();
-        
-		switch (storageType) {
-        	case MAXIMALLY_SHARED:
-        		switch (second.getStorageType()) {
-					case MAXIMALLY_SHARED:
-						return false;
-					case SHARABLE:
-						// (common storage type is immutable, i.e. my subterms should not be overwritten)
-						return hashCode() == second.hashCode() && doSlowMatch(second, IMMUTABLE);
-					case IMMUTABLE:
-						return hashCode() == second.hashCode() && doSlowMatch(second, IMMUTABLE);
-	    			default:
-	    				return doSlowMatch(second, MUTABLE);
-	    		}
-        	case SHARABLE:
-        	case IMMUTABLE:
-        		switch (second.getStorageType()) {
-    				case MAXIMALLY_SHARED:
-    					return hashCode() == second.hashCode() && doSlowMatch(second, storageType);
-    				case SHARABLE:
-    					return hashCode() == second.hashCode() && doSlowMatch(second, storageType);
-    				case IMMUTABLE:
-    					return hashCode() == second.hashCode() && doSlowMatch(second, IMMUTABLE);
-        			default:
-        				return doSlowMatch(second, MUTABLE);
-        		}
-        	default:
-     			return doSlowMatch(second, MUTABLE);
-        }
+    	int commonStorageType = TermEquality.getMatchStorageType(this, second);
+    	if (commonStorageType == TermEquality.NO_MATCH) return false;
+    	return doSlowMatch(second, commonStorageType);
     }
 
     protected abstract boolean doSlowMatch(IStrategoTerm second, int commonStorageType);
@@ -99,6 +72,16 @@ public abstract class StrategoTerm extends AbstractSimpleTerm implements IStrate
     
     @Override
     public int hashCode() {
+    	if (hashCode == UNKNOWN_HASH && TermEquality.hasHashDependencies(this))
+    		TermEquality.initHashCodes(this); // (avoids deep recursion for deep terms)
+    	return internalHashCode();
+    }
+    
+    /**
+     * Computes the hash code of this term, assuming the hash codes
+     * of any subterms are already known.
+     */
+    final int internalHashCode() {
     	int result = hashCode;
     	switch (result) {
     		case MUTABLE_HASH:
@@ -117,6 +100,20 @@ public abstract class StrategoTerm extends AbstractSimpleTerm implements IStrate
     	}
     }
     
+    /**
+     * Gets the hash code of this term without its annotations, which
+     * {@link #hashCode()} combines with the hash code of the annotations.
+     */
+    public final int unannotatedHashCode() {
+    	if (annotations == null || annotations.isEmpty())
+    		return hashCode();
+    	return hashFunction();
+    }
+    
+    final boolean isHashCodeKnown() {
+    	return hashCode != UNKNOWN_HASH;
+    }
+    
     protected final void initImmutableHashCode() {
     	assert getTermType() != MUTABLE; // (avoid this virtual call here)
     	if (hashCode == UNKNOWN_HASH) {
@@ -58,40 +58,19 @@ public class StrategoTuple extends StrategoTerm implements IStrategoTuple {
 
     @Override
     protected boolean doSlowMatch(IStrategoTerm second, int commonStorageType) {
-        if (second.getTermType() != IStrategoTerm.TUPLE)
-            return false;
+        return TermEquality.match(this, second, commonStorageType);
+    }
 
-        IStrategoTuple snd = (IStrategoTuple) second;
-        if (size() != snd.size())
-            return false;
-        
-        IStrategoTerm[] kids = this.kids;
-        IStrategoTerm[] secondKids = snd.getAllSubterms();
-        if (kids != secondKids) {
-	        for (int i = 0, sz = kids.length; i < sz; i++) {
-	            IStrategoTerm kid = kids[i];
-				IStrategoTerm secondKid = secondKids[i];
-				if (kid != secondKid && !kid.match(secondKid)) {
-	            	if (commonStorageType == SHARABLE && i != 0)
-	            		System.arraycopy(secondKids, 0, kids, 0, i);
-	                return false;
-	            }
-	        }
-	        
-	    	if (commonStorageType == SHARABLE)
-	    		this.kids = secondKids;
-        }
-        
-        IStrategoList annotations = getAnnotations();
-        IStrategoList secondAnnotations = second.getAnnotations();
-        if (annotations == secondAnnotations) {
-        	return true;
-        } else if (annotations.match(secondAnnotations)) {
-        	if (commonStorageType == SHARABLE) internalSetAnnotations(secondAnnotations);
-        	return true;
-        } else {
-        	return false;
-        }
+    IStrategoTerm[] internalGetKids() {
+        return kids;
+    }
+
+    /**
+     * Replaces the kids of this term with equal kids,
+     * as part of {@link #match(IStrategoTerm)}.
+     */
+    void internalSetKids(IStrategoTerm[] kids) {
+        this.kids = kids;
     }
 
     @Deprecated
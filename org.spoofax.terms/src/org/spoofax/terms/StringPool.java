@@ -0,0 +1,69 @@
+package org.spoofax.terms;
+
+/**
+ * A concurrent, weak pool of strings used by {@link TermFactory}.
+ *
+ * The pool records which strings are in use (to support
+ * {@link TermFactory#tryMakeUniqueString(String)}) and returns canonical
+ * instances of equal strings.
+ * Strings are only weakly referenced and disappear from the pool
+ * once they are no longer used.
+ *
+ * Lookups do not lock; insertions lock a single segment of the pool.
+ */
+final class StringPool {
+
+    private final ConcurrentWeakTable<String> table = new ConcurrentWeakTable<String>();
+
+    /**
+     * Adds a string to the pool, if not already present.
+     *
+     * @return the pooled string equal to the given value
+     */
+    public String intern(String value) {
+        int hash = ConcurrentWeakTable.spread(value.hashCode());
+        String result = getKey(find(hash, value));
+        if (result != null)
+            return result;
+        synchronized (table.lock(hash)) {
+            result = getKey(find(hash, value));
+            if (result == null) {
+                table.insert(hash, value);
+                result = value;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Adds a string to the pool, if not already present.
+     *
+     * @return <code>true</code> if the string was not yet in the pool
+     */
+    public boolean add(String value) {
+        int hash = ConcurrentWeakTable.spread(value.hashCode());
+        if (getKey(find(hash, value)) != null)
+            return false;
+        synchronized (table.lock(hash)) {
+            if (getKey(find(hash, value)) != null)
+                return false;
+            table.insert(hash, value);
+            return true;
+        }
+    }
+
+    private ConcurrentWeakTable.Entry<String> find(int hash, String value) {
+        for (ConcurrentWeakTable.Entry<String> e = table.first(hash); e != null; e = e.next) {
+            if (e.hash != hash)
+                continue;
+            String key = e.get();
+            if (key != null && (key == value || key.equals(value)))
+                return e;
+        }
+        return null;
+    }
+
+    private static String getKey(ConcurrentWeakTable.Entry<String> entry) {
+        return entry == null ? null : entry.get();
+    }
+}
@@ -0,0 +1,458 @@
+package org.spoofax.terms;
+
+import static org.spoofax.interpreter.terms.IStrategoTerm.APPL;
+import static org.spoofax.interpreter.terms.IStrategoTerm.IMMUTABLE;
+import static org.spoofax.interpreter.terms.IStrategoTerm.LIST;
+import static org.spoofax.interpreter.terms.IStrategoTerm.MAXIMALLY_SHARED;
+import static org.spoofax.interpreter.terms.IStrategoTerm.MUTABLE;
+import static org.spoofax.interpreter.terms.IStrategoTerm.SHARABLE;
+import static org.spoofax.interpreter.terms.IStrategoTerm.TUPLE;
+
+import org.spoofax.interpreter.terms.IStrategoAppl;
+import org.spoofax.interpreter.terms.IStrategoList;
+import org.spoofax.interpreter.terms.IStrategoTerm;
+
+/**
+ * Structural equality and hashing of application, tuple, and list terms,
+ * using an explicit stack rather than recursion, so that deep terms and
+ * long lists can be compared and hashed within constant Java stack depth.
+ *
+ * Matching retains the sharing behavior of {@link StrategoTerm#match}:
+ * for {@link IStrategoTerm#SHARABLE} terms, subterms (and annotations)
+ * found to be equal are replaced by those of the second term.
+ * Annotations are matched using a separate, nested match.
+ */
+final class TermEquality {
+
+	/**
+	 * A common storage type indicating that two terms do not match.
+	 *
+	 * @see #getMatchStorageType(StrategoTerm, IStrategoTerm)
+	 */
+	static final int NO_MATCH = -1;
+
+	private static final int INITIAL_STACK_SIZE = 16;
+
+	private TermEquality() {
+		// Static utility class
+	}
+
+	/**
+	 * Determines the storage type for matching two distinct, non-null terms,
+	 * or {@link #NO_MATCH} if the terms can be determined to be unequal
+	 * based on their storage types and hash codes alone.
+	 */
+	static int getMatchStorageType(StrategoTerm first, IStrategoTerm second) {
+		int storageType = first.getStorageType();
+
+		switch (storageType) {
+			case MAXIMALLY_SHARED:
+				switch (second.getStorageType()) {
+					case MAXIMALLY_SHARED:
+						return NO_MATCH;
+					case SHARABLE:
+						// (common storage type is immutable, i.e. my subterms should not be overwritten)
+					case IMMUTABLE:
+						return first.hashCode() == second.hashCode() ? IMMUTABLE : NO_MATCH;
+					default:
+						return MUTABLE;
+				}
+			case SHARABLE:
+			case IMMUTABLE:
+				switch (second.getStorageType()) {
+					case MAXIMALLY_SHARED:
+					case SHARABLE:
+						return first.hashCode() == second.hashCode() ? storageType : NO_MATCH;
+					case IMMUTABLE:
+						return first.hashCode() == second.hashCode() ? IMMUTABLE : NO_MATCH;
+					default:
+						return MUTABLE;
+				}
+			default:
+				return MUTABLE;
+		}
+	}
+
+	/**
+	 * Tests if a term is matched using the explicit stack of {@link MatchStack}.
+	 */
+	private static boolean isStackMatched(StrategoTerm term) {
+		if (term instanceof StrategoAppl)
+			return term.getTermType() == APPL; // (excludes placeholders)
+		return term instanceof StrategoTuple || term instanceof StrategoList || term instanceof StrategoArrayList;
+	}
+
+	/**
+	 * Matches an application, tuple, or list term with another term.
+	 *
+	 * @see StrategoTerm#doSlowMatch(IStrategoTerm, int)
+	 */
+	static boolean match(StrategoTerm first, IStrategoTerm second, int commonStorageType) {
+		MatchStack stack = new MatchStack();
+		if (!stack.push(first, second, commonStorageType))
+			return false;
+
+		while (stack.size > 0) {
+			int top = stack.size - 1;
+			if (stack.remaining[top] > 0) {
+				IStrategoTerm kid = stack.getFirstKid(top);
+				IStrategoTerm secondKid = stack.getSecondKid(top);
+				if (kid == secondKid) {
+					stack.next(top);
+				} else if (kid instanceof StrategoTerm) {
+					if (secondKid == null)
+						return stack.fail();
+					StrategoTerm term = (StrategoTerm) kid;
+					int kidStorageType = getMatchStorageType(term, secondKid);
+					if (kidStorageType == NO_MATCH) {
+						return stack.fail();
+					} else if (isStackMatched(term)) {
+						if (!stack.push(term, secondKid, kidStorageType))
+							return stack.fail();
+					} else if (term.doSlowMatch(secondKid, kidStorageType)) {
+						stack.next(top);
+					} else {
+						return stack.fail();
+					}
+				} else if (kid.match(secondKid)) {
+					stack.next(top);
+				} else {
+					return stack.fail();
+				}
+			} else {
+				if (!stack.complete(top))
+					return stack.fail();
+				stack.size--;
+				stack.clear(top);
+				if (top > 0)
+					stack.next(top - 1);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Computes and caches the hash codes of a term and all subterms it
+	 * depends on for its hash code, in post-order.
+	 */
+	static void initHashCodes(StrategoTerm term) {
+		HashStack stack = new HashStack();
+		stack.push(term);
+
+		while (stack.size > 0) {
+			int top = stack.size - 1;
+			IStrategoTerm dependency = stack.nextDependency(top);
+			if (dependency == null) {
+				StrategoTerm current = stack.terms[top];
+				stack.terms[top] = null;
+				stack.cursors[top] = null;
+				stack.size--;
+				current.internalHashCode();
+			} else if (dependency instanceof StrategoTerm) {
+				StrategoTerm dependencyTerm = (StrategoTerm) dependency;
+				if (!dependencyTerm.isHashCodeKnown() && hasHashDependencies(dependencyTerm))
+					stack.push(dependencyTerm);
+			}
+		}
+	}
+
+	/**
+	 * Tests if the hash code of a term depends on the hash codes of other terms.
+	 */
+	static boolean hasHashDependencies(StrategoTerm term) {
+		return term instanceof StrategoAppl || term instanceof StrategoTuple
+			|| term instanceof StrategoList || term instanceof StrategoArrayList;
+	}
+
+	/**
+	 * The explicit stack of pairs of terms being matched.
+	 *
+	 * The kids of a term are accessed through an array and index,
+	 * through {@link IStrategoTerm#getSubterm(int)} (for applications),
+	 * or, for linked lists, using a cursor.
+	 */
+	private static final class MatchStack {
+
+		int size;
+
+		StrategoTerm[] firsts = new StrategoTerm[INITIAL_STACK_SIZE];
+
+		IStrategoTerm[] seconds = new IStrategoTerm[INITIAL_STACK_SIZE];
+
+		int[] storageTypes = new int[INITIAL_STACK_SIZE];
+
+		int[] remaining = new int[INITIAL_STACK_SIZE];
+
+		IStrategoTerm[][] firstKids = new IStrategoTerm[INITIAL_STACK_SIZE][];
+
+		IStrategoTerm[][] secondKids = new IStrategoTerm[INITIAL_STACK_SIZE][];
+
+		int[] firstIndices = new int[INITIAL_STACK_SIZE];
+
+		int[] secondIndices = new int[INITIAL_STACK_SIZE];
+
+		IStrategoList[] firstCursors = new IStrategoList[INITIAL_STACK_SIZE];
+
+		IStrategoList[] secondCursors = new IStrategoList[INITIAL_STACK_SIZE];
+
+		/**
+		 * Pushes a new pair of terms, after testing if their
+		 * types, constructors, and sizes match.
+		 *
+		 * @return false if the terms do not match
+		 */
+		boolean push(StrategoTerm first, IStrategoTerm second, int storageType) {
+			if (size == firsts.length)
+				grow();
+
+			int i = size;
+			if (first instanceof StrategoAppl) {
+				if (second.getTermType() != APPL)
+					return false;
+				IStrategoAppl appl = (IStrategoAppl) second;
+				if (!((StrategoAppl) first).getConstructor().equals(appl.getConstructor()))
+					return false;
+				remaining[i] = first.getSubtermCount();
+			} else if (first instanceof StrategoTuple) {
+				if (second.getTermType() != TUPLE || first.getSubtermCount() != second.getSubtermCount())
+					return false;
+				IStrategoTerm[] kids = ((StrategoTuple) first).internalGetKids();
+				IStrategoTerm[] kids2 = second.getAllSubterms();
+				firstKids[i] = kids;
+				secondKids[i] = kids2;
+				remaining[i] = kids == kids2 ? 0 : kids.length;
+			} else {
+				if (second.getTermType() != LIST)
+					return false;
+				IStrategoList list2 = (IStrategoList) second;
+				int length = ((IStrategoList) first).size();
+				if (length != list2.size())
+					return false;
+				if (first instanceof StrategoArrayList) {
+					StrategoArrayList arrayList = (StrategoArrayList) first;
+					firstKids[i] = arrayList.internalGetElements();
+					firstIndices[i] = arrayList.internalGetOffset();
+				} else {
+					firstCursors[i] = (IStrategoList) first;
+				}
+				if (second instanceof StrategoArrayList) {
+					StrategoArrayList arrayList = (StrategoArrayList) second;
+					secondKids[i] = arrayList.internalGetElements();
+					secondIndices[i] = arrayList.internalGetOffset();
+				} else {
+					secondCursors[i] = list2;
+				}
+				remaining[i] = length;
+			}
+
+			firsts[i] = first;
+			seconds[i] = second;
+			storageTypes[i] = storageType;
+			size++;
+			return true;
+		}
+
+		IStrategoTerm getFirstKid(int i) {
+			IStrategoTerm[] kids = firstKids[i];
+			if (kids != null)
+				return kids[firstIndices[i]];
+			IStrategoList cursor = firstCursors[i];
+			return cursor != null ? cursor.head() : firsts[i].getSubterm(firstIndices[i]);
+		}
+
+		IStrategoTerm getSecondKid(int i) {
+			IStrategoTerm[] kids = secondKids[i];
+			if (kids != null)
+				return kids[secondIndices[i]];
+			IStrategoList cursor = secondCursors[i];
+			return cursor != null ? cursor.head() : seconds[i].getSubterm(secondIndices[i]);
+		}
+
+		/**
+		 * Advances to the next pair of kids, after the current pair matched.
+		 */
+		void next(int i) {
+			if (--remaining[i] == 0)
+				return; // (keep the index, avoid taking the tail of an empty list)
+			if (firstCursors[i] == null)
+				firstIndices[i]++;
+			else
+				firstCursors[i] = firstCursors[i].tail();
+			if (secondCursors[i] == null)
+				secondIndices[i]++;
+			else
+				secondCursors[i] = secondCursors[i].tail();
+		}
+
+		/**
+		 * Completes a match after all kids matched,
+		 * sharing the kids and matching the annotations.
+		 *
+		 * @return false if the annotations do not match
+		 */
+		boolean complete(int i) {
+			StrategoTerm first = firsts[i];
+			IStrategoTerm second = seconds[i];
+			boolean isSharable = storageTypes[i] == SHARABLE;
+
+			if (isSharable) {
+				if (first instanceof StrategoAppl) {
+					((StrategoAppl) first).internalShareKids((IStrategoAppl) second, first.getSubtermCount());
+				} else if (first instanceof StrategoTuple) {
+					if (firstKids[i] != secondKids[i])
+						((StrategoTuple) first).internalSetKids(secondKids[i]);
+				} else if (first instanceof StrategoList) {
+					IStrategoList list2 = (IStrategoList) second;
+					if (!list2.isEmpty())
+						((StrategoList) first).internalSetHeadTail(list2.head(), list2.tail());
+				}
+				// (array lists are immutable and keep their own backing array)
+			}
+
+			IStrategoList annotations = first.getAnnotations();
+			IStrategoList secondAnnotations = second.getAnnotations();
+			if (annotations == secondAnnotations) {
+				return true;
+			} else if (annotations.match(secondAnnotations)) {
+				if (isSharable) first.internalSetAnnotations(secondAnnotations);
+				return true;
+			} else {
+				return false;
+			}
+		}
+
+		/**
+		 * Unwinds the stack after a mismatch, sharing the kids of
+		 * applications and tuples that did match.
+		 *
+		 * @return false
+		 */
+		boolean fail() {
+			for (int i = size - 1; i >= 0; i--) {
+				if (storageTypes[i] == SHARABLE && remaining[i] > 0 && firstIndices[i] != 0) {
+					StrategoTerm first = firsts[i];
+					int matched = firstIndices[i];
+					if (first instanceof StrategoAppl)
+						((StrategoAppl) first).internalShareKids((IStrategoAppl) seconds[i], matched);
+					else if (first instanceof StrategoTuple)
+						System.arraycopy(secondKids[i], 0, firstKids[i], 0, matched);
+				}
+			}
+			size = 0;
+			return false;
+		}
+
+		void clear(int i) {
+			firsts[i] = null;
+			seconds[i] = null;
+			firstKids[i] = null;
+			secondKids[i] = null;
+			firstIndices[i] = 0;
+			secondIndices[i] = 0;
+			firstCursors[i] = null;
+			secondCursors[i] = null;
+		}
+
+		private void grow() {
+			int length = firsts.length * 2;
+			firsts = copyOf(firsts, new StrategoTerm[length]);
+			seconds = copyOf(seconds, new IStrategoTerm[length]);
+			storageTypes = copyOf(storageTypes, length);
+			remaining = copyOf(remaining, length);
+			firstKids = copyOf(firstKids, new IStrategoTerm[length][]);
+			secondKids = copyOf(secondKids, new IStrategoTerm[length][]);
+			firstIndices = copyOf(firstIndices, length);
+			secondIndices = copyOf(secondIndices, length);
+			firstCursors = copyOf(firstCursors, new IStrategoList[length]);
+			secondCursors = copyOf(secondCursors, new IStrategoList[length]);
+		}
+	}
+
+	/**
+	 * The explicit stack of terms whose hash codes are being computed.
+	 */
+	private static final class HashStack {
+
+		int size;
+
+		StrategoTerm[] terms = new StrategoTerm[INITIAL_STACK_SIZE];
+
+		int[] indices = new int[INITIAL_STACK_SIZE];
+
+		IStrategoList[] cursors = new IStrategoList[INITIAL_STACK_SIZE];
+
+		void push(StrategoTerm term) {
+			if (size == terms.length) {
+				int length = terms.length * 2;
+				terms = copyOf(terms, new StrategoTerm[length]);
+				indices = copyOf(indices, length);
+				cursors = copyOf(cursors, new IStrategoList[length]);
+			}
+			terms[size] = term;
+			indices[size] = 0;
+			if (term instanceof StrategoList && term.getStorageType() == MUTABLE)
+				cursors[size] = (IStrategoList) term;
+			size++;
+		}
+
+		/**
+		 * Gets the next term the hash code of a term depends on,
+		 * or null if there are no more dependencies.
+		 */
+		IStrategoTerm nextDependency(int i) {
+			StrategoTerm term = terms[i];
+			IStrategoList cursor = cursors[i];
+			if (cursor != null) {
+				// Mutable linked list: all elements
+				if (cursor.isEmpty()) {
+					cursors[i] = null;
+					indices[i] = 3; // (skip the head and tail below)
+					return term.getAnnotations();
+				}
+				cursors[i] = cursor.tail();
+				return cursor.head();
+			}
+
+			int index = indices[i]++;
+			if (term instanceof StrategoList) {
+				// Immutable linked list: head and tail
+				StrategoList list = (StrategoList) term;
+				switch (index) {
+					case 0:
+						return list.isEmpty() ? term.getAnnotations() : list.head();
+					case 1:
+						return list.isEmpty() ? null : list.tail();
+					case 2:
+						return term.getAnnotations();
+					default:
+						return null;
+				}
+			}
+
+			int count;
+			if (term instanceof StrategoArrayList) {
+				// Array list: only mutable lists depend on their elements
+				count = term.getStorageType() == MUTABLE ? term.getSubtermCount() : 0;
+			} else {
+				count = term.getSubtermCount();
+			}
+			if (index < count)
+				return term.getSubterm(index);
+			else if (index == count)
+				return term.getAnnotations();
+			else
+				return null;
+		}
+	}
+
+	private static <T> T[] copyOf(T[] array, T[] result) {
+		System.arraycopy(array, 0, result, 0, array.length);
+		return result;
+	}
+
+	private static int[] copyOf(int[] array, int length) {
+		int[] result = new int[length];
+		System.arraycopy(array, 0, result, 0, array.length);
+		return result;
+	}
+}
@@ -3,10 +3,6 @@ package org.spoofax.terms;
 import static java.lang.Math.min;
 import static org.spoofax.interpreter.terms.IStrategoTerm.*;
 
-import java.util.Collections;
-import java.util.Set;
-import java.util.WeakHashMap;
-
 import org.spoofax.interpreter.terms.IStrategoAppl;
 import org.spoofax.interpreter.terms.IStrategoConstructor;
 import org.spoofax.interpreter.terms.IStrategoInt;
@@ -18,24 +14,52 @@ import org.spoofax.interpreter.terms.IStrategoTerm;
 import org.spoofax.interpreter.terms.IStrategoTuple;
 import org.spoofax.interpreter.terms.ITermFactory;
 
+/**
+ * The standard term factory.
+ *
+ * By default, creates {@link IStrategoTerm#SHARABLE} terms. A factory obtained with
+ * {@link #getFactoryWithStorageType(int) getFactoryWithStorageType(MAXIMALLY_SHARED)}
+ * hash-conses all terms it creates, so that structurally equal terms are the same object.
+ *
+ * Short strings are pooled to support {@link #tryMakeUniqueString(String)},
+ * so that equal pooled strings share the same {@link String} object.
+ * Factories created with unique string tracking disabled skip the pool altogether.
+ */
 public class TermFactory extends AbstractTermFactory implements ITermFactory {
     private static final int MAX_POOLED_STRING_LENGTH = 100;
-    private static final Set<String> usedStrings = Collections.newSetFromMap(new WeakHashMap<String, Boolean>());
+    private static final StringPool usedStrings = new StringPool();
+    private static final HashConsTable hashConsTable = new HashConsTable();
+
+    private final boolean uniqueStringTracking;
 
     private IStrategoConstructor placeholderConstructor;
 
 
     public TermFactory() {
+        this(true);
+    }
+
+    /**
+     * Creates a new term factory.
+     *
+     * @param uniqueStringTracking
+     *            Whether to keep track of the strings created by this factory, as required
+     *            by {@link #tryMakeUniqueString(String)} (and the Stratego <code>newname</code>
+     *            primitive). Factories that do not track strings cannot create unique strings, and
+     *            strings they create are not taken into account by other factories.
+     */
+    public TermFactory(boolean uniqueStringTracking) {
         super(SHARABLE);
+        this.uniqueStringTracking = uniqueStringTracking;
     }
 
 
     public ITermFactory getFactoryWithStorageType(int storageType) {
-        if(storageType > SHARABLE)
+        if(storageType > MAXIMALLY_SHARED)
             throw new UnsupportedOperationException();
         if(storageType == defaultStorageType)
             return this;
-        TermFactory result = new TermFactory();
+        TermFactory result = new TermFactory(uniqueStringTracking);
         result.defaultStorageType = storageType;
         return result;
     }
@@ -47,10 +71,36 @@ public class TermFactory extends AbstractTermFactory implements ITermFactory {
         if(storageType != 0)
             storageType = min(storageType, getStorageType(annotations));
         assert ctr.getArity() == terms.length;
-        return new StrategoAppl(ctr, terms, annotations, storageType);
+        if(storageType == MAXIMALLY_SHARED)
+            return hashConsTable.makeAppl(ctr, terms, annotations);
+        return newAppl(ctr, terms, annotations, storageType);
+    }
+
+    /**
+     * Creates a new application term, using a compact representation
+     * for applications with up to four subterms.
+     */
+    static StrategoAppl newAppl(IStrategoConstructor ctr, IStrategoTerm[] terms, IStrategoList annotations,
+        int storageType) {
+        switch(terms.length) {
+            case 0:
+                return new StrategoAppl(ctr, EMPTY, annotations, storageType);
+            case 1:
+                return new StrategoAppl1(ctr, terms[0], annotations, storageType);
+            case 2:
+                return new StrategoAppl2(ctr, terms[0], terms[1], annotations, storageType);
+            case 3:
+                return new StrategoAppl3(ctr, terms[0], terms[1], terms[2], annotations, storageType);
+            case 4:
+                return new StrategoAppl4(ctr, terms[0], terms[1], terms[2], terms[3], annotations, storageType);
+            default:
+                return new StrategoAppl(ctr, terms, annotations, storageType);
+        }
     }
 
     public IStrategoInt makeInt(int i) {
+        if(isHashConsing())
+            return hashConsTable.makeInt(i, null);
         return new StrategoInt(i, null, defaultStorageType);
     }
 
@@ -59,23 +109,32 @@ public class TermFactory extends AbstractTermFactory implements ITermFactory {
     }
 
     @Override public IStrategoList makeList(IStrategoTerm[] terms, IStrategoList outerAnnos) {
+        if(terms.length > 0) {
+            int storageType = getStorageType(terms);
+            if(outerAnnos != null)
+                storageType = min(storageType, getStorageType(outerAnnos));
+            if(storageType != MAXIMALLY_SHARED)
+                return new StrategoArrayList(terms, outerAnnos, storageType);
+        }
         int storageType = defaultStorageType;
         IStrategoList result = makeList();
         int i = terms.length - 1;
         while(i > 0) {
             IStrategoTerm head = terms[i--];
             storageType = min(storageType, getStorageType(head));
-            result = new StrategoList(head, result, null, storageType);
+            result = newList(head, result, null, storageType);
         }
         if(i == 0) {
             IStrategoTerm head = terms[0];
             storageType = min(storageType, getStorageType(head));
-            result = new StrategoList(head, result, outerAnnos, storageType);
+            if(outerAnnos != null)
+                storageType = min(storageType, getStorageType(outerAnnos));
+            result = newList(head, result, outerAnnos, storageType);
         } else {
             if(outerAnnos == null || outerAnnos.isEmpty()) {
                 return makeList();
             } else {
-                return new StrategoList(null, null, outerAnnos, defaultStorageType);
+                return newList(null, null, outerAnnos, min(defaultStorageType, getStorageType(outerAnnos)));
             }
         }
         return result;
@@ -83,40 +142,53 @@ public class TermFactory extends AbstractTermFactory implements ITermFactory {
 
     @Override public IStrategoList makeListCons(IStrategoTerm head, IStrategoList tail, IStrategoList annotations) {
         int storageType = min(defaultStorageType, getStorageType(head, tail));
+        if(annotations != null)
+            storageType = min(storageType, getStorageType(annotations));
 
         if(head == null)
             return makeList();
+        return newList(head, tail, annotations, storageType);
+    }
+
+    private IStrategoList newList(IStrategoTerm head, IStrategoList tail, IStrategoList annotations,
+        int storageType) {
+        if(storageType == MAXIMALLY_SHARED)
+            return hashConsTable.makeListCons(head, tail, annotations);
         return new StrategoList(head, tail, annotations, storageType);
     }
 
     public IStrategoReal makeReal(double d) {
+        if(isHashConsing())
+            return hashConsTable.makeReal(d, null);
         return new StrategoReal(d, null, defaultStorageType);
     }
 
     public IStrategoString makeString(String s) {
-        final IStrategoString string = new StrategoString(s, null, defaultStorageType);
-        if(s.length() <= MAX_POOLED_STRING_LENGTH) {
-            synchronized(usedStrings) {
-                usedStrings.add(s);
-            }
-        }
-        return string;
+        if(uniqueStringTracking && s.length() <= MAX_POOLED_STRING_LENGTH)
+            s = usedStrings.intern(s);
+        if(isHashConsing())
+            return hashConsTable.makeString(s);
+        return new StrategoString(s, null, defaultStorageType);
     }
 
     public IStrategoString tryMakeUniqueString(String s) {
-        synchronized(usedStrings) {
-            if(usedStrings.contains(s)) {
-                return null;
-            } else if(s.length() > MAX_POOLED_STRING_LENGTH) {
-                throw new UnsupportedOperationException("String too long to be pooled (newname not allowed): " + s);
-            } else {
-                return makeString(s);
-            }
+        if(!uniqueStringTracking) {
+            throw new UnsupportedOperationException("Unique string tracking is disabled for this factory");
+        } else if(s.length() > MAX_POOLED_STRING_LENGTH) {
+            throw new UnsupportedOperationException("String too long to be pooled (newname not allowed): " + s);
+        } else if(!usedStrings.add(s)) {
+            return null;
+        } else {
+            return makeString(s);
         }
     }
 
     @Override public IStrategoTuple makeTuple(IStrategoTerm[] terms, IStrategoList annos) {
         int storageType = min(defaultStorageType, getStorageType(terms));
+        if(storageType != 0)
+            storageType = min(storageType, getStorageType(annos));
+        if(storageType == MAXIMALLY_SHARED)
+            return hashConsTable.makeTuple(terms, annos);
         return new StrategoTuple(terms, annos, storageType);
     }
 
@@ -125,7 +197,9 @@ public class TermFactory extends AbstractTermFactory implements ITermFactory {
         if(currentAnnos == annotations) { // cheap check
             return term;
         } else if(term.getStorageType() == MAXIMALLY_SHARED) {
-            if(term == EMPTY_LIST) {
+            if(isHashConsing() && term.getTermType() != STRING) {
+                return rebuildWithAnnotations(term, annotations);
+            } else if(term == EMPTY_LIST) {
                 if(annotations == EMPTY_LIST || annotations.isEmpty()) {
                     return EMPTY_LIST;
                 } else {
@@ -136,7 +210,7 @@ public class TermFactory extends AbstractTermFactory implements ITermFactory {
                 if(annotations == EMPTY_LIST || annotations.isEmpty()) {
                     return makeString(value);
                 } else {
-                    return new StrategoString(value, annotations, defaultStorageType);
+                    return new StrategoString(value, annotations, min(defaultStorageType, SHARABLE));
                 }
             } else if(currentAnnos == EMPTY_LIST) {
                 return annotations.isEmpty() ? term : new StrategoAnnotation(this, term, annotations);
@@ -144,9 +218,19 @@ public class TermFactory extends AbstractTermFactory implements ITermFactory {
                 term = ((StrategoAnnotation) term).getWrapped();
                 // int storageType = min(defaultStorageType, getStorageType(term));
                 return new StrategoAnnotation(this, term, annotations);
+            } else if(term instanceof StrategoTerm) {
+                // A hash-consed term with annotations
+                return rebuildWithAnnotations(term, annotations);
             } else {
                 throw new UnsupportedOperationException("Unable to annotate term of type " + term.getClass().getName());
             }
+        } else if(isHashConsing() && term.getTermType() == STRING) {
+            String value = ((IStrategoString) term).stringValue();
+            if(annotations.isEmpty()) {
+                return makeString(value);
+            } else {
+                return new StrategoString(value, annotations, SHARABLE);
+            }
         } else if((annotations == EMPTY_LIST || annotations.isEmpty()) && term.getTermType() == STRING) {
             return makeString(((IStrategoString) term).stringValue());
         } else if(term instanceof StrategoTerm) {
@@ -160,9 +244,45 @@ public class TermFactory extends AbstractTermFactory implements ITermFactory {
         }
     }
 
+    /**
+     * Rebuilds a maximally shared term with new annotations, using the
+     * constructors of this factory.
+     */
+    private IStrategoTerm rebuildWithAnnotations(IStrategoTerm term, IStrategoList annotations) {
+        switch(term.getTermType()) {
+            case APPL:
+                return makeAppl(((IStrategoAppl) term).getConstructor(), term.getAllSubterms(), annotations);
+            case TUPLE:
+                return makeTuple(term.getAllSubterms(), annotations);
+            case LIST:
+                IStrategoList list = (IStrategoList) term;
+                if(list.isEmpty())
+                    return makeList(EMPTY, annotations);
+                return makeListCons(list.head(), list.tail(), annotations);
+            case INT:
+                int intValue = ((IStrategoInt) term).intValue();
+                if(isHashConsing() && getStorageType(annotations) == MAXIMALLY_SHARED)
+                    return hashConsTable.makeInt(intValue, annotations);
+                return new StrategoInt(intValue, annotations, min(defaultStorageType, SHARABLE));
+            case REAL:
+                double realValue = ((IStrategoReal) term).realValue();
+                if(isHashConsing() && getStorageType(annotations) == MAXIMALLY_SHARED)
+                    return hashConsTable.makeReal(realValue, annotations);
+                return new StrategoReal(realValue, annotations, min(defaultStorageType, SHARABLE));
+            default:
+                throw new UnsupportedOperationException("Unable to annotate term of type "
+                    + term.getClass().getName() + " in " + getClass().getName());
+        }
+    }
+
+    private boolean isHashConsing() {
+        return defaultStorageType == MAXIMALLY_SHARED;
+    }
+
     public IStrategoPlaceholder makePlaceholder(IStrategoTerm template) {
         if(placeholderConstructor == null)
             placeholderConstructor = makeConstructor("<>", 1);
-        return new StrategoPlaceholder(placeholderConstructor, template, TermFactory.EMPTY_LIST, defaultStorageType);
+        return new StrategoPlaceholder(placeholderConstructor, template, TermFactory.EMPTY_LIST,
+            min(min(defaultStorageType, getStorageType(template)), SHARABLE));
     }
 }
@@ -0,0 +1,635 @@
+package org.spoofax.terms.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import org.spoofax.interpreter.terms.IStrategoConstructor;
+import org.spoofax.interpreter.terms.IStrategoTerm;
+import org.spoofax.interpreter.terms.ITermFactory;
+import org.spoofax.terms.AbstractTermFactory;
+import org.spoofax.terms.ParseError;
+import org.spoofax.terms.util.NotImplementedException;
+
+/**
+ * A textual ATerm parser that reads from a byte array,
+ * using an explicit parse stack rather than recursion.
+ *
+ * Accepts the same syntax as {@link TAFTermReader}, with each byte read as
+ * a single character. Constructors are interned per parse, so their
+ * names are decoded only once.
+ *
+ * Files that consist of a single list, such as index dumps, can be parsed in
+ * parallel with {@link #parseParallel(byte[], int, int)}. The elements of the
+ * list are found by scanning the nesting of brackets and strings, and
+ * segments of them are parsed concurrently.
+ *
+ * @see TAFTermReader#parseFromStream(InputStream)
+ */
+public class TAFBufferReader {
+
+    private static final int LIST = 0;
+
+    private static final int TUPLE = 1;
+
+    private static final int APPL = 2;
+
+    private static final int ANNO = 3;
+
+    private static final int PLACEHOLDER = 4;
+
+    private static final int INITIAL_SIZE = 64;
+
+    private static final int SEGMENTS_PER_THREAD = 4;
+
+    /**
+     * The minimal number of bytes for which parallel parsing is used.
+     */
+    private static final int MIN_PARALLEL_SIZE = 1 << 16;
+
+    /**
+     * The pool used to parse segments of lists.
+     */
+    private static final ForkJoinPool POOL = new ForkJoinPool();
+
+    private final ITermFactory factory;
+
+    private byte[] data;
+
+    private int position;
+
+    private int end;
+
+    /**
+     * The stack of terms being parsed, as parallel arrays:
+     * the kind of each term, the offset of its first subterm in
+     * {@link #values}, and the offset and length of its constructor name.
+     */
+    private int[] frameKinds = new int[INITIAL_SIZE];
+
+    private int[] frameStarts = new int[INITIAL_SIZE];
+
+    private int[] frameNames = new int[INITIAL_SIZE];
+
+    private int[] frameNameLengths = new int[INITIAL_SIZE];
+
+    private int depth;
+
+    private IStrategoTerm[] values = new IStrategoTerm[INITIAL_SIZE];
+
+    private int valueCount;
+
+    private char[] chars = new char[INITIAL_SIZE];
+
+    /**
+     * Open-addressing table of the constructors of the current parse.
+     */
+    private byte[][] ctorNames;
+
+    private IStrategoConstructor[] ctors;
+
+    private int ctorCount;
+
+    public TAFBufferReader(ITermFactory factory) {
+        this.factory = factory;
+    }
+
+    public IStrategoTerm parseFromStream(InputStream stream) throws IOException, ParseError {
+        byte[] bytes = readFully(stream);
+        return parse(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Reads and parses a stream, either sequentially
+     * or using {@link #parseParallel(byte[], int, int)}.
+     */
+    public IStrategoTerm parseFromStream(InputStream stream, boolean parallel) throws IOException, ParseError {
+        if (!parallel)
+            return parseFromStream(stream);
+        byte[] bytes = readFully(stream);
+        return parseParallel(bytes, 0, bytes.length);
+    }
+
+    public IStrategoTerm parse(ByteBuffer buffer) throws ParseError {
+        if (buffer.hasArray())
+            return parse(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return parse(bytes, 0, bytes.length);
+    }
+
+    public IStrategoTerm parse(byte[] bytes) throws ParseError {
+        return parse(bytes, 0, bytes.length);
+    }
+
+    public IStrategoTerm parse(byte[] bytes, int offset, int length) throws ParseError {
+        start(bytes, offset, offset + length);
+        try {
+            return parseTerm();
+        } finally {
+            finish();
+        }
+    }
+
+    /**
+     * Parses a term that consists of a single list, parsing segments of its
+     * elements in parallel. Produces the same term as
+     * {@link #parse(byte[], int, int)}, and falls back to it for small inputs,
+     * other terms, and malformed input.
+     */
+    public IStrategoTerm parseParallel(final byte[] bytes, int offset, int length)
+            throws ParseError, InterruptedIOException {
+        final int[] bounds = length < MIN_PARALLEL_SIZE ? null : findElements(bytes, offset, offset + length);
+        final int elementCount = bounds == null ? 0 : bounds.length / 2;
+        final int segmentCount = Math.min(elementCount, POOL.getParallelism() * SEGMENTS_PER_THREAD);
+        if (segmentCount < 2)
+            return parse(bytes, offset, length);
+
+        final IStrategoTerm[] elements = new IStrategoTerm[elementCount];
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(segmentCount);
+        for (int i = 0; i < segmentCount; i++) {
+            final int first = (int) ((long) elementCount * i / segmentCount);
+            final int last = (int) ((long) elementCount * (i + 1) / segmentCount);
+            tasks.add(new Callable<Void>() {
+                public Void call() {
+                    TAFBufferReader reader = new TAFBufferReader(factory);
+                    for (int j = first; j < last; j++)
+                        elements[j] = reader.parseElement(bytes, bounds[2 * j], bounds[2 * j + 1]);
+                    return null;
+                }
+            });
+        }
+
+        for (Future<Void> result : POOL.invokeAll(tasks)) {
+            try {
+                result.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            } catch (ExecutionException e) {
+                // Report the same error as a sequential parse
+                return parse(bytes, offset, length);
+            }
+        }
+
+        return factory.makeList(elements);
+    }
+
+    /**
+     * Parses a list element that spans exactly the given range.
+     */
+    private IStrategoTerm parseElement(byte[] bytes, int start, int end) throws ParseError {
+        start(bytes, start, end);
+        try {
+            IStrategoTerm result = parseTerm();
+            skipWhitespace();
+            if (position != end)
+                throw new ParseError("Unexpected input after list element at offset " + position);
+            return result;
+        } finally {
+            finish();
+        }
+    }
+
+    private void start(byte[] bytes, int start, int end) {
+        data = bytes;
+        position = start;
+        this.end = end;
+        depth = 0;
+        valueCount = 0;
+        ctorNames = new byte[INITIAL_SIZE][];
+        ctors = new IStrategoConstructor[INITIAL_SIZE];
+        ctorCount = 0;
+    }
+
+    private void finish() {
+        data = null;
+        ctorNames = null;
+        ctors = null;
+        Arrays.fill(values, 0, valueCount, null);
+    }
+
+    /**
+     * Finds the start and end offsets of the elements of a term that
+     * consists of a single, unannotated list.
+     *
+     * @return the offsets of all elements, or null if the input is not
+     *         such a list.
+     */
+    private static int[] findElements(byte[] bytes, int offset, int end) {
+        int i = offset;
+        while (i < end && isWhitespace(bytes[i]))
+            i++;
+        if (i == end || bytes[i] != '[')
+            return null;
+
+        int[] bounds = new int[INITIAL_SIZE];
+        int boundCount = 0;
+        int elementStart = ++i;
+        int nesting = 0;
+        for (; i < end; i++) {
+            switch (bytes[i]) {
+                case '"':
+                    // Skip strings, including escaped quotes
+                    for (i++; i < end && bytes[i] != '"'; i++) {
+                        if (bytes[i] == '\\')
+                            i++;
+                    }
+                    break;
+                case '(': case '[': case '{': case '<':
+                    nesting++;
+                    break;
+                case ')': case '}': case '>':
+                    nesting--;
+                    break;
+                case ']':
+                    if (nesting-- > 0)
+                        break;
+                    bounds = addBounds(bounds, boundCount, elementStart, i);
+                    boundCount += 2;
+                    return isTrailingWhitespace(bytes, i + 1, end) ? Arrays.copyOf(bounds, boundCount) : null;
+                case ',':
+                    if (nesting > 0)
+                        break;
+                    bounds = addBounds(bounds, boundCount, elementStart, i);
+                    boundCount += 2;
+                    elementStart = i + 1;
+                    break;
+            }
+        }
+        return null;
+    }
+
+    private static int[] addBounds(int[] bounds, int boundCount, int start, int end) {
+        if (boundCount + 2 > bounds.length)
+            bounds = Arrays.copyOf(bounds, bounds.length << 1);
+        bounds[boundCount] = start;
+        bounds[boundCount + 1] = end;
+        return bounds;
+    }
+
+    private static boolean isTrailingWhitespace(byte[] bytes, int offset, int end) {
+        for (int i = offset; i < end; i++) {
+            if (!isWhitespace(bytes[i]))
+                return false;
+        }
+        return true;
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t' || b == '\r' || b == '\n';
+    }
+
+    private static byte[] readFully(InputStream stream) throws IOException {
+        byte[] bytes = new byte[8192];
+        int size = 0;
+        for (int read; (read = stream.read(bytes, size, bytes.length - size)) != -1;) {
+            size += read;
+            if (size == bytes.length)
+                bytes = Arrays.copyOf(bytes, size << 1);
+        }
+        return Arrays.copyOf(bytes, size);
+    }
+
+    private IStrategoTerm parseTerm() throws ParseError {
+     parseTerm:
+        for (;;) {
+            skipWhitespace();
+            IStrategoTerm term;
+            int ch = read();
+            switch (ch) {
+                case '[':
+                    if (pushFrame(LIST, ']')) continue parseTerm;
+                    term = factory.makeList(AbstractTermFactory.EMPTY);
+                    break;
+                case '(':
+                    if (pushFrame(TUPLE, ')')) continue parseTerm;
+                    term = factory.makeTuple(AbstractTermFactory.EMPTY);
+                    break;
+                case '"':
+                    term = factory.makeString(parseString());
+                    break;
+                case '<':
+                    pushFrame(PLACEHOLDER, -1);
+                    continue parseTerm;
+                case '!':
+                    throw new ParseError("Unsupported ATerm format: TAF");
+                default:
+                    if (ch != -1 && Character.isLetter(ch)) {
+                        int nameStart = position - 1;
+                        while (position < end && isNameChar(data[position] & 0xFF))
+                            position++;
+                        int nameLength = position - nameStart;
+                        skipWhitespace();
+                        if (peek() == '(') {
+                            position++;
+                            if (pushFrame(APPL, ')')) {
+                                frameNames[depth - 1] = nameStart;
+                                frameNameLengths[depth - 1] = nameLength;
+                                continue parseTerm;
+                            }
+                        }
+                        term = factory.makeAppl(getConstructor(nameStart, nameLength, 0), AbstractTermFactory.EMPTY);
+                    } else if (ch != -1 && (Character.isDigit(ch) || ch == '-')) {
+                        term = parseNumber(position - 1);
+                    } else {
+                        throw invalidTerm(ch);
+                    }
+            }
+
+            // Complete the term and any enclosing terms that end after it
+            boolean annotatable = true;
+            for (;;) {
+                if (annotatable) {
+                    skipWhitespace();
+                    if (peek() == '{') {
+                        position++;
+                        addValue(term);
+                        if (pushFrame(ANNO, '}')) continue parseTerm;
+                        values[--valueCount] = null;
+                        term = factory.annotateTerm(term, factory.makeList(AbstractTermFactory.EMPTY));
+                    }
+                }
+
+                if (depth == 0)
+                    return term;
+
+                int kind = frameKinds[depth - 1];
+                skipWhitespace();
+                if (kind == PLACEHOLDER) {
+                    if (read() != '>')
+                        throw new ParseError("Expected: '>'");
+                    depth--;
+                    term = factory.makePlaceholder(term);
+                    annotatable = false;
+                    continue;
+                }
+
+                addValue(term);
+                int endChar = getEndChar(kind);
+                ch = read();
+                if (ch == ',')
+                    continue parseTerm;
+                if (ch == -1)
+                    throw new ParseError("Sequence must end with '" + (char) endChar + "', saw end of input");
+                if (ch != endChar)
+                    throw new ParseError("Sequence must end with '" + (char) endChar + "', saw '" + (char) ch
+                        + "' at offset " + (position - 1));
+
+                term = popFrame();
+                annotatable = kind != ANNO;
+            }
+        }
+    }
+
+    /**
+     * Starts parsing a term with subterms.
+     *
+     * @return false if the term has no subterms and is already complete.
+     */
+    private boolean pushFrame(int kind, int endChar) {
+        if (endChar != -1) {
+            skipWhitespace();
+            if (peek() == endChar) {
+                position++;
+                return false;
+            }
+        }
+        if (depth == frameKinds.length) {
+            frameKinds = Arrays.copyOf(frameKinds, depth << 1);
+            frameStarts = Arrays.copyOf(frameStarts, depth << 1);
+            frameNames = Arrays.copyOf(frameNames, depth << 1);
+            frameNameLengths = Arrays.copyOf(frameNameLengths, depth << 1);
+        }
+        frameKinds[depth] = kind;
+        frameStarts[depth] = valueCount;
+        depth++;
+        return true;
+    }
+
+    private IStrategoTerm popFrame() {
+        depth--;
+        int start = frameStarts[depth];
+        IStrategoTerm[] kids = Arrays.copyOfRange(values, start, valueCount);
+        Arrays.fill(values, start, valueCount, null);
+        valueCount = start;
+
+        switch (frameKinds[depth]) {
+            case LIST:
+                return factory.makeList(kids);
+            case TUPLE:
+                return factory.makeTuple(kids);
+            case APPL:
+                IStrategoConstructor ctor = getConstructor(frameNames[depth], frameNameLengths[depth], kids.length);
+                return factory.makeAppl(ctor, kids);
+            case ANNO:
+                IStrategoTerm term = values[--valueCount];
+                values[valueCount] = null;
+                return factory.annotateTerm(term, factory.makeList(kids));
+            default:
+                throw new IllegalStateException("Unexpected term kind: " + frameKinds[depth]);
+        }
+    }
+
+    private static int getEndChar(int kind) {
+        switch (kind) {
+            case LIST: return ']';
+            case ANNO: return '}';
+            default: return ')';
+        }
+    }
+
+    private void addValue(IStrategoTerm term) {
+        if (valueCount == values.length)
+            values = Arrays.copyOf(values, valueCount << 1);
+        values[valueCount++] = term;
+    }
+
+    private IStrategoConstructor getConstructor(int nameStart, int nameLength, int arity) {
+        int hash = arity;
+        for (int i = nameStart, max = nameStart + nameLength; i < max; i++)
+            hash = hash * 31 + data[i];
+        hash ^= hash >>> 16;
+
+        int mask = ctors.length - 1;
+        int slot = hash & mask;
+        for (IStrategoConstructor ctor; (ctor = ctors[slot]) != null; slot = (slot + 1) & mask) {
+            if (ctor.getArity() == arity && equalName(ctorNames[slot], nameStart, nameLength))
+                return ctor;
+        }
+
+        byte[] name = Arrays.copyOfRange(data, nameStart, nameStart + nameLength);
+        IStrategoConstructor result = factory.makeConstructor(decode(nameStart, nameLength), arity);
+        ctorNames[slot] = name;
+        ctors[slot] = result;
+        if (++ctorCount * 2 > ctors.length)
+            rehashConstructors();
+        return result;
+    }
+
+    private boolean equalName(byte[] name, int nameStart, int nameLength) {
+        if (name.length != nameLength)
+            return false;
+        for (int i = 0; i < nameLength; i++) {
+            if (name[i] != data[nameStart + i])
+                return false;
+        }
+        return true;
+    }
+
+    private void rehashConstructors() {
+        byte[][] oldNames = ctorNames;
+        IStrategoConstructor[] oldCtors = ctors;
+        ctorNames = new byte[oldNames.length << 1][];
+        ctors = new IStrategoConstructor[oldCtors.length << 1];
+        int mask = ctors.length - 1;
+        for (int i = 0; i < oldCtors.length; i++) {
+            if (oldCtors[i] == null)
+                continue;
+            byte[] name = oldNames[i];
+            int hash = oldCtors[i].getArity();
+            for (byte b : name)
+                hash = hash * 31 + b;
+            hash ^= hash >>> 16;
+
+            int slot = hash & mask;
+            while (ctors[slot] != null)
+                slot = (slot + 1) & mask;
+            ctorNames[slot] = name;
+            ctors[slot] = oldCtors[i];
+        }
+    }
+
+    private String parseString() throws ParseError {
+        int start = position;
+        // Strings without escapes are decoded directly from the input
+        while (position < end) {
+            byte b = data[position];
+            if (b == '"') {
+                String result = decode(start, position - start);
+                position++;
+                return result;
+            } else if (b == '\\') {
+                break;
+            }
+            position++;
+        }
+
+        StringBuilder sb = new StringBuilder(position - start + 16);
+        sb.append(decode(start, position - start));
+        for (;;) {
+            int ch = read();
+            if (ch == '"') {
+                return sb.toString();
+            } else if (ch == -1) {
+                throw new ParseError("Unterminated string: " + sb);
+            } else if (ch != '\\') {
+                sb.append((char) ch);
+                continue;
+            }
+
+            ch = read();
+            switch (ch) {
+                case 'n': sb.append('\n'); break;
+                case 't': sb.append('\t'); break;
+                case 'b': sb.append('\b'); break;
+                case 'f': sb.append('\f'); break;
+                case 'r': sb.append('\r'); break;
+                case '\\': sb.append('\\'); break;
+                case '\'': sb.append('\''); break;
+                case '"': sb.append('"'); break;
+                case '0': case '1': case '2': case '3': case '4':
+                case '5': case '6': case '7': case '8': case '9':
+                    throw new NotImplementedException();
+                case -1:
+                    throw new ParseError("Unterminated string: " + sb);
+                default:
+                    sb.append('\\').append((char) ch);
+            }
+        }
+    }
+
+    private IStrategoTerm parseNumber(int start) throws ParseError {
+        while (position < end && isDigit(data[position]))
+            position++;
+
+        if (peek() == '.') {
+            position++;
+            while (position < end && isDigit(data[position]))
+                position++;
+            int ch = peek();
+            if (ch == 'e' || ch == 'E') {
+                position++;
+                ch = peek();
+                if (ch == '-' || ch == '+')
+                    position++;
+                while (position < end && isDigit(data[position]))
+                    position++;
+            }
+            return factory.makeReal(Double.parseDouble(decode(start, position - start)));
+        }
+
+        int length = position - start;
+        boolean negative = data[start] == '-';
+        int digits = negative ? length - 1 : length;
+        if (digits == 0 || digits > 9)
+            return factory.makeInt(Integer.parseInt(decode(start, length)));
+
+        int value = 0;
+        for (int i = negative ? start + 1 : start; i < position; i++)
+            value = value * 10 + (data[i] - '0');
+        return factory.makeInt(negative ? -value : value);
+    }
+
+    private String decode(int start, int length) {
+        if (length > chars.length)
+            chars = new char[Math.max(length, chars.length << 1)];
+        for (int i = 0; i < length; i++)
+            chars[i] = (char) (data[start + i] & 0xFF);
+        return new String(chars, 0, length);
+    }
+
+    private ParseError invalidTerm(int ch) {
+        if (ch == -1)
+            return new ParseError("Invalid term: unexpected end of input");
+        return new ParseError("Invalid term at offset " + (position - 1) + ": 0x"
+            + String.format("%04x", ch) + " '" + (char) ch + "'");
+    }
+
+    private static boolean isDigit(byte b) {
+        return b >= '0' && b <= '9';
+    }
+
+    private static boolean isNameChar(int ch) {
+        return Character.isLetterOrDigit(ch) || ch == '_' || ch == '-'
+            || ch == '+' || ch == '*' || ch == '$';
+    }
+
+    private void skipWhitespace() {
+        while (position < end) {
+            switch (data[position]) {
+                case ' ': case '\t': case '\r': case '\n':
+                    position++;
+                    continue;
+                default:
+                    return;
+            }
+        }
+    }
+
+    private int peek() {
+        return position < end ? data[position] & 0xFF : -1;
+    }
+
+    private int read() {
+        return position < end ? data[position++] & 0xFF : -1;
+    }
+}
@@ -7,13 +7,10 @@
  */
 package org.spoofax.terms.io;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedWriter;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
 import java.io.PushbackInputStream;
 import java.io.Writer;
 import java.util.ArrayList;
@@ -67,11 +64,21 @@ public class TAFTermReader extends StringTermReader {
         return parseFromStream(pushbackStream);
         */
     	try {
-	        if (!(inputStream instanceof BufferedInputStream))
-	            inputStream = new BufferedInputStream(inputStream);
-	        PushbackInputStream bis = new PushbackInputStream(inputStream);
-	        
-	        return parseFromStream(bis);
+    		return new TAFBufferReader(factory).parseFromStream(inputStream);
+    	} finally {
+    		inputStream.close();
+    	}
+    }
+
+    /**
+     * Parses a stream, optionally parsing the elements of a top-level list
+     * in parallel. Both modes produce the same term.
+     * 
+     * @see TAFBufferReader#parseParallel(byte[], int, int)
+     */
+    public IStrategoTerm parseFromStream(InputStream inputStream, boolean parallel) throws IOException, ParseError {
+    	try {
+    		return new TAFBufferReader(factory).parseFromStream(inputStream, parallel);
     	} finally {
     		inputStream.close();
     	}
@@ -297,10 +304,14 @@ public class TAFTermReader extends StringTermReader {
         }
     }
 
+    /**
+     * Writes a term to a stream in UTF-8.
+     *
+     * @see TAFTermWriter
+     */
     public void unparseToFile(IStrategoTerm t, OutputStream ous) throws IOException {
-        Writer out = new BufferedWriter(new OutputStreamWriter(ous));
-        unparseToFile(t, out);
-        out.flush();
+        new TAFTermWriter().write(t, ous);
+        ous.flush();
     }
 
     public void unparseToFile(IStrategoTerm t, Writer out) throws IOException {
@@ -0,0 +1,360 @@
+package org.spoofax.terms.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import org.spoofax.interpreter.terms.IStrategoAppl;
+import org.spoofax.interpreter.terms.IStrategoList;
+import org.spoofax.interpreter.terms.IStrategoPlaceholder;
+import org.spoofax.interpreter.terms.IStrategoTerm;
+import org.spoofax.terms.StrategoAppl;
+import org.spoofax.terms.StrategoArrayList;
+import org.spoofax.terms.StrategoInt;
+import org.spoofax.terms.StrategoList;
+import org.spoofax.terms.StrategoPlaceholder;
+import org.spoofax.terms.StrategoReal;
+import org.spoofax.terms.StrategoString;
+import org.spoofax.terms.StrategoTuple;
+
+/**
+ * Writes terms as textual ATerms in UTF-8, producing the same text as
+ * {@link IStrategoTerm#writeAsString(Appendable, int)}.
+ *
+ * Terms are encoded directly into a reusable byte buffer, escaping strings
+ * in a single pass, and are traversed using an explicit stack so that
+ * deeply nested terms can be written. Terms of other classes than the
+ * basic term implementations are written using their own
+ * {@link IStrategoTerm#writeAsString(Appendable, int)} method.
+ *
+ * @see TAFTermReader#unparseToFile(IStrategoTerm, OutputStream)
+ */
+public class TAFTermWriter {
+
+    private static final int BUFFER_SIZE = 65536;
+
+    private static final int INITIAL_STACK_SIZE = 64;
+
+    /**
+     * The maximal number of bytes written for a single character.
+     */
+    private static final int MAX_CHAR_BYTES = 4;
+
+    private static final int KIDS = 0;
+
+    private static final int ANNOS = 1;
+
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+
+    private int position;
+
+    private final Appendable appendable = new BufferAppendable();
+
+    private OutputStream output;
+
+    /**
+     * The stack of terms being written, as parallel arrays: the term,
+     * the list of remaining subterms or annotations, the number of
+     * subterms or annotations written, and whether the annotations
+     * are being written.
+     */
+    private IStrategoTerm[] stackTerms = new IStrategoTerm[INITIAL_STACK_SIZE];
+
+    private IStrategoList[] stackLists = new IStrategoList[INITIAL_STACK_SIZE];
+
+    private int[] stackIndices = new int[INITIAL_STACK_SIZE];
+
+    private int[] stackPhases = new int[INITIAL_STACK_SIZE];
+
+    private int depth;
+
+    /**
+     * Writes a term to a stream. The stream is not closed.
+     */
+    public void write(IStrategoTerm term, OutputStream out) throws IOException {
+        output = out;
+        position = 0;
+        depth = 0;
+        try {
+            writeTerm(term);
+            flush();
+        } finally {
+            output = null;
+            Arrays.fill(stackTerms, 0, depth, null);
+            Arrays.fill(stackLists, 0, depth, null);
+        }
+    }
+
+    /**
+     * Writes a term to a byte array.
+     */
+    public byte[] toByteArray(IStrategoTerm term) {
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        try {
+            write(term, result);
+        } catch (IOException e) {
+            throw new RuntimeException(e); // shan't happen
+        }
+        return result.toByteArray();
+    }
+
+    private void writeTerm(IStrategoTerm root) throws IOException {
+        pushTerm(root);
+        while (depth > 0) {
+            int top = depth - 1;
+            IStrategoTerm term = stackTerms[top];
+
+            if (stackPhases[top] == KIDS) {
+                IStrategoTerm kid = nextKid(top);
+                if (kid != null) {
+                    if (stackIndices[top]++ > 0)
+                        writeByte(',');
+                    pushTerm(kid);
+                    continue;
+                }
+                writeSuffix(term);
+                if (!startAnnotations(top, term))
+                    continue;
+            }
+
+            IStrategoList annos = stackLists[top];
+            if (!annos.isEmpty()) {
+                writeByte(stackIndices[top]++ == 0 ? '{' : ',');
+                stackLists[top] = annos.tail();
+                pushTerm(annos.head());
+            } else {
+                writeByte('}');
+                popTerm();
+            }
+        }
+    }
+
+    /**
+     * Writes the start of a term, and pushes it if it has
+     * subterms or annotations that remain to be written.
+     */
+    private void pushTerm(IStrategoTerm term) throws IOException {
+        if (term instanceof StrategoPlaceholder) {
+            writeByte('<');
+        } else if (term instanceof StrategoAppl) {
+            writeChars(((IStrategoAppl) term).getConstructor().getName());
+            if (term.getSubtermCount() > 0)
+                writeByte('(');
+        } else if (term instanceof StrategoTuple) {
+            writeByte('(');
+        } else if (term instanceof StrategoList || term instanceof StrategoArrayList) {
+            writeByte('[');
+        } else if (term instanceof StrategoString) {
+            writeString(((StrategoString) term).stringValue());
+            pushAnnotations(term);
+            return;
+        } else if (term instanceof StrategoInt) {
+            writeInt(((StrategoInt) term).intValue());
+            pushAnnotations(term);
+            return;
+        } else if (term instanceof StrategoReal) {
+            writeChars(Double.toString(((StrategoReal) term).realValue()));
+            pushAnnotations(term);
+            return;
+        } else {
+            term.writeAsString(appendable, Integer.MAX_VALUE);
+            return;
+        }
+
+        int top = push(term);
+        stackPhases[top] = KIDS;
+        stackIndices[top] = 0;
+        if (term.getTermType() == IStrategoTerm.LIST)
+            stackLists[top] = (IStrategoList) term;
+    }
+
+    private void pushAnnotations(IStrategoTerm term) {
+        if (!term.getAnnotations().isEmpty())
+            startAnnotations(push(term), term);
+    }
+
+    /**
+     * Starts writing the annotations of a term on the stack,
+     * popping it if it has none.
+     *
+     * @return true if the term has annotations.
+     */
+    private boolean startAnnotations(int top, IStrategoTerm term) {
+        IStrategoList annos = term.getAnnotations();
+        if (annos.isEmpty()) {
+            popTerm();
+            return false;
+        }
+        stackPhases[top] = ANNOS;
+        stackIndices[top] = 0;
+        stackLists[top] = annos;
+        return true;
+    }
+
+    private IStrategoTerm nextKid(int top) {
+        IStrategoTerm term = stackTerms[top];
+        if (term.getTermType() == IStrategoTerm.LIST) {
+            IStrategoList list = stackLists[top];
+            if (list.isEmpty())
+                return null;
+            stackLists[top] = list.tail();
+            return list.head();
+        }
+
+        int index = stackIndices[top];
+        if (term instanceof StrategoPlaceholder)
+            return index == 0 ? ((IStrategoPlaceholder) term).getTemplate() : null;
+        return index < term.getSubtermCount() ? term.getSubterm(index) : null;
+    }
+
+    private void writeSuffix(IStrategoTerm term) throws IOException {
+        if (term instanceof StrategoPlaceholder) {
+            writeByte('>');
+        } else if (term.getTermType() == IStrategoTerm.LIST) {
+            writeByte(']');
+        } else if (term.getTermType() == IStrategoTerm.TUPLE || term.getSubtermCount() > 0) {
+            writeByte(')');
+        }
+    }
+
+    private int push(IStrategoTerm term) {
+        if (depth == stackTerms.length) {
+            stackTerms = Arrays.copyOf(stackTerms, depth << 1);
+            stackLists = Arrays.copyOf(stackLists, depth << 1);
+            stackIndices = Arrays.copyOf(stackIndices, depth << 1);
+            stackPhases = Arrays.copyOf(stackPhases, depth << 1);
+        }
+        stackTerms[depth] = term;
+        return depth++;
+    }
+
+    private void popTerm() {
+        depth--;
+        stackTerms[depth] = null;
+        stackLists[depth] = null;
+    }
+
+    /**
+     * Writes a quoted and escaped string.
+     */
+    private void writeString(String value) throws IOException {
+        writeByte('"');
+        for (int i = 0, length = value.length(); i < length; i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '\\':
+                    writeByte('\\');
+                    writeByte('\\');
+                    break;
+                case '"':
+                    writeByte('\\');
+                    writeByte('"');
+                    break;
+                case '\n':
+                    writeByte('\\');
+                    writeByte('n');
+                    break;
+                case '\r':
+                    writeByte('\\');
+                    writeByte('r');
+                    break;
+                default:
+                    i = writeChar(value, i);
+            }
+        }
+        writeByte('"');
+    }
+
+    private void writeChars(CharSequence value) throws IOException {
+        for (int i = 0, length = value.length(); i < length; i++)
+            i = writeChar(value, i);
+    }
+
+    /**
+     * Writes the character at the given index in UTF-8.
+     *
+     * @return the index of the last character written,
+     *         which is the next index for surrogate pairs.
+     */
+    private int writeChar(CharSequence value, int index) throws IOException {
+        char c = value.charAt(index);
+        if (c < 0x80) {
+            writeByte(c);
+            return index;
+        }
+
+        if (position > BUFFER_SIZE - MAX_CHAR_BYTES)
+            flush();
+        if (c < 0x800) {
+            buffer[position++] = (byte) (0xC0 | (c >> 6));
+            buffer[position++] = (byte) (0x80 | (c & 0x3F));
+        } else if (Character.isHighSurrogate(c) && index + 1 < value.length()
+                && Character.isLowSurrogate(value.charAt(index + 1))) {
+            int codePoint = Character.toCodePoint(c, value.charAt(++index));
+            buffer[position++] = (byte) (0xF0 | (codePoint >> 18));
+            buffer[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+            buffer[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+            buffer[position++] = (byte) (0x80 | (codePoint & 0x3F));
+        } else if (Character.isSurrogate(c)) {
+            // Unpaired surrogates are replaced, like String.getBytes() does
+            buffer[position++] = (byte) '?';
+        } else {
+            buffer[position++] = (byte) (0xE0 | (c >> 12));
+            buffer[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+            buffer[position++] = (byte) (0x80 | (c & 0x3F));
+        }
+        return index;
+    }
+
+    private void writeInt(int value) throws IOException {
+        if (value == Integer.MIN_VALUE) {
+            writeChars(Integer.toString(value));
+            return;
+        }
+        if (position > BUFFER_SIZE - 11)
+            flush();
+        if (value < 0) {
+            buffer[position++] = '-';
+            value = -value;
+        }
+        int digits = 1;
+        for (int i = value; i >= 10; i /= 10)
+            digits++;
+        position += digits;
+        for (int i = position - 1; i >= position - digits; i--) {
+            buffer[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+
+    private void writeByte(int value) throws IOException {
+        if (position == BUFFER_SIZE)
+            flush();
+        buffer[position++] = (byte) value;
+    }
+
+    private void flush() throws IOException {
+        output.write(buffer, 0, position);
+        position = 0;
+    }
+
+    /**
+     * Encodes text appended by the terms that write themselves.
+     */
+    private class BufferAppendable implements Appendable {
+        public Appendable append(CharSequence csq) throws IOException {
+            writeChars(csq);
+            return this;
+        }
+
+        public Appendable append(CharSequence csq, int start, int end) throws IOException {
+            return append(csq.subSequence(start, end));
+        }
+
+        public Appendable append(char c) throws IOException {
+            writeChar(String.valueOf(c), 0);
+            return this;
+        }
+    }
+}
@@ -28,7 +28,9 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.PushbackInputStream;
-import java.util.ArrayList;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
 
 import org.spoofax.interpreter.terms.IStrategoConstructor;
 import org.spoofax.interpreter.terms.IStrategoList;
@@ -52,8 +54,7 @@ class BAFReader {
 
     private static final int HEADER_BITS = 32;
     
-    private static final ThreadLocal<ArrayList<ReadTermFrame>> readerStacks =
-        new ThreadLocal<ArrayList<ReadTermFrame>>();
+    private static final int INITIAL_STACK_SIZE = 64;
 
     private BitStream reader;
 
@@ -88,16 +89,21 @@ class BAFReader {
     public BAFReader(ITermFactory factory, InputStream inputStream) {
         this.factory = factory;
         if(inputStream instanceof FileInputStream) {
-            /*try {
-                reader = new MemoryMappedBitStream((FileInputStream)inputStream);
-            } catch(IOException e) {*/
+            try {
+                reader = ByteBufferBitStream.map(((FileInputStream) inputStream).getChannel());
+            } catch(IOException e) {
                 reader = new BitStream(inputStream);
-            /*}*/
+            }
         } else {
             reader = new BitStream(inputStream);
         }
     }
 
+    public BAFReader(ITermFactory factory, BitStream reader) {
+        this.factory = factory;
+        this.reader = reader;
+    }
+
     public IStrategoTerm readFromBinaryFile(boolean headerAlreadyRead) throws ParseError, IOException {
 
         if(!headerAlreadyRead && !isBinaryATerm(reader))
@@ -160,6 +166,13 @@ class BAFReader {
         return isBinaryATerm(new BitStream(new ByteArrayInputStream(header)));
     }
 
+    public static boolean isBinaryATerm(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(BAF_MAGIC_SIZE);
+        channel.read(header, channel.position());
+        header.flip();
+        return isBinaryATerm(new ByteBufferBitStream(header));
+    }
+
 
     private void debug(String s) {
         System.err.println(s);
@@ -167,88 +180,81 @@ class BAFReader {
 
     int level = 0;
     
-    static class ReadTermFrame {
-        final SymEntry input;
-        final IStrategoTerm[] outputArgs;
-        
-        int index;
-        SymEntry argSym;
-        int val;
-        
-        public ReadTermFrame(SymEntry input) {
-            this.input = input;
-            this.outputArgs = new IStrategoTerm[input.arity];
-        }
-    }
+    /**
+     * The stack of partially read terms, as parallel arrays:
+     * the symbol of each term, its arguments read so far, the index of the
+     * argument being read, and the symbol and value of that argument.
+     * Reused between terms and grown as needed.
+     */
+    private SymEntry[] stackInputs = new SymEntry[INITIAL_STACK_SIZE];
+    private IStrategoTerm[][] stackArgs = new IStrategoTerm[INITIAL_STACK_SIZE][];
+    private int[] stackIndices = new int[INITIAL_STACK_SIZE];
+    private SymEntry[] stackArgSyms = new SymEntry[INITIAL_STACK_SIZE];
+    private int[] stackVals = new int[INITIAL_STACK_SIZE];
     
     private IStrategoTerm readTerm(SymEntry e) throws ParseError, IOException {
-        // TODO: Optimize readTerm?
-        //       e.g., throw in some rounds of native-stack based reading
-        ArrayList<ReadTermFrame> stack = readerStacks.get();
-        if (stack == null) readerStacks.set(stack = new ArrayList<ReadTermFrame>());
-        
-        ReadTermFrame frame = new ReadTermFrame(e);
-        boolean resumingFrame = false;
+        int depth = 0;
+        pushFrame(depth, e);
         
      readTerm:
         for(;;) {
-            final SymEntry input = frame.input;
-            final IStrategoTerm[] outputArgs = frame.outputArgs;
-
-            if (!resumingFrame) {
-                level++;
-                if(isDebugging()) debug("readTerm()/" + level + " - " + input.fun + "[" + input.arity + "]");
-            }
+            final SymEntry input = stackInputs[depth];
+            final IStrategoTerm[] outputArgs = stackArgs[depth];
             
-            for (int i = frame.index, arity = input.arity; i < arity; i++) {
-                final SymEntry argSym;
-                final int val;
+            for (int i = stackIndices[depth], arity = input.arity; i < arity; i++) {
+                final int symVal = reader.readBits(input.symWidth[i]);
+                if(isDebugging()) {
+                    debug(" [" + i + "] - " + symVal);
+                    debug(" [" + i + "] - " + input.topSyms[i].length);
+                }
                 
-                if (!resumingFrame) {
-                    final int symVal = reader.readBits(input.symWidth[i]);
-                    if(isDebugging()) {
-                        debug(" [" + i + "] - " + symVal);
-                        debug(" [" + i + "] - " + input.topSyms[i].length);
-                    }
-                    
-                    argSym = symbols[input.topSyms[i][symVal]];
-                    val = reader.readBits(argSym.termWidth);
+                final SymEntry argSym = symbols[input.topSyms[i][symVal]];
+                final int val = reader.readBits(argSym.termWidth);
+                final IStrategoTerm arg = argSym.terms[val];
+                
+                if (arg == null) {
+                    if(isDebugging()) debug(" [" + i+  "] - recurse");
                     
-                    if (argSym.terms[val] == null) {
-                        if(isDebugging()) debug(" [" + i+  "] - recurse");
-
-                        frame.index = i;
-                        frame.argSym = argSym;
-                        frame.val = val;
-                        stack.add(frame);
-                        
-                        frame = new ReadTermFrame(argSym); // recurse: argSym.terms[val] = readTerm(argSym);
-                        continue readTerm;
-                    }
-                } else {
-                    // Re-entry after recursion
-                    resumingFrame = false;
-                    argSym = frame.argSym;
-                    val = frame.val;
+                    stackIndices[depth] = i;
+                    stackArgSyms[depth] = argSym;
+                    stackVals[depth] = val;
+                    pushFrame(++depth, argSym); // recurse: argSym.terms[val] = readTerm(argSym);
+                    continue readTerm;
                 }
-    
-                if (argSym.terms[val] == null) 
-                    throw new ParseError("Malformed ATerm: Cannot be null");
-    
-                outputArgs[i] = argSym.terms[val];
+                
+                outputArgs[i] = arg;
             }
             
             final IStrategoTerm result = readTermTop(input, outputArgs);
+            stackInputs[depth] = null;
+            stackArgs[depth] = null;
             
-            if (stack.isEmpty()) {
+            if (depth == 0)
                 return result;
-            } else {
-                // Add result to parent frame
-                frame = stack.remove(stack.size() - 1);
-                frame.argSym.terms[frame.val] = result;
-                resumingFrame = true;
-            }
+            
+            // Add result to parent frame and resume it
+            depth--;
+            stackArgSyms[depth].terms[stackVals[depth]] = result;
+            stackArgSyms[depth] = null;
+            stackArgs[depth][stackIndices[depth]++] = result;
+        }
+    }
+    
+    private void pushFrame(int depth, SymEntry input) {
+        if (depth == stackInputs.length) {
+            int newSize = depth << 1;
+            stackInputs = Arrays.copyOf(stackInputs, newSize);
+            stackArgs = Arrays.copyOf(stackArgs, newSize);
+            stackIndices = Arrays.copyOf(stackIndices, newSize);
+            stackArgSyms = Arrays.copyOf(stackArgSyms, newSize);
+            stackVals = Arrays.copyOf(stackVals, newSize);
         }
+        stackInputs[depth] = input;
+        stackArgs[depth] = new IStrategoTerm[input.arity];
+        stackIndices[depth] = 0;
+        
+        level++;
+        if(isDebugging()) debug("readTerm()/" + level + " - " + input.fun + "[" + input.arity + "]");
     }
 
     private IStrategoTerm readTermTop(SymEntry e, final IStrategoTerm[] args) throws IOException {
@@ -313,6 +319,8 @@ class BAFReader {
               debug("" + args[i]);
       }
       level--;
+      if (name.length() == 0)
+          return factory.makeTuple(args);
       return factory.makeAppl(fun, args);
     }
 
@@ -0,0 +1,601 @@
+package org.spoofax.terms.io.binary;
+
+import static org.spoofax.interpreter.terms.IStrategoTerm.APPL;
+import static org.spoofax.interpreter.terms.IStrategoTerm.INT;
+import static org.spoofax.interpreter.terms.IStrategoTerm.LIST;
+import static org.spoofax.interpreter.terms.IStrategoTerm.REAL;
+import static org.spoofax.interpreter.terms.IStrategoTerm.STRING;
+import static org.spoofax.interpreter.terms.IStrategoTerm.TUPLE;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.spoofax.interpreter.terms.IStrategoAppl;
+import org.spoofax.interpreter.terms.IStrategoConstructor;
+import org.spoofax.interpreter.terms.IStrategoInt;
+import org.spoofax.interpreter.terms.IStrategoList;
+import org.spoofax.interpreter.terms.IStrategoReal;
+import org.spoofax.interpreter.terms.IStrategoString;
+import org.spoofax.interpreter.terms.IStrategoTerm;
+
+/**
+ * Writes terms in the binary ATerm format (BAF), as read by {@link BAFReader}.
+ *
+ * All structurally equal subterms are shared, and every term is encoded as a
+ * symbol and term index using only as many bits as the symbol tables require.
+ * This makes BAF the most compact format for highly shared terms, at the cost
+ * of computing the full symbol tables before anything can be written.
+ *
+ * @see SAFWriter A writer for the streamable binary format.
+ */
+public class BAFWriter {
+
+    private static final int BAF_MAGIC = 0xBAF;
+
+    private static final int BAF_VERSION = 0x300;
+
+    private static final int HEADER_BITS = 32;
+
+    private static final int INITIAL_SIZE = 256;
+
+    private static final int BUFFER_SIZE = 65536;
+
+    private static final int NONE = -1;
+
+    private static final int MAX_TOP_SYMBOL_SCAN = 8;
+
+    /**
+     * The symbols of the term, which are the constructors of its nodes.
+     * Every distinct string and every tuple arity has a symbol of its own.
+     */
+    private final List<Symbol> symbols = new ArrayList<Symbol>();
+
+    private final ObjectIntMap<Object> symbolIndices = new ObjectIntMap<Object>(false);
+
+    private int consSymbol = NONE;
+
+    private int nilSymbol = NONE;
+
+    private int annoSymbol = NONE;
+
+    private int intSymbol = NONE;
+
+    private int realSymbol = NONE;
+
+    private int argCount;
+
+    /**
+     * Maps (symbol argument, symbol) pairs to the index of the symbol in
+     * the top symbols of the argument, for arguments with many top symbols.
+     */
+    private final ObjectIntMap<Long> topSymbolIndices = new ObjectIntMap<Long>(false);
+
+    /**
+     * The distinct nodes of the term, as parallel arrays:
+     * their symbols, their int or real values, and the offsets
+     * of their children in {@link #children}.
+     */
+    private int[] nodeSymbols = new int[INITIAL_SIZE];
+
+    private long[] nodeValues = new long[INITIAL_SIZE];
+
+    private int[] nodeChildren = new int[INITIAL_SIZE];
+
+    private int nodeCount;
+
+    private int[] children = new int[INITIAL_SIZE];
+
+    private int childCount;
+
+    /**
+     * Open-addressing hash table of the nodes, used for hash-consing them.
+     */
+    private int[] nodeTable = newTable(INITIAL_SIZE);
+
+    private final int root;
+
+    private OutputStream output;
+
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+
+    private int bufferPosition;
+
+    private long bits;
+
+    private int bitCount;
+
+    private static class Symbol {
+        final String name;
+
+        final int arity;
+
+        final boolean quoted;
+
+        final int argBase;
+
+        int termCount;
+
+        /**
+         * The term index assigned to the next node written.
+         */
+        int nextTerm;
+
+        final int[][] topSymbols;
+
+        final int[] topSymbolCounts;
+
+        Symbol(String name, int arity, boolean quoted, int argBase) {
+            this.name = name;
+            this.arity = arity;
+            this.quoted = quoted;
+            this.argBase = argBase;
+            topSymbols = new int[arity][];
+            topSymbolCounts = new int[arity];
+        }
+    }
+
+    /**
+     * Constructor. Computes the symbol tables of the given term.
+     *
+     * @param root
+     *            The term that needs to be serialized.
+     */
+    public BAFWriter(IStrategoTerm root) {
+        this.root = addTerm(root);
+    }
+
+    /**
+     * Writes the term to the given stream.
+     */
+    public void write(OutputStream out) throws IOException {
+        output = out;
+        bufferPosition = 0;
+        bits = 0;
+        bitCount = 0;
+        for (Symbol symbol : symbols)
+            symbol.nextTerm = 0;
+
+        writeInt(0);
+        writeInt(BAF_MAGIC);
+        writeInt(BAF_VERSION);
+        writeInt(symbols.size());
+        writeInt(nodeCount);
+        for (Symbol symbol : symbols)
+            writeSymbol(symbol);
+        writeInt(nodeSymbols[root]);
+        writeNode(root);
+        flushBits();
+        flushBuffer();
+        output = null;
+    }
+
+    /**
+     * Adds the distinct nodes of a term, returning the node of the term.
+     */
+    private int addTerm(IStrategoTerm root) {
+        ObjectIntMap<IStrategoTerm> visited = new ObjectIntMap<IStrategoTerm>(true);
+        IStrategoTerm[] stack = new IStrategoTerm[INITIAL_SIZE];
+        int[] kidCounts = new int[INITIAL_SIZE];
+        int[] results = new int[INITIAL_SIZE];
+        int stackSize = 0;
+        int resultCount = 0;
+
+        stack[stackSize] = root;
+        kidCounts[stackSize++] = NONE;
+        while (stackSize > 0) {
+            IStrategoTerm term = stack[--stackSize];
+            int kidCount = kidCounts[stackSize];
+            boolean annotated = !term.getAnnotations().isEmpty();
+            int node;
+
+            if (kidCount == NONE) {
+                kidCount = term.getSubtermCount();
+                if (kidCount == 0 && !annotated) {
+                    // Leaves are hash-consed directly, without remembering them
+                    node = addNode(term, results, resultCount, 0);
+                } else if ((node = visited.get(term)) == NONE) {
+                    // Revisit the term once its children have been added
+                    if (term.getTermType() == LIST && kidCount != 0)
+                        kidCount = 2;
+                    if (stackSize + kidCount + 2 > stack.length) {
+                        int newSize = Math.max(stack.length << 1, stackSize + kidCount + 2);
+                        stack = Arrays.copyOf(stack, newSize);
+                        kidCounts = Arrays.copyOf(kidCounts, newSize);
+                    }
+                    kidCounts[stackSize++] = kidCount;
+                    if (annotated) {
+                        stack[stackSize] = term.getAnnotations();
+                        kidCounts[stackSize++] = NONE;
+                    }
+                    if (term.getTermType() == LIST) {
+                        if (kidCount != 0) {
+                            IStrategoList list = (IStrategoList) term;
+                            stack[stackSize] = list.tail();
+                            kidCounts[stackSize++] = NONE;
+                            stack[stackSize] = list.head();
+                            kidCounts[stackSize++] = NONE;
+                        }
+                    } else {
+                        for (int i = kidCount - 1; i >= 0; i--) {
+                            stack[stackSize] = term.getSubterm(i);
+                            kidCounts[stackSize++] = NONE;
+                        }
+                    }
+                    continue;
+                }
+            } else {
+                int annoCount = annotated ? 1 : 0;
+                resultCount -= kidCount + annoCount;
+                node = addNode(term, results, resultCount, kidCount);
+                if (annotated) {
+                    results[resultCount + 1] = results[resultCount + kidCount];
+                    results[resultCount] = node;
+                    node = addNode(getAnnoSymbol(), 0, results, resultCount, 2);
+                }
+                visited.putNew(term, node);
+            }
+
+            if (resultCount + 2 > results.length)
+                results = Arrays.copyOf(results, results.length << 1);
+            results[resultCount++] = node;
+        }
+        return results[0];
+    }
+
+    /**
+     * Adds the node of a term without its annotations.
+     */
+    private int addNode(IStrategoTerm term, int[] kids, int offset, int kidCount) {
+        switch (term.getTermType()) {
+            case APPL:
+                IStrategoConstructor ctor = ((IStrategoAppl) term).getConstructor();
+                return addNode(getSymbol(ctor), 0, kids, offset, kidCount);
+            case TUPLE:
+                return addNode(getSymbol(Integer.valueOf(kidCount), "", kidCount, false), 0, kids, offset, kidCount);
+            case LIST:
+                if (kidCount == 0)
+                    return addNode(getNilSymbol(), 0, kids, offset, 0);
+                return addNode(getConsSymbol(), 0, kids, offset, kidCount);
+            case INT:
+                return addNode(getIntSymbol(), ((IStrategoInt) term).intValue(), kids, offset, 0);
+            case REAL:
+                long value = Double.doubleToLongBits(((IStrategoReal) term).realValue());
+                return addNode(getRealSymbol(), value, kids, offset, 0);
+            case STRING:
+                String string = ((IStrategoString) term).stringValue();
+                return addNode(getSymbol(string, string, 0, true), 0, kids, offset, 0);
+            default:
+                throw new RuntimeException("Could not serializate term of type "
+                    + term.getClass().getName() + " to BAF format.");
+        }
+    }
+
+    private int addNode(int symbol, long value, int[] kids, int offset, int kidCount) {
+        int hash = hashNode(symbol, value, kids, offset, kidCount);
+        int mask = nodeTable.length - 1;
+        int slot = hash & mask;
+        for (int node; (node = nodeTable[slot]) != NONE; slot = (slot + 1) & mask) {
+            if (nodeSymbols[node] == symbol && nodeValues[node] == value
+                    && equalChildren(nodeChildren[node], kids, offset, kidCount))
+                return node;
+        }
+
+        int node = nodeCount++;
+        if (node == nodeSymbols.length) {
+            nodeSymbols = Arrays.copyOf(nodeSymbols, node << 1);
+            nodeValues = Arrays.copyOf(nodeValues, node << 1);
+            nodeChildren = Arrays.copyOf(nodeChildren, node << 1);
+        }
+        if (childCount + kidCount > children.length)
+            children = Arrays.copyOf(children, Math.max(children.length << 1, childCount + kidCount));
+
+        nodeSymbols[node] = symbol;
+        nodeValues[node] = value;
+        nodeChildren[node] = childCount;
+        System.arraycopy(kids, offset, children, childCount, kidCount);
+        childCount += kidCount;
+
+        nodeTable[slot] = node;
+        if (nodeCount * 2 > nodeTable.length)
+            rehashNodes();
+
+        Symbol entry = symbols.get(symbol);
+        entry.termCount++;
+        for (int i = 0; i < kidCount; i++)
+            addTopSymbol(entry, i, nodeSymbols[kids[offset + i]]);
+        return node;
+    }
+
+    private boolean equalChildren(int start, int[] kids, int offset, int kidCount) {
+        for (int i = 0; i < kidCount; i++) {
+            if (children[start + i] != kids[offset + i])
+                return false;
+        }
+        return true;
+    }
+
+    private void rehashNodes() {
+        int[] table = newTable(nodeTable.length << 1);
+        int mask = table.length - 1;
+        for (int node : nodeTable) {
+            if (node == NONE)
+                continue;
+            int symbol = nodeSymbols[node];
+            int hash = hashNode(symbol, nodeValues[node], children, nodeChildren[node], symbols.get(symbol).arity);
+            int slot = hash & mask;
+            while (table[slot] != NONE)
+                slot = (slot + 1) & mask;
+            table[slot] = node;
+        }
+        nodeTable = table;
+    }
+
+    private static int hashNode(int symbol, long value, int[] kids, int offset, int kidCount) {
+        int hash = symbol * 31 + (int) (value ^ (value >>> 32));
+        for (int i = 0; i < kidCount; i++)
+            hash = hash * 31 + kids[offset + i];
+        hash ^= hash >>> 16;
+        hash *= 0x85EBCA6B;
+        return hash ^ (hash >>> 13);
+    }
+
+    private static int[] newTable(int size) {
+        int[] result = new int[size];
+        Arrays.fill(result, NONE);
+        return result;
+    }
+
+    private void addTopSymbol(Symbol symbol, int arg, int topSymbol) {
+        if (getTopSymbolIndex(symbol, arg, topSymbol) != NONE)
+            return;
+
+        int index = symbol.topSymbolCounts[arg]++;
+        int[] topSymbols = symbol.topSymbols[arg];
+        if (topSymbols == null) {
+            topSymbols = symbol.topSymbols[arg] = new int[4];
+        } else if (index == topSymbols.length) {
+            topSymbols = symbol.topSymbols[arg] = Arrays.copyOf(topSymbols, index << 1);
+        }
+        topSymbols[index] = topSymbol;
+        if (index >= MAX_TOP_SYMBOL_SCAN)
+            topSymbolIndices.putNew(Long.valueOf(((long) (symbol.argBase + arg) << 32) | topSymbol), index);
+    }
+
+    private int getTopSymbolIndex(Symbol symbol, int arg, int topSymbol) {
+        // Most arguments have only a few top symbols, which are scanned for directly
+        int[] topSymbols = symbol.topSymbols[arg];
+        for (int i = 0, max = Math.min(symbol.topSymbolCounts[arg], MAX_TOP_SYMBOL_SCAN); i < max; i++) {
+            if (topSymbols[i] == topSymbol)
+                return i;
+        }
+        if (symbol.topSymbolCounts[arg] <= MAX_TOP_SYMBOL_SCAN)
+            return NONE;
+        return topSymbolIndices.get(Long.valueOf(((long) (symbol.argBase + arg) << 32) | topSymbol));
+    }
+
+    private int getSymbol(IStrategoConstructor ctor) {
+        String name = ctor.getName();
+        int arity = ctor.getArity();
+        if (arity > 0 && name.length() >= 2 && name.charAt(0) == '"' && name.charAt(name.length() - 1) == '"')
+            return getSymbol(ctor, name.substring(1, name.length() - 1), arity, true);
+        return getSymbol(ctor, name, arity, false);
+    }
+
+    private int getSymbol(Object key, String name, int arity, boolean quoted) {
+        int result = symbolIndices.get(key);
+        if (result == NONE) {
+            result = addSymbol(name, arity, quoted);
+            symbolIndices.putNew(key, result);
+        }
+        return result;
+    }
+
+    private int addSymbol(String name, int arity, boolean quoted) {
+        symbols.add(new Symbol(name, arity, quoted, argCount));
+        argCount += arity;
+        return symbols.size() - 1;
+    }
+
+    private int getConsSymbol() {
+        if (consSymbol == NONE) consSymbol = addSymbol("[_,_]", 2, false);
+        return consSymbol;
+    }
+
+    private int getNilSymbol() {
+        if (nilSymbol == NONE) nilSymbol = addSymbol("[]", 0, false);
+        return nilSymbol;
+    }
+
+    private int getAnnoSymbol() {
+        if (annoSymbol == NONE) annoSymbol = addSymbol("{_}", 2, false);
+        return annoSymbol;
+    }
+
+    private int getIntSymbol() {
+        if (intSymbol == NONE) intSymbol = addSymbol("<int>", 0, false);
+        return intSymbol;
+    }
+
+    private int getRealSymbol() {
+        if (realSymbol == NONE) realSymbol = addSymbol("<real>", 0, false);
+        return realSymbol;
+    }
+
+    private void writeSymbol(Symbol symbol) throws IOException {
+        writeString(symbol.name);
+        writeInt(symbol.arity);
+        writeInt(symbol.quoted ? 1 : 0);
+        writeInt(symbol.termCount);
+        for (int i = 0; i < symbol.arity; i++) {
+            int count = symbol.topSymbolCounts[i];
+            writeInt(count);
+            for (int j = 0; j < count; j++)
+                writeInt(symbol.topSymbols[i][j]);
+        }
+    }
+
+    /**
+     * Writes the children of a node and any nodes below it
+     * that have not been written yet, in pre-order.
+     */
+    private void writeNode(int root) throws IOException {
+        int[] nodeTerms = new int[nodeCount];
+        Arrays.fill(nodeTerms, NONE);
+        int[] stackNodes = new int[INITIAL_SIZE];
+        int[] stackArgs = new int[INITIAL_SIZE];
+        int depth = 0;
+        stackNodes[0] = root;
+
+     writeNode:
+        while (depth >= 0) {
+            int node = stackNodes[depth];
+            Symbol symbol = symbols.get(nodeSymbols[node]);
+            int start = nodeChildren[node];
+
+            for (int i = stackArgs[depth]; i < symbol.arity; i++) {
+                int kid = children[start + i];
+                int kidSymbolIndex = nodeSymbols[kid];
+                Symbol kidSymbol = symbols.get(kidSymbolIndex);
+                writeBits(getTopSymbolIndex(symbol, i, kidSymbolIndex), bitWidth(symbol.topSymbolCounts[i]));
+
+                int term = nodeTerms[kid];
+                if (term != NONE) {
+                    writeBits(term, bitWidth(kidSymbol.termCount));
+                } else {
+                    term = nodeTerms[kid] = kidSymbol.nextTerm++;
+                    writeBits(term, bitWidth(kidSymbol.termCount));
+
+                    stackArgs[depth++] = i + 1;
+                    if (depth == stackNodes.length) {
+                        stackNodes = Arrays.copyOf(stackNodes, depth << 1);
+                        stackArgs = Arrays.copyOf(stackArgs, depth << 1);
+                    }
+                    stackNodes[depth] = kid;
+                    stackArgs[depth] = 0;
+                    continue writeNode;
+                }
+            }
+
+            int symbolIndex = nodeSymbols[node];
+            if (symbolIndex == intSymbol) {
+                writeBits((int) nodeValues[node], HEADER_BITS);
+            } else if (symbolIndex == realSymbol) {
+                flushBits();
+                writeString(Double.toString(Double.longBitsToDouble(nodeValues[node])));
+            }
+            depth--;
+        }
+    }
+
+    /**
+     * Computes the number of bits used for indices in a table
+     * of the given size, the same way {@link BAFReader} does.
+     */
+    private static int bitWidth(int v) {
+        int nrBits = 0;
+
+        if (v <= 1)
+            return 0;
+
+        while (v != 0) {
+            v >>= 1;
+            nrBits++;
+        }
+
+        return nrBits;
+    }
+
+    private void writeBits(int value, int nrBits) throws IOException {
+        if (nrBits == 0)
+            return;
+
+        // Bits are read from the most significant bit of each byte,
+        // starting from the least significant bit of the value
+        bits = (bits << nrBits) | (Integer.reverse(value << (32 - nrBits)) & 0xFFFFFFFFL);
+        bitCount += nrBits;
+        while (bitCount >= 8) {
+            bitCount -= 8;
+            writeByte((int) (bits >>> bitCount));
+        }
+    }
+
+    /**
+     * Pads the current byte with zero bits.
+     */
+    private void flushBits() throws IOException {
+        if (bitCount > 0) {
+            writeByte((int) (bits << (8 - bitCount)));
+            bitCount = 0;
+        }
+    }
+
+    private void writeInt(int value) throws IOException {
+        if ((value & 0xFFFFFF80) == 0) {
+            writeByte(value);
+        } else if ((value & 0xFFFFC000) == 0) {
+            writeByte(0x80 | (value >>> 8));
+            writeByte(value);
+        } else if ((value & 0xFFE00000) == 0) {
+            writeByte(0xC0 | (value >>> 16));
+            writeByte(value >>> 8);
+            writeByte(value);
+        } else if ((value & 0xF0000000) == 0) {
+            writeByte(0xE0 | (value >>> 24));
+            writeByte(value >>> 16);
+            writeByte(value >>> 8);
+            writeByte(value);
+        } else {
+            writeByte(0xF0);
+            writeByte(value >>> 24);
+            writeByte(value >>> 16);
+            writeByte(value >>> 8);
+            writeByte(value);
+        }
+    }
+
+    private void writeString(String value) throws IOException {
+        byte[] bytes = value.getBytes();
+        writeInt(bytes.length);
+        for (byte b : bytes)
+            writeByte(b);
+    }
+
+    private void writeByte(int value) throws IOException {
+        if (bufferPosition == BUFFER_SIZE)
+            flushBuffer();
+        buffer[bufferPosition++] = (byte) value;
+    }
+
+    private void flushBuffer() throws IOException {
+        output.write(buffer, 0, bufferPosition);
+        bufferPosition = 0;
+    }
+
+    /**
+     * Writes the given term to the given file.
+     */
+    public static void writeTermToBAFFile(IStrategoTerm term, File file)
+            throws IOException {
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+        try {
+            writeTermToBAFStream(term, out);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Writes the given term to the given stream.
+     * The stream is not closed.
+     */
+    public static void writeTermToBAFStream(IStrategoTerm term, OutputStream out)
+            throws IOException {
+        new BAFWriter(term).write(out);
+    }
+}
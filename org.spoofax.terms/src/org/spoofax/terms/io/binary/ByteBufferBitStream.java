@@ -0,0 +1,140 @@
+package org.spoofax.terms.io.binary;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads bits from a ByteBuffer, such as a memory-mapped file,
+ * buffering them a 64-bit word at a time.
+ * 
+ * Unlike {@link MemoryMappedBitStream}, this class maps files starting at
+ * their current position, and throws an {@link EOFException} when reading
+ * past the end of the buffer.
+ */
+public class ByteBufferBitStream extends BitStream {
+
+    private final ByteBuffer buffer;
+
+    /**
+     * The buffered bits, starting with the most significant bit.
+     */
+    private long word;
+
+    private int bitsInWord;
+
+    public ByteBufferBitStream(ByteBuffer buffer) {
+        super(null);
+        this.buffer = buffer.duplicate().order(ByteOrder.BIG_ENDIAN);
+    }
+
+    /**
+     * Creates a bit stream for the remainder of a file channel,
+     * starting at its current position.
+     */
+    public static ByteBufferBitStream map(FileChannel channel) throws IOException {
+        long position = channel.position();
+        return new ByteBufferBitStream(channel.map(FileChannel.MapMode.READ_ONLY, position, channel.size() - position));
+    }
+
+    /**
+     * Creates a bit stream for the remainder of an input stream,
+     * reading it into memory.
+     */
+    public static ByteBufferBitStream read(InputStream stream) throws IOException {
+        byte[] data = new byte[8192];
+        int size = 0;
+        for (int read; (read = stream.read(data, size, data.length - size)) != -1;) {
+            size += read;
+            if (size == data.length) {
+                byte[] newData = new byte[data.length << 1];
+                System.arraycopy(data, 0, newData, 0, size);
+                data = newData;
+            }
+        }
+        return new ByteBufferBitStream(ByteBuffer.wrap(data, 0, size));
+    }
+
+    @Override
+    protected int readByte() throws IOException {
+        returnWholeBytes();
+        if (!buffer.hasRemaining())
+            throw new EOFException();
+        return buffer.get() & 0xFF;
+    }
+
+    @Override
+    public String readString() throws IOException {
+        int l = readInt();
+        returnWholeBytes();
+        if (l < 0 || l > buffer.remaining())
+            throw new EOFException();
+        byte[] b = new byte[l];
+        buffer.get(b);
+        return new String(b);
+    }
+
+    @Override
+    public int readBits(int nrBits) throws IOException {
+        if (nrBits == 0)
+            return 0;
+
+        int result;
+        if (nrBits <= bitsInWord) {
+            result = (int) (word >>> (64 - nrBits));
+            word <<= nrBits;
+            bitsInWord -= nrBits;
+        } else {
+            int high = bitsInWord;
+            int low = nrBits - high;
+            long highBits = high == 0 ? 0 : word >>> (64 - high);
+            refill();
+            if (bitsInWord < low)
+                throw new EOFException();
+            result = (int) ((highBits << low) | (word >>> (64 - low)));
+            word <<= low;
+            bitsInWord -= low;
+        }
+
+        // Bits are read from the most significant bit of each byte,
+        // but stored starting from the least significant bit of the result
+        return Integer.reverse(result) >>> (32 - nrBits);
+    }
+
+    @Override
+    public void flushBitsFromReader() {
+        returnWholeBytes();
+        word = 0;
+        bitsInWord = 0;
+    }
+
+    private void refill() {
+        if (buffer.remaining() >= 8) {
+            word = buffer.getLong();
+            bitsInWord = 64;
+        } else {
+            word = 0;
+            bitsInWord = 0;
+            while (buffer.hasRemaining()) {
+                word |= (buffer.get() & 0xFFL) << (56 - bitsInWord);
+                bitsInWord += 8;
+            }
+        }
+    }
+
+    /**
+     * Returns the buffered bytes that have not been read from at all to the
+     * buffer, keeping only the remaining bits of the current byte.
+     */
+    private void returnWholeBytes() {
+        int wholeBytes = bitsInWord >>> 3;
+        if (wholeBytes > 0) {
+            buffer.position(buffer.position() - wholeBytes);
+            bitsInWord &= 7;
+            word = bitsInWord == 0 ? 0 : word & (-1L << (64 - bitsInWord));
+        }
+    }
+}
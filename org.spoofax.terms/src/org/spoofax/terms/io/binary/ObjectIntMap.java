@@ -0,0 +1,104 @@
+package org.spoofax.terms.io.binary;
+
+/**
+ * An open-addressing hash map from objects to non-negative ints,
+ * comparing keys either by identity or by {@link Object#equals(Object)}.
+ * 
+ * Keys are compared by identity before they are compared using
+ * {@link Object#equals(Object)}, and their hash codes are stored,
+ * so maximally shared and hash-consed terms are matched without
+ * traversing them.
+ */
+final class ObjectIntMap<K> {
+
+	/**
+	 * The value returned by {@link #get(Object)} for absent keys.
+	 */
+	static final int NONE = -1;
+
+	private static final int INITIAL_CAPACITY = 256;
+
+	private final boolean identity;
+
+	private Object[] keys;
+
+	private int[] hashes;
+
+	private int[] values;
+
+	private int size;
+
+	/**
+	 * @param identity
+	 *            Whether to compare keys by identity only.
+	 */
+	ObjectIntMap(boolean identity) {
+		this.identity = identity;
+		keys = new Object[INITIAL_CAPACITY];
+		hashes = new int[INITIAL_CAPACITY];
+		values = new int[INITIAL_CAPACITY];
+	}
+
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Gets the value of a key, or {@link #NONE} if it is absent.
+	 */
+	int get(K key) {
+		int hash = hash(key);
+		int mask = keys.length - 1;
+		for (int i = hash & mask;; i = (i + 1) & mask) {
+			Object current = keys[i];
+			if (current == null)
+				return NONE;
+			if (current == key || (!identity && hashes[i] == hash && key.equals(current)))
+				return values[i];
+		}
+	}
+
+	/**
+	 * Adds a key that is not yet in this map.
+	 */
+	void putNew(K key, int value) {
+		assert value >= 0 && get(key) == NONE;
+		if (2 * (size + 1) > keys.length)
+			resize();
+		insert(key, hash(key), value);
+		size++;
+	}
+
+	private int hash(Object key) {
+		int hash = identity ? System.identityHashCode(key) : key.hashCode();
+		// Spread the bits of the hash over the low bits used for indexing
+		hash ^= hash >>> 16;
+		hash *= 0x85EBCA6B;
+		hash ^= hash >>> 13;
+		hash *= 0xC2B2AE35;
+		return hash ^ (hash >>> 16);
+	}
+
+	private void insert(Object key, int hash, int value) {
+		int mask = keys.length - 1;
+		int i = hash & mask;
+		while (keys[i] != null)
+			i = (i + 1) & mask;
+		keys[i] = key;
+		hashes[i] = hash;
+		values[i] = value;
+	}
+
+	private void resize() {
+		Object[] oldKeys = keys;
+		int[] oldHashes = hashes;
+		int[] oldValues = values;
+		keys = new Object[oldKeys.length << 1];
+		hashes = new int[keys.length];
+		values = new int[keys.length];
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] != null)
+				insert(oldKeys[i], oldHashes[i], oldValues[i]);
+		}
+	}
+}
@@ -0,0 +1,164 @@
+package org.spoofax.terms.io.binary;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.spoofax.interpreter.terms.IStrategoTerm;
+import org.spoofax.interpreter.terms.ITermFactory;
+
+/**
+ * Reads the elements of a list term from a (segmented) SAF stream one by
+ * one, reading only as many blocks as needed to complete the next element.
+ * 
+ * The root list itself is never constructed. For segmented SAF streams
+ * (see {@link SegmentedSAFWriter}), the sharing table of each segment is
+ * discarded once its last element is read, so consumers that drop the
+ * elements they have processed only hold a single segment in memory.
+ * The directory at the end of segmented SAF streams is not read.
+ * 
+ * Errors while reading are thrown as RuntimeExceptions by the iterator
+ * methods.
+ */
+public class SAFElementReader implements Iterator<IStrategoTerm>, Closeable {
+
+	private final ITermFactory factory;
+
+	private final DataInputStream input;
+
+	private final boolean isSegmented;
+
+	private final ByteBuffer block = ByteBuffer.allocate(65536);
+
+	private int segmentIndex = -1;
+
+	private int segmentRemaining;
+
+	private boolean isEnded;
+
+	private SAFReader reader;
+
+	private IStrategoTerm next;
+
+	/**
+	 * Creates a reader for the elements of a list in a SAF or segmented
+	 * SAF stream, reading the identification token.
+	 */
+	public SAFElementReader(ITermFactory factory, InputStream in) throws IOException {
+		this.factory = factory;
+		this.input = new DataInputStream(in);
+
+		int token = input.read();
+		if (token == '?') {
+			isSegmented = false;
+			reader = new SAFReader(factory, true);
+		} else if (token == SegmentedSAFWriter.TOKEN) {
+			isSegmented = true;
+		} else {
+			throw new IOException("Not a SAF file.");
+		}
+	}
+
+	/**
+	 * Tests if a stream contains a SAF or segmented SAF encoded term
+	 * that can be read by this reader.
+	 */
+	public static boolean isSupported(BufferedInputStream stream) throws IOException {
+		return SAFReader.isStreamingATerm(stream) || SegmentedSAFReader.isSegmentedATerm(stream);
+	}
+
+	public boolean hasNext() {
+		if (next == null) {
+			try {
+				next = readNext();
+			} catch (IOException e) {
+				throw new RuntimeException("Unable to read SAF element", e);
+			}
+		}
+		return next != null;
+	}
+
+	public IStrategoTerm next() {
+		if (!hasNext())
+			throw new NoSuchElementException();
+		IStrategoTerm result = next;
+		next = null;
+		return result;
+	}
+
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+
+	public void close() throws IOException {
+		input.close();
+	}
+
+	/**
+	 * Reads blocks until an element is completed.
+	 * 
+	 * @return The element, or null if there are no more elements.
+	 */
+	private IStrategoTerm readNext() throws IOException {
+		while (true) {
+			if (reader != null) {
+				IStrategoTerm result = reader.pollElement();
+				if (result != null) {
+					if (isSegmented && segmentRemaining-- == 0)
+						throw new IOException("Unexpected number of elements in segment " + segmentIndex);
+					return result;
+				}
+				if (!reader.isDone()) {
+					if (!readBlock())
+						throw new RuntimeException("Term incomplete, missing data.\n");
+					continue;
+				}
+			}
+
+			// Start the next segment, unless the directory follows
+			if (!isSegmented || isEnded)
+				return null;
+			if (reader != null && segmentRemaining > 0)
+				throw new IOException("Unexpected number of elements in segment " + segmentIndex);
+			int elementCount = input.readInt();
+			if (elementCount == -1) {
+				isEnded = true;
+				return null;
+			}
+			if (elementCount < 0)
+				throw new IOException("Invalid size of segment " + (segmentIndex + 1));
+			segmentIndex++;
+			segmentRemaining = elementCount;
+			reader = new SAFReader(factory, true);
+		}
+	}
+
+	/**
+	 * Reads the next block and passes it to the reader.
+	 * 
+	 * @return false if the stream has ended.
+	 */
+	private boolean readBlock() throws IOException {
+		int size1 = input.read();
+		if (size1 < 0)
+			return false;
+		int size2 = input.read();
+		if (size2 < 0)
+			throw new EOFException("Unable to read block size bytes.");
+
+		int blockSize = size1 + (size2 << 8);
+		if (blockSize == 0)
+			blockSize = 65536;
+		input.readFully(block.array(), 0, blockSize);
+		block.clear();
+		block.limit(blockSize);
+		reader.deserialize(block);
+		return true;
+	}
+}
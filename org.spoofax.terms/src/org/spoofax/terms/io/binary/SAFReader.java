@@ -38,8 +38,10 @@ import java.nio.ByteBuffer;
 import java.nio.channels.Channels;
 import java.nio.channels.FileChannel;
 import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Queue;
 
 import org.spoofax.interpreter.terms.IStrategoConstructor;
 import org.spoofax.interpreter.terms.IStrategoList;
@@ -117,6 +119,11 @@ class SAFReader {
 
     private final boolean debug = false;
 
+    /**
+     * The completed elements of the root list, if streaming.
+     */
+    private final Queue<IStrategoTerm> elements;
+
     class StrategoSignature {
         IStrategoConstructor cons;
 
@@ -130,9 +137,24 @@ class SAFReader {
      *            The factory to use for reconstruction of the ATerm.
      */
     public SAFReader(ITermFactory factory) {
+        this(factory, false);
+    }
+
+    /**
+     * Constructor.
+     * 
+     * @param factory
+     *            The factory to use for reconstruction of the ATerm.
+     * @param streaming
+     *            Whether to only reconstruct the elements of the root list,
+     *            which must be polled using {@link #pollElement()} as they
+     *            are completed. The root list itself is not constructed.
+     */
+    SAFReader(ITermFactory factory, boolean streaming) {
         super();
 
         this.factory = factory;
+        this.elements = streaming ? new ArrayDeque<IStrategoTerm>() : null;
 
         sharedTerms = new IStrategoTerm[INITIALSHAREDTERMSARRAYSIZE];
         applSignatures = new ArrayList<StrategoSignature>();
@@ -198,6 +220,11 @@ class SAFReader {
                 ac.termIndex = sharedTermIndex++;
                 ensureSharedTermsCapacity();
 
+                if (elements != null && ac.termIndex == 0
+                        && type != ATermConstants.AT_LIST)
+                    throw new RuntimeException(
+                            "Unable to stream elements: root term is not a list.");
+
                 stack[++stackPosition] = ac;
 
                 if (debug)
@@ -252,6 +279,14 @@ class SAFReader {
         return isDone;
     }
 
+    /**
+     * Returns the next completed element of the root list, if streaming,
+     * or null if no element has been completed since the last call.
+     */
+    IStrategoTerm pollElement() {
+        return elements.poll();
+    }
+
     /**
      * Returns the reconstructed ATerm. A RuntimeException will be thrown when
      * we are not yet done with the reconstruction of the ATerm.
@@ -487,8 +522,15 @@ class SAFReader {
 
             IStrategoTerm[] subTerms = parent.subTerms;
             boolean hasAnnos = parent.hasAnnos;
+            boolean streamingRoot = elements != null && stackPosition == 0;
             if (subTerms != null && subTerms.length > parent.subTermIndex) {
-                subTerms[parent.subTermIndex++] = term;
+                if (streamingRoot) {
+                    // Hand out the element instead of keeping it for the list
+                    elements.add(term);
+                    parent.subTermIndex++;
+                } else {
+                    subTerms[parent.subTermIndex++] = term;
+                }
 
                 if (parent.subTerms.length != parent.subTermIndex || hasAnnos)
                     return;
@@ -504,6 +546,9 @@ class SAFReader {
                                 + term.getTermType() + ", term " + term);
             }
 
+            if (streamingRoot)
+                break;
+
             term = buildTerm(parent);
 
             sharedTerms[parent.termIndex] = term;
@@ -608,6 +653,9 @@ class SAFReader {
     /**
      * Reads the ATerm from the given SAF encoded file.
      * 
+     * The file is mapped into memory and decoded directly from the mapped
+     * buffer (see {@link #readTermFromSAFChannel(ITermFactory, FileChannel)}).
+     * 
      * @param factory
      *            The factory to use.
      * @param file
@@ -618,62 +666,82 @@ class SAFReader {
      */
     public static IStrategoTerm readTermFromSAFFile(ITermFactory factory,
             File file) throws IOException {
-        SAFReader binaryReader = new SAFReader(factory);
+        FileInputStream fis = new FileInputStream(file);
+        try {
+            return readTermFromSAFChannel(factory, fis.getChannel());
+        } finally {
+            fis.close();
+        }
+    }
 
-        ByteBuffer byteBuffer = ByteBuffer.allocate(65536);
-        ByteBuffer sizeBuffer = ByteBuffer.allocate(2);
+    /**
+     * Reads the ATerm from the SAF encoded data in a file channel, starting
+     * at its current position (at the SAF identification token).
+     * 
+     * The remainder of the file is mapped into memory, and the blocks are
+     * deserialized straight from the mapped buffer, without copying them
+     * to intermediate buffers. Files too large to map are streamed instead.
+     * 
+     * @throws IOException
+     *             Thrown when an error occurs while reading the given file.
+     */
+    public static IStrategoTerm readTermFromSAFChannel(ITermFactory factory,
+            FileChannel channel) throws IOException {
+        long position = channel.position();
+        long size = channel.size() - position;
+        if (size > Integer.MAX_VALUE)
+            return readTermFromSAFStream(factory, Channels.newInputStream(channel));
+        if (size < 1)
+            throw new IOException("Unable to read SAF identification token.\n");
 
-        FileInputStream fis = null;
-        FileChannel fc = null;
-        try {
-            fis = new FileInputStream(file);
-            fc = fis.getChannel();
+        ByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+        if (data.get() != '?')
+            throw new IOException("Not a SAF file.");
+
+        IStrategoTerm result = readTermFromSAFBlocks(factory, data);
+        channel.position(position + size);
+        return result;
+    }
 
-            // Consume the SAF identification token.
-            byteBuffer.limit(1);
-            int bytesRead = fc.read(byteBuffer);
-            if (bytesRead != 1)
+    /**
+     * Reads the ATerm from a buffer with SAF encoded blocks, decoding them
+     * straight from the buffer. The buffer must be positioned after the SAF
+     * identification token; its position is not changed.
+     * 
+     * @throws IOException
+     *             Thrown when the blocks in the buffer are incomplete.
+     */
+    static IStrategoTerm readTermFromSAFBlocks(ITermFactory factory,
+            ByteBuffer data) throws IOException {
+        SAFReader binaryReader = new SAFReader(factory);
+        ByteBuffer block = data.duplicate();
+        int blockStart = data.position();
+        int end = data.limit();
+        while (blockStart < end) {
+            if (end - blockStart < 2)
                 throw new IOException(
-                        "Unable to read SAF identification token.\n");
-
-            do {
-                sizeBuffer.clear();
-                bytesRead = fc.read(sizeBuffer);
-                if (bytesRead <= 0)
-                    break;
-                else if (bytesRead != 2)
-                    throw new IOException(
-                            "Unable to read block size bytes from file: "
-                                    + bytesRead + ".\n");
-                sizeBuffer.flip();
-
-                int blockSize = (sizeBuffer.get() & 0x000000ff)
-                        + ((sizeBuffer.get() & 0x000000ff) << 8);
-                if (blockSize == 0)
-                    blockSize = 65536;
-
-                byteBuffer.clear();
-                byteBuffer.limit(blockSize);
-                bytesRead = fc.read(byteBuffer);
-                byteBuffer.flip();
-                if (bytesRead != blockSize)
-                    throw new IOException("Unable to read bytes from file "
-                            + bytesRead + " vs " + blockSize + ".");
-
-                binaryReader.deserialize(byteBuffer);
-            } while (bytesRead > 0);
-
-            if (!binaryReader.isDone())
-                throw new RuntimeException("Term incomplete, missing data.\n");
-        } finally {
-            if (fc != null) {
-                fc.close();
-            }
-            if (fis != null) {
-                fis.close();
-            }
+                        "Unable to read block size bytes from file: "
+                                + (end - blockStart) + ".\n");
+
+            int blockSize = (data.get(blockStart) & 0x000000ff)
+                    + ((data.get(blockStart + 1) & 0x000000ff) << 8);
+            if (blockSize == 0)
+                blockSize = 65536;
+            blockStart += 2;
+
+            if (blockSize > end - blockStart)
+                throw new IOException("Unable to read bytes from file "
+                        + (end - blockStart) + " vs " + blockSize + ".");
+
+            block.limit(blockStart + blockSize);
+            block.position(blockStart);
+            binaryReader.deserialize(block);
+            blockStart += blockSize;
         }
 
+        if (!binaryReader.isDone())
+            throw new RuntimeException("Term incomplete, missing data.\n");
+
         return binaryReader.getRoot();
     }
 
@@ -787,4 +855,15 @@ class SAFReader {
 
         return isSaf;
     }
+
+    /**
+     * Tests if a file channel contains a SAF encoded term at its current
+     * position, without changing that position.
+     */
+    public static boolean isStreamingATerm(FileChannel channel)
+            throws IOException {
+        ByteBuffer token = ByteBuffer.allocate(1);
+        return channel.read(token, channel.position()) == 1
+                && token.get(0) == '?';
+    }
 }
@@ -44,9 +44,7 @@ import java.nio.channels.Channels;
 import java.nio.channels.FileChannel;
 import java.nio.channels.WritableByteChannel;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 import org.spoofax.interpreter.terms.IStrategoAppl;
 import org.spoofax.interpreter.terms.IStrategoInt;
@@ -90,13 +88,13 @@ public class SAFWriter {
 
     private final static int STACKSIZE = 256;
 
-    private final static int MINIMUMFREESPACE = 10;
+    final static int MINIMUMFREESPACE = 10;
 
-    private final Map<IStrategoTerm, Integer> sharedTerms;
+    private final ObjectIntMap<IStrategoTerm> sharedTerms;
 
     private int currentKey;
 
-    private final Map<Object, Integer> applSignatures;
+    private final ObjectIntMap<Object> applSignatures;
 
     private int sigKey;
 
@@ -113,20 +111,46 @@ public class SAFWriter {
     private ByteBuffer currentBuffer;
 
     /**
-     * Constructor.
+     * Constructor. Shares all subterms that are structurally equal.
      * 
      * @param root
      *            The ATerm that needs to be serialized.
      */
     public SAFWriter(IStrategoTerm root) {
+        this(root, false);
+    }
+
+    /**
+     * Constructor.
+     * 
+     * @param root
+     *            The ATerm that needs to be serialized.
+     * @param identitySharing
+     *            Whether to share only subterms that are the same instance,
+     *            rather than all subterms that are structurally equal.
+     *            This avoids hashing and comparing subterms, which makes
+     *            it the cheaper option for maximally shared terms, or when
+     *            a slightly larger output is acceptable.
+     */
+    public SAFWriter(IStrategoTerm root, boolean identitySharing) {
         super();
 
-        sharedTerms = new HashMap<IStrategoTerm, Integer>();
+        sharedTerms = new ObjectIntMap<IStrategoTerm>(identitySharing);
         currentKey = 0;
-        applSignatures = new HashMap<Object, Integer>();
+        applSignatures = new ObjectIntMap<Object>(false);
         sigKey = 0;
 
         stack = new ATermMapping[STACKSIZE];
+        setRoot(root);
+    }
+
+    /**
+     * Starts serializing a new term, after the previous one is finished,
+     * as part of a stream of terms that share a single sharing table.
+     * 
+     * @see StreamingSAFWriter
+     */
+    void setRoot(IStrategoTerm root) {
         stackPosition = 0;
 
         ATermMapping tm = new ATermMapping();
@@ -147,16 +171,25 @@ public class SAFWriter {
      *            The buffer that will be filled with data.
      */
     public void serialize(ByteBuffer buffer) {
+        serializeUnflipped(buffer);
+        buffer.flip();
+    }
+
+    /**
+     * Serializes (part of) the current term to the given buffer,
+     * without flipping the buffer.
+     */
+    void serializeUnflipped(ByteBuffer buffer) {
         currentBuffer = buffer;
 
         while (currentTerm != null) {
             if (buffer.remaining() < MINIMUMFREESPACE)
                 break;
 
-            Integer id = sharedTerms.get(currentTerm);
-            if (id != null) {
+            int id = sharedTerms.get(currentTerm);
+            if (id != ObjectIntMap.NONE) {
                 buffer.put((byte) ISSHAREDFLAG);
-                writeInt(id.intValue());
+                writeInt(id);
 
                 stackPosition--; // Pop the term from the stack, since it's
                 // subtree is shared.
@@ -173,15 +206,26 @@ public class SAFWriter {
                 // Don't add the term to the shared list until we are completely
                 // done with it.
                 if (indexInTerm == 0)
-                    sharedTerms.put(currentTerm, new Integer(currentKey++));
+                    sharedTerms.putNew(currentTerm, currentKey++);
                 else
                     break;
             }
 
             currentTerm = getNextTerm();
         }
+    }
 
-        buffer.flip();
+    /**
+     * Writes the header of a list with the given number of elements, which
+     * are written after it as separate terms using {@link #setRoot}.
+     * The buffer must have at least {@link #MINIMUMFREESPACE} bytes remaining.
+     */
+    void writeListHeader(ByteBuffer buffer, int size) {
+        assert isFinished() && buffer.remaining() >= MINIMUMFREESPACE;
+        currentBuffer = buffer;
+        buffer.put((byte) ATermConstants.AT_LIST);
+        writeInt(size);
+        currentKey++; // (lists written this way are never shared)
     }
 
     /**
@@ -344,8 +388,8 @@ public class SAFWriter {
         if (indexInTerm == 0) {
             byte header = getHeader(term);
 
-            Integer key = applSignatures.get(fun);
-            if (key == null) {
+            int key = applSignatures.get(fun);
+            if (key == ObjectIntMap.NONE) {
 
                 if (isString)
                     header = (byte) (header | APPLQUOTED);
@@ -369,12 +413,12 @@ public class SAFWriter {
                     tempNameWriteBuffer = nameBytes;
                 }
 
-                applSignatures.put(fun, new Integer(sigKey++));
+                applSignatures.putNew(fun, sigKey++);
             } else {
                 header = (byte) (header | ISFUNSHARED);
                 currentBuffer.put(header);
 
-                writeInt(key.intValue());
+                writeInt(key);
             }
         } else {
             int length = tempNameWriteBuffer.length;
@@ -516,7 +560,17 @@ public class SAFWriter {
      */
     public static void writeTermToSAFFile(IStrategoTerm aTerm, File file)
             throws IOException {
-        SAFWriter binaryWriter = new SAFWriter(aTerm);
+        writeTermToSAFFile(aTerm, file, false);
+    }
+
+    /**
+     * Writes the given aterm to the given file.
+     * 
+     * @see #SAFWriter(IStrategoTerm, boolean)
+     */
+    public static void writeTermToSAFFile(IStrategoTerm aTerm, File file,
+            boolean identitySharing) throws IOException {
+        SAFWriter binaryWriter = new SAFWriter(aTerm, identitySharing);
 
         ByteBuffer byteBuffer = ByteBuffer.allocate(65536);
         ByteBuffer sizeBuffer = ByteBuffer.allocate(2);
@@ -608,8 +662,18 @@ public class SAFWriter {
      */
     public static void writeTermToSAFStream(IStrategoTerm term, OutputStream out)
             throws IOException {
+        writeTermToSAFStream(term, out, false);
+    }
+
+    /**
+     * Write to stream.
+     * 
+     * @see #SAFWriter(IStrategoTerm, boolean)
+     */
+    public static void writeTermToSAFStream(IStrategoTerm term,
+            OutputStream out, boolean identitySharing) throws IOException {
 
-        SAFWriter binaryWriter = new SAFWriter(term);
+        SAFWriter binaryWriter = new SAFWriter(term, identitySharing);
         ByteBuffer byteBuffer = ByteBuffer.allocate(65536);
         WritableByteChannel channel = Channels.newChannel(out);
 
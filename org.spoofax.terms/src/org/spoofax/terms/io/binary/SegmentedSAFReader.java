@@ -0,0 +1,182 @@
+package org.spoofax.terms.io.binary;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import org.spoofax.interpreter.terms.IStrategoTerm;
+import org.spoofax.interpreter.terms.ITermFactory;
+
+/**
+ * Reads list terms from a segmented SAF container, decoding the segments
+ * in parallel. The term factory used must support concurrent use.
+ * 
+ * @see SegmentedSAFWriter  Describes the format.
+ */
+class SegmentedSAFReader {
+
+	private SegmentedSAFReader() {
+		// Use the static methods
+	}
+
+	/**
+	 * Reads a term from a stream, starting at the identification token.
+	 * The container is read into memory before its segments are decoded,
+	 * as the directory is at its end.
+	 */
+	public static IStrategoTerm readTermFromSAFStream(ITermFactory factory,
+			InputStream in) throws IOException {
+		if (in.read() != SegmentedSAFWriter.TOKEN)
+			throw new IOException("Not a segmented SAF file.");
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		byte[] buffer = new byte[65536];
+		for (int read = in.read(buffer); read != -1; read = in.read(buffer)) {
+			bytes.write(buffer, 0, read);
+		}
+		return readTermFromSAFBuffer(factory, ByteBuffer.wrap(bytes.toByteArray()));
+	}
+
+	/**
+	 * Reads a term from a file channel, starting at its current position
+	 * (at the identification token). The segments are decoded straight from
+	 * the file mapped into memory.
+	 */
+	public static IStrategoTerm readTermFromSAFChannel(ITermFactory factory,
+			FileChannel channel) throws IOException {
+		long position = channel.position();
+		long size = channel.size() - position;
+		if (size > Integer.MAX_VALUE)
+			return readTermFromSAFStream(factory, new BufferedInputStream(
+					Channels.newInputStream(channel)));
+
+		ByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+		channel.position(position + size);
+		if (size < 1 || data.get() != SegmentedSAFWriter.TOKEN)
+			throw new IOException("Not a segmented SAF file.");
+		return readTermFromSAFBuffer(factory, data.slice());
+	}
+
+	/**
+	 * Reads a term from a buffer with the segments and the directory
+	 * of a container, following its identification token.
+	 */
+	private static IStrategoTerm readTermFromSAFBuffer(ITermFactory factory,
+			ByteBuffer data) throws IOException {
+		int size = data.limit();
+		if (size < 8)
+			throw new IOException("Unable to read number of segments.");
+		int segmentCount = data.getInt(size - 4);
+		if (segmentCount < 0 || segmentCount > (size - 8) / 8)
+			throw new IOException("Invalid number of segments: " + segmentCount);
+		int directoryStart = size - 4 - 8 * segmentCount;
+		int[][] directory = readDirectory(segmentCount, data, directoryStart);
+
+		ByteBuffer[] segments = new ByteBuffer[directory.length];
+		int offset = 0;
+		for (int i = 0; i < segments.length; i++) {
+			if (4 + (long) directory[i][1] > directoryStart - 4 - offset)
+				throw new IOException("Segment " + i + " incomplete, missing data.");
+			if (data.getInt(offset) != directory[i][0])
+				throw new IOException("Number of elements of segment " + i + " does not match directory.");
+			offset += 4;
+			ByteBuffer segment = data.duplicate();
+			segment.limit(offset + directory[i][1]);
+			segment.position(offset);
+			segments[i] = segment;
+			offset += directory[i][1];
+		}
+		if (offset != directoryStart - 4 || data.getInt(offset) != -1)
+			throw new IOException("Segments do not match directory.");
+		return readSegments(factory, directory, segments);
+	}
+
+	/**
+	 * Reads the number of elements and bytes of each segment.
+	 */
+	private static int[][] readDirectory(int segmentCount, ByteBuffer data, int offset) throws IOException {
+		int[][] results = new int[segmentCount][];
+		for (int i = 0; i < segmentCount; i++) {
+			int elementCount = data.getInt(offset + 8 * i);
+			int byteCount = data.getInt(offset + 8 * i + 4);
+			if (elementCount < 0 || byteCount < 0)
+				throw new IOException("Invalid size of segment " + i);
+			results[i] = new int[] { elementCount, byteCount };
+		}
+		return results;
+	}
+
+	private static IStrategoTerm readSegments(final ITermFactory factory,
+			int[][] directory, final ByteBuffer[] segments) throws IOException {
+		int elementCount = 0;
+		for (int[] entry : directory) {
+			elementCount += entry[0];
+		}
+
+		final IStrategoTerm[] elements = new IStrategoTerm[elementCount];
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(segments.length);
+		int start = 0;
+		for (int i = 0; i < segments.length; i++) {
+			final int segment = i;
+			final int segmentStart = start;
+			final int segmentSize = directory[i][0];
+			tasks.add(new Callable<Void>() {
+				public Void call() throws IOException {
+					IStrategoTerm list = SAFReader.readTermFromSAFBlocks(factory, segments[segment]);
+					if (list.getSubtermCount() != segmentSize)
+						throw new IOException("Unexpected number of elements in segment " + segment
+								+ ": " + list.getSubtermCount() + " vs " + segmentSize);
+					System.arraycopy(list.getAllSubterms(), 0, elements, segmentStart, segmentSize);
+					return null;
+				}
+			});
+			start += segmentSize;
+		}
+
+		for (Future<Void> result : SegmentedSAFWriter.POOL.invokeAll(tasks)) {
+			try {
+				result.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException();
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof IOException)
+					throw (IOException) e.getCause();
+				if (e.getCause() instanceof RuntimeException)
+					throw (RuntimeException) e.getCause();
+				throw new RuntimeException(e.getCause());
+			}
+		}
+
+		return factory.makeList(elements);
+	}
+
+	public static boolean isSegmentedATerm(BufferedInputStream stream)
+			throws IOException {
+		stream.mark(1);
+		int ch = stream.read();
+		stream.reset();
+		return ch == SegmentedSAFWriter.TOKEN;
+	}
+
+	/**
+	 * Tests if a file channel contains a segmented SAF encoded term at its
+	 * current position, without changing that position.
+	 */
+	public static boolean isSegmentedATerm(FileChannel channel)
+			throws IOException {
+		ByteBuffer token = ByteBuffer.allocate(1);
+		return channel.read(token, channel.position()) == 1
+				&& token.get(0) == SegmentedSAFWriter.TOKEN;
+	}
+}
@@ -0,0 +1,239 @@
+package org.spoofax.terms.io.binary;
+
+import static org.spoofax.interpreter.terms.IStrategoTerm.MUTABLE;
+import static org.spoofax.terms.Term.isTermList;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import org.spoofax.interpreter.terms.IStrategoTerm;
+import org.spoofax.terms.StrategoArrayList;
+
+/**
+ * Writes list terms in a segmented SAF container, serializing the
+ * elements of the list in parallel.
+ * 
+ * The elements of the list are divided over segments, which are written
+ * as separate SAF encoded lists, each with its own sharing table, on a
+ * fork-join pool. The container starts with the {@link #TOKEN} byte. Each
+ * segment follows as its number of elements, as a (big-endian) int,
+ * followed by its SAF blocks. The segments are ended by the int -1,
+ * followed by a directory with the number of elements and the number of
+ * bytes of the SAF blocks of each segment, as ints, followed by the
+ * number of segments, as the last int of the container. As the directory
+ * comes last, each segment can be written as soon as it is encoded.
+ * 
+ * Terms that are not unannotated lists are written as regular SAF terms.
+ * 
+ * Lists can also be written without constructing them, from segments
+ * that produce their own elements, using
+ * {@link #writeSegmentsToSAFStream(List, OutputStream)}.
+ * 
+ * @see SegmentedSAFReader  Reads the segments in parallel.
+ * @see SAFElementReader  Reads the elements one segment at a time.
+ */
+public class SegmentedSAFWriter {
+
+	/**
+	 * The identification token of the segmented SAF format.
+	 */
+	public static final char TOKEN = '#';
+
+	/**
+	 * The number of segments created per worker thread, to balance
+	 * the work if some elements are much larger than others.
+	 */
+	private static final int SEGMENTS_PER_THREAD = 4;
+
+	/**
+	 * The pool used to read and write segments.
+	 */
+	static final ForkJoinPool POOL = new ForkJoinPool();
+
+	private SegmentedSAFWriter() {
+		// Use the static methods
+	}
+
+	/**
+	 * A segment of a list written by
+	 * {@link SegmentedSAFWriter#writeSegmentsToSAFStream(List, OutputStream)},
+	 * which produces its elements as they are written.
+	 */
+	public interface Segment {
+
+		/**
+		 * Gets the number of elements of the segment.
+		 */
+		int size();
+
+		/**
+		 * Writes the elements of the segment to a writer, which has started
+		 * a list of {@link #size()} elements. Called on the thread that
+		 * writes the list, after the preceding segments have been written.
+		 */
+		void writeElements(StreamingSAFWriter writer) throws IOException;
+	}
+
+	public static void writeTermToSAFFile(IStrategoTerm term, File file)
+			throws IOException {
+		FileOutputStream output = new FileOutputStream(file);
+		try {
+			writeTermToSAFStream(term, output);
+		} finally {
+			output.close();
+		}
+	}
+
+	/**
+	 * Writes a term to a stream, without closing it.
+	 */
+	public static void writeTermToSAFStream(IStrategoTerm term, OutputStream out)
+			throws IOException {
+		if (!isTermList(term) || !term.getAnnotations().isEmpty()) {
+			SAFWriter.writeTermToSAFStream(term, out);
+			return;
+		}
+
+		final IStrategoTerm[] elements = term.getAllSubterms();
+		final int segmentCount = Math.min(elements.length, POOL.getParallelism() * SEGMENTS_PER_THREAD);
+		List<Future<byte[]>> segments = new ArrayList<Future<byte[]>>(segmentCount);
+		int[] sizes = new int[segmentCount];
+		for (int i = 0; i < segmentCount; i++) {
+			final int start = segmentStart(elements.length, segmentCount, i);
+			final int end = segmentStart(elements.length, segmentCount, i + 1);
+			sizes[i] = end - start;
+			segments.add(POOL.submit(new Callable<byte[]>() {
+				public byte[] call() {
+					IStrategoTerm[] segment = Arrays.copyOfRange(elements, start, end);
+					return SAFWriter.writeTermToSAFString(new StrategoArrayList(segment, null, MUTABLE));
+				}
+			}));
+		}
+
+		// Write each segment as soon as it is encoded, in order
+		DataOutputStream output = new DataOutputStream(out);
+		output.write(TOKEN);
+		int[] byteCounts = new int[segmentCount];
+		for (int i = 0; i < segmentCount; i++) {
+			byte[] segment = getSegment(segments.get(i));
+			segments.set(i, null);
+			output.writeInt(sizes[i]);
+			output.write(segment);
+			byteCounts[i] = segment.length;
+		}
+		writeDirectory(sizes, byteCounts, output);
+	}
+
+	/**
+	 * Writes a list that consists of the elements of the given segments to a
+	 * stream, without closing it. The list is never constructed: each segment
+	 * is written to the stream as its elements are produced, into a SAF
+	 * encoded list with its own sharing table. The segments are written one
+	 * after the other, on the calling thread, so only the sharing table of a
+	 * single segment and a single block are held in memory.
+	 */
+	public static void writeSegmentsToSAFStream(List<? extends Segment> segments, OutputStream out)
+			throws IOException {
+		final int segmentCount = segments.size();
+		int[] sizes = new int[segmentCount];
+		int[] byteCounts = new int[segmentCount];
+		DataOutputStream output = new DataOutputStream(out);
+		CountingChannel channel = new CountingChannel(Channels.newChannel(output));
+		output.write(TOKEN);
+		for (int i = 0; i < segmentCount; i++) {
+			Segment segment = segments.get(i);
+			sizes[i] = segment.size();
+			output.writeInt(sizes[i]);
+
+			long start = channel.getCount();
+			StreamingSAFWriter writer = new StreamingSAFWriter(channel, false, false);
+			writer.beginList(sizes[i]);
+			segment.writeElements(writer);
+			writer.endList();
+			long byteCount = channel.getCount() - start;
+			if (byteCount > Integer.MAX_VALUE)
+				throw new IOException("Segment " + i + " too large: " + byteCount + " bytes");
+			byteCounts[i] = (int) byteCount;
+		}
+		writeDirectory(sizes, byteCounts, output);
+	}
+
+	/**
+	 * Ends the segments, and writes the directory and the number of segments.
+	 */
+	private static void writeDirectory(int[] sizes, int[] byteCounts, DataOutputStream output)
+			throws IOException {
+		output.writeInt(-1);
+		for (int i = 0; i < sizes.length; i++) {
+			output.writeInt(sizes[i]);
+			output.writeInt(byteCounts[i]);
+		}
+		output.writeInt(sizes.length);
+		output.flush();
+	}
+
+	private static int segmentStart(int elementCount, int segmentCount, int segment) {
+		return (int) ((long) elementCount * segment / segmentCount);
+	}
+
+	private static byte[] getSegment(Future<byte[]> segment) throws IOException {
+		try {
+			return segment.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw new RuntimeException(e.getCause());
+		}
+	}
+
+	/**
+	 * Counts the bytes written to a channel.
+	 */
+	private static class CountingChannel implements WritableByteChannel {
+
+		private final WritableByteChannel channel;
+
+		private long count;
+
+		CountingChannel(WritableByteChannel channel) {
+			this.channel = channel;
+		}
+
+		long getCount() {
+			return count;
+		}
+
+		public int write(ByteBuffer source) throws IOException {
+			int written = channel.write(source);
+			count += written;
+			return written;
+		}
+
+		public boolean isOpen() {
+			return channel.isOpen();
+		}
+
+		public void close() throws IOException {
+			channel.close();
+		}
+	}
+}
@@ -0,0 +1,172 @@
+package org.spoofax.terms.io.binary;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+import org.spoofax.interpreter.terms.IStrategoTerm;
+
+/**
+ * Writes a term in the SAF format as it is produced, rather than
+ * requiring it to be constructed first.
+ * 
+ * Lists are written using {@link #beginList(int)}, followed by
+ * their elements, followed by {@link #endList()}. Elements are written
+ * using {@link #write(IStrategoTerm)}, or as nested lists. For example:
+ * 
+ * <pre>
+ * StreamingSAFWriter writer = new StreamingSAFWriter(channel);
+ * writer.beginList(terms.size());
+ * for (IStrategoTerm term : terms)
+ *     writer.write(term);
+ * writer.endList();
+ * </pre>
+ * 
+ * Blocks are written to the channel as soon as they are full; the last
+ * block is written when the root term is completed. All terms written
+ * share a single sharing table, as with {@link SAFWriter}.
+ */
+public class StreamingSAFWriter {
+
+	private final WritableByteChannel channel;
+
+	private final SAFWriter writer;
+
+	private final ByteBuffer buffer = ByteBuffer.allocate(65536);
+
+	private final ByteBuffer sizeBuffer = ByteBuffer.allocate(2);
+
+	private int[] remaining = new int[16];
+
+	private int depth;
+
+	private boolean isDone;
+
+	/**
+	 * Creates a writer that shares all subterms that are structurally equal,
+	 * and writes the SAF identification token to the channel.
+	 */
+	public StreamingSAFWriter(WritableByteChannel channel) throws IOException {
+		this(channel, false);
+	}
+
+	/**
+	 * Creates a writer, and writes the SAF identification token to the channel.
+	 * 
+	 * @see SAFWriter#SAFWriter(IStrategoTerm, boolean)
+	 */
+	public StreamingSAFWriter(WritableByteChannel channel, boolean identitySharing) throws IOException {
+		this(channel, identitySharing, true);
+	}
+
+	/**
+	 * Creates a writer, which writes the SAF identification token only if
+	 * requested, as segments of a {@link SegmentedSAFWriter} container
+	 * do not start with it.
+	 */
+	StreamingSAFWriter(WritableByteChannel channel, boolean identitySharing, boolean writeToken) throws IOException {
+		this.channel = channel;
+		this.writer = new SAFWriter(null, identitySharing);
+
+		if (writeToken) {
+			ByteBuffer token = ByteBuffer.allocate(1);
+			token.put((byte) '?');
+			token.flip();
+			writeFully(token);
+		}
+	}
+
+	/**
+	 * Starts a list of the given number of elements.
+	 */
+	public void beginList(int size) throws IOException {
+		if (size < 0)
+			throw new IllegalArgumentException("List size cannot be negative: " + size);
+		startTerm();
+		if (buffer.remaining() < SAFWriter.MINIMUMFREESPACE)
+			writeBlock();
+		writer.writeListHeader(buffer, size);
+
+		if (depth == remaining.length) {
+			int[] newRemaining = new int[depth << 1];
+			System.arraycopy(remaining, 0, newRemaining, 0, depth);
+			remaining = newRemaining;
+		}
+		if (size == 0) {
+			remaining[depth++] = -1; // (completed, to be ended)
+			endTerm(depth - 1);
+		} else {
+			remaining[depth++] = size;
+		}
+	}
+
+	/**
+	 * Writes a term, as an element of the current list, or as the root term.
+	 */
+	public void write(IStrategoTerm term) throws IOException {
+		startTerm();
+		writer.setRoot(term);
+		while (true) {
+			writer.serializeUnflipped(buffer);
+			if (writer.isFinished())
+				break;
+			writeBlock();
+		}
+		endTerm(depth);
+	}
+
+	/**
+	 * Ends the current list, which must have all its elements written.
+	 */
+	public void endList() {
+		if (depth == 0 || remaining[depth - 1] != -1)
+			throw new IllegalStateException("List elements missing, or no list to end");
+		depth--;
+	}
+
+	/**
+	 * Tests if the root term has been written completely.
+	 */
+	public boolean isDone() {
+		return isDone;
+	}
+
+	private void startTerm() {
+		if (isDone)
+			throw new IllegalStateException("The root term has already been written");
+		if (depth > 0 && remaining[depth - 1] <= 0)
+			throw new IllegalStateException("All list elements have already been written");
+	}
+
+	/**
+	 * Counts a completed term for the lists it is nested in, up to the
+	 * given depth, and for any lists completed by it.
+	 */
+	private void endTerm(int parentDepth) throws IOException {
+		for (int i = parentDepth - 1; i >= 0; i--) {
+			if (--remaining[i] > 0)
+				return;
+			remaining[i] = -1; // (completed, to be ended)
+		}
+		isDone = true;
+		if (buffer.position() > 0)
+			writeBlock();
+	}
+
+	private void writeBlock() throws IOException {
+		buffer.flip();
+		int blockSize = buffer.limit();
+		sizeBuffer.clear();
+		sizeBuffer.put((byte) (blockSize & 0x000000ff));
+		sizeBuffer.put((byte) ((blockSize >>> 8) & 0x000000ff));
+		sizeBuffer.flip();
+		writeFully(sizeBuffer);
+		writeFully(buffer);
+		buffer.clear();
+	}
+
+	private void writeFully(ByteBuffer data) throws IOException {
+		while (data.hasRemaining())
+			channel.write(data);
+	}
+}
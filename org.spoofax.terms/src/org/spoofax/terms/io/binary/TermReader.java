@@ -1,8 +1,10 @@
 package org.spoofax.terms.io.binary;
 
 import java.io.BufferedInputStream;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.channels.FileChannel;
 
 import org.spoofax.interpreter.terms.IStrategoTerm;
 import org.spoofax.interpreter.terms.ITermFactory;
@@ -43,6 +45,30 @@ public class TermReader extends TAFTermReader {
             return super.parseFromStream(bis);
         }
         */
+    	if (inputStream instanceof FileInputStream) {
+    		// Map SAF and BAF files into memory rather than streaming them
+    		FileChannel channel = ((FileInputStream) inputStream).getChannel();
+    		if (BAFReader.isBinaryATerm(channel)) {
+    			try {
+    				return new BAFReader(factory, ByteBufferBitStream.map(channel)).readFromBinaryFile(false);
+    			} finally {
+    				inputStream.close();
+    			}
+    		} else if (SAFReader.isStreamingATerm(channel)) {
+    			try {
+    				return SAFReader.readTermFromSAFChannel(factory, channel);
+    			} finally {
+    				inputStream.close();
+    			}
+    		} else if (SegmentedSAFReader.isSegmentedATerm(channel)) {
+    			try {
+    				return SegmentedSAFReader.readTermFromSAFChannel(factory, channel);
+    			} finally {
+    				inputStream.close();
+    			}
+    		}
+    	}
+    	
     	BufferedInputStream bis = null;
     	try {
 	        if (inputStream instanceof BufferedInputStream)
@@ -51,9 +77,11 @@ public class TermReader extends TAFTermReader {
 	            bis = new BufferedInputStream(inputStream);
 	        
 	        if (BAFReader.isBinaryATerm(bis)) {
-	            return new BAFReader(getFactory(), bis).readFromBinaryFile(true);
+	            return new BAFReader(getFactory(), ByteBufferBitStream.read(bis)).readFromBinaryFile(true);
 	        } else if (SAFReader.isStreamingATerm(bis)) {
 	        	return SAFReader.readTermFromSAFStream(factory, bis);
+	        } else if (SegmentedSAFReader.isSegmentedATerm(bis)) {
+	        	return SegmentedSAFReader.readTermFromSAFStream(factory, bis);
 	        } else {
 	            return super.parseFromStream(bis);
 	        }
@@ -0,0 +1,73 @@
+package org.spoofax.terms.io.columnar;
+
+import java.io.IOException;
+
+import org.spoofax.interpreter.terms.IStrategoAppl;
+import org.spoofax.interpreter.terms.IStrategoConstructor;
+import org.spoofax.interpreter.terms.IStrategoList;
+import org.spoofax.interpreter.terms.IStrategoTerm;
+import org.spoofax.interpreter.terms.ITermPrinter;
+
+final class ColumnarAppl extends ColumnarTerm implements IStrategoAppl {
+
+	private static final long serialVersionUID = 2467318451873429052L;
+
+	ColumnarAppl(ColumnarTermStore store, int node, IStrategoList annotations) {
+		super(store, node, annotations);
+	}
+
+	public IStrategoConstructor getConstructor() {
+		return store.getConstructor(store.getData(node));
+	}
+
+	public String getName() {
+		return getConstructor().getName();
+	}
+
+	public int getTermType() {
+		return APPL;
+	}
+
+	@Override
+	protected boolean doShallowMatch(IStrategoTerm second) {
+		return getConstructor().equals(((IStrategoAppl) second).getConstructor());
+	}
+
+	@Deprecated
+	public void prettyPrint(ITermPrinter pp) {
+		String name = getName();
+		pp.print(name);
+		int count = getSubtermCount();
+		if (count > 0) {
+			pp.println("(");
+			pp.indent(name.length());
+			getSubterm(0).prettyPrint(pp);
+			for (int i = 1; i < count; i++) {
+				pp.print(",");
+				getSubterm(i).prettyPrint(pp);
+			}
+			pp.println(")");
+			pp.outdent(name.length());
+		}
+		printAnnotations(pp);
+	}
+
+	public void writeAsString(Appendable output, int maxDepth) throws IOException {
+		output.append(getName());
+		int count = getSubtermCount();
+		if (count > 0) {
+			output.append('(');
+			if (maxDepth == 0) {
+				output.append("...");
+			} else {
+				getSubterm(0).writeAsString(output, maxDepth - 1);
+				for (int i = 1; i < count; i++) {
+					output.append(',');
+					getSubterm(i).writeAsString(output, maxDepth - 1);
+				}
+			}
+			output.append(')');
+		}
+		appendAnnotations(output, maxDepth);
+	}
+}
@@ -0,0 +1,40 @@
+package org.spoofax.terms.io.columnar;
+
+/**
+ * Constants of the columnar term encoding.
+ * 
+ * An encoding starts with a header of eight ints: {@link #MAGIC},
+ * {@link #VERSION}, the number of nodes, children, constructors,
+ * strings, and reals, and the root node. It is followed by these
+ * columns, in order:
+ * 
+ * <ul>
+ * <li>the hash of each node, without annotations (int per node)</li>
+ * <li>the data of each node: a constructor id, int value, real id, or string id (int per node)</li>
+ * <li>the node of the annotations of each node, or {@link #NONE} (int per node)</li>
+ * <li>the offset of the first child of each node in the children column (int per node, plus one)</li>
+ * <li>the child nodes (int per child)</li>
+ * <li>the hash of the suffix of a list starting at each child (int per child)</li>
+ * <li>the name (string id) and arity of each constructor (two ints per constructor)</li>
+ * <li>the offset of each string in the string bytes (int per string, plus one)</li>
+ * <li>the value of each real (long per real)</li>
+ * <li>the term type of each node (byte per node)</li>
+ * <li>the UTF-8 bytes of all strings</li>
+ * </ul>
+ * 
+ * All values are big-endian. Children are encoded before their parents.
+ */
+final class ColumnarFormat {
+
+	static final int MAGIC = 0x43545331; // "CTS1"
+
+	static final int VERSION = 1;
+
+	static final int HEADER_SIZE = 8 * 4;
+
+	static final int NONE = -1;
+
+	private ColumnarFormat() {
+		// Constants only
+	}
+}
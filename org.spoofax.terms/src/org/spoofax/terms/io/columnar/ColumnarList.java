@@ -0,0 +1,116 @@
+package org.spoofax.terms.io.columnar;
+
+import java.io.IOException;
+import java.util.NoSuchElementException;
+
+import org.spoofax.interpreter.terms.IStrategoList;
+import org.spoofax.interpreter.terms.IStrategoTerm;
+import org.spoofax.interpreter.terms.ITermPrinter;
+import org.spoofax.terms.TermFactory;
+
+/**
+ * A list, or a tail of a list, in a {@link ColumnarTermStore}.
+ * Tails are views of the same node, starting at an offset.
+ */
+final class ColumnarList extends ColumnarTerm implements IStrategoList {
+
+	private static final long serialVersionUID = 8146924580212475810L;
+
+	private final int offset;
+
+	ColumnarList(ColumnarTermStore store, int node, int offset, IStrategoList annotations) {
+		super(store, node, annotations);
+		this.offset = offset;
+	}
+
+	@Override
+	protected int getKidOffset() {
+		return store.getChildStart(node) + offset;
+	}
+
+	public IStrategoTerm head() {
+		if (isEmpty())
+			throw new NoSuchElementException();
+		return getSubterm(0);
+	}
+
+	public IStrategoList tail() {
+		if (isEmpty())
+			throw new IllegalStateException();
+		if (size() == 1)
+			return store.getEmptyList();
+		return new ColumnarList(store, node, offset + 1, null);
+	}
+
+	public boolean isEmpty() {
+		return getSubtermCount() == 0;
+	}
+
+	public int size() {
+		return getSubtermCount();
+	}
+
+	@Deprecated
+	public IStrategoTerm get(int index) {
+		return getSubterm(index);
+	}
+
+	@Deprecated
+	public IStrategoList prepend(IStrategoTerm prefix) {
+		return new TermFactory().makeListCons(prefix, this);
+	}
+
+	public int getTermType() {
+		return LIST;
+	}
+
+	@Override
+	protected boolean doShallowMatch(IStrategoTerm second) {
+		return true;
+	}
+
+	@Override
+	protected int hashFunction() {
+		return offset == 0 ? super.hashFunction() : store.getSuffixHash(getKidOffset());
+	}
+
+	@Deprecated
+	public void prettyPrint(ITermPrinter pp) {
+		int size = size();
+		if (size > 0) {
+			pp.println("[");
+			pp.indent(2);
+			get(0).prettyPrint(pp);
+			for (int i = 1; i < size; i++) {
+				pp.print(",");
+				pp.nextIndentOff();
+				get(i).prettyPrint(pp);
+				pp.println("");
+			}
+			pp.println("");
+			pp.print("]");
+			pp.outdent(2);
+		} else {
+			pp.print("[]");
+		}
+		printAnnotations(pp);
+	}
+
+	public void writeAsString(Appendable output, int maxDepth) throws IOException {
+		output.append('[');
+		int size = size();
+		if (size > 0) {
+			if (maxDepth == 0) {
+				output.append("...");
+			} else {
+				get(0).writeAsString(output, maxDepth - 1);
+				for (int i = 1; i < size; i++) {
+					output.append(',');
+					get(i).writeAsString(output, maxDepth - 1);
+				}
+			}
+		}
+		output.append(']');
+		appendAnnotations(output, maxDepth);
+	}
+}
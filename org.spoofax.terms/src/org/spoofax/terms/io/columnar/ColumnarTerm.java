@@ -0,0 +1,121 @@
+package org.spoofax.terms.io.columnar;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.spoofax.interpreter.terms.IStrategoList;
+import org.spoofax.interpreter.terms.IStrategoTerm;
+import org.spoofax.terms.StrategoTerm;
+
+/**
+ * A flyweight term, reading its contents from a {@link ColumnarTermStore}.
+ * 
+ * Hashes are read from the store rather than computed from the subterms,
+ * and are compatible with those of the original terms.
+ */
+abstract class ColumnarTerm extends StrategoTerm {
+
+	private static final long serialVersionUID = -6322151437262036524L;
+
+	protected final transient ColumnarTermStore store;
+
+	protected final int node;
+
+	protected ColumnarTerm(ColumnarTermStore store, int node, IStrategoList annotations) {
+		super(annotations, IMMUTABLE);
+		this.store = store;
+		this.node = node;
+	}
+
+	/**
+	 * Gets the offset of the first kid of this term in the children column.
+	 */
+	protected int getKidOffset() {
+		return store.getChildStart(node);
+	}
+
+	public IStrategoTerm getSubterm(int index) {
+		if (index < 0 || index >= getSubtermCount())
+			throw new IndexOutOfBoundsException("Index out of bounds: " + index);
+		return store.getTerm(store.getChild(getKidOffset() + index));
+	}
+
+	public int getSubtermCount() {
+		return store.getChildEnd(node) - getKidOffset();
+	}
+
+	public IStrategoTerm[] getAllSubterms() {
+		int offset = getKidOffset();
+		IStrategoTerm[] results = new IStrategoTerm[store.getChildEnd(node) - offset];
+		for (int i = 0; i < results.length; i++) {
+			results[i] = store.getTerm(store.getChild(offset + i));
+		}
+		return results;
+	}
+
+	/**
+	 * Tests if the kids (but not the annotations) of this term
+	 * may be equal to those of another term of the same term type.
+	 */
+	protected abstract boolean doShallowMatch(IStrategoTerm second);
+
+	@Override
+	protected boolean doSlowMatch(IStrategoTerm second, int commonStorageType) {
+		if (second instanceof ColumnarTerm) {
+			ColumnarTerm other = (ColumnarTerm) second;
+			if (other.store == store && other.node == node && other.getKidOffset() == getKidOffset())
+				return getAnnotations().match(second.getAnnotations());
+		} else if (second instanceof StrategoTerm) {
+			// Let the regular implementation match deep terms without recursion
+			return second.match(this);
+		}
+
+		if (second.getTermType() != getTermType() || !doShallowMatch(second))
+			return false;
+
+		int count = getSubtermCount();
+		if (second.getSubtermCount() != count)
+			return false;
+
+		if (getTermType() == LIST) {
+			IStrategoList secondList = (IStrategoList) second;
+			for (int i = 0; i < count; i++) {
+				if (!getSubterm(i).match(secondList.head()))
+					return false;
+				secondList = secondList.tail();
+			}
+		} else {
+			for (int i = 0; i < count; i++) {
+				if (!getSubterm(i).match(second.getSubterm(i)))
+					return false;
+			}
+		}
+
+		return getAnnotations().match(second.getAnnotations());
+	}
+
+	@Override
+	protected int hashFunction() {
+		return store.getHash(node);
+	}
+
+	public Iterator<IStrategoTerm> iterator() {
+		return new Iterator<IStrategoTerm>() {
+			private int index;
+
+			public boolean hasNext() {
+				return index < getSubtermCount();
+			}
+
+			public IStrategoTerm next() {
+				if (!hasNext())
+					throw new NoSuchElementException();
+				return getSubterm(index++);
+			}
+
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+}
@@ -0,0 +1,220 @@
+package org.spoofax.terms.io.columnar;
+
+import static org.spoofax.interpreter.terms.IStrategoTerm.APPL;
+import static org.spoofax.interpreter.terms.IStrategoTerm.IMMUTABLE;
+import static org.spoofax.interpreter.terms.IStrategoTerm.INT;
+import static org.spoofax.interpreter.terms.IStrategoTerm.LIST;
+import static org.spoofax.interpreter.terms.IStrategoTerm.REAL;
+import static org.spoofax.interpreter.terms.IStrategoTerm.STRING;
+import static org.spoofax.interpreter.terms.IStrategoTerm.TUPLE;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+import org.spoofax.interpreter.terms.IStrategoConstructor;
+import org.spoofax.interpreter.terms.IStrategoList;
+import org.spoofax.interpreter.terms.IStrategoTerm;
+import org.spoofax.terms.StrategoInt;
+import org.spoofax.terms.StrategoReal;
+import org.spoofax.terms.StrategoString;
+import org.spoofax.terms.TermFactory;
+
+/**
+ * A read-only store of terms in a columnar encoding, backed by a
+ * (possibly memory-mapped) {@link ByteBuffer}.
+ * 
+ * Terms are not materialized when the store is opened. Instead,
+ * {@link IStrategoTerm#IMMUTABLE} flyweight terms are created as
+ * they are accessed, reading their contents from the buffer.
+ * Strings and constructors are decoded once, when first accessed.
+ * 
+ * @see ColumnarTermWriter  Creates the encoding.
+ */
+public final class ColumnarTermStore {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final ByteBuffer buffer;
+
+	private final int nodeCount;
+
+	private final int root;
+
+	private final int hashesBase;
+
+	private final int dataBase;
+
+	private final int annosBase;
+
+	private final int childStartsBase;
+
+	private final int childrenBase;
+
+	private final int suffixHashesBase;
+
+	private final int ctorsBase;
+
+	private final int stringOffsetsBase;
+
+	private final int realsBase;
+
+	private final int typesBase;
+
+	private final int stringBytesBase;
+
+	private final IStrategoConstructor[] ctors;
+
+	private final String[] strings;
+
+	private final TermFactory factory = new TermFactory();
+
+	/**
+	 * Creates a store for an encoding in a buffer.
+	 * The buffer's content must not be modified afterwards.
+	 */
+	public ColumnarTermStore(ByteBuffer buffer) {
+		this.buffer = buffer.duplicate().order(ByteOrder.BIG_ENDIAN);
+		int start = buffer.position();
+		ByteBuffer b = this.buffer;
+
+		if (b.getInt(start) != ColumnarFormat.MAGIC)
+			throw new IllegalArgumentException("Not a columnar term encoding");
+		if (b.getInt(start + 4) != ColumnarFormat.VERSION)
+			throw new IllegalArgumentException("Unsupported columnar term encoding version: " + b.getInt(start + 4));
+		nodeCount = b.getInt(start + 8);
+		int childCount = b.getInt(start + 12);
+		int ctorCount = b.getInt(start + 16);
+		int stringCount = b.getInt(start + 20);
+		int realCount = b.getInt(start + 24);
+		root = b.getInt(start + 28);
+
+		hashesBase = start + ColumnarFormat.HEADER_SIZE;
+		dataBase = hashesBase + 4 * nodeCount;
+		annosBase = dataBase + 4 * nodeCount;
+		childStartsBase = annosBase + 4 * nodeCount;
+		childrenBase = childStartsBase + 4 * (nodeCount + 1);
+		suffixHashesBase = childrenBase + 4 * childCount;
+		ctorsBase = suffixHashesBase + 4 * childCount;
+		stringOffsetsBase = ctorsBase + 8 * ctorCount;
+		realsBase = stringOffsetsBase + 4 * (stringCount + 1);
+		typesBase = realsBase + 8 * realCount;
+		stringBytesBase = typesBase + nodeCount;
+
+		ctors = new IStrategoConstructor[ctorCount];
+		strings = new String[stringCount];
+	}
+
+	/**
+	 * Opens a store for a file, mapping it into memory.
+	 */
+	public static ColumnarTermStore map(File file) throws IOException {
+		RandomAccessFile input = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = input.getChannel();
+			return new ColumnarTermStore(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		} finally {
+			input.close(); // (the mapping remains valid)
+		}
+	}
+
+	public IStrategoTerm getRoot() {
+		return getTerm(root);
+	}
+
+	public int getNodeCount() {
+		return nodeCount;
+	}
+
+	IStrategoTerm getTerm(int node) {
+		IStrategoList annos = getAnnotations(node);
+		switch (getType(node)) {
+			case APPL:
+				return new ColumnarAppl(this, node, annos);
+			case TUPLE:
+				return new ColumnarTuple(this, node, annos);
+			case LIST:
+				if (annos == null && getChildStart(node) == getChildEnd(node))
+					return getEmptyList();
+				return new ColumnarList(this, node, 0, annos);
+			case INT:
+				return new StrategoInt(getData(node), annos, IMMUTABLE);
+			case REAL:
+				return new StrategoReal(getReal(getData(node)), annos, IMMUTABLE);
+			case STRING:
+				return new StrategoString(getString(getData(node)), annos, IMMUTABLE);
+			default:
+				throw new IllegalStateException("Unexpected term type in columnar encoding: " + getType(node));
+		}
+	}
+
+	private IStrategoList getAnnotations(int node) {
+		int annos = buffer.getInt(annosBase + 4 * node);
+		return annos == ColumnarFormat.NONE ? null : (IStrategoList) getTerm(annos);
+	}
+
+	int getType(int node) {
+		return buffer.get(typesBase + node);
+	}
+
+	int getHash(int node) {
+		return buffer.getInt(hashesBase + 4 * node);
+	}
+
+	int getData(int node) {
+		return buffer.getInt(dataBase + 4 * node);
+	}
+
+	int getChildStart(int node) {
+		return buffer.getInt(childStartsBase + 4 * node);
+	}
+
+	int getChildEnd(int node) {
+		return buffer.getInt(childStartsBase + 4 * (node + 1));
+	}
+
+	int getChild(int index) {
+		return buffer.getInt(childrenBase + 4 * index);
+	}
+
+	IStrategoList getEmptyList() {
+		return factory.makeList();
+	}
+
+	int getSuffixHash(int index) {
+		return buffer.getInt(suffixHashesBase + 4 * index);
+	}
+
+	double getReal(int id) {
+		return Double.longBitsToDouble(buffer.getLong(realsBase + 8 * id));
+	}
+
+	IStrategoConstructor getConstructor(int id) {
+		IStrategoConstructor result = ctors[id];
+		if (result == null) {
+			String name = getString(buffer.getInt(ctorsBase + 8 * id));
+			int arity = buffer.getInt(ctorsBase + 8 * id + 4);
+			result = factory.makeConstructor(name, arity);
+			ctors[id] = result;
+		}
+		return result;
+	}
+
+	String getString(int id) {
+		String result = strings[id];
+		if (result == null) {
+			int offset = buffer.getInt(stringOffsetsBase + 4 * id);
+			int length = buffer.getInt(stringOffsetsBase + 4 * (id + 1)) - offset;
+			ByteBuffer bytes = buffer.duplicate();
+			bytes.position(stringBytesBase + offset);
+			bytes.limit(stringBytesBase + offset + length);
+			result = UTF8.decode(bytes).toString();
+			strings[id] = result;
+		}
+		return result;
+	}
+}
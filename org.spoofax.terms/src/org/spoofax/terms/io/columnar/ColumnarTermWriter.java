@@ -0,0 +1,304 @@
+package org.spoofax.terms.io.columnar;
+
+import static org.spoofax.interpreter.terms.IStrategoTerm.APPL;
+import static org.spoofax.interpreter.terms.IStrategoTerm.INT;
+import static org.spoofax.interpreter.terms.IStrategoTerm.LIST;
+import static org.spoofax.interpreter.terms.IStrategoTerm.REAL;
+import static org.spoofax.interpreter.terms.IStrategoTerm.STRING;
+import static org.spoofax.interpreter.terms.IStrategoTerm.TUPLE;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.spoofax.interpreter.terms.IStrategoAppl;
+import org.spoofax.interpreter.terms.IStrategoConstructor;
+import org.spoofax.interpreter.terms.IStrategoInt;
+import org.spoofax.interpreter.terms.IStrategoList;
+import org.spoofax.interpreter.terms.IStrategoReal;
+import org.spoofax.interpreter.terms.IStrategoString;
+import org.spoofax.interpreter.terms.IStrategoTerm;
+import org.spoofax.terms.LazyTerm;
+import org.spoofax.terms.StrategoTerm;
+
+/**
+ * Encodes terms in the columnar encoding read by {@link ColumnarTermStore}.
+ * 
+ * Terms are traversed using an explicit stack, and subterms that are
+ * shared (by identity) in the input are encoded only once.
+ * 
+ * @see ColumnarFormat  The layout of the encoding.
+ */
+public final class ColumnarTermWriter {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final Map<IStrategoTerm, Integer> nodes = new IdentityHashMap<IStrategoTerm, Integer>();
+
+	private final Map<IStrategoConstructor, Integer> ctorIds = new HashMap<IStrategoConstructor, Integer>();
+
+	private final Map<String, Integer> stringIds = new HashMap<String, Integer>();
+
+	private final List<String> strings = new ArrayList<String>();
+
+	private int nodeCount;
+
+	private byte[] types = new byte[64];
+
+	private int[] hashes = new int[64];
+
+	private int[] data = new int[64];
+
+	private int[] annos = new int[64];
+
+	private int[] childStarts = new int[65];
+
+	private int childCount;
+
+	private int[] children = new int[64];
+
+	private int[] suffixHashes = new int[64];
+
+	private int ctorCount;
+
+	private int[] ctors = new int[16];
+
+	private int realCount;
+
+	private long[] reals = new long[16];
+
+	private ColumnarTermWriter() {
+		// Use the static methods
+	}
+
+	public static ByteBuffer encode(IStrategoTerm term) {
+		ColumnarTermWriter writer = new ColumnarTermWriter();
+		int root = writer.add(term);
+		return writer.toBuffer(root);
+	}
+
+	public static void write(IStrategoTerm term, File file) throws IOException {
+		ByteBuffer buffer = encode(term);
+		FileOutputStream output = new FileOutputStream(file);
+		try {
+			FileChannel channel = output.getChannel();
+			while (buffer.hasRemaining())
+				channel.write(buffer);
+		} finally {
+			output.close();
+		}
+	}
+
+	private int add(IStrategoTerm root) {
+		IStrategoTerm[] stack = new IStrategoTerm[16];
+		IStrategoTerm[][] stackKids = new IStrategoTerm[16][];
+		int[] stackNext = new int[16];
+		int size = 0;
+
+		stack[size] = root;
+		stackKids[size] = root.getAllSubterms();
+		size++;
+
+		push:
+		while (size > 0) {
+			IStrategoTerm term = stack[size - 1];
+			if (nodes.containsKey(term)) {
+				size--;
+				continue;
+			}
+			
+			// Encode the kids, and then the annotations, before the term itself
+			IStrategoTerm[] kids = stackKids[size - 1];
+			IStrategoList termAnnos = term.getAnnotations();
+			while (stackNext[size - 1] <= kids.length) {
+				int index = stackNext[size - 1]++;
+				IStrategoTerm dependency = index < kids.length ? kids[index]
+						: termAnnos.isEmpty() ? null : termAnnos;
+				if (dependency != null && !nodes.containsKey(dependency)) {
+					if (size == stack.length) {
+						stack = Arrays.copyOf(stack, size * 2);
+						stackKids = Arrays.copyOf(stackKids, size * 2);
+						stackNext = Arrays.copyOf(stackNext, size * 2);
+					}
+					stack[size] = dependency;
+					stackKids[size] = dependency.getAllSubterms();
+					stackNext[size] = 0;
+					size++;
+					continue push;
+				}
+			}
+
+			addNode(term, kids);
+			stack[size - 1] = null;
+			stackKids[size - 1] = null;
+			size--;
+		}
+		
+		return nodes.get(root);
+	}
+
+	private void addNode(IStrategoTerm term, IStrategoTerm[] kids) {
+		int node = nodeCount++;
+		if (node + 1 == types.length) {
+			int capacity = types.length * 2;
+			types = Arrays.copyOf(types, capacity);
+			hashes = Arrays.copyOf(hashes, capacity);
+			data = Arrays.copyOf(data, capacity);
+			annos = Arrays.copyOf(annos, capacity);
+			childStarts = Arrays.copyOf(childStarts, capacity + 1);
+		}
+		if (childCount + kids.length > children.length) {
+			int capacity = Math.max(children.length * 2, childCount + kids.length);
+			children = Arrays.copyOf(children, capacity);
+			suffixHashes = Arrays.copyOf(suffixHashes, capacity);
+		}
+
+		int type = term.getTermType();
+		IStrategoList termAnnos = term.getAnnotations();
+		types[node] = (byte) type;
+		annos[node] = termAnnos.isEmpty() ? ColumnarFormat.NONE : nodes.get(termAnnos);
+		hashes[node] = getUnannotatedHash(term);
+
+		switch (type) {
+			case APPL:
+				data[node] = getConstructorId(((IStrategoAppl) term).getConstructor());
+				break;
+			case INT:
+				data[node] = ((IStrategoInt) term).intValue();
+				break;
+			case REAL:
+				if (realCount == reals.length)
+					reals = Arrays.copyOf(reals, realCount * 2);
+				reals[realCount] = Double.doubleToRawLongBits(((IStrategoReal) term).realValue());
+				data[node] = realCount++;
+				break;
+			case STRING:
+				data[node] = getStringId(((IStrategoString) term).stringValue());
+				break;
+			case LIST:
+				// Hash each suffix, like the tails of a list (see StrategoList.hashFunction())
+				int hash = 1;
+				for (int i = kids.length - 1; i >= 0; i--) {
+					hash = 31 * hash + kids[i].hashCode();
+					suffixHashes[childCount + i] = hash;
+				}
+				break;
+			case TUPLE:
+				break;
+			default:
+				throw new IllegalArgumentException("Term type not supported in columnar encoding: " + type);
+		}
+
+		for (IStrategoTerm kid : kids) {
+			children[childCount++] = nodes.get(kid);
+		}
+		childStarts[node + 1] = childCount;
+		nodes.put(term, node);
+	}
+
+	private int getConstructorId(IStrategoConstructor ctor) {
+		Integer result = ctorIds.get(ctor);
+		if (result == null) {
+			if (2 * ctorCount == ctors.length)
+				ctors = Arrays.copyOf(ctors, ctors.length * 2);
+			ctors[2 * ctorCount] = getStringId(ctor.getName());
+			ctors[2 * ctorCount + 1] = ctor.getArity();
+			result = ctorCount++;
+			ctorIds.put(ctor, result);
+		}
+		return result;
+	}
+
+	private int getStringId(String value) {
+		Integer result = stringIds.get(value);
+		if (result == null) {
+			result = strings.size();
+			strings.add(value);
+			stringIds.put(value, result);
+		}
+		return result;
+	}
+
+	private ByteBuffer toBuffer(int root) {
+		byte[][] stringBytes = new byte[strings.size()][];
+		long stringBytesLength = 0;
+		for (int i = 0; i < stringBytes.length; i++) {
+			stringBytes[i] = strings.get(i).getBytes(UTF8);
+			stringBytesLength += stringBytes[i].length;
+		}
+
+		long size = ColumnarFormat.HEADER_SIZE
+			+ 4L * (4 * nodeCount + 1)
+			+ 8L * childCount
+			+ 8L * ctorCount
+			+ 4L * (strings.size() + 1)
+			+ 8L * realCount
+			+ nodeCount
+			+ stringBytesLength;
+		if (size > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("Term too large for columnar encoding: " + size + " bytes");
+
+		ByteBuffer result = ByteBuffer.allocate((int) size);
+		result.putInt(ColumnarFormat.MAGIC);
+		result.putInt(ColumnarFormat.VERSION);
+		result.putInt(nodeCount);
+		result.putInt(childCount);
+		result.putInt(ctorCount);
+		result.putInt(strings.size());
+		result.putInt(realCount);
+		result.putInt(root);
+
+		result.asIntBuffer().put(hashes, 0, nodeCount);
+		result.position(result.position() + 4 * nodeCount);
+		result.asIntBuffer().put(data, 0, nodeCount);
+		result.position(result.position() + 4 * nodeCount);
+		result.asIntBuffer().put(annos, 0, nodeCount);
+		result.position(result.position() + 4 * nodeCount);
+		result.asIntBuffer().put(childStarts, 0, nodeCount + 1);
+		result.position(result.position() + 4 * (nodeCount + 1));
+		result.asIntBuffer().put(children, 0, childCount);
+		result.position(result.position() + 4 * childCount);
+		result.asIntBuffer().put(suffixHashes, 0, childCount);
+		result.position(result.position() + 4 * childCount);
+		result.asIntBuffer().put(ctors, 0, 2 * ctorCount);
+		result.position(result.position() + 8 * ctorCount);
+
+		int offset = 0;
+		for (byte[] bytes : stringBytes) {
+			result.putInt(offset);
+			offset += bytes.length;
+		}
+		result.putInt(offset);
+
+		result.asLongBuffer().put(reals, 0, realCount);
+		result.position(result.position() + 8 * realCount);
+		result.put(types, 0, nodeCount);
+		for (byte[] bytes : stringBytes) {
+			result.put(bytes);
+		}
+
+		result.flip();
+		return result;
+	}
+
+	/**
+	 * Gets the hash of a term without its annotations, which the stored
+	 * term combines with the hash of its annotations like the term itself.
+	 */
+	private static int getUnannotatedHash(IStrategoTerm term) {
+		while (term instanceof LazyTerm)
+			term = ((LazyTerm) term).getWrapped();
+		if (term instanceof StrategoTerm)
+			return ((StrategoTerm) term).unannotatedHashCode();
+		return term.hashCode();
+	}
+}
@@ -0,0 +1,74 @@
+package org.spoofax.terms.io.columnar;
+
+import java.io.IOException;
+
+import org.spoofax.interpreter.terms.IStrategoList;
+import org.spoofax.interpreter.terms.IStrategoTerm;
+import org.spoofax.interpreter.terms.IStrategoTuple;
+import org.spoofax.interpreter.terms.ITermPrinter;
+
+final class ColumnarTuple extends ColumnarTerm implements IStrategoTuple {
+
+	private static final long serialVersionUID = -4873018232749061297L;
+
+	ColumnarTuple(ColumnarTermStore store, int node, IStrategoList annotations) {
+		super(store, node, annotations);
+	}
+
+	public IStrategoTerm get(int index) {
+		return getSubterm(index);
+	}
+
+	public int size() {
+		return getSubtermCount();
+	}
+
+	public int getTermType() {
+		return TUPLE;
+	}
+
+	@Override
+	protected boolean doShallowMatch(IStrategoTerm second) {
+		return true;
+	}
+
+	@Deprecated
+	public void prettyPrint(ITermPrinter pp) {
+		int size = size();
+		if (size > 0) {
+			pp.println("(");
+			pp.indent(2);
+			get(0).prettyPrint(pp);
+			for (int i = 1; i < size; i++) {
+				pp.print(",");
+				pp.nextIndentOff();
+				get(i).prettyPrint(pp);
+				pp.println("");
+			}
+			pp.println("");
+			pp.print(")");
+			pp.outdent(2);
+		} else {
+			pp.print("()");
+		}
+		printAnnotations(pp);
+	}
+
+	public void writeAsString(Appendable output, int maxDepth) throws IOException {
+		output.append('(');
+		int size = size();
+		if (size > 0) {
+			if (maxDepth == 0) {
+				output.append("...");
+			} else {
+				get(0).writeAsString(output, maxDepth - 1);
+				for (int i = 1; i < size; i++) {
+					output.append(',');
+					get(i).writeAsString(output, maxDepth - 1);
+				}
+			}
+		}
+		output.append(')');
+		appendAnnotations(output, maxDepth);
+	}
+}
@@ -11,6 +11,11 @@ public class ArrayIterator<T> implements Iterator<T> {
 		this.array = array;
 	}
 
+	public ArrayIterator(T array[], int offset) {
+		this.array = array;
+		this.pos = offset;
+	}
+
 	public boolean hasNext() {
 		return pos < array.length;
 	}
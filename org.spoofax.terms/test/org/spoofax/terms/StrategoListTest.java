@@ -0,0 +1,106 @@
+package org.spoofax.terms;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+import org.spoofax.interpreter.terms.IStrategoList;
+import org.spoofax.interpreter.terms.IStrategoTerm;
+import org.spoofax.interpreter.terms.ITermFactory;
+
+public class StrategoListTest {
+
+    private static final int LONG_LIST_SIZE = 1000000;
+
+    private final ITermFactory factory = new TermFactory();
+
+    @Test
+    public void consAndArrayListsHashEqually() {
+        IStrategoTerm[] elements = makeElements(100);
+        IStrategoList consList = makeConsList(elements, 0);
+        IStrategoList arrayList = factory.makeList(elements);
+        assertTrue(consList instanceof StrategoList);
+        assertTrue(arrayList instanceof StrategoArrayList);
+
+        assertEquals(consList.hashCode(), arrayList.hashCode());
+        assertTrue(consList.match(arrayList));
+        assertTrue(arrayList.match(consList));
+        assertEquals(consList.tail().hashCode(), arrayList.tail().hashCode());
+        assertEquals(factory.makeList().hashCode(), makeConsList(elements, elements.length).hashCode());
+    }
+
+    @Test
+    public void listHashesAreKnownAtConstruction() {
+        IStrategoTerm[] elements = makeElements(10);
+        StrategoList consList = (StrategoList) makeConsList(elements, 0);
+        StrategoArrayList arrayList = (StrategoArrayList) factory.makeList(elements);
+        assertTrue(consList.isHashCodeKnown());
+        assertTrue(arrayList.isHashCodeKnown());
+        assertTrue(((StrategoArrayList) arrayList.tail()).isHashCodeKnown());
+    }
+
+    @Test
+    public void tailsHashAsTheListOfTheirElements() {
+        IStrategoTerm[] elements = makeElements(50);
+        IStrategoList consList = makeConsList(elements, 0);
+        IStrategoList arrayList = factory.makeList(elements);
+        for (int i = 0; i < elements.length; i++) {
+            int expected = makeConsList(elements, i).hashCode();
+            assertEquals(expected, consList.hashCode());
+            assertEquals(expected, arrayList.hashCode());
+            consList = consList.tail();
+            arrayList = arrayList.tail();
+        }
+    }
+
+    @Test
+    public void emptyTailsCanBeUsedAsAnnotations() {
+        IStrategoList list = factory.makeList(factory.makeInt(1), factory.makeInt(2));
+        IStrategoList emptyTail = list.tail().tail();
+        assertSame(factory.makeList(), emptyTail);
+        assertSame(emptyTail, factory.makeList(factory.makeInt(3)).tail());
+
+        IStrategoTerm[] kids = { factory.makeInt(3) };
+        IStrategoTerm appl = factory.makeAppl(factory.makeConstructor("Foo", 1), kids, emptyTail);
+        IStrategoTerm tuple = factory.makeTuple(kids, emptyTail);
+        assertTrue(appl.getAnnotations().isEmpty());
+        assertTrue(tuple.getAnnotations().isEmpty());
+        assertEquals(factory.makeTuple(factory.makeInt(3)), tuple);
+    }
+
+    @Test
+    public void annotationsChangeTheHash() {
+        IStrategoList list = factory.makeList(makeElements(3));
+        IStrategoList annotated = (IStrategoList) factory.annotateTerm(list,
+                factory.makeList(factory.makeString("A")));
+        assertFalse(list.match(annotated));
+        assertTrue(list.hashCode() != annotated.hashCode());
+        assertEquals(list.hashCode(), factory.annotateTerm(annotated, factory.makeList()).hashCode());
+    }
+
+    @Test
+    public void longListsHashWithoutRecursion() {
+        IStrategoTerm[] elements = makeElements(LONG_LIST_SIZE);
+        IStrategoList consList = makeConsList(elements, 0);
+        IStrategoList arrayList = factory.makeList(elements);
+        assertEquals(consList.hashCode(), arrayList.hashCode());
+        assertTrue(consList.match(arrayList));
+        assertEquals(LONG_LIST_SIZE, consList.size());
+    }
+
+    private IStrategoTerm[] makeElements(int size) {
+        IStrategoTerm[] elements = new IStrategoTerm[size];
+        for (int i = 0; i < size; i++)
+            elements[i] = factory.makeInt(i);
+        return elements;
+    }
+
+    /**
+     * Makes a list of cons cells of the elements, starting at an offset.
+     */
+    private IStrategoList makeConsList(IStrategoTerm[] elements, int offset) {
+        IStrategoList result = factory.makeList();
+        for (int i = elements.length - 1; i >= offset; i--)
+            result = factory.makeListCons(elements[i], result);
+        return result;
+    }
+}
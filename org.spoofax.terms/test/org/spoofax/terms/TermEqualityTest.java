@@ -0,0 +1,124 @@
+package org.spoofax.terms;
+
+import static org.junit.Assert.*;
+import static org.spoofax.interpreter.terms.IStrategoTerm.MUTABLE;
+
+import org.junit.Test;
+import org.spoofax.interpreter.terms.IStrategoConstructor;
+import org.spoofax.interpreter.terms.IStrategoTerm;
+import org.spoofax.interpreter.terms.ITermFactory;
+
+public class TermEqualityTest {
+
+    private static final int DEPTH = 100000;
+
+    private final ITermFactory factory = new TermFactory();
+
+    @Test
+    public void deepTermsMatchAndHash() {
+        IStrategoTerm term1 = makeDeepTerm(factory, factory.makeString("bottom"));
+        IStrategoTerm term2 = makeDeepTerm(factory, factory.makeString("bottom"));
+        assertNotSame(term1, term2);
+        assertEquals(term1.hashCode(), term2.hashCode());
+        assertTrue(term1.match(term2));
+        assertTrue(term2.match(term1));
+    }
+
+    @Test
+    public void deepTermsThatDifferAtTheBottomDoNotMatch() {
+        IStrategoTerm term1 = makeDeepTerm(factory, factory.makeString("bottom"));
+        IStrategoTerm term2 = makeDeepTerm(factory, factory.makeString("other"));
+        IStrategoTerm term3 = makeDeepTerm(factory,
+                factory.annotateTerm(factory.makeString("bottom"), factory.makeList(factory.makeInt(1))));
+        assertFalse(term1.match(term2));
+        assertFalse(term1.match(term3));
+        assertFalse(term3.match(term1));
+    }
+
+    @Test
+    public void deepMutableTermsMatchAndHash() {
+        ITermFactory mutableFactory = factory.getFactoryWithStorageType(MUTABLE);
+        IStrategoTerm term1 = makeDeepTerm(mutableFactory, mutableFactory.makeInt(42));
+        IStrategoTerm term2 = makeDeepTerm(mutableFactory, mutableFactory.makeInt(42));
+        IStrategoTerm term3 = makeDeepTerm(mutableFactory, mutableFactory.makeInt(43));
+        assertEquals(term1.hashCode(), term2.hashCode());
+        assertTrue(term1.match(term2));
+        assertFalse(term1.match(term3));
+    }
+
+    @Test
+    public void deepTermsMatchTermsOfOtherStorageTypes() {
+        ITermFactory mutableFactory = factory.getFactoryWithStorageType(MUTABLE);
+        IStrategoTerm term1 = makeDeepTerm(factory, factory.makeInt(42));
+        IStrategoTerm term2 = makeDeepTerm(mutableFactory, mutableFactory.makeInt(42));
+        assertTrue(term1.match(term2));
+        assertTrue(term2.match(term1));
+    }
+
+    @Test
+    public void longListsOfApplicationsMatch() {
+        IStrategoConstructor foo = factory.makeConstructor("Foo", 1);
+        IStrategoTerm[] elements1 = new IStrategoTerm[DEPTH];
+        IStrategoTerm[] elements2 = new IStrategoTerm[DEPTH];
+        for (int i = 0; i < DEPTH; i++) {
+            elements1[i] = factory.makeAppl(foo, factory.makeString("e" + i));
+            elements2[i] = factory.makeAppl(foo, factory.makeString("e" + i));
+        }
+        IStrategoTerm list1 = factory.makeList(elements1);
+        IStrategoTerm list2 = factory.makeList(elements2);
+        assertEquals(list1.hashCode(), list2.hashCode());
+        assertTrue(list1.match(list2));
+
+        elements2[DEPTH - 1] = factory.makeAppl(foo, factory.makeString("last"));
+        assertFalse(list1.match(factory.makeList(elements2)));
+    }
+
+    @Test
+    public void matchingSharesSubtermsOfSharableTerms() {
+        IStrategoConstructor foo = factory.makeConstructor("Foo", 2);
+        IStrategoConstructor bar = factory.makeConstructor("Bar", 1);
+        IStrategoTerm term1 = factory.makeAppl(foo, factory.makeAppl(bar, factory.makeInt(1)),
+                factory.makeTuple(factory.makeString("a")));
+        IStrategoTerm term2 = factory.makeAppl(foo, factory.makeAppl(bar, factory.makeInt(1)),
+                factory.makeTuple(factory.makeString("a")));
+        assertNotSame(term1.getSubterm(0), term2.getSubterm(0));
+        assertTrue(term1.match(term2));
+        assertSame(term2.getSubterm(0), term1.getSubterm(0));
+        assertSame(term2.getSubterm(1), term1.getSubterm(1));
+    }
+
+    @Test
+    public void matchingReplacesTheKidsArrayOfSharableTerms() {
+        IStrategoConstructor foo = factory.makeConstructor("Foo", 2);
+        IStrategoTerm term1 = factory.makeAppl(foo, factory.makeTuple(factory.makeInt(1)), factory.makeString("a"));
+        IStrategoTerm term2 = factory.makeAppl(foo, factory.makeTuple(factory.makeInt(1)), factory.makeString("a"));
+        IStrategoTerm[] kids = term1.getAllSubterms();
+        assertSame(kids, term1.getAllSubterms());
+        assertTrue(term1.match(term2));
+        assertNotSame(kids, term1.getAllSubterms());
+        assertSame(term2.getSubterm(0), term1.getAllSubterms()[0]);
+        assertSame(term2.getSubterm(1), term1.getAllSubterms()[1]);
+    }
+
+    /**
+     * Makes a term that nests applications, tuples and lists {@link #DEPTH} levels deep.
+     */
+    private static IStrategoTerm makeDeepTerm(ITermFactory factory, IStrategoTerm bottom) {
+        IStrategoConstructor succ = factory.makeConstructor("Succ", 1);
+        IStrategoTerm result = bottom;
+        for (int i = 0; i < DEPTH; i++) {
+            switch (i % 3) {
+                case 0:
+                    result = factory.makeAppl(succ, result);
+                    break;
+                case 1:
+                    result = factory.makeTuple(result, factory.makeInt(i));
+                    break;
+                default:
+                    result = factory.makeList(factory.makeInt(i), result);
+                    break;
+            }
+        }
+        return result;
+    }
+}
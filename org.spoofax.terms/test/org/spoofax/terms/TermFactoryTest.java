@@ -0,0 +1,277 @@
+package org.spoofax.terms;
+
+import static org.junit.Assert.*;
+import static org.spoofax.interpreter.terms.IStrategoTerm.MAXIMALLY_SHARED;
+import static org.spoofax.interpreter.terms.IStrategoTerm.MUTABLE;
+
+import org.junit.Test;
+import org.spoofax.interpreter.terms.IStrategoAppl;
+import org.spoofax.interpreter.terms.IStrategoConstructor;
+import org.spoofax.interpreter.terms.IStrategoInt;
+import org.spoofax.interpreter.terms.IStrategoList;
+import org.spoofax.interpreter.terms.IStrategoReal;
+import org.spoofax.interpreter.terms.IStrategoString;
+import org.spoofax.interpreter.terms.IStrategoTerm;
+import org.spoofax.interpreter.terms.ITermFactory;
+import org.spoofax.terms.attachments.OriginAttachment;
+import org.spoofax.terms.attachments.TermAttachmentStripper;
+
+public class TermFactoryTest {
+
+    private final ITermFactory factory = new TermFactory();
+
+    private final ITermFactory hashConsingFactory = factory.getFactoryWithStorageType(MAXIMALLY_SHARED);
+
+    @Test
+    public void hashConsedTermsAreIdentical() {
+        IStrategoTerm term1 = makeTerm(hashConsingFactory, "a");
+        IStrategoTerm term2 = makeTerm(hashConsingFactory, "a");
+        assertSame(term1, term2);
+        assertEquals(MAXIMALLY_SHARED, term1.getStorageType());
+        assertSame(term1.getSubterm(1), hashConsingFactory.makeList(hashConsingFactory.makeInt(1),
+                hashConsingFactory.makeReal(2.5)));
+    }
+
+    @Test
+    public void hashConsedTermsAreDistinctIfNotEqual() {
+        IStrategoTerm term1 = makeTerm(hashConsingFactory, "a");
+        IStrategoTerm term2 = makeTerm(hashConsingFactory, "b");
+        assertNotSame(term1, term2);
+        assertFalse(term1.match(term2));
+        assertSame(term1.getSubterm(1), term2.getSubterm(1));
+    }
+
+    @Test
+    public void hashConsedListsShareTheirTails() {
+        IStrategoList list = hashConsingFactory.makeList(hashConsingFactory.makeInt(1), hashConsingFactory.makeInt(2),
+                hashConsingFactory.makeInt(3));
+        IStrategoList tail = hashConsingFactory.makeList(hashConsingFactory.makeInt(2), hashConsingFactory.makeInt(3));
+        assertSame(tail, list.tail());
+        assertSame(hashConsingFactory.makeList(), tail.tail().tail());
+    }
+
+    @Test
+    public void hashConsedAnnotatedTermsAreIdentical() {
+        IStrategoTerm term = makeTerm(hashConsingFactory, "a");
+        IStrategoList annotations = hashConsingFactory.makeList(hashConsingFactory.makeString("A"));
+        IStrategoTerm annotated1 = hashConsingFactory.annotateTerm(term, annotations);
+        IStrategoTerm annotated2 = hashConsingFactory.annotateTerm(makeTerm(hashConsingFactory, "a"),
+                hashConsingFactory.makeList(hashConsingFactory.makeString("A")));
+        assertSame(annotated1, annotated2);
+        assertNotSame(term, annotated1);
+        assertEquals(annotations, annotated1.getAnnotations());
+        assertTrue(term.getAnnotations().isEmpty());
+        assertSame(term, hashConsingFactory.annotateTerm(annotated1, hashConsingFactory.makeList()));
+    }
+
+    @Test
+    public void termsOfOtherFactoriesAreNotHashConsed() {
+        IStrategoTerm term1 = makeTerm(factory, "a");
+        IStrategoTerm term2 = makeTerm(factory, "a");
+        assertNotSame(term1, term2);
+        assertTrue(term1.match(term2));
+        assertTrue(term1.getStorageType() < MAXIMALLY_SHARED);
+    }
+
+    @Test
+    public void constructorsAreInterned() {
+        IStrategoConstructor foo2 = factory.makeConstructor("Foo", 2);
+        assertSame(foo2, factory.makeConstructor("Foo", 2));
+        assertSame(foo2, new TermFactory().makeConstructor(new String("Foo"), 2));
+        assertSame(foo2, hashConsingFactory.makeConstructor("Foo", 2));
+        assertNotSame(foo2, factory.makeConstructor("Foo", 5));
+        assertSame(factory.makeConstructor("Foo", 5), factory.makeConstructor("Foo", 5));
+        assertSame(foo2, factory.makeConstructor("Foo", 2));
+        assertEquals(0, factory.makeConstructor("Foo", 0).getArity());
+    }
+
+    @Test
+    public void constructorsAreInternedBeyondTheFactoryCache() {
+        IStrategoConstructor[] constructors = new IStrategoConstructor[4096];
+        for (int i = 0; i < constructors.length; i++)
+            constructors[i] = factory.makeConstructor("C" + (i / 4), i % 4);
+        for (int i = 0; i < constructors.length; i++) {
+            IStrategoConstructor constructor = factory.makeConstructor("C" + (i / 4), i % 4);
+            assertSame(constructors[i], constructor);
+            assertEquals("C" + (i / 4), constructor.getName());
+            assertEquals(i % 4, constructor.getArity());
+        }
+    }
+
+    @Test
+    public void constructorsAreInternedAcrossThreads() throws InterruptedException {
+        final int threadCount = 4;
+        final int constructorCount = 2000;
+        final IStrategoConstructor[][] results = new IStrategoConstructor[threadCount][constructorCount];
+        Thread[] threads = new Thread[threadCount];
+        for (int t = 0; t < threadCount; t++) {
+            final IStrategoConstructor[] result = results[t];
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    ITermFactory threadFactory = new TermFactory();
+                    for (int i = 0; i < constructorCount; i++)
+                        result[i] = threadFactory.makeConstructor("Threaded" + (i / 3), i % 3);
+                }
+            };
+        }
+        for (Thread thread : threads)
+            thread.start();
+        for (Thread thread : threads)
+            thread.join();
+        for (int t = 1; t < threadCount; t++) {
+            for (int i = 0; i < constructorCount; i++)
+                assertSame(results[0][i], results[t][i]);
+        }
+    }
+
+    @Test
+    public void constructorsOfHugeAritiesAreInterned() {
+        IStrategoConstructor huge = factory.makeConstructor("Huge", Integer.MAX_VALUE);
+        assertSame(huge, factory.makeConstructor("Huge", Integer.MAX_VALUE));
+        assertSame(huge, new TermFactory().makeConstructor(new String("Huge"), Integer.MAX_VALUE));
+        assertEquals(Integer.MAX_VALUE, huge.getArity());
+        IStrategoConstructor large = factory.makeConstructor("Huge", 65);
+        assertSame(large, new TermFactory().makeConstructor("Huge", 65));
+        assertNotSame(large, huge);
+        assertSame(factory.makeConstructor("Huge", 1), new TermFactory().makeConstructor("Huge", 1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructorArityCannotBeNegative() {
+        factory.makeConstructor("Foo", -1);
+    }
+
+    @Test
+    public void smallHashConsedIntsAreCached() {
+        ITermFactory otherFactory = new TermFactory().getFactoryWithStorageType(MAXIMALLY_SHARED);
+        for (int i : new int[] { -128, -1, 0, 1, 42, 65535 }) {
+            IStrategoInt term = hashConsingFactory.makeInt(i);
+            assertSame(term, otherFactory.makeInt(i));
+            assertEquals(i, term.intValue());
+            assertEquals(MAXIMALLY_SHARED, term.getStorageType());
+            assertTrue(term.getAnnotations().isEmpty());
+        }
+        assertSame(hashConsingFactory.makeInt(-129), hashConsingFactory.makeInt(-129));
+        assertSame(hashConsingFactory.makeInt(65536), hashConsingFactory.makeInt(65536));
+    }
+
+    @Test
+    public void annotatingCachedIntsDoesNotChangeTheCache() {
+        IStrategoList annotations = hashConsingFactory.makeList(hashConsingFactory.makeString("A"));
+        IStrategoTerm annotated = hashConsingFactory.annotateTerm(hashConsingFactory.makeInt(7), annotations);
+        assertEquals(annotations, annotated.getAnnotations());
+        assertTrue(hashConsingFactory.makeInt(7).getAnnotations().isEmpty());
+        assertNotSame(annotated, hashConsingFactory.makeInt(7));
+        assertSame(hashConsingFactory.makeInt(7), hashConsingFactory.annotateTerm(annotated,
+                hashConsingFactory.makeList()));
+    }
+
+    @Test
+    public void integralHashConsedRealsAreCached() {
+        for (double d : new double[] { -128.0, 0.0, 1.0, 1023.0, 2.5, 1024.0 }) {
+            IStrategoReal term = hashConsingFactory.makeReal(d);
+            assertSame(term, hashConsingFactory.makeReal(d));
+            assertEquals(d, term.realValue(), 0);
+        }
+        IStrategoReal negativeZero = hashConsingFactory.makeReal(-0.0);
+        assertNotSame(hashConsingFactory.makeReal(0.0), negativeZero);
+        assertSame(negativeZero, hashConsingFactory.makeReal(-0.0));
+        assertEquals(Double.doubleToRawLongBits(-0.0), Double.doubleToRawLongBits(negativeZero.realValue()));
+    }
+
+    @Test
+    public void sharableNumbersAreNotCached() {
+        ITermFactory mutableFactory = factory.getFactoryWithStorageType(MUTABLE);
+        assertNotSame(factory.makeInt(1), factory.makeInt(1));
+        assertNotSame(factory.makeReal(1.0), factory.makeReal(1.0));
+        assertNotSame(mutableFactory.makeInt(1), mutableFactory.makeInt(1));
+        assertNotSame(mutableFactory.makeReal(1.0), mutableFactory.makeReal(1.0));
+        assertEquals(MUTABLE, mutableFactory.makeInt(1).getStorageType());
+    }
+
+    @Test
+    public void hashConsedNullaryApplicationsAreShared() {
+        IStrategoConstructor none = factory.makeConstructor("None", 0);
+        IStrategoAppl term = hashConsingFactory.makeAppl(none);
+        assertSame(term, hashConsingFactory.makeAppl(none));
+        assertSame(term, new TermFactory().getFactoryWithStorageType(MAXIMALLY_SHARED)
+                .makeAppl(factory.makeConstructor("None", 0)));
+        assertSame(term, hashConsingFactory.makeAppl(none, new IStrategoTerm[0], hashConsingFactory.makeList()));
+        assertSame(none, term.getConstructor());
+        assertEquals(MAXIMALLY_SHARED, term.getStorageType());
+        assertEquals(0, term.getSubtermCount());
+        assertTrue(term.getAnnotations().isEmpty());
+    }
+
+    @Test
+    public void annotatedNullaryApplicationsAreNotShared() {
+        IStrategoConstructor none = factory.makeConstructor("None", 0);
+        IStrategoList annotations = hashConsingFactory.makeList(hashConsingFactory.makeString("A"));
+        IStrategoTerm annotated = hashConsingFactory.makeAppl(none, new IStrategoTerm[0], annotations);
+        assertNotSame(hashConsingFactory.makeAppl(none), annotated);
+        assertEquals(annotations, annotated.getAnnotations());
+        assertTrue(hashConsingFactory.makeAppl(none).getAnnotations().isEmpty());
+        assertSame(hashConsingFactory.makeAppl(none),
+                hashConsingFactory.annotateTerm(annotated, hashConsingFactory.makeList()));
+    }
+
+    @Test
+    public void sharableNullaryApplicationsAreNotShared() {
+        ITermFactory mutableFactory = factory.getFactoryWithStorageType(MUTABLE);
+        IStrategoConstructor none = factory.makeConstructor("None", 0);
+        assertNotSame(factory.makeAppl(none), factory.makeAppl(none));
+        assertNotSame(mutableFactory.makeAppl(none), mutableFactory.makeAppl(none));
+        assertNotSame(hashConsingFactory.makeAppl(none), factory.makeAppl(none));
+        assertTrue(hashConsingFactory.makeAppl(none).match(factory.makeAppl(none)));
+    }
+
+    @Test
+    public void strippedTermsAreNotSharedWithNewTerms() throws ParseError {
+        ITermFactory mutableFactory = factory.getFactoryWithStorageType(MUTABLE);
+        assertStrippedTermIsNotShared(mutableFactory.makeAppl(mutableFactory.makeConstructor("Type", 0)));
+        assertStrippedTermIsNotShared(mutableFactory.makeString("x"));
+        assertStrippedTermIsNotShared(mutableFactory.makeInt(7));
+    }
+
+    @Test
+    public void pooledStringsShareTheirValueButNotTheirTerm() {
+        IStrategoString term1 = factory.makeString(new String("pooled"));
+        IStrategoString term2 = factory.makeString(new String("pooled"));
+        assertNotSame(term1, term2);
+        assertSame(term1.stringValue(), term2.stringValue());
+        assertTrue(term1.match(term2));
+        assertSame(hashConsingFactory.makeString("pooled"), hashConsingFactory.makeString(new String("pooled")));
+        assertNotSame(term1.stringValue(),
+                new TermFactory(false).makeString(new String("pooled")).stringValue());
+    }
+
+    /**
+     * Strips the attachments of a mutable term and attaches a new origin to the result,
+     * as IndexEntryFactory does, and checks that equal terms made later do not share it.
+     */
+    private void assertStrippedTermIsNotShared(IStrategoTerm term) throws ParseError {
+        OriginAttachment.setOrigin(term, factory.makeString("old"));
+        IStrategoTerm stripped = new TermAttachmentStripper(factory).strip(term);
+        assertNull(OriginAttachment.getOrigin(stripped));
+        assertNotSame(stripped, factory.parseFromString(term.toString()));
+
+        // Attachments on sharable terms are only rejected with assertions enabled
+        if (!AbstractSimpleTerm.class.desiredAssertionStatus()) {
+            OriginAttachment.setOrigin(stripped, factory.makeString("new"));
+            IStrategoTerm fresh = factory.parseFromString(term.toString());
+            assertTrue(fresh.match(stripped));
+            assertNull(OriginAttachment.getOrigin(fresh));
+        }
+    }
+
+    /**
+     * Makes the term <code>Foo(name, [1, 2.5], (name))</code>.
+     */
+    private static IStrategoTerm makeTerm(ITermFactory factory, String name) {
+        IStrategoConstructor foo = factory.makeConstructor("Foo", 3);
+        IStrategoTerm string = factory.makeString(name);
+        return factory.makeAppl(foo, string, factory.makeList(factory.makeInt(1), factory.makeReal(2.5)),
+                factory.makeTuple(string));
+    }
+}
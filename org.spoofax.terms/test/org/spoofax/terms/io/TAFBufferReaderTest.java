@@ -0,0 +1,184 @@
+package org.spoofax.terms.io;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.PushbackInputStream;
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+import org.spoofax.interpreter.terms.IStrategoTerm;
+import org.spoofax.interpreter.terms.ITermFactory;
+import org.spoofax.terms.ParseError;
+import org.spoofax.terms.TermFactory;
+
+public class TAFBufferReaderTest {
+
+    private static final int DEPTH = 100000;
+
+    private final ITermFactory factory = new TermFactory();
+
+    @Test
+    public void parsesLikeTheStreamReader() throws Exception {
+        assertParsesLikeStreamReader("Foo(1, -2, 3.5, -4.25e-3, \"s\", [], (), Bar, Baz())");
+        assertParsesLikeStreamReader("[Cons(1, Nil), (1, (2, (3, [4, [5]]))), \"\"]");
+        assertParsesLikeStreamReader("  Foo (\n\t1 ,[ 2 ,3 ] )  ");
+        assertParsesLikeStreamReader("[\"a\\\"b\", \"back\\\\slash\", \"line\\nbreak\\ttab\\r\", \"(,)[]{}\"]");
+        assertParsesLikeStreamReader("Foo(1{A}, [2, 3]{B, \"c\"}, (4){T(5)}, \"s\"{S}, Bar{Baz{Qux}}){Top}");
+        assertParsesLikeStreamReader("[<Foo>, <Bar(1)>, Baz(<[1, 2]>)]");
+        assertParsesLikeStreamReader("Foo_bar-baz'(x, y_1)");
+    }
+
+    @Test
+    public void parsesWindowsOfBuffers() throws Exception {
+        byte[] bytes = bytes("xxFoo([1, 2], \"a\")yy");
+        IStrategoTerm expected = factory.parseFromString("Foo([1, 2], \"a\")");
+        assertEquals(expected, new TAFBufferReader(factory).parse(bytes, 2, bytes.length - 4));
+
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        buffer.position(2);
+        buffer.limit(bytes.length - 2);
+        assertEquals(expected, new TAFBufferReader(factory).parse(buffer.slice()));
+
+        ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length);
+        direct.put(bytes);
+        direct.position(2);
+        direct.limit(bytes.length - 2);
+        assertEquals(expected, new TAFBufferReader(factory).parse(direct));
+    }
+
+    @Test
+    public void parsesDeeplyNestedTerms() throws Exception {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < DEPTH; i++)
+            text.append(i % 2 == 0 ? "Succ(" : "[");
+        text.append("Zero");
+        for (int i = DEPTH - 1; i >= 0; i--)
+            text.append(i % 2 == 0 ? ")" : "]");
+
+        IStrategoTerm term = new TAFBufferReader(factory).parse(bytes(text.toString()));
+        for (int i = 0; i < DEPTH; i++) {
+            assertEquals(1, term.getSubtermCount());
+            term = term.getSubterm(0);
+        }
+        assertEquals(factory.parseFromString("Zero"), term);
+    }
+
+    @Test
+    public void rejectsWhatTheStreamReaderRejects() throws Exception {
+        for (String text : new String[] { "Foo(1", "[1, 2", "(1 2)", "\"unterminated", "Foo(1}", "{A}", "[<Bar>{A}]",
+                "Foo(1E10)" }) {
+            try {
+                parseWithStreamReader(text);
+                fail("Stream reader parsed malformed term: " + text);
+            } catch (ParseError e) {
+                // Expected
+            }
+            try {
+                new TAFBufferReader(factory).parse(bytes(text));
+                fail("Parsed malformed term: " + text);
+            } catch (ParseError e) {
+                // Expected
+            }
+        }
+    }
+
+    @Test
+    public void termReaderParsesTextThroughBuffers() throws Exception {
+        String text = "Foo([1, 2]{A}, \"b\", (3.5, <Bar>))";
+        IStrategoTerm term = new TAFTermReader(factory).parseFromStream(new ByteArrayInputStream(bytes(text)));
+        assertEquals(parseWithStreamReader(text), term);
+    }
+
+    @Test
+    public void parsesLargeListsInParallel() throws Exception {
+        String text = makeLargeList(5000);
+        assertTrue(text.length() > 65536);
+        byte[] bytes = bytes(text);
+        IStrategoTerm expected = new TAFBufferReader(factory).parse(bytes);
+        IStrategoTerm actual = new TAFBufferReader(factory).parseParallel(bytes, 0, bytes.length);
+        assertEquals(5000, actual.getSubtermCount());
+        assertEquals(expected, actual);
+        assertEquals(expected.toString(), actual.toString());
+        assertEquals(expected, new TAFTermReader(factory).parseFromStream(new ByteArrayInputStream(bytes), true));
+    }
+
+    @Test
+    public void parsesOtherLargeTermsSequentially() throws Exception {
+        String list = makeLargeList(5000);
+        for (String text : new String[] { list + "{A}", "(" + list + ")", "Foo(" + list + ")", list + " ",
+                list + "] trailing", "\n" + list, "[" + list + "]", makeLargeList(10) }) {
+            byte[] bytes = bytes(text);
+            IStrategoTerm expected = new TAFBufferReader(factory).parse(bytes);
+            assertEquals(expected, new TAFBufferReader(factory).parseParallel(bytes, 0, bytes.length));
+        }
+    }
+
+    @Test
+    public void failsInParallelLikeSequentially() throws Exception {
+        String list = makeLargeList(5000);
+        for (String text : new String[] { list.substring(0, list.length() - 1),
+                "[Foo(1) 2, " + list.substring(1), list.substring(0, list.length() - 1) + ", Foo(]]" }) {
+            byte[] bytes = bytes(text);
+            String expected = null;
+            try {
+                new TAFBufferReader(factory).parse(bytes);
+                fail("Parsed malformed list");
+            } catch (ParseError e) {
+                expected = e.getMessage();
+            }
+            try {
+                new TAFBufferReader(factory).parseParallel(bytes, 0, bytes.length);
+                fail("Parsed malformed list in parallel");
+            } catch (ParseError e) {
+                assertEquals(expected, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Makes a list whose elements contain strings with brackets, commas and escaped quotes, annotations and
+     * placeholders, which must not be mistaken for element bounds.
+     */
+    private static String makeLargeList(int size) {
+        StringBuilder text = new StringBuilder("[");
+        for (int i = 0; i < size; i++) {
+            if (i > 0)
+                text.append(i % 7 == 0 ? " ,\n " : ",");
+            switch (i % 4) {
+                case 0:
+                    text.append("Def(\"[a, (b]\", ").append(i).append("){Anno([1, 2], \"}\")}");
+                    break;
+                case 1:
+                    text.append("(\"quote \\\" ] , [\", [").append(i).append(", <Hole(\",\")>])");
+                    break;
+                case 2:
+                    text.append("[").append(i).append(".5, \"\\\\\"]{\"x\"}");
+                    break;
+                default:
+                    text.append("Use(Some(\"element").append(i).append("\"), None())");
+                    break;
+            }
+        }
+        return text.append("]").toString();
+    }
+
+    private void assertParsesLikeStreamReader(String text) throws IOException, ParseError {
+        IStrategoTerm expected = parseWithStreamReader(text);
+        IStrategoTerm actual = new TAFBufferReader(factory).parse(bytes(text));
+        assertEquals(expected, actual);
+        assertEquals(expected.toString(), actual.toString());
+    }
+
+    /**
+     * Parses a term with the {@link PushbackInputStream} based parser of {@link TAFTermReader}.
+     */
+    private IStrategoTerm parseWithStreamReader(String text) throws IOException, ParseError {
+        return new TAFTermReader(factory).parseFromStream(new PushbackInputStream(new ByteArrayInputStream(bytes(text))));
+    }
+
+    private static byte[] bytes(String text) throws IOException {
+        return text.getBytes("US-ASCII");
+    }
+}
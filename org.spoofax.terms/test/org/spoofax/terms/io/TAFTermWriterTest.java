@@ -0,0 +1,110 @@
+package org.spoofax.terms.io;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+import org.junit.Test;
+import org.spoofax.interpreter.terms.IStrategoConstructor;
+import org.spoofax.interpreter.terms.IStrategoTerm;
+import org.spoofax.interpreter.terms.ITermFactory;
+import org.spoofax.terms.StrategoWrapped;
+import org.spoofax.terms.TermFactory;
+
+public class TAFTermWriterTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int DEPTH = 100000;
+
+    private final ITermFactory factory = new TermFactory();
+
+    @Test
+    public void writesTheSameTextAsToString() throws Exception {
+        assertWritesLikeToString("Foo(1, -2.5, \"s\", [], (), Bar, Baz())");
+        assertWritesLikeToString("[Cons(1, Nil), (1, (2, (3, [4, [5]]))), \"\"]");
+        assertWritesLikeToString("(2147483647, -2147483648, 0, 1.0E-10, -0.0)");
+        assertWritesLikeToString("Foo(1{A}, [2, 3]{B, \"c\"}, (4){T(5)}, \"s\"{S}, Bar{Baz{Qux}})");
+        assertWritesLikeToString("Foo(<Bar(1)>, [<1>, <\"x\">])");
+        assertWritesLikeToString(factory.makeList(factory.annotateTerm(
+                factory.makePlaceholder(factory.makeInt(1)), factory.makeList(factory.makeString("A")))));
+    }
+
+    @Test
+    public void writesEscapedAndNonAsciiStrings() throws Exception {
+        assertWritesLikeToString(factory.makeTuple(factory.makeString("a\"b\\c\nd\re\tf"),
+                factory.makeString("caf\u00e9 \u20ac \ud83d\ude00"), factory.makeString("\u00e9\"\u20ac\\")));
+        assertWritesLikeToString(factory.makeAppl(factory.makeConstructor("Caf\u00e9", 1),
+                factory.makeString("\ud800 unpaired")));
+    }
+
+    @Test
+    public void writesStringsLargerThanTheBuffer() throws Exception {
+        StringBuilder string = new StringBuilder();
+        for (int i = 0; i < 50000; i++)
+            string.append(i % 3 == 0 ? "\u20ac" : i % 3 == 1 ? "\ud83d\ude00" : "\"");
+        assertWritesLikeToString(factory.makeList(factory.makeString(string.toString()),
+                factory.makeString(string.substring(1))));
+    }
+
+    @Test
+    public void writesOtherTermClassesUsingTheirOwnText() throws Exception {
+        IStrategoTerm wrapped = new StrategoWrapped(factory.parseFromString("Foo(\"\u00e9\", [1]){A}"));
+        assertWritesLikeToString(factory.makeList(wrapped, factory.makeInt(1)));
+    }
+
+    @Test
+    public void writesDeeplyNestedTerms() throws Exception {
+        IStrategoConstructor succ = factory.makeConstructor("Succ", 1);
+        IStrategoTerm term = factory.makeString("bottom");
+        for (int i = 0; i < DEPTH; i++) {
+            switch (i % 3) {
+                case 0:
+                    term = factory.makeAppl(succ, term);
+                    break;
+                case 1:
+                    term = factory.makeTuple(term, factory.makeInt(i));
+                    break;
+                default:
+                    term = factory.annotateTerm(factory.makeList(term), factory.makeList(factory.makeInt(i)));
+                    break;
+            }
+        }
+        byte[] bytes = new TAFTermWriter().toByteArray(term);
+        assertTrue(new String(bytes, 0, 5, UTF_8).startsWith("Succ("));
+        assertTrue(term.match(new TAFBufferReader(factory).parse(bytes)));
+    }
+
+    @Test
+    public void writerCanBeReused() throws Exception {
+        TAFTermWriter writer = new TAFTermWriter();
+        IStrategoTerm term1 = factory.parseFromString("Foo([1, 2], (\"\u00e9\", Bar{Baz}))");
+        IStrategoTerm term2 = factory.parseFromString("[Qux]");
+        byte[] first = writer.toByteArray(term1);
+        assertArrayEquals(term2.toString().getBytes(UTF_8), writer.toByteArray(term2));
+        assertArrayEquals(first, writer.toByteArray(term1));
+    }
+
+    @Test
+    public void termReaderUnparsesInUTF8() throws Exception {
+        IStrategoTerm term = factory.parseFromString("Foo(\"\u00e9\u20ac\", [1]{A})");
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        new TAFTermReader(factory).unparseToFile(term, output);
+        assertArrayEquals(term.toString().getBytes(UTF_8), output.toByteArray());
+    }
+
+    private void assertWritesLikeToString(String text) throws Exception {
+        assertWritesLikeToString(factory.parseFromString(text));
+    }
+
+    private static void assertWritesLikeToString(IStrategoTerm term) throws IOException {
+        byte[] expected = term.toString().getBytes(UTF_8);
+        assertArrayEquals(expected, new TAFTermWriter().toByteArray(term));
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        new TAFTermWriter().write(term, output);
+        assertArrayEquals(expected, output.toByteArray());
+    }
+}
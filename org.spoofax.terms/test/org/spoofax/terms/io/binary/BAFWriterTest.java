@@ -0,0 +1,106 @@
+package org.spoofax.terms.io.binary;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+import org.spoofax.interpreter.terms.IStrategoList;
+import org.spoofax.interpreter.terms.IStrategoTerm;
+import org.spoofax.interpreter.terms.ITermFactory;
+import org.spoofax.terms.ParseError;
+import org.spoofax.terms.TermFactory;
+
+public class BAFWriterTest {
+
+    private final ITermFactory factory = new TermFactory();
+
+    @Test
+    public void roundTripAllTermTypes() throws Exception {
+        assertRoundTrip("Foo(1, -2.5, \"s\", [], (), Bar, Baz())");
+        assertRoundTrip("[Cons(1, Nil), (1, (2, (3, [4, [5]]))), \"\"]");
+        assertRoundTrip("(2147483647, -2147483648, 0, 1.0E-10, -0.0)");
+    }
+
+    @Test
+    public void roundTripEscapedStrings() throws Exception {
+        assertRoundTrip("[\"a\\\"b\", \"back\\\\slash\", \"line\\nbreak\\ttab\"]");
+    }
+
+    @Test
+    public void roundTripAnnotations() throws Exception {
+        IStrategoTerm term = assertRoundTrip(
+                "Foo(1{A}, [2, 3]{B, \"c\"}, (4){T(5)}, \"s\"{S}, Bar{Baz{Qux}})");
+        assertEquals(factory.parseFromString("[A]"), term.getSubterm(0).getAnnotations());
+        assertEquals(factory.parseFromString("[B, \"c\"]"), term.getSubterm(1).getAnnotations());
+        assertEquals(factory.parseFromString("[Baz{Qux}]"), term.getSubterm(4).getAnnotations());
+        assertEquals(factory.parseFromString("[Qux]"), term.getSubterm(4).getAnnotations().head().getAnnotations());
+    }
+
+    @Test
+    public void sharedSubtermsAreWrittenOnce() throws Exception {
+        IStrategoTerm[] elements = new IStrategoTerm[200];
+        IStrategoTerm[] distinctElements = new IStrategoTerm[elements.length];
+        for (int i = 0; i < elements.length; i++) {
+            elements[i] = factory.parseFromString("Def(URI(Lang, [ID(\"Class\", \"java\"), ID(\"Class\", \"String\")]))");
+            distinctElements[i] = factory.parseFromString("Def(URI(Lang, [ID(\"Class\", \"java\"), ID(\"Class\", \"String" + i + "\")]))");
+        }
+        IStrategoList list = factory.makeList(elements);
+
+        byte[] shared = write(list);
+        byte[] distinct = write(factory.makeList(distinctElements));
+        assertTrue("Subterms are not shared: " + shared.length + " bytes, " + distinct.length + " bytes if distinct",
+                shared.length * 4 < distinct.length);
+
+        IStrategoTerm result = read(shared);
+        assertEquals(list, result);
+        assertSame(result.getSubterm(0), result.getSubterm(elements.length - 1));
+    }
+
+    @Test
+    public void annotatedSubtermsAreNotShared() throws Exception {
+        IStrategoTerm result = assertRoundTrip("[F(1), F(1){A}, F(1){B}, F(1){A}]");
+        assertTrue(result.getSubterm(0).getAnnotations().isEmpty());
+        assertEquals(factory.parseFromString("[A]"), result.getSubterm(1).getAnnotations());
+        assertEquals(factory.parseFromString("[B]"), result.getSubterm(2).getAnnotations());
+        assertSame(result.getSubterm(1), result.getSubterm(3));
+    }
+
+    @Test
+    public void writerCanBeReused() throws Exception {
+        IStrategoTerm term = factory.parseFromString("Foo([1, 2], (\"a\", Bar{Baz}))");
+        BAFWriter writer = new BAFWriter(term);
+        ByteArrayOutputStream first = new ByteArrayOutputStream();
+        ByteArrayOutputStream second = new ByteArrayOutputStream();
+        writer.write(first);
+        writer.write(second);
+        assertArrayEquals(first.toByteArray(), second.toByteArray());
+    }
+
+    @Test
+    public void termReaderDetectsBAF() throws Exception {
+        IStrategoTerm term = factory.parseFromString("Foo([1, 2]{A}, \"b\")");
+        IStrategoTerm result = new TermReader(factory).parseFromStream(new ByteArrayInputStream(write(term)));
+        assertEquals(term, result);
+    }
+
+    private IStrategoTerm assertRoundTrip(String text) throws IOException, ParseError {
+        IStrategoTerm term = factory.parseFromString(text);
+        IStrategoTerm result = read(write(term));
+        assertEquals(term, result);
+        assertEquals(term.toString(), result.toString());
+        return result;
+    }
+
+    private static byte[] write(IStrategoTerm term) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        BAFWriter.writeTermToBAFStream(term, output);
+        return output.toByteArray();
+    }
+
+    private IStrategoTerm read(byte[] bytes) throws IOException, ParseError {
+        return new BAFReader(factory, new ByteArrayInputStream(bytes)).readFromBinaryFile(false);
+    }
+}
@@ -0,0 +1,123 @@
+package org.spoofax.terms.io.binary;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.spoofax.interpreter.terms.IStrategoTerm;
+import org.spoofax.interpreter.terms.ITermFactory;
+import org.spoofax.terms.TermFactory;
+
+public class SAFReaderTest {
+
+    private final ITermFactory factory = new TermFactory();
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("SAFReaderTest", ".saf");
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void readMappedFile() throws Exception {
+        IStrategoTerm term = factory.parseFromString("Foo([1, 2.5, \"s\"]{A}, (Bar, Baz(\"t\")))");
+        SAFWriter.writeTermToSAFFile(term, file);
+        assertEquals(term, SAFReader.readTermFromSAFFile(factory, file));
+    }
+
+    @Test
+    public void readMappedFileOfManyBlocks() throws Exception {
+        IStrategoTerm term = makeLargeTerm();
+        SAFWriter.writeTermToSAFFile(term, file);
+        assertTrue(file.length() > 4 * 65536);
+        assertEquals(term, SAFReader.readTermFromSAFFile(factory, file));
+    }
+
+    @Test
+    public void readChannelFromItsPosition() throws Exception {
+        IStrategoTerm term = makeLargeTerm();
+        byte[] prefix = new byte[] { 1, 2, 3 };
+        FileOutputStream output = new FileOutputStream(file);
+        try {
+            output.write(prefix);
+            SAFWriter.writeTermToSAFStream(term, output);
+        } finally {
+            output.close();
+        }
+
+        FileInputStream input = new FileInputStream(file);
+        try {
+            FileChannel channel = input.getChannel();
+            channel.position(prefix.length);
+            assertEquals(term, SAFReader.readTermFromSAFChannel(factory, channel));
+            assertEquals(file.length(), channel.position());
+        } finally {
+            input.close();
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void readTruncatedFile() throws Exception {
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        SAFWriter.writeTermToSAFStream(makeLargeTerm(), data);
+        FileOutputStream output = new FileOutputStream(file);
+        try {
+            output.write(Arrays.copyOf(data.toByteArray(), data.size() - 100));
+        } finally {
+            output.close();
+        }
+        SAFReader.readTermFromSAFFile(factory, file);
+    }
+
+    @Test(expected = IOException.class)
+    public void readOtherFile() throws Exception {
+        FileOutputStream output = new FileOutputStream(file);
+        try {
+            output.write("Foo(1)".getBytes("UTF-8"));
+        } finally {
+            output.close();
+        }
+        SAFReader.readTermFromSAFFile(factory, file);
+    }
+
+    @Test
+    public void termReaderMapsBinaryFiles() throws Exception {
+        IStrategoTerm term = makeLargeTerm();
+
+        SAFWriter.writeTermToSAFFile(term, file);
+        assertEquals(term, new TermReader(factory).parseFromStream(new FileInputStream(file)));
+
+        SegmentedSAFWriter.writeTermToSAFFile(term, file);
+        assertEquals(term, new TermReader(factory).parseFromStream(new FileInputStream(file)));
+
+        BAFWriter.writeTermToBAFFile(term, file);
+        assertEquals(term, new TermReader(factory).parseFromStream(new FileInputStream(file)));
+    }
+
+    /**
+     * Makes a list term whose SAF encoding takes several blocks.
+     */
+    private IStrategoTerm makeLargeTerm() {
+        IStrategoTerm[] elements = new IStrategoTerm[20000];
+        for (int i = 0; i < elements.length; i++) {
+            elements[i] = factory.makeTuple(factory.makeString("element" + i), factory.makeInt(i),
+                    factory.makeList(factory.makeReal(i + 0.5)));
+        }
+        return factory.makeList(elements);
+    }
+}
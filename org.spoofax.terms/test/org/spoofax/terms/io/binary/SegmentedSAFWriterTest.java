@@ -0,0 +1,118 @@
+package org.spoofax.terms.io.binary;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+import org.spoofax.interpreter.terms.IStrategoTerm;
+import org.spoofax.interpreter.terms.ITermFactory;
+import org.spoofax.terms.TermFactory;
+
+public class SegmentedSAFWriterTest {
+
+    private static final int NUM_SEGMENTS = 10;
+
+    private static final int NUM_ELEMENTS = 3000;
+
+    private final ITermFactory factory = new TermFactory();
+
+    @Test
+    public void writeSegmentsAsTheyAreProduced() throws Exception {
+        final Thread caller = Thread.currentThread();
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        final List<IStrategoTerm> expected = new ArrayList<IStrategoTerm>();
+        List<SegmentedSAFWriter.Segment> segments = new ArrayList<SegmentedSAFWriter.Segment>();
+        for (int i = 0; i < NUM_SEGMENTS; i++) {
+            final int segment = i;
+            segments.add(new SegmentedSAFWriter.Segment() {
+                public int size() {
+                    return NUM_ELEMENTS;
+                }
+
+                public void writeElements(StreamingSAFWriter writer) throws IOException {
+                    assertSame(caller, Thread.currentThread());
+                    // The preceding segments have been written to the stream, rather than held in memory
+                    assertTrue(output.size() > 1 + segment * 4 * NUM_ELEMENTS);
+                    for (int j = 0; j < NUM_ELEMENTS; j++) {
+                        IStrategoTerm element = makeElement(segment, j);
+                        writer.write(element);
+                        expected.add(element);
+                    }
+                }
+            });
+        }
+        SegmentedSAFWriter.writeSegmentsToSAFStream(segments, output);
+        byte[] bytes = output.toByteArray();
+        assertEquals(SegmentedSAFWriter.TOKEN, bytes[0]);
+
+        IStrategoTerm list = factory.makeList(expected);
+        assertEquals(list, readTerm(bytes));
+        assertEquals(expected, readElements(bytes));
+    }
+
+    @Test
+    public void writeEmptyList() throws Exception {
+        List<SegmentedSAFWriter.Segment> segments = Collections.emptyList();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        SegmentedSAFWriter.writeSegmentsToSAFStream(segments, output);
+
+        assertEquals(factory.makeList(), readTerm(output.toByteArray()));
+        assertTrue(readElements(output.toByteArray()).isEmpty());
+    }
+
+    @Test
+    public void writeListInParallel() throws Exception {
+        IStrategoTerm[] elements = new IStrategoTerm[NUM_ELEMENTS];
+        for (int i = 0; i < elements.length; i++) {
+            elements[i] = makeElement(i % NUM_SEGMENTS, i);
+        }
+        IStrategoTerm list = factory.makeList(elements);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        SegmentedSAFWriter.writeTermToSAFStream(list, output);
+
+        assertEquals(list, readTerm(output.toByteArray()));
+        assertEquals(Arrays.asList(elements), readElements(output.toByteArray()));
+    }
+
+    @Test(expected = IOException.class)
+    public void readTruncatedContainer() throws Exception {
+        IStrategoTerm list = factory.parseFromString("[Foo(1), Bar(\"s\"), [2.5]]");
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        SegmentedSAFWriter.writeTermToSAFStream(list, output);
+
+        byte[] bytes = output.toByteArray();
+        readTerm(Arrays.copyOf(bytes, bytes.length - 5));
+    }
+
+    private IStrategoTerm makeElement(int segment, int i) {
+        return factory.makeAppl(factory.makeConstructor("Element", 2), factory.makeString("segment" + segment),
+                factory.makeList(factory.makeInt(i)));
+    }
+
+    private IStrategoTerm readTerm(byte[] bytes) throws IOException {
+        return new TermReader(factory).parseFromStream(new ByteArrayInputStream(bytes));
+    }
+
+    private List<IStrategoTerm> readElements(byte[] bytes) throws IOException {
+        BufferedInputStream input = new BufferedInputStream(new ByteArrayInputStream(bytes));
+        assertTrue(SAFElementReader.isSupported(input));
+        SAFElementReader reader = new SAFElementReader(factory, input);
+        try {
+            List<IStrategoTerm> results = new ArrayList<IStrategoTerm>();
+            while (reader.hasNext()) {
+                results.add(reader.next());
+            }
+            return results;
+        } finally {
+            reader.close();
+        }
+    }
+}
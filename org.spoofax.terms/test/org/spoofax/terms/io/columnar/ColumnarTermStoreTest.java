@@ -0,0 +1,92 @@
+package org.spoofax.terms.io.columnar;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+import org.spoofax.interpreter.terms.IStrategoConstructor;
+import org.spoofax.interpreter.terms.IStrategoList;
+import org.spoofax.interpreter.terms.IStrategoTerm;
+import org.spoofax.interpreter.terms.ITermFactory;
+import org.spoofax.terms.TermFactory;
+
+public class ColumnarTermStoreTest {
+
+	private final ITermFactory factory = new TermFactory();
+
+	@Test
+	public void storedTermsEqualTheOriginal() throws Exception {
+		assertStored(factory.parseFromString("Foo(1, -2.5, \"s\", [], (), Bar, Baz())"));
+		assertStored(factory.parseFromString("[Cons(1, Nil), (1, (2, (3, [4, [5]]))), \"\", \"é中\"]"));
+		assertStored(factory.parseFromString("Foo(1{A}, [2, 3]{B, \"c\"}, (4){T(5)}, \"s\"{S}, Bar{Baz{Qux}}){Top}"));
+	}
+
+	@Test
+	public void storedListsSupportListOperations() throws Exception {
+		IStrategoList list = (IStrategoList) store(factory.parseFromString("[1, \"two\", Three(), [4]]"));
+		assertEquals(4, list.size());
+		assertEquals(factory.makeInt(1), list.head());
+		assertEquals(factory.parseFromString("[\"two\", Three(), [4]]"), list.tail());
+		assertEquals(factory.parseFromString("[4]"), list.getSubterm(3));
+		assertTrue(list.tail().tail().tail().tail().isEmpty());
+	}
+
+	@Test
+	public void storedTermsCanBeFoundInHashSets() throws Exception {
+		IStrategoTerm term = factory.parseFromString("Foo([1, 2], (\"a\", Bar))");
+		Set<IStrategoTerm> set = new HashSet<IStrategoTerm>();
+		set.add(term);
+		assertTrue(set.contains(store(term)));
+		assertFalse(set.contains(store(term).getSubterm(0)));
+		set.add(store(term).getSubterm(0));
+		assertTrue(set.contains(term.getSubterm(0)));
+	}
+
+	@Test
+	public void sharedSubtermsAreEncodedOnce() throws Exception {
+		IStrategoConstructor foo = factory.makeConstructor("Foo", 3);
+		IStrategoTerm shared = factory.parseFromString("Bar(\"a\", [1, 2, 3])");
+		IStrategoTerm term = factory.makeAppl(foo, shared, shared, shared);
+		ColumnarTermStore store = new ColumnarTermStore(ColumnarTermWriter.encode(term));
+		ColumnarTermStore single = new ColumnarTermStore(ColumnarTermWriter.encode(
+				factory.makeAppl(factory.makeConstructor("Foo", 1), shared)));
+		assertEquals(single.getNodeCount(), store.getNodeCount());
+		assertEquals(term, store.getRoot());
+	}
+
+	@Test
+	public void storesCanBeMapped() throws Exception {
+		IStrategoTerm term = factory.parseFromString("[Foo(1, \"a\"), (2.5, [Bar{Baz}]), \"é中\"]");
+		File file = File.createTempFile("columnar", ".bin");
+		try {
+			ColumnarTermWriter.write(term, file);
+			IStrategoTerm root = ColumnarTermStore.map(file).getRoot();
+			assertEquals(term, root);
+			assertEquals(term.hashCode(), root.hashCode());
+		} finally {
+			file.delete();
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void otherEncodingsAreRejected() {
+		new ColumnarTermStore(ByteBuffer.wrap(new byte[64]));
+	}
+
+	private void assertStored(IStrategoTerm term) {
+		IStrategoTerm stored = store(term);
+		assertEquals(term.hashCode(), stored.hashCode());
+		assertTrue(term.match(stored));
+		assertTrue(stored.match(term));
+		assertEquals(term.toString(), stored.toString());
+		assertEquals(term.getAnnotations(), stored.getAnnotations());
+	}
+
+	private static IStrategoTerm store(IStrategoTerm term) {
+		return new ColumnarTermStore(ColumnarTermWriter.encode(term)).getRoot();
+	}
+}